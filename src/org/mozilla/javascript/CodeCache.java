@@ -0,0 +1,441 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent cache of compiled scripts, kept as files in a local
+ * directory.
+ * <p>
+ * When a {@link ContextFactory} has a code cache, compiling a script first
+ * looks for a file named after a hash of the source text, the source name
+ * and line number, the engine version and every compiler setting that
+ * affects the generated code. On a hit the parser and compiler are skipped
+ * entirely: the generated class bytes are defined directly, or for
+ * interpreted mode the interpreter bytecode is deserialized. On a miss the
+ * script is compiled as usual and the result written to the cache.
+ * <p>
+ * Files are read whole and written to a temporary file that is then
+ * renamed into place, so several processes may share one directory. Unreadable or stale files are treated as misses. Scripts
+ * compiled with a debugger, with a security domain, or by eval are never
+ * cached.
+ * <p>
+ * Files of the cache are loaded as code without further checks, so only
+ * directories that no less trusted user can write to may be used.
+ * <p>
+ * The engine is identified by a hash of the jar file or class directory it
+ * was loaded from, computed once per process, so that files written by any
+ * other build are misses. If that location cannot be read, the release
+ * version from the manifest is used instead, and without either the cache
+ * directory must be cleared by hand when the engine changes.
+ *
+ * @see ContextFactory#setCodeCache(CodeCache)
+ */
+public final class CodeCache
+{
+    private static final int MAGIC = 0x52484343; // "RHCC"
+    // Raised whenever the stored form changes, such as the icode layout
+    private static final int FORMAT_VERSION = 2;
+
+    private static final byte KIND_CLASS = 0;
+    private static final byte KIND_INTERPRETED = 1;
+
+    private static final String SUFFIX = ".rcc";
+
+    private static volatile String engineVersion;
+    private static final ConcurrentHashMap<Long, String> descriptions =
+        new ConcurrentHashMap<Long, String>();
+
+    private final Path directory;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Create a cache that keeps its files in the given directory, which is
+     * created if necessary.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public CodeCache(File directory)
+        throws IOException
+    {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    public File getDirectory()
+    {
+        return directory.toFile();
+    }
+
+    /**
+     * Return the number of compilations that were satisfied from the cache.
+     */
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    /**
+     * Return the number of cacheable compilations that found no usable file.
+     */
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    /**
+     * Delete all files of this cache.
+     *
+     * @throws IOException if the directory cannot be listed
+     */
+    public void clear()
+        throws IOException
+    {
+        File[] files = directory.toFile().listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Describe everything other than the source that the compiled code
+     * depends on. The description is stored in each file and checked on load.
+     * A tierThreshold above 0 means the script is interpreted first and its
+     * hot functions compiled at the optimization level of env.
+     */
+    static String describe(Context cx, CompilerEnvirons env, int tierThreshold,
+                           boolean returnFunction, boolean defaultStrict)
+    {
+        int opt = env.getOptimizationLevel();
+        String tier = tierThreshold > 0 ? ";tier=" + tierThreshold : "";
+        Set<String> activationNames = env.getActivationNames();
+        if (activationNames != null) {
+            return buildDescription(cx, env, opt, returnFunction, defaultStrict)
+                + tier + ";activation=" + new TreeSet<String>(activationNames);
+        }
+        // Every other input is a small number or a flag, so pack them into
+        // a key under which the description is built once per process
+        long settings = ((long)env.getLanguageVersion() << 32)
+            | ((opt & 0xFFL) << 16)
+            | flag(env.isGenerateDebugInfo(), 0)
+            | flag(env.isGeneratingSource(), 1)
+            | flag(env.isReservedKeywordAsIdentifier(), 2)
+            | flag(env.isAllowMemberExprAsFunctionName(), 3)
+            | flag(env.isXmlAvailable(), 4)
+            | flag(env.isStrictMode(), 5)
+            | flag(env.reportWarningAsError(), 6)
+            | flag(env.isGenerateObserverCount(), 7)
+            | flag(env.isDynamicLinkage(), 8)
+            | flag(env.getAllowSharpComments(), 9)
+            | flag(returnFunction, 10)
+            | flag(defaultStrict, 11);
+        Long key = Long.valueOf(settings);
+        String description = descriptions.get(key);
+        if (description == null) {
+            description = buildDescription(cx, env, opt, returnFunction,
+                                           defaultStrict);
+            descriptions.putIfAbsent(key, description);
+        }
+        return description + tier;
+    }
+
+    private static long flag(boolean value, int bit)
+    {
+        return value ? 1L << bit : 0L;
+    }
+
+    private static String buildDescription(Context cx, CompilerEnvirons env,
+                                           int opt, boolean returnFunction,
+                                           boolean defaultStrict)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getEngineVersion(cx));
+        sb.append(";lang=").append(env.getLanguageVersion());
+        sb.append(";opt=").append(opt);
+        sb.append(";debug=").append(env.isGenerateDebugInfo());
+        sb.append(";source=").append(env.isGeneratingSource());
+        sb.append(";reservedAsId=").append(env.isReservedKeywordAsIdentifier());
+        sb.append(";memberAsName=").append(env.isAllowMemberExprAsFunctionName());
+        sb.append(";xml=").append(env.isXmlAvailable());
+        sb.append(";strict=").append(env.isStrictMode());
+        sb.append(";warnAsError=").append(env.reportWarningAsError());
+        sb.append(";observer=").append(env.isGenerateObserverCount());
+        sb.append(";indy=").append(env.isDynamicLinkage());
+        sb.append(";sharp=").append(env.getAllowSharpComments());
+        sb.append(";function=").append(returnFunction);
+        sb.append(";useStrict=").append(defaultStrict);
+        return sb.toString();
+    }
+
+    /**
+     * Return what identifies the engine classes, computed on first use.
+     */
+    private static String getEngineVersion(Context cx)
+    {
+        String version = engineVersion;
+        if (version == null) {
+            version = hashEngineClasses();
+            if (version == null) {
+                version = String.valueOf(cx.getImplementationVersion());
+            }
+            engineVersion = version;
+        }
+        return version;
+    }
+
+    private static String hashEngineClasses()
+    {
+        try {
+            CodeSource source = CodeCache.class.getProtectionDomain()
+                .getCodeSource();
+            URL location = (source == null) ? null : source.getLocation();
+            if (location == null || !"file".equals(location.getProtocol())) {
+                return null;
+            }
+            MessageDigest md = newDigest();
+            File root = new File(location.toURI());
+            if (root.isDirectory()) {
+                hashClassFiles(md, new File(root, "org/mozilla/javascript"), "");
+            } else {
+                md.update(Files.readAllBytes(root.toPath()));
+            }
+            return "sha256:" + toHex(md.digest());
+        } catch (IOException ex) {
+            return null;
+        } catch (URISyntaxException ex) {
+            return null;
+        } catch (SecurityException ex) {
+            return null;
+        }
+    }
+
+    private static void hashClassFiles(MessageDigest md, File dir, String prefix)
+        throws IOException
+    {
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                hashClassFiles(md, file, prefix + name + '/');
+            } else if (name.endsWith(".class")) {
+                md.update((prefix + name).getBytes(StandardCharsets.UTF_8));
+                md.update(Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the cache key for a script, which is also its file name.
+     */
+    static String getKey(String description, String source,
+                         String sourceName, int lineno)
+    {
+        MessageDigest md = newDigest();
+        md.update(description.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(sourceName.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(Integer.toString(lineno).getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(source.getBytes(StandardCharsets.UTF_8));
+        return toHex(md.digest()) + SUFFIX;
+    }
+
+    /**
+     * Return the compiled form stored under key, either the name and bytes
+     * of a generated class as returned by Codegen, or an InterpreterData.
+     * Return null if there is no usable entry.
+     */
+    Object load(String key, String description)
+    {
+        Object bytecode = null;
+        try {
+            byte[] bytes = Files.readAllBytes(directory.resolve(key));
+            bytecode = read(new DataInputStream(new ByteArrayInputStream(bytes)),
+                            description);
+        } catch (NoSuchFileException ex) {
+            // Plain miss
+        } catch (IOException ex) {
+            // Truncated or otherwise damaged entry; it will be rewritten
+        } catch (ClassNotFoundException ex) {
+            // Written by an incompatible engine
+        } catch (RuntimeException ex) {
+            // Likewise
+        }
+        if (bytecode != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+        return bytecode;
+    }
+
+    private static Object read(DataInputStream in, String description)
+        throws IOException, ClassNotFoundException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+            || !description.equals(in.readUTF()))
+        {
+            return null;
+        }
+        byte kind = in.readByte();
+        if (kind == KIND_CLASS) {
+            String className = in.readUTF();
+            byte[] classBytes = new byte[in.readInt()];
+            in.readFully(classBytes);
+            return new Object[] { className, classBytes };
+        } else if (kind == KIND_INTERPRETED) {
+            return new RhinoObjectInputStream(in).readObject();
+        }
+        return null;
+    }
+
+    /**
+     * Store the result of a compilation under key. Failures to write are
+     * ignored, as the cache is only an optimization.
+     */
+    void store(String key, String description, Object bytecode)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(description);
+            if (bytecode instanceof InterpreterData) {
+                out.writeByte(KIND_INTERPRETED);
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(bytecode);
+                oos.flush();
+            } else {
+                Object[] nameBytesPair = (Object[])bytecode;
+                byte[] classBytes = (byte[])nameBytesPair[1];
+                out.writeByte(KIND_CLASS);
+                out.writeUTF((String)nameBytesPair[0]);
+                out.writeInt(classBytes.length);
+                out.write(classBytes);
+            }
+            out.flush();
+
+            Path tmp = Files.createTempFile(directory, "tmp", null);
+            try {
+                Files.write(tmp, bytes.toByteArray());
+                moveIntoPlace(tmp, directory.resolve(key));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException ex) {
+            // Read-only or full disk; keep going without the cache
+        }
+    }
+
+    private static void moveIntoPlace(Path tmp, Path target)
+        throws IOException
+    {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Only deserializes classes of the engine and java.lang, which is all
+     * that interpreter bytecode is made of. This is no defense against a
+     * planted file: a compiled class entry is defined as it is read, so the
+     * cache directory must be as trusted as the class path.
+     */
+    private static final class RhinoObjectInputStream extends ObjectInputStream
+    {
+        RhinoObjectInputStream(InputStream in)
+            throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException
+        {
+            String name = desc.getName();
+            int dims = 0;
+            while (dims < name.length() && name.charAt(dims) == '[') {
+                ++dims;
+            }
+            if (dims > 0 && name.length() == dims + 1) {
+                // Array of a primitive type
+                return super.resolveClass(desc);
+            }
+            String elementName = (dims == 0) ? name
+                : name.substring(dims + 1, name.length() - 1);
+            if (!elementName.startsWith("org.mozilla.javascript.")
+                && !elementName.startsWith("java.lang."))
+            {
+                throw new ClassNotFoundException(name);
+            }
+            return Class.forName(name, false, CodeCache.class.getClassLoader());
+        }
+    }
+}
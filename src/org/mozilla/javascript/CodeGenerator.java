@@ -633,6 +633,11 @@ class CodeGenerator extends Icode {
             break;
 
           case Token.GETPROP:
+            visitExpression(child, 0);
+            child = child.getNext();
+            addPropertyCacheOp(type, child.getString());
+            break;
+
           case Token.GETPROPNOWARN:
             visitExpression(child, 0);
             child = child.getNext();
@@ -713,12 +718,12 @@ class CodeGenerator extends Icode {
                 if (type == Token.SETPROP_OP) {
                     addIcode(Icode_DUP);
                     stackChange(1);
-                    addStringOp(Token.GETPROP, property);
+                    addPropertyCacheOp(Token.GETPROP, property);
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
-                addStringOp(Token.SETPROP, property);
+                addPropertyCacheOp(Token.SETPROP, property);
                 stackChange(-1);
             }
             break;
@@ -994,7 +999,7 @@ class CodeGenerator extends Icode {
             if (type == Token.GETPROP) {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
-                addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyCacheOp(Icode_PROP_AND_THIS, property);
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1359,6 +1364,22 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Add a property instruction followed by the index of its PropertyCache.
+     * Instructions past the range of the index get no cache.
+     */
+    private void addPropertyCacheOp(int op, String property)
+    {
+        addStringOp(op, property);
+        int index = itsData.itsPropertyCacheCount;
+        if (index < InterpreterData.NO_PROPERTY_CACHE) {
+            itsData.itsPropertyCacheCount = index + 1;
+        } else {
+            index = InterpreterData.NO_PROPERTY_CACHE;
+        }
+        addUint16(index);
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
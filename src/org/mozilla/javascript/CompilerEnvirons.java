@@ -26,6 +26,7 @@ public class CompilerEnvirons
         warningAsError = false;
         generateObserverCount = false;
         allowSharpComments = false;
+        dynamicLinkage = false;
     }
 
     public void initFromContext(Context cx)
@@ -51,6 +52,8 @@ public class CompilerEnvirons
 
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        dynamicLinkage = cx.hasFeature(Context.FEATURE_DYNAMIC_LINKAGE);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -195,6 +198,25 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    /**
+     * @return true iff the optimizer links dynamic operations through
+     * invokedynamic call sites
+     * @see Context#FEATURE_DYNAMIC_LINKAGE
+     */
+    public boolean isDynamicLinkage() {
+        return dynamicLinkage;
+    }
+
+    /**
+     * Turn on or off the generation of invokedynamic instructions for
+     * property access and generic addition in compiled code.
+     * Has no effect in interpreted mode.
+     * @see Context#FEATURE_DYNAMIC_LINKAGE
+     */
+    public void setDynamicLinkage(boolean dynamicLinkage) {
+        this.dynamicLinkage = dynamicLinkage;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -285,6 +307,7 @@ public class CompilerEnvirons
     private boolean strictMode;
     private boolean warningAsError;
     private boolean generateObserverCount;
+    private boolean dynamicLinkage;
     private boolean recordingComments;
     private boolean recordingLocalJsDocComments;
     private boolean recoverFromErrors;
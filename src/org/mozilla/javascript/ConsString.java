@@ -7,7 +7,10 @@
 package org.mozilla.javascript;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 
 /**
  * <p>This class represents a string composed of two components, each of which
@@ -19,6 +22,19 @@ import java.util.ArrayDeque;
  * converts them to a String if either toString() is called or a certain depth
  * level is reached.</p>
  *
+ * <p>Appending to a ConsString, as <code>s += x</code> does in a loop, copies
+ * its characters once into an array of its own with room to spare, which the
+ * appended string then fills. Appending to the result again fills more room,
+ * so that the strings of a chain of appends share one array, as a
+ * StringBuilder would, and need not be flattened for charAt() or
+ * subSequence(). Only the last string of such a chain appends in place;
+ * appending to an earlier one keeps references as above. While all
+ * characters fit in Latin-1 the array holds one byte per character, and
+ * toString() keeps those bytes as the lasting form of the string, holding
+ * the String made from them only weakly. charAt(), subSequence() and
+ * indexOf() work on the bytes directly. Concatenations of two short Strings
+ * are done right away.</p>
+ *
  * <p>Note that instances of this class are only immutable if both parts are
  * immutable, i.e. either Strings or ConsStrings that are ultimately composed
  * of Strings.</p>
@@ -29,17 +45,252 @@ public class ConsString implements CharSequence, Serializable {
 
     private static final long serialVersionUID = -8432806714471372570L;
 
+    // Strings up to this length are concatenated right away
+    private static final int SHORT_LENGTH = 32;
+
     private CharSequence left, right;
     private final int length;
     private boolean isFlat;
 
+    // For a string made by appending, its characters are the first length
+    // elements of one of these arrays: latin1 if they all fit in a byte,
+    // which halves the memory used, chars otherwise. Longer strings appended
+    // from it may share the array. flatten() clears chars and appendBuffer,
+    // and trims latin1 to length.
+    private transient byte[] latin1;
+    private transient char[] chars;
+    private transient AppendBuffer appendBuffer;
+
+    // The String made of latin1 by flatten(), while anything else needs it
+    private transient WeakReference<String> flatLatin1;
+
+    /**
+     * The array shared by a chain of appends, and how much of it is used.
+     * Only the string whose length equals used may append in place.
+     */
+    private static final class AppendBuffer {
+        byte[] latin1;
+        char[] chars;
+        int used;
+    }
+
     public ConsString(CharSequence str1, CharSequence str2) {
-        left = str1;
-        right = str2;
-        length = left.length() + right.length();
+        length = str1.length() + str2.length();
+        if (str1 instanceof ConsString
+            && (((ConsString)str1).isBuffered() || !((ConsString)str1).isFlat)) {
+            append((ConsString)str1, str2);
+        } else if (length <= SHORT_LENGTH && str1 instanceof String
+                   && str2 instanceof String) {
+            left = ((String)str1).concat((String)str2);
+            right = "";
+            isFlat = true;
+        } else {
+            left = str1;
+            right = str2;
+            isFlat = false;
+        }
+    }
+
+    private boolean isBuffered() {
+        return latin1 != null || chars != null;
+    }
+
+    private void append(ConsString prefix, CharSequence suffix) {
+        // Get hold of the suffix first, so that no buffer is locked while
+        // another one is
+        byte[] suffixLatin1 = null;
+        char[] suffixChars = null;
+        String suffixString = null;
+        if (suffix instanceof ConsString) {
+            suffixLatin1 = ((ConsString)suffix).latin1;
+            suffixChars = ((ConsString)suffix).chars;
+        }
+        if (suffixLatin1 == null && suffixChars == null) {
+            suffixString = suffix.toString();
+        }
+        boolean suffixIsLatin1 = suffixLatin1 != null
+            || (suffixString != null && isLatin1(suffixString));
+        int prefixLength = prefix.length;
+
+        AppendBuffer buffer = prefix.appendBuffer;
+        if (buffer == null) {
+            buffer = prefix.startBuffer();
+        }
+        if (buffer != null) {
+            synchronized (buffer) {
+                if (buffer.used == prefixLength) {
+                    if (buffer.latin1 != null && suffixIsLatin1) {
+                        if (buffer.latin1.length < length) {
+                            buffer.latin1 = Arrays.copyOf(buffer.latin1,
+                                Math.max(length, buffer.latin1.length * 2));
+                        }
+                        copySuffix(suffixLatin1, suffixString, buffer.latin1,
+                                   prefixLength);
+                        latin1 = buffer.latin1;
+                    } else {
+                        if (buffer.latin1 != null) {
+                            buffer.chars = inflate(buffer.latin1, prefixLength,
+                                Math.max(length, buffer.latin1.length));
+                            buffer.latin1 = null;
+                        } else if (buffer.chars.length < length) {
+                            buffer.chars = Arrays.copyOf(buffer.chars,
+                                Math.max(length, buffer.chars.length * 2));
+                        }
+                        copySuffix(suffixLatin1, suffixChars, suffixString,
+                                   buffer.chars, prefixLength);
+                        chars = buffer.chars;
+                    }
+                    buffer.used = length;
+                    appendBuffer = buffer;
+                    return;
+                }
+            }
+        }
+        // Something else has been appended to prefix already, or it was
+        // flattened meanwhile. Copying prefix here would make n appends to
+        // one prefix take quadratic time and memory, so only keep references
+        // to the parts.
+        left = prefix;
+        right = suffix;
         isFlat = false;
     }
 
+    /**
+     * Copy the characters of this string, which must not be flat, into an
+     * array with some room to append, so that the first string appended to
+     * it can do so in place and the next ones can refer to it. Return null if
+     * the string has been flattened meanwhile.
+     */
+    private synchronized AppendBuffer startBuffer() {
+        if (appendBuffer != null || isFlat) {
+            return appendBuffer;
+        }
+        int capacity = length + (length >> 2) + SHORT_LENGTH;
+        char[] wide = new char[capacity];
+        getChars(wide, 0);
+        AppendBuffer buffer = new AppendBuffer();
+        if (isLatin1(wide, length)) {
+            byte[] narrow = new byte[capacity];
+            for (int i = 0; i != length; ++i) {
+                narrow[i] = (byte)wide[i];
+            }
+            buffer.latin1 = latin1 = narrow;
+        } else {
+            buffer.chars = chars = wide;
+        }
+        buffer.used = length;
+        appendBuffer = buffer;
+        return buffer;
+    }
+
+    private void copySuffix(byte[] suffixLatin1, String suffixString,
+                            byte[] dest, int destPos) {
+        if (suffixLatin1 != null) {
+            System.arraycopy(suffixLatin1, 0, dest, destPos, length - destPos);
+        } else {
+            for (int i = 0, n = suffixString.length(); i != n; ++i) {
+                dest[destPos + i] = (byte)suffixString.charAt(i);
+            }
+        }
+    }
+
+    private void copySuffix(byte[] suffixLatin1, char[] suffixChars,
+                            String suffixString, char[] dest, int destPos) {
+        if (suffixLatin1 != null) {
+            for (int i = 0, n = length - destPos; i != n; ++i) {
+                dest[destPos + i] = (char)(suffixLatin1[i] & 0xFF);
+            }
+        } else if (suffixChars != null) {
+            System.arraycopy(suffixChars, 0, dest, destPos, length - destPos);
+        } else {
+            suffixString.getChars(0, suffixString.length(), dest, destPos);
+        }
+    }
+
+    private static boolean isLatin1(String str) {
+        for (int i = 0, n = str.length(); i != n; ++i) {
+            if (str.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLatin1(char[] chars, int length) {
+        for (int i = 0; i != length; ++i) {
+            if (chars[i] > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[] inflate(byte[] latin1, int length, int capacity) {
+        char[] chars = new char[capacity];
+        for (int i = 0; i != length; ++i) {
+            chars[i] = (char)(latin1[i] & 0xFF);
+        }
+        return chars;
+    }
+
+    /**
+     * Copy the characters of this string to dest, starting at destPos.
+     */
+    private void getChars(char[] dest, int destPos) {
+        if (isBuffered()) {
+            copyBuffered(this, dest, destPos);
+            return;
+        }
+        if (isFlat) {
+            ((String)left).getChars(0, length, dest, destPos);
+            return;
+        }
+
+        int charPos = destPos + length;
+        ArrayDeque<CharSequence> stack = new ArrayDeque<CharSequence>();
+        stack.addFirst(left);
+
+        CharSequence next = right;
+        do {
+            if (next instanceof ConsString) {
+                ConsString casted = (ConsString) next;
+                if (casted.isBuffered()) {
+                    charPos -= casted.length;
+                    copyBuffered(casted, dest, charPos);
+                    next = stack.isEmpty() ? null : stack.removeFirst();
+                    continue;
+                }
+                if (casted.isFlat) {
+                    next = casted.left;
+                } else {
+                    stack.addFirst(casted.left);
+                    next = casted.right;
+                    continue;
+                }
+            }
+
+            final String str = next.toString();
+            charPos -= str.length();
+            str.getChars(0, str.length(), dest, charPos);
+            next = stack.isEmpty() ? null : stack.removeFirst();
+        } while (next != null);
+    }
+
+    private static void copyBuffered(ConsString str, char[] dest, int destPos) {
+        byte[] latin1 = str.latin1;
+        char[] chars = str.chars;
+        if (latin1 != null) {
+            for (int i = 0; i != str.length; ++i) {
+                dest[destPos + i] = (char)(latin1[i] & 0xFF);
+            }
+        } else if (chars != null) {
+            System.arraycopy(chars, 0, dest, destPos, str.length);
+        } else {
+            // Flattened since the caller looked
+            str.toString().getChars(0, str.length, dest, destPos);
+        }
+    }
+
     // Replace with string representation when serializing
     private Object writeReplace() {
         return this.toString();
@@ -47,43 +298,90 @@ public class ConsString implements CharSequence, Serializable {
     
     @Override
     public String toString() {
-        return isFlat ? (String)left : flatten();
+        if (isFlat) {
+            return (String)left;
+        }
+        WeakReference<String> ref = flatLatin1;
+        String str = (ref == null) ? null : ref.get();
+        return str != null ? str : flatten();
     }
 
     private synchronized String flatten() {
         if (!isFlat) {
-            final char[] chars = new char[length];
-            int charPos = length;
-
-            ArrayDeque<CharSequence> stack = new ArrayDeque<CharSequence>();
-            stack.addFirst(left);
-
-            CharSequence next = right;
-            do {
-                if (next instanceof ConsString) {
-                    ConsString casted = (ConsString) next;
-                    if (casted.isFlat) {
-                        next = casted.left;
-                    } else {
-                        stack.addFirst(casted.left);
-                        next = casted.right;
-                        continue;
-                    }
+            if (latin1 != null) {
+                // Keep the bytes, which take half the memory of a String on
+                // JVMs without compact strings, and make the String again
+                // should it have been collected. Drop the room to append:
+                // appending again starts a new buffer.
+                String str = (flatLatin1 == null) ? null : flatLatin1.get();
+                if (str == null) {
+                    str = new String(latin1, 0, length, StandardCharsets.ISO_8859_1);
+                    flatLatin1 = new WeakReference<String>(str);
                 }
-
-                final String str = (String) next;
-                charPos -= str.length();
-                str.getChars(0, str.length(), chars, charPos);
-                next = stack.isEmpty() ? null : stack.removeFirst();
-            } while (next != null);
-
-            left = new String(chars);
+                if (latin1.length != length) {
+                    latin1 = Arrays.copyOf(latin1, length);
+                }
+                appendBuffer = null;
+                left = null;
+                right = null;
+                return str;
+            }
+            if (chars != null) {
+                left = new String(chars, 0, length);
+            } else {
+                final char[] flat = new char[length];
+                getChars(flat, 0);
+                left = new String(flat);
+            }
             right = "";
             isFlat = true;
+            // The String has its own copy of the characters. Drop the
+            // buffer, which may be larger still, even if this string could
+            // append in place: appending to it again starts a new buffer
+            // with one more copy, which is cheaper than keeping the
+            // characters twice for as long as this string lives.
+            chars = null;
+            appendBuffer = null;
         }
         return (String)left;
     }
 
+    /**
+     * Return the index of the first occurrence of str at or after fromIndex,
+     * as String.indexOf does, without making a String of the bytes of a
+     * Latin-1 string.
+     */
+    int indexOf(String str, int fromIndex) {
+        byte[] bytes = latin1;
+        if (bytes == null) {
+            return toString().indexOf(str, fromIndex);
+        }
+        int n = str.length();
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (n == 0) {
+            return Math.min(fromIndex, length);
+        }
+        char first = str.charAt(0);
+        if (first > 0xFF) {
+            return -1;
+        }
+        for (int i = fromIndex, last = length - n; i <= last; ++i) {
+            if ((bytes[i] & 0xFF) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j != n && (bytes[i + j] & 0xFF) == str.charAt(j)) {
+                ++j;
+            }
+            if (j == n) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public int length() {
         return length;
@@ -91,12 +389,31 @@ public class ConsString implements CharSequence, Serializable {
 
     @Override
     public char charAt(int index) {
+        byte[] bytes = latin1;
+        char[] wide = chars;
+        if (bytes != null || wide != null) {
+            if (index < 0 || index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return bytes != null ? (char)(bytes[index] & 0xFF) : wide[index];
+        }
         String str = isFlat ? (String)left : flatten();
         return str.charAt(index);
     }
 
     @Override
     public CharSequence subSequence(int start, int end) {
+        byte[] bytes = latin1;
+        char[] wide = chars;
+        if (bytes != null || wide != null) {
+            if (start < 0 || end > length || start > end) {
+                throw new StringIndexOutOfBoundsException(
+                    "begin " + start + ", end " + end + ", length " + length);
+            }
+            return bytes != null
+                ? new String(bytes, start, end - start, StandardCharsets.ISO_8859_1)
+                : new String(wide, start, end - start);
+        }
         String str = isFlat ? (String)left : flatten();
         return str.substring(start, end);
     }
@@ -347,6 +347,32 @@ public class Context
      */
     public static final int FEATURE_LITTLE_ENDIAN = 19;
 
+    /**
+     * If set, then code generated by the optimizer links property gets and sets with
+     * constant names, generic addition and calls that are not direct calls between
+     * functions of the same script through "invokedynamic" call sites rather
+     * than static calls into ScriptRuntime and OptRuntime. The call sites re-link
+     * themselves according to the objects, types and callees that they see, which
+     * lets the JVM inline through them. Name lookups, element access, "new" and the
+     * other operators are still compiled to static calls.
+     * Scripts must be compiled while the feature is set for it to take effect.
+     * The default is false.
+     * @since 1.7 Release 11
+     */
+    public static final int FEATURE_DYNAMIC_LINKAGE = 20;
+
+    /**
+     * If set, then regular expressions are always matched by simulating
+     * their automaton, which takes time linear in the length of the input,
+     * instead of by backtracking, which can take exponential time. Executing
+     * a regular expression that needs backtracking, because it contains back
+     * references or lookahead, throws a SyntaxError. If not set, only
+     * regular expressions with nested repetition are matched in linear time.
+     * The default is false.
+     * @since 1.7 Release 11
+     */
+    public static final int FEATURE_LINEAR_REGEXP = 21;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -2090,6 +2116,47 @@ public class Context
         maximumInterpreterStackDepth = max;
     }
 
+    /**
+     * Returns the tiered compilation threshold, or 0 if tiered compilation
+     * is disabled.
+     *
+     * @return the current tiered compilation threshold
+     * @see #setTieredCompilationThreshold(int)
+     */
+    public final int getTieredCompilationThreshold()
+    {
+        return tieredCompilationThreshold;
+    }
+
+    /**
+     * Sets the threshold for tiered compilation.
+     * <p>
+     * When the threshold is positive and the optimization level is not -1,
+     * scripts are first compiled for the interpreter, which is much cheaper
+     * than generating classes. A function that is called or loops often
+     * enough, counting each call and each loop iteration, then has its script
+     * compiled to classes at the current optimization level, and later calls
+     * of the function run the compiled code. This gives fast startup for
+     * scripts that run once and full speed for the ones that are hot.
+     * <p>
+     * Continuations cannot be captured across frames of functions that have
+     * been compiled, so scripts relying on them should use optimization
+     * level -1. Defaults to 0, which disables tiered compilation.
+     *
+     * @param threshold the number of calls and loop iterations after which a
+     *        function is compiled, or 0 to always compile scripts up front
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public final void setTieredCompilationThreshold(int threshold)
+    {
+        if (sealed) onSealedMutation();
+        if (threshold < 0) {
+            throw new IllegalArgumentException(
+                "Cannot set tieredCompilationThreshold to less than 0");
+        }
+        tieredCompilationThreshold = threshold;
+    }
+
     /**
      * Set the security controller for this context.
      * <p> SecurityController may only be set if it is currently null
@@ -2518,31 +2585,83 @@ public class Context
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
 
-        if (debugger != null) {
+        boolean tiered = compiler == null && debugger == null
+                         && tieredCompilationThreshold > 0
+                         && optimizationLevel >= 0 && codegenClass != null;
+        // Scripts given an explicit compiler come from eval and the like
+        CodeCache codeCache = null;
+        ScriptCache scriptCache = null;
+        if (compiler == null && debugger == null && securityDomain == null) {
+            codeCache = getFactory().getCodeCache();
+            if (!returnFunction && getSecurityController() == null) {
+                scriptCache = getFactory().getScriptCache();
+            }
+        }
+        if (debugger != null || tiered || codeCache != null
+            || scriptCache != null)
+        {
             if (sourceReader != null) {
                 sourceString = Kit.readReader(sourceReader);
                 sourceReader = null;
             }
         }
 
-        ScriptNode tree = parse(sourceReader, sourceString, sourceName, lineno,
-                                    compilerEnv, compilationErrorReporter, returnFunction);
-
-        Object bytecode;
-        try {
-            if (compiler == null) {
-                compiler = createCompiler();
+        String cacheDescription = null;
+        if (codeCache != null || scriptCache != null) {
+            cacheDescription = CodeCache.describe(this, compilerEnv,
+                                                  tiered ? tieredCompilationThreshold : 0,
+                                                  returnFunction,
+                                                  isStrictMode());
+        }
+        ScriptCache.Key scriptKey = null;
+        if (scriptCache != null) {
+            scriptKey = new ScriptCache.Key(cacheDescription, sourceName,
+                                            lineno, sourceString);
+            Script script = scriptCache.get(scriptKey);
+            if (script != null) {
+                return script;
             }
+        }
+
+        String cacheKey = null;
+        Object bytecode = null;
+        if (codeCache != null) {
+            cacheKey = CodeCache.getKey(cacheDescription, sourceString,
+                                        sourceName, lineno);
+            bytecode = codeCache.load(cacheKey, cacheDescription);
+        }
+
+        if (bytecode instanceof InterpreterData) {
+            Interpreter interpreter = (Interpreter)createInterpreter();
+            interpreter.itsData = (InterpreterData)bytecode;
+            compiler = interpreter;
+        } else if (bytecode != null) {
+            compiler = createCodegen();
+        } else {
+            ScriptNode tree = parse(sourceReader, sourceString, sourceName, lineno,
+                                        compilerEnv, compilationErrorReporter, returnFunction);
 
-            bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
-        } catch (ClassFileFormatException e) {
-            // we hit some class file limit, fall back to interpreter or report
-            compiler = createInterpreter();
+            try {
+                if (tiered) {
+                    compiler = createInterpreter();
+                } else if (compiler == null) {
+                    compiler = createCompiler();
+                }
+
+                bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+            } catch (ClassFileFormatException e) {
+                // we hit some class file limit, fall back to interpreter or report
+                compiler = createInterpreter();
 
-            // we have to recreate the tree because the compile call might have changed the tree already
-            tree = parse(sourceReader, sourceString, sourceName, lineno,
-                            compilerEnv, compilationErrorReporter, returnFunction);
-            bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+                // we have to recreate the tree because the compile call might have changed the tree already
+                tree = parse(sourceReader, sourceString, sourceName, lineno,
+                                compilerEnv, compilationErrorReporter, returnFunction);
+                bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+            }
+
+            if (codeCache != null) {
+                codeCache.store(cacheKey, cacheDescription, bytecode);
+            }
         }
 
         if (debugger != null) {
@@ -2555,11 +2674,21 @@ public class Context
             }
         }
 
+        if (tiered && bytecode instanceof InterpreterData) {
+            new TieredCompilation(tieredCompilationThreshold, sourceString,
+                                  sourceName, lineno, returnFunction,
+                                  isStrictMode(), compilerEnv, securityDomain)
+                .attach((InterpreterData)bytecode);
+        }
+
         Object result;
         if (returnFunction) {
             result = compiler.createFunctionObject(this, scope, bytecode, securityDomain);
         } else {
             result = compiler.createScriptObject(bytecode, securityDomain);
+            if (scriptCache != null) {
+                scriptCache.put(scriptKey, (Script)result);
+            }
         }
 
         return result;
@@ -2632,6 +2761,11 @@ public class Context
         return (Evaluator)Kit.newInstanceOrNull(interpreterClass);
     }
 
+    static Evaluator createCodegen()
+    {
+        return (Evaluator)Kit.newInstanceOrNull(codegenClass);
+    }
+
     static String getSourcePositionFromStack(int[] linep)
     {
         Context cx = getCurrentContext();
@@ -2770,6 +2904,7 @@ public class Context
     boolean useDynamicScope;
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
+    private int tieredCompilationThreshold;
     private WrapFactory wrapFactory;
     Debugger debugger;
     private Object debuggerData;
@@ -10,6 +10,9 @@ package org.mozilla.javascript;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Factory class that Rhino runtime uses to create new {@link Context}
@@ -118,6 +121,13 @@ public class ContextFactory
     private boolean disabledListening;
     private ClassLoader applicationClassLoader;
 
+    private volatile CodeCache codeCache;
+    private volatile ScriptCache scriptCache;
+    private volatile Executor compilationExecutor;
+    private final AtomicInteger compilationQueueDepth = new AtomicInteger();
+    private final LongAdder compilationCount = new LongAdder();
+    private final LongAdder compilationTime = new LongAdder();
+
     /**
      * Listener of {@link Context} creation and release events.
      */
@@ -298,6 +308,12 @@ public class ContextFactory
 
           case Context.FEATURE_LITTLE_ENDIAN:
               return false;
+
+          case Context.FEATURE_DYNAMIC_LINKAGE:
+              return false;
+
+          case Context.FEATURE_LINEAR_REGEXP:
+              return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -395,6 +411,120 @@ public class ContextFactory
         this.applicationClassLoader = loader;
     }
 
+    /**
+     * Get the persistent cache of compiled scripts, or null if scripts are
+     * always compiled from source.
+     */
+    public final CodeCache getCodeCache()
+    {
+        return codeCache;
+    }
+
+    /**
+     * Set the persistent cache of compiled scripts used by all Contexts of
+     * this factory, or null to stop using one. Its directory must be
+     * trusted, as the files in it are loaded as code.
+     *
+     * @see CodeCache
+     */
+    public final void setCodeCache(CodeCache codeCache)
+    {
+        checkNotSealed();
+        this.codeCache = codeCache;
+    }
+
+    /**
+     * Get the in-memory cache of compiled scripts, or null if every call to
+     * compile a script compiles it anew.
+     */
+    public final ScriptCache getScriptCache()
+    {
+        return scriptCache;
+    }
+
+    /**
+     * Set the in-memory cache of compiled scripts used by all Contexts of
+     * this factory, or null to stop using one.
+     *
+     * @see ScriptCache
+     */
+    public final void setScriptCache(ScriptCache scriptCache)
+    {
+        checkNotSealed();
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Get the executor that compiles hot functions in the background when
+     * tiered compilation is enabled, or null if they are compiled on the
+     * thread that first finds them hot.
+     *
+     * @see Context#setTieredCompilationThreshold(int)
+     */
+    public final Executor getCompilationExecutor()
+    {
+        return compilationExecutor;
+    }
+
+    /**
+     * Set the executor that compiles hot functions in the background.
+     * While a script is waiting for or undergoing compilation, its functions
+     * keep running in the interpreter, and the compiled code is used from the
+     * first call after it is ready. Each task enters its own Context from this
+     * factory. Pass null to compile on the calling thread again.
+     *
+     * @see Context#setTieredCompilationThreshold(int)
+     */
+    public final void setCompilationExecutor(Executor executor)
+    {
+        checkNotSealed();
+        this.compilationExecutor = executor;
+    }
+
+    /**
+     * Return the number of scripts that have been handed to the compilation
+     * executor and are not yet compiled.
+     */
+    public final int getCompilationQueueDepth()
+    {
+        return compilationQueueDepth.get();
+    }
+
+    /**
+     * Return the number of scripts compiled because of hot functions, either
+     * in the background or on the calling thread, including failed attempts.
+     */
+    public final long getCompilationCount()
+    {
+        return compilationCount.sum();
+    }
+
+    /**
+     * Return the total time in nanoseconds spent compiling scripts because of
+     * hot functions. Dividing it by {@link #getCompilationCount()} gives the
+     * average time per script.
+     */
+    public final long getCompilationTime()
+    {
+        return compilationTime.sum();
+    }
+
+    final void compilationQueued()
+    {
+        compilationQueueDepth.incrementAndGet();
+    }
+
+    final void compilationDequeued()
+    {
+        compilationQueueDepth.decrementAndGet();
+    }
+
+    final void compilationFinished(long nanos)
+    {
+        compilationCount.increment();
+        compilationTime.add(nanos);
+    }
+
     /**
      * Execute top call to script or function.
      * When the runtime is about to execute a script or function that will
@@ -0,0 +1,439 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
+
+/**
+ * This class contains the bootstrap methods for the "invokedynamic" instructions that the
+ * optimizer emits when Context.FEATURE_DYNAMIC_LINKAGE is set.
+ *
+ * Property gets and sets with a constant name are linked to a chain of guarded method
+ * handles, one per Shape seen at the site, that read or write the slot at a fixed offset.
+ * When no guard matches, the site falls back to a lookup that adds a new link to the
+ * chain, until PropertyCache.MAX_ENTRIES shapes have been seen. After that the site is
+ * permanently re-linked to the generic ScriptRuntime implementation. Generic additions
+ * are linked to a fast path for the operand types seen first, and re-linked to the
+ * generic implementation when the types change. Calls are linked to the code of the
+ * first callee seen at the site: the InterpreterData of an interpreted function, or the
+ * class and function index of a function compiled into the calling class. Neither
+ * depends on the scope, so a script run in a fresh scope per request stays linked and
+ * does not keep the first scope alive. Other callees are compared by identity through
+ * a weak reference. A site that sees different code is re-linked to the generic call.
+ *
+ * Name lookups are not linked here: the scope chain gives no cheap guard, so the site
+ * would only forward to the same ScriptRuntime method that the optimizer calls
+ * directly. The other arithmetic operators already compile to primitive double
+ * operations after ScriptRuntime.toNumber.
+ *
+ * Since the targets are method handles rather than opaque static calls, HotSpot is able
+ * to inline through them into the generated code.
+ */
+public final class DynamicLinker
+{
+    public static final String GET_PROP = "getProp";
+    public static final String SET_PROP = "setProp";
+    public static final String ADD = "add";
+    public static final String CALL = "call";
+
+    private static final MethodHandle GET_FALLBACK;
+    private static final MethodHandle SET_FALLBACK;
+    private static final MethodHandle GET_GENERIC;
+    private static final MethodHandle SET_GENERIC;
+    private static final MethodHandle HAS_SHAPE;
+    private static final MethodHandle HAS_WRITABLE_SHAPE;
+    private static final MethodHandle GET_SLOT_VALUE;
+    private static final MethodHandle SET_SLOT_VALUE;
+    private static final MethodHandle ADD_FALLBACK;
+    private static final MethodHandle ADD_GENERIC;
+    private static final MethodHandle RELINK_ADD;
+    private static final MethodHandle ARE_NUMBERS;
+    private static final MethodHandle ADD_NUMBERS;
+    private static final MethodHandle ARE_STRINGS;
+    private static final MethodHandle ADD_STRINGS;
+    private static final MethodHandle CALL_FALLBACK;
+    private static final MethodHandle CALL_GENERIC;
+    private static final MethodHandle RELINK_CALL;
+    private static final MethodHandle IS_CALLEE;
+    private static final MethodHandle IS_INTERPRETED;
+    private static final MethodHandle HAS_CLASS;
+    private static final MethodHandle IS_INDEX;
+    private static final MethodHandle CALLABLE_CALL;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<DynamicLinker> c = DynamicLinker.class;
+        try {
+            GET_FALLBACK = lookup.findStatic(c, "getFallback",
+                MethodType.methodType(Object.class, PropertySite.class, Object.class,
+                                      Context.class, Scriptable.class));
+            SET_FALLBACK = lookup.findStatic(c, "setFallback",
+                MethodType.methodType(Object.class, PropertySite.class, Object.class,
+                                      Object.class, Context.class, Scriptable.class));
+            GET_GENERIC = lookup.findStatic(ScriptRuntime.class, "getObjectProp",
+                MethodType.methodType(Object.class, Object.class, String.class,
+                                      Context.class, Scriptable.class));
+            SET_GENERIC = lookup.findStatic(ScriptRuntime.class, "setObjectProp",
+                MethodType.methodType(Object.class, Object.class, String.class,
+                                      Object.class, Context.class, Scriptable.class));
+            HAS_SHAPE = lookup.findStatic(c, "hasShape",
+                MethodType.methodType(boolean.class, Shape.class, Object.class));
+            HAS_WRITABLE_SHAPE = lookup.findStatic(c, "hasWritableShape",
+                MethodType.methodType(boolean.class, Shape.class, Object.class));
+            GET_SLOT_VALUE = lookup.findStatic(c, "getSlotValue",
+                MethodType.methodType(Object.class, int.class, Object.class));
+            SET_SLOT_VALUE = lookup.findStatic(c, "setSlotValue",
+                MethodType.methodType(Object.class, int.class, Object.class, Object.class));
+            ADD_FALLBACK = lookup.findStatic(c, "addFallback",
+                MethodType.methodType(Object.class, MutableCallSite.class, Object.class,
+                                      Object.class, Context.class));
+            ADD_GENERIC = lookup.findStatic(ScriptRuntime.class, "add",
+                MethodType.methodType(Object.class, Object.class, Object.class,
+                                      Context.class));
+            RELINK_ADD = lookup.findStatic(c, "relinkAdd",
+                MethodType.methodType(Object.class, MutableCallSite.class, Object.class,
+                                      Object.class, Context.class));
+            ARE_NUMBERS = lookup.findStatic(c, "areNumbers",
+                MethodType.methodType(boolean.class, Object.class, Object.class));
+            ADD_NUMBERS = lookup.findStatic(c, "addNumbers",
+                MethodType.methodType(Object.class, Object.class, Object.class));
+            ARE_STRINGS = lookup.findStatic(c, "areStrings",
+                MethodType.methodType(boolean.class, Object.class, Object.class));
+            ADD_STRINGS = lookup.findStatic(c, "addStrings",
+                MethodType.methodType(Object.class, Object.class, Object.class));
+            CALL_FALLBACK = lookup.findStatic(c, "callFallback",
+                MethodType.methodType(Object.class, FunctionSite.class, Callable.class,
+                                      Scriptable.class, Object[].class, Context.class,
+                                      Scriptable.class));
+            CALL_GENERIC = lookup.findStatic(c, "callGeneric",
+                MethodType.methodType(Object.class, Callable.class, Scriptable.class,
+                                      Object[].class, Context.class, Scriptable.class));
+            RELINK_CALL = lookup.findStatic(c, "relinkCall",
+                MethodType.methodType(Object.class, FunctionSite.class, Callable.class,
+                                      Scriptable.class, Object[].class, Context.class,
+                                      Scriptable.class));
+            IS_CALLEE = lookup.findStatic(c, "isCallee",
+                MethodType.methodType(boolean.class, WeakReference.class, Callable.class));
+            IS_INTERPRETED = lookup.findStatic(c, "isInterpreted",
+                MethodType.methodType(boolean.class, InterpreterData.class,
+                                      Callable.class));
+            HAS_CLASS = lookup.findStatic(c, "hasClass",
+                MethodType.methodType(boolean.class, Class.class, Callable.class));
+            IS_INDEX = lookup.findStatic(c, "isIndex",
+                MethodType.methodType(boolean.class, int.class, int.class));
+            CALLABLE_CALL = lookup.findVirtual(Callable.class, "call",
+                MethodType.methodType(Object.class, Context.class, Scriptable.class,
+                                      Scriptable.class, Object[].class));
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private DynamicLinker()
+    {
+    }
+
+    private static final class PropertySite extends MutableCallSite
+    {
+        final String name;
+        int depth;
+
+        PropertySite(MethodType type, String name)
+        {
+            super(type);
+            this.name = name;
+        }
+    }
+
+    private static final class FunctionSite extends MutableCallSite
+    {
+        final MethodHandles.Lookup caller;
+
+        FunctionSite(MethodType type, MethodHandles.Lookup caller)
+        {
+            super(type);
+            this.caller = caller;
+        }
+    }
+
+    /**
+     * Bootstrap method for operations on a named property: GET_PROP and SET_PROP.
+     */
+    public static CallSite bootstrapNamed(MethodHandles.Lookup lookup, String operation,
+                                          MethodType type, String name)
+    {
+        if (GET_PROP.equals(operation)) {
+            PropertySite site = new PropertySite(type, name);
+            site.setTarget(GET_FALLBACK.bindTo(site).asType(type));
+            return site;
+        } else if (SET_PROP.equals(operation)) {
+            PropertySite site = new PropertySite(type, name);
+            site.setTarget(SET_FALLBACK.bindTo(site).asType(type));
+            return site;
+        }
+        throw new IllegalArgumentException(operation);
+    }
+
+    /**
+     * Bootstrap method for operations without a name: ADD and CALL.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String operation,
+                                     MethodType type)
+    {
+        if (ADD.equals(operation)) {
+            MutableCallSite site = new MutableCallSite(type);
+            site.setTarget(ADD_FALLBACK.bindTo(site).asType(type));
+            return site;
+        } else if (CALL.equals(operation)) {
+            FunctionSite site = new FunctionSite(type, lookup);
+            site.setTarget(CALL_FALLBACK.bindTo(site).asType(type));
+            return site;
+        }
+        throw new IllegalArgumentException(operation);
+    }
+
+    private static Object getFallback(PropertySite site, Object obj, Context cx,
+                                      Scriptable scope)
+    {
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            NativeObject so = (NativeObject) obj;
+            Shape shape = so.getShape();
+            if (shape != null) {
+                int offset = shape.indexOf(site.name);
+                if (offset >= 0) {
+                    if (site.depth < PropertyCache.MAX_ENTRIES) {
+                        MethodHandle hit = MethodHandles.dropArguments(
+                            MethodHandles.insertArguments(GET_SLOT_VALUE, 0, offset),
+                            1, Context.class, Scriptable.class);
+                        relink(site, HAS_SHAPE.bindTo(shape), hit);
+                    } else {
+                        site.setTarget(MethodHandles.insertArguments(
+                            GET_GENERIC, 1, site.name).asType(site.type()));
+                    }
+                    return so.getShapedSlot(offset).getValue(so);
+                }
+            }
+        }
+        return ScriptRuntime.getObjectProp(obj, site.name, cx, scope);
+    }
+
+    private static Object setFallback(PropertySite site, Object obj, Object value,
+                                      Context cx, Scriptable scope)
+    {
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            NativeObject so = (NativeObject) obj;
+            Shape shape = so.getShape();
+            if (shape != null && so.isExtensible() && !so.isSealed()) {
+                int offset = shape.indexOf(site.name);
+                if (offset >= 0) {
+                    if (site.depth < PropertyCache.MAX_ENTRIES) {
+                        MethodHandle hit = MethodHandles.dropArguments(
+                            MethodHandles.insertArguments(SET_SLOT_VALUE, 0, offset),
+                            2, Context.class, Scriptable.class);
+                        relink(site, HAS_WRITABLE_SHAPE.bindTo(shape), hit);
+                    } else {
+                        site.setTarget(MethodHandles.insertArguments(
+                            SET_GENERIC, 1, site.name).asType(site.type()));
+                    }
+                    so.getShapedSlot(offset).setValue(value, so, so);
+                    return value;
+                }
+            }
+        }
+        return ScriptRuntime.setObjectProp(obj, site.name, value, cx, scope);
+    }
+
+    /**
+     * Put a new guarded target in front of the current target of the site.
+     */
+    private static void relink(PropertySite site, MethodHandle test, MethodHandle hit)
+    {
+        MethodType type = site.type();
+        MethodHandle guard = MethodHandles.dropArguments(
+            test, 1, type.parameterList().subList(1, type.parameterCount()));
+        site.setTarget(MethodHandles.guardWithTest(
+            guard.asType(type.changeReturnType(boolean.class)),
+            hit.asType(type), site.getTarget()));
+        site.depth++;
+    }
+
+    private static boolean hasShape(Shape shape, Object obj)
+    {
+        return obj != null && obj.getClass() == NativeObject.class
+            && ((NativeObject) obj).getShape() == shape;
+    }
+
+    private static boolean hasWritableShape(Shape shape, Object obj)
+    {
+        if (hasShape(shape, obj)) {
+            // Non-extensible and sealed objects have extra checks in putImpl
+            NativeObject so = (NativeObject) obj;
+            return so.isExtensible() && !so.isSealed();
+        }
+        return false;
+    }
+
+    private static Object getSlotValue(int offset, Object obj)
+    {
+        NativeObject so = (NativeObject) obj;
+        return so.getShapedSlot(offset).getValue(so);
+    }
+
+    private static Object setSlotValue(int offset, Object obj, Object value)
+    {
+        NativeObject so = (NativeObject) obj;
+        so.getShapedSlot(offset).setValue(value, so, so);
+        return value;
+    }
+
+    private static Object addFallback(MutableCallSite site, Object val1, Object val2,
+                                      Context cx)
+    {
+        MethodHandle test;
+        MethodHandle fast;
+        if (areNumbers(val1, val2)) {
+            test = ARE_NUMBERS;
+            fast = ADD_NUMBERS;
+        } else if (areStrings(val1, val2)) {
+            test = ARE_STRINGS;
+            fast = ADD_STRINGS;
+        } else {
+            site.setTarget(ADD_GENERIC.asType(site.type()));
+            return ScriptRuntime.add(val1, val2, cx);
+        }
+        MethodType type = site.type();
+        site.setTarget(MethodHandles.guardWithTest(
+            MethodHandles.dropArguments(test, 2, Context.class)
+                .asType(type.changeReturnType(boolean.class)),
+            MethodHandles.dropArguments(fast, 2, Context.class).asType(type),
+            RELINK_ADD.bindTo(site).asType(type)));
+        return ScriptRuntime.add(val1, val2, cx);
+    }
+
+    /**
+     * Called when the operand types of an addition changed since the site was linked.
+     */
+    private static Object relinkAdd(MutableCallSite site, Object val1, Object val2,
+                                    Context cx)
+    {
+        site.setTarget(ADD_GENERIC.asType(site.type()));
+        return ScriptRuntime.add(val1, val2, cx);
+    }
+
+    private static boolean areNumbers(Object val1, Object val2)
+    {
+        return val1 instanceof Number && val2 instanceof Number;
+    }
+
+    private static Object addNumbers(Object val1, Object val2)
+    {
+        return ScriptRuntime.wrapNumber(((Number) val1).doubleValue() +
+                                        ((Number) val2).doubleValue());
+    }
+
+    private static boolean areStrings(Object val1, Object val2)
+    {
+        return val1 instanceof CharSequence && val2 instanceof CharSequence;
+    }
+
+    private static Object addStrings(Object val1, Object val2)
+    {
+        return new ConsString((CharSequence) val1, (CharSequence) val2);
+    }
+
+    private static Object callFallback(FunctionSite site, Callable fn,
+                                       Scriptable thisObj, Object[] args,
+                                       Context cx, Scriptable scope)
+    {
+        MethodType type = site.type();
+        // Callable.call takes (fn, cx, scope, thisObj, args)
+        MethodHandle direct = MethodHandles.permuteArguments(
+            CALLABLE_CALL, type, 0, 3, 4, 1, 2);
+        MethodHandle test = MethodHandles.dropArguments(
+            calleeTest(site.caller, fn), 1, Scriptable.class, Object[].class,
+            Context.class, Scriptable.class);
+        site.setTarget(MethodHandles.guardWithTest(
+            test.asType(type.changeReturnType(boolean.class)),
+            direct.asType(type), RELINK_CALL.bindTo(site).asType(type)));
+        return fn.call(cx, scope, thisObj, args);
+    }
+
+    /**
+     * Return a test that accepts callees running the same code as fn.
+     */
+    private static MethodHandle calleeTest(MethodHandles.Lookup caller, Callable fn)
+    {
+        if (fn instanceof InterpretedFunction) {
+            return IS_INTERPRETED.bindTo(((InterpretedFunction) fn).idata);
+        }
+        Class<?> fnClass = fn.getClass();
+        if (fnClass == caller.lookupClass()) {
+            // The class holds every function of the script, told apart by their _id
+            MethodHandle index;
+            int id;
+            try {
+                index = caller.findGetter(fnClass, "_id", int.class)
+                    .asType(MethodType.methodType(int.class, Callable.class));
+                id = (int) index.invokeExact(fn);
+            } catch (Throwable e) {
+                throw Kit.initCause(new IllegalStateException(), e);
+            }
+            return MethodHandles.guardWithTest(
+                HAS_CLASS.bindTo(fnClass),
+                MethodHandles.filterArguments(
+                    MethodHandles.insertArguments(IS_INDEX, 0, id), 0, index),
+                MethodHandles.dropArguments(
+                    MethodHandles.constant(boolean.class, false), 0, Callable.class));
+        }
+        return IS_CALLEE.bindTo(new WeakReference<Callable>(fn));
+    }
+
+    /**
+     * Called when the callee of a call site changed since the site was linked.
+     */
+    private static Object relinkCall(FunctionSite site, Callable fn,
+                                     Scriptable thisObj, Object[] args,
+                                     Context cx, Scriptable scope)
+    {
+        site.setTarget(CALL_GENERIC.asType(site.type()));
+        return fn.call(cx, scope, thisObj, args);
+    }
+
+    private static Object callGeneric(Callable fn, Scriptable thisObj, Object[] args,
+                                      Context cx, Scriptable scope)
+    {
+        return fn.call(cx, scope, thisObj, args);
+    }
+
+    private static boolean isCallee(WeakReference<Callable> expected, Callable fn)
+    {
+        return fn == expected.get();
+    }
+
+    private static boolean isInterpreted(InterpreterData idata, Callable fn)
+    {
+        return fn instanceof InterpretedFunction
+            && ((InterpretedFunction) fn).idata == idata;
+    }
+
+    private static boolean hasClass(Class<?> expected, Callable fn)
+    {
+        return fn.getClass() == expected;
+    }
+
+    private static boolean isIndex(int expected, int id)
+    {
+        return id == expected;
+    }
+}
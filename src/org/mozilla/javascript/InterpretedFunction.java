@@ -15,6 +15,7 @@ final class InterpretedFunction extends NativeFunction implements Script
     InterpreterData idata;
     SecurityController securityController;
     Object securityDomain;
+    transient NativeFunction compiledFunction;
 
     private InterpretedFunction(InterpreterData idata,
                                 Object staticSecurityDomain)
@@ -103,12 +104,44 @@ final class InterpretedFunction extends NativeFunction implements Script
     public Object call(Context cx, Scriptable scope, Scriptable thisObj,
                        Object[] args)
     {
+        NativeFunction compiled = getCompiledFunction(cx);
+        if (compiled != null) {
+            return compiled.call(cx, scope, thisObj, args);
+        }
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(this, cx, scope, thisObj, args, idata.isStrict);
         }
         return Interpreter.interpret(this, cx, scope, thisObj, args);
     }
 
+    /**
+     * Count a call of this function when it is subject to tiered compilation,
+     * and return the compiled function that should run it instead of the
+     * interpreter, if any.
+     */
+    NativeFunction getCompiledFunction(Context cx)
+    {
+        NativeFunction compiled = compiledFunction;
+        if (compiled == null) {
+            TieredCompilation tiering = idata.itsTiering;
+            if (tiering == null || isScript()
+                || ++idata.itsHotness < tiering.threshold)
+            {
+                return null;
+            }
+            compiled = tiering.createCompiledFunction(cx, this);
+            if (compiled == null) {
+                if (tiering.isFailed()) {
+                    // Never try again
+                    idata.itsTiering = null;
+                }
+                return null;
+            }
+            compiledFunction = compiled;
+        }
+        return compiled;
+    }
+
     @Override
     public Object exec(Context cx, Scriptable scope)
     {
@@ -177,5 +210,11 @@ final class InterpretedFunction extends NativeFunction implements Script
     {
         return idata.argIsConst[index];
     }
+
+    @Override
+    protected boolean requiresActivation()
+    {
+        return idata.itsNeedsActivation;
+    }
 }
 
@@ -509,6 +509,14 @@ public final class Interpreter extends Icode implements Evaluator
                 pc += 2;
                 break;
               }
+              case Token.GETPROP :
+              case Token.SETPROP :
+              case Icode_PROP_AND_THIS : {
+                int cacheIndex = getIndex(iCode, pc);
+                out.println(tname + " " + cacheIndex);
+                pc += 2;
+                break;
+              }
               case Icode_VAR_INC_DEC :
               case Icode_NAME_INC_DEC :
               case Icode_PROP_INC_DEC :
@@ -717,6 +725,12 @@ public final class Interpreter extends Icode implements Evaluator
                 // type of ++/--
                 return 1 + 1;
 
+            case Token.GETPROP:
+            case Token.SETPROP:
+            case Icode_PROP_AND_THIS:
+                // index of the PropertyCache
+                return 1 + 2;
+
             case Icode_SHORTNUMBER :
                 // short number
                 return 1 + 2;
@@ -1430,8 +1444,8 @@ switch (op) {
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
-                                                      cx, frame.scope);
+        PropertyCache cache = getPropertyCache(frame, iCode, stringReg);
+        stack[stackTop] = cache.getObjectProp(lhs, cx, frame.scope);
         continue Loop;
     }
     case Token.SETPROP : {
@@ -1440,8 +1454,8 @@ switch (op) {
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx, frame.scope);
+        PropertyCache cache = getPropertyCache(frame, iCode, stringReg);
+        stack[stackTop] = cache.setObjectProp(lhs, rhs, cx, frame.scope);
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1502,6 +1516,13 @@ switch (op) {
         continue Loop;
     case Icode_NAME_AND_THIS :
         // stringReg: name
+        // Unlike GETPROP, SETPROP and Icode_PROP_AND_THIS this has no
+        // PropertyCache. An entry would have to check the shape of every
+        // object on the scope chain up to the one holding the function,
+        // since any of them may gain the name, and a with statement puts
+        // objects of any class there. Besides, the standard top-level
+        // scope, where most called functions live, has more properties
+        // than a Shape holds, so the last check could never succeed.
         ++stackTop;
         stack[stackTop] = ScriptRuntime.getNameFunctionAndThis(stringReg,
                                                                cx, frame.scope);
@@ -1512,8 +1533,8 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+        PropertyCache cache = getPropertyCache(frame, iCode, stringReg);
+        stack[stackTop] = cache.getPropFunctionAndThis(obj, cx, frame.scope);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1570,7 +1591,9 @@ switch (op) {
         }
         if (fun instanceof InterpretedFunction) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
-            if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+            if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                && ifun.getCompiledFunction(cx) == null)
+            {
                 CallFrame callParentFrame = frame;
                 if (op == Icode_TAIL_CALL) {
                     // In principle tail call can re-use the current
@@ -1683,7 +1706,9 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs instanceof InterpretedFunction) {
             InterpretedFunction f = (InterpretedFunction)lhs;
-            if (frame.fnOrScript.securityDomain == f.securityDomain) {
+            if (frame.fnOrScript.securityDomain == f.securityDomain
+                && f.getCompiledFunction(cx) == null)
+            {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
                 CallFrame calleeFrame = initFrame(cx, frame.scope, newInstance, stack, sDbl,
                           stackTop + 1, indexReg, f, frame);
@@ -2100,6 +2125,10 @@ switch (op) {
                     if (offset != 0) {
                         // -1 accounts for pc pointing to jump opcode + 1
                         frame.pc += offset - 1;
+                        if (offset < 0 && frame.idata.itsTiering != null) {
+                            // A loop iteration makes the function hotter
+                            ++frame.idata.itsHotness;
+                        }
                     } else {
                         frame.pc = frame.idata.longJumps.
                                        getExistingInt(frame.pc);
@@ -2385,6 +2414,34 @@ switch (op) {
         return stackTop;
     }
 
+    /**
+     * Return the inline cache whose index follows the property instruction
+     * at frame.pc, creating it on first use, and move frame.pc past the
+     * index. The caches are shared by all threads running the function; a
+     * lost race merely drops a cache.
+     */
+    private static PropertyCache getPropertyCache(CallFrame frame,
+                                                  byte[] iCode, String name)
+    {
+        int index = getIndex(iCode, frame.pc);
+        frame.pc += 2;
+        if (index == InterpreterData.NO_PROPERTY_CACHE) {
+            return new PropertyCache(name);
+        }
+        InterpreterData idata = frame.idata;
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches == null) {
+            caches = new PropertyCache[idata.itsPropertyCacheCount];
+            idata.itsPropertyCaches = caches;
+        }
+        PropertyCache cache = caches[index];
+        if (cache == null) {
+            cache = new PropertyCache(name);
+            caches[index] = cache;
+        }
+        return cache;
+    }
+
     private static int doDelName(Context cx, CallFrame frame, int op,
                                  Object[] stack, double[] sDbl, int stackTop) {
         Object rhs = stack[stackTop];
@@ -90,6 +90,22 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     boolean evalScriptFlag; // true if script corresponds to eval() code
 
+    // Number of property instructions in itsICode that have a cache. Each
+    // carries its index into itsPropertyCaches, or NO_PROPERTY_CACHE.
+    int itsPropertyCacheCount;
+
+    // Inline caches for the property instructions in itsICode, allocated
+    // when the code first runs
+    transient PropertyCache[] itsPropertyCaches;
+
+    static final int NO_PROPERTY_CACHE = 0xFFFF;
+
+    // Set when the script may be compiled to classes once this function
+    // is hot; itsHotness counts calls and backward jumps until then
+    transient TieredCompilation itsTiering;
+    int itsTieredIndex;
+    int itsHotness;
+
     private int icodeHashCode = 0;
 
     @Override
@@ -61,11 +61,8 @@ public class NativeArray extends IdScriptableObject implements List
     {
         denseOnly = lengthArg <= maximumInitialCapacity;
         if (denseOnly) {
-            int intLength = (int) lengthArg;
-            if (intLength < DEFAULT_INITIAL_CAPACITY)
-                intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            // Storage for the first element decides the elements kind
+            elementsKind = INT_ELEMENTS;
         }
         length = lengthArg;
     }
@@ -73,8 +70,42 @@ public class NativeArray extends IdScriptableObject implements List
     public NativeArray(Object[] array)
     {
         denseOnly = true;
-        dense = array;
         length = array.length;
+        int kind = getElementsKind(array);
+        if (kind == INT_ELEMENTS) {
+            intDense = new int[array.length];
+            for (int i = 0; i != array.length; ++i) {
+                intDense[i] = ((Integer)array[i]).intValue();
+            }
+            denseSize = array.length;
+        } else if (kind == DOUBLE_ELEMENTS) {
+            doubleDense = new double[array.length];
+            for (int i = 0; i != array.length; ++i) {
+                doubleDense[i] = ((Number)array[i]).doubleValue();
+            }
+            denseSize = array.length;
+        } else {
+            dense = array;
+        }
+        elementsKind = kind;
+    }
+
+    private static int getElementsKind(Object[] array)
+    {
+        // The same number may be boxed as an Integer or as a Double, so
+        // any mix of the two is a double array
+        int kind = INT_ELEMENTS;
+        for (int i = 0; i != array.length; ++i) {
+            Object value = array[i];
+            // NOT_FOUND or any other value makes it an object array
+            Class<?> type = value == null ? null : value.getClass();
+            if (type == Double.class) {
+                kind = DOUBLE_ELEMENTS;
+            } else if (type != Integer.class) {
+                return OBJECT_ELEMENTS;
+            }
+        }
+        return kind;
     }
 
     @Override
@@ -358,6 +389,13 @@ public class NativeArray extends IdScriptableObject implements List
             return super.get(index, start);
         if (dense != null && 0 <= index && index < dense.length)
             return dense[index];
+        if (0 <= index && index < denseSize)
+            return getPacked(index);
+        if (pages != null) {
+            Object value = getPaged(index);
+            if (value != NOT_FOUND)
+                return value;
+        }
         return super.get(index, start);
     }
 
@@ -368,9 +406,263 @@ public class NativeArray extends IdScriptableObject implements List
             return super.has(index, start);
         if (dense != null && 0 <= index && index < dense.length)
             return dense[index] != NOT_FOUND;
+        if (0 <= index && index < denseSize)
+            return true;
+        if (pages != null && getPaged(index) != NOT_FOUND)
+            return true;
         return super.has(index, start);
     }
 
+    private Object getPacked(int index)
+    {
+        if (elementsKind == INT_ELEMENTS) {
+            return Integer.valueOf(intDense[index]);
+        }
+        return ScriptRuntime.wrapNumber(doubleDense[index]);
+    }
+
+    private Object getPaged(int index)
+    {
+        Object[] page = getPage(index);
+        return page == null ? NOT_FOUND : page[index & PAGE_MASK];
+    }
+
+    /**
+     * Return the page of <code>pages</code> index is in, or null if it is
+     * not allocated.
+     */
+    private Object[] getPage(int index)
+    {
+        if (index < 0 || index >= MAX_PAGED_INDEX) {
+            return null;
+        }
+        Object[][] directory = pages[index >>> DIRECTORY_SHIFT];
+        if (directory == null) {
+            return null;
+        }
+        return directory[(index >>> PAGE_SHIFT) & DIRECTORY_MASK];
+    }
+
+    /**
+     * Store value at index in <code>pages</code> unless the index is out of
+     * their range, or its page is not allocated and would not yet hold
+     * enough elements to be worth it.
+     */
+    private boolean putPaged(int index, Object value)
+    {
+        if (index < 0 || index >= MAX_PAGED_INDEX || pagesDisabled) {
+            return false;
+        }
+        Object[] page = pages == null ? null : getPage(index);
+        if (page == null) {
+            if (super.has(index, this)) {
+                return false;
+            }
+            int pageIndex = index >>> PAGE_SHIFT;
+            if (slotCounts == null) {
+                slotCounts = new UintMap();
+            }
+            int count = slotCounts.getInt(pageIndex, 0) + 1;
+            if (count < PAGE_MIN_COUNT) {
+                slotCounts.put(pageIndex, count);
+                return false;
+            }
+            slotCounts.remove(pageIndex);
+            page = allocatePage(pageIndex);
+        }
+        if (page[index & PAGE_MASK] == NOT_FOUND) {
+            ++pagedCount;
+        }
+        page[index & PAGE_MASK] = value;
+        return true;
+    }
+
+    /**
+     * Allocate the page with the given index, and move the elements of the
+     * superclass's hashtable that belong to it there.
+     */
+    private Object[] allocatePage(int pageIndex)
+    {
+        if (pages == null) {
+            pages = new Object[MAX_PAGED_INDEX >>> DIRECTORY_SHIFT][][];
+        }
+        Object[][] directory = pages[pageIndex >>> (DIRECTORY_SHIFT - PAGE_SHIFT)];
+        if (directory == null) {
+            directory = new Object[DIRECTORY_MASK + 1][];
+            pages[pageIndex >>> (DIRECTORY_SHIFT - PAGE_SHIFT)] = directory;
+        }
+        Object[] page = new Object[PAGE_SIZE];
+        Arrays.fill(page, NOT_FOUND);
+        directory[pageIndex & DIRECTORY_MASK] = page;
+
+        int first = pageIndex << PAGE_SHIFT;
+        for (int i = 0; i != PAGE_SIZE; ++i) {
+            int index = first | i;
+            if (super.has(index, this)
+                && !isGetterOrSetter(null, index, false)
+                && super.getAttributes(index) == EMPTY)
+            {
+                page[i] = super.get(index, this);
+                super.delete(index);
+                ++pagedCount;
+            }
+        }
+        return page;
+    }
+
+    private boolean deletePaged(int index)
+    {
+        if (pages == null || getPaged(index) == NOT_FOUND) {
+            return false;
+        }
+        getPage(index)[index & PAGE_MASK] = NOT_FOUND;
+        --pagedCount;
+        return true;
+    }
+
+    /**
+     * Remove the elements from index newLength on from <code>pages</code>,
+     * releasing the pages past it.
+     */
+    private void truncatePages(long newLength)
+    {
+        if (pages == null || newLength >= MAX_PAGED_INDEX) {
+            return;
+        }
+        int first = (int)newLength;
+        for (int d = first >>> DIRECTORY_SHIFT; d != pages.length; ++d) {
+            Object[][] directory = pages[d];
+            if (directory == null) {
+                continue;
+            }
+            for (int p = 0; p != directory.length; ++p) {
+                Object[] page = directory[p];
+                int start = (d << DIRECTORY_SHIFT) | (p << PAGE_SHIFT);
+                if (page == null || start + PAGE_SIZE <= first) {
+                    continue;
+                }
+                for (int i = Math.max(first - start, 0); i != PAGE_SIZE; ++i) {
+                    if (page[i] != NOT_FOUND) {
+                        page[i] = NOT_FOUND;
+                        --pagedCount;
+                    }
+                }
+                if (start >= first) {
+                    directory[p] = null;
+                }
+            }
+        }
+    }
+
+    private double getPackedNumber(int index)
+    {
+        if (elementsKind == INT_ELEMENTS) {
+            return intDense[index];
+        }
+        return doubleDense[index];
+    }
+
+    /**
+     * Store value at index in the int[] or double[] storage if it is an
+     * Integer or a Double and does not leave a hole. An empty array takes
+     * the kind of its first element. A Double stored in an int array
+     * widens it to a double array, and an Integer stored in a double array
+     * is kept as a double.
+     */
+    private boolean putPacked(int index, Object value)
+    {
+        if (index > denseSize || value == null) {
+            return false;
+        }
+        Class<?> type = value.getClass();
+        int kind;
+        if (type == Integer.class) {
+            kind = elementsKind == DOUBLE_ELEMENTS ? DOUBLE_ELEMENTS
+                                                   : INT_ELEMENTS;
+        } else if (type == Double.class) {
+            kind = DOUBLE_ELEMENTS;
+        } else {
+            return false;
+        }
+        if (kind != elementsKind) {
+            if (denseSize == 0) {
+                intDense = null;
+            } else {
+                doubleDense = new double[intDense.length];
+                for (int i = 0; i != denseSize; ++i) {
+                    doubleDense[i] = intDense[i];
+                }
+                intDense = null;
+            }
+            elementsKind = kind;
+        }
+        if (index == denseSize) {
+            int capacity = kind == INT_ELEMENTS
+                ? (intDense == null ? 0 : intDense.length)
+                : (doubleDense == null ? 0 : doubleDense.length);
+            if (index == capacity) {
+                if (index >= MAX_PRE_GROW_SIZE) {
+                    return false;
+                }
+                capacity = Math.max(DEFAULT_INITIAL_CAPACITY,
+                                    (int)(capacity * GROW_FACTOR));
+                if (kind == INT_ELEMENTS) {
+                    intDense = intDense == null ? new int[capacity]
+                        : Arrays.copyOf(intDense, capacity);
+                } else {
+                    doubleDense = doubleDense == null ? new double[capacity]
+                        : Arrays.copyOf(doubleDense, capacity);
+                }
+            }
+            ++denseSize;
+        }
+        if (kind == INT_ELEMENTS) {
+            intDense[index] = ((Integer)value).intValue();
+        } else {
+            doubleDense[index] = ((Number)value).doubleValue();
+        }
+        return true;
+    }
+
+    /**
+     * Move the elements of an int or double array into the Object[]
+     * storage that the rest of the code works with. Its capacity covers
+     * the length, as for an array created dense.
+     */
+    private void toObjectElements()
+    {
+        if (elementsKind == OBJECT_ELEMENTS) {
+            return;
+        }
+        Object[] values = new Object[Math.max((int)length,
+                                              DEFAULT_INITIAL_CAPACITY)];
+        for (int i = 0; i != denseSize; ++i) {
+            values[i] = getPacked(i);
+        }
+        Arrays.fill(values, denseSize, values.length, NOT_FOUND);
+        dense = values;
+        intDense = null;
+        doubleDense = null;
+        denseSize = 0;
+        elementsKind = OBJECT_ELEMENTS;
+    }
+
+    /**
+     * Copy count elements from the dense storage, starting at srcPos, to
+     * dest, boxing numbers and marking holes with NOT_FOUND.
+     */
+    private void copyDense(int srcPos, Object[] dest, int destPos, int count)
+    {
+        if (elementsKind == OBJECT_ELEMENTS) {
+            System.arraycopy(dense, srcPos, dest, destPos, count);
+            return;
+        }
+        for (int i = 0; i != count; ++i) {
+            int index = srcPos + i;
+            dest[destPos + i] = index < denseSize ? getPacked(index) : NOT_FOUND;
+        }
+    }
+
     private static long toArrayIndex(Object id) {
         if (id instanceof String) {
             return toArrayIndex((String)id);
@@ -411,6 +703,11 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void put(String id, Scriptable start, Object value)
     {
+        if (start == this && elementsKind != OBJECT_ELEMENTS
+            && toArrayIndex(id) >= 0)
+        {
+            toObjectElements();
+        }
         super.put(id, start, value);
         if (start == this) {
             // If the object is sealed, super will throw exception
@@ -442,6 +739,19 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void put(int index, Scriptable start, Object value)
     {
+        if (start == this && !isSealed() && elementsKind != OBJECT_ELEMENTS
+            && 0 <= index)
+        {
+            if (!isExtensible() && this.length <= index) {
+                return;
+            }
+            if (putPacked(index, value)) {
+                if (this.length <= index)
+                    this.length = (long)index + 1;
+                return;
+            }
+            toObjectElements();
+        }
         if (start == this && !isSealed() && dense != null && 0 <= index &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
@@ -462,6 +772,17 @@ public class NativeArray extends IdScriptableObject implements List
                 denseOnly = false;
             }
         }
+        if (start == this && !isSealed() && !denseOnly &&
+            (dense == null || index >= dense.length) &&
+            !isGetterOrSetter(null, index, true) &&
+            (isExtensible() || (pages != null &&
+                                getPaged(index) != NOT_FOUND)) &&
+            putPaged(index, value))
+        {
+            if (this.length <= index)
+                this.length = (long)index + 1;
+            return;
+        }
         super.put(index, start, value);
         if (start == this && (lengthAttr & READONLY) == 0) {
             // only set the array length if given an array index (ECMA 15.4.0)
@@ -475,11 +796,20 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void delete(int index)
     {
+        if (0 <= index && index < denseSize && !isSealed()) {
+            if (index != denseSize - 1) {
+                toObjectElements();
+            } else {
+                --denseSize;
+                return;
+            }
+        }
         if (dense != null && 0 <= index && index < dense.length &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
             dense[index] = NOT_FOUND;
-        } else {
+        } else if (isSealed() || isGetterOrSetter(null, index, true) ||
+                   !deletePaged(index)) {
             super.delete(index);
         }
     }
@@ -488,6 +818,17 @@ public class NativeArray extends IdScriptableObject implements List
     public Object[] getIds(boolean nonEnumerable, boolean getSymbols)
     {
         Object[] superIds = super.getIds(nonEnumerable, getSymbols);
+        if (pagedCount != 0) {
+            superIds = addPagedIds(superIds);
+        }
+        if (denseSize != 0) {
+            Object[] ids = new Object[denseSize + superIds.length];
+            for (int i = 0; i != denseSize; ++i) {
+                ids[i] = Integer.valueOf(i);
+            }
+            System.arraycopy(superIds, 0, ids, denseSize, superIds.length);
+            return ids;
+        }
         if (dense == null) { return superIds; }
         int N = dense.length;
         long currentLength = length;
@@ -516,6 +857,32 @@ public class NativeArray extends IdScriptableObject implements List
         return ids;
     }
 
+    private Object[] addPagedIds(Object[] superIds)
+    {
+        Object[] ids = new Object[pagedCount + superIds.length];
+        int count = 0;
+        for (int d = 0; d != pages.length; ++d) {
+            Object[][] directory = pages[d];
+            if (directory == null) {
+                continue;
+            }
+            for (int p = 0; p != directory.length; ++p) {
+                Object[] page = directory[p];
+                if (page == null) {
+                    continue;
+                }
+                int start = (d << DIRECTORY_SHIFT) | (p << PAGE_SHIFT);
+                for (int i = 0; i != PAGE_SIZE; ++i) {
+                    if (page[i] != NOT_FOUND) {
+                        ids[count++] = Integer.valueOf(start | i);
+                    }
+                }
+            }
+        }
+        System.arraycopy(superIds, 0, ids, count, superIds.length);
+        return ids;
+    }
+
     public List<Integer> getIndexIds() {
       Object[] ids = getIds();
       List<Integer> indices = new ArrayList<Integer>(ids.length);
@@ -557,6 +924,13 @@ public class NativeArray extends IdScriptableObject implements List
                 && dense[index] != NOT_FOUND) {
             return EMPTY;
         }
+        if (index >= 0 && index < denseSize) {
+            return EMPTY;
+        }
+        if (pages != null && index >= 0 && getPaged(index) != NOT_FOUND
+            && !isGetterOrSetter(null, index, false)) {
+            return EMPTY;
+        }
         return super.getAttributes(index);
     }
 
@@ -568,6 +942,20 @@ public class NativeArray extends IdScriptableObject implements List
           Object value = dense[index];
           return defaultIndexPropertyDescriptor(value);
         }
+      } else if (denseSize != 0) {
+        int index = toDenseIndex(id);
+        if (0 <= index && index < denseSize) {
+          return defaultIndexPropertyDescriptor(getPacked(index));
+        }
+      }
+      if (pages != null) {
+        int index = toDenseIndex(id);
+        if (0 <= index && !isGetterOrSetter(null, index, false)) {
+          Object value = getPaged(index);
+          if (value != NOT_FOUND) {
+            return defaultIndexPropertyDescriptor(value);
+          }
+        }
       }
       return super.getOwnPropertyDescriptor(cx, id);
     }
@@ -576,6 +964,8 @@ public class NativeArray extends IdScriptableObject implements List
     protected void defineOwnProperty(Context cx, Object id,
                                      ScriptableObject desc,
                                      boolean checkValid) {
+      toObjectElements();
+      pagesDisabled = true;
       if (dense != null) {
         Object[] values = dense;
         dense = null;
@@ -586,6 +976,19 @@ public class NativeArray extends IdScriptableObject implements List
           }
         }
       }
+      if (pages != null) {
+        Object[] pagedIds = addPagedIds(ScriptRuntime.emptyArgs);
+        Object[][][] values = pages;
+        pages = null;
+        pagedCount = 0;
+        for (Object pagedId : pagedIds) {
+          int index = ((Integer) pagedId).intValue();
+          Object[] page = values[index >>> DIRECTORY_SHIFT]
+                                [(index >>> PAGE_SHIFT) & DIRECTORY_MASK];
+          put(index, this, page[index & PAGE_MASK]);
+        }
+      }
+      slotCounts = null;
       long index = toArrayIndex(id);
       if (index >= length) {
         length = index + 1;
@@ -642,6 +1045,9 @@ public class NativeArray extends IdScriptableObject implements List
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        if (!denseOnly) {
+            toObjectElements();
+        }
         this.denseOnly = denseOnly;
     }
 
@@ -663,6 +1069,21 @@ public class NativeArray extends IdScriptableObject implements List
             throw ScriptRuntime.constructError("RangeError", msg);
         }
 
+        if (elementsKind != OBJECT_ELEMENTS) {
+            if (longVal < length) {
+                if (longVal < denseSize) {
+                    denseSize = (int) longVal;
+                }
+                length = longVal;
+                return;
+            } else if (longVal < MAX_PRE_GROW_SIZE &&
+                       longVal < (length * GROW_FACTOR))
+            {
+                length = longVal;
+                return;
+            }
+            toObjectElements();
+        }
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
@@ -680,6 +1101,7 @@ public class NativeArray extends IdScriptableObject implements List
             }
         }
         if (longVal < length) {
+            truncatePages(longVal);
             // remove all properties between longVal and length
             if (length - longVal > 0x1000) {
                 // assume that the representation is sparse
@@ -913,6 +1335,24 @@ public class NativeArray extends IdScriptableObject implements List
                            : ScriptRuntime.toString(args[0]);
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    if (i != 0) {
+                        sb.append(separator);
+                    }
+                    if (i >= na.denseSize) {
+                        continue;
+                    }
+                    if (na.elementsKind == INT_ELEMENTS) {
+                        sb.append(na.intDense[i]);
+                    } else {
+                        sb.append(ScriptRuntime.numberToString(
+                            na.doubleDense[i], 10));
+                    }
+                }
+                return sb.toString();
+            }
             if (na.denseOnly) {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
@@ -967,6 +1407,23 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS) {
+                if (na.denseSize == na.length) {
+                    for (int i=0, j=na.denseSize-1; i < j; i++,j--) {
+                        if (na.elementsKind == INT_ELEMENTS) {
+                            int temp = na.intDense[i];
+                            na.intDense[i] = na.intDense[j];
+                            na.intDense[j] = temp;
+                        } else {
+                            double temp = na.doubleDense[i];
+                            na.doubleDense[i] = na.doubleDense[j];
+                            na.doubleDense[j] = temp;
+                        }
+                    }
+                    return thisObj;
+                }
+                na.toObjectElements();
+            }
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
@@ -1001,8 +1458,7 @@ public class NativeArray extends IdScriptableObject implements List
                     .getValueFunctionAndThis(args[0], cx);
             final Scriptable funThis = ScriptRuntime.lastStoredScriptable(cx);
             final Object[] cmpBuf = new Object[2]; // Buffer for cmp arguments
-            comparator = new ElementComparator(
-                new Comparator<Object>() {
+            comparator = new Comparator<Object>() {
                   @Override
                   public int compare(final Object x, final Object y) {
                     // This comparator is invoked only for non-undefined objects
@@ -1018,9 +1474,9 @@ public class NativeArray extends IdScriptableObject implements List
                     }
                     return 0; // ??? double and 0???
                   }
-                });
+                };
         } else {
-            comparator = DEFAULT_COMPARATOR;
+            comparator = null;
         }
 
         long llength = getLengthProperty(cx, thisObj);
@@ -1036,7 +1492,27 @@ public class NativeArray extends IdScriptableObject implements List
             working[i] = getRawElem(thisObj, i);
         }
 
-        Sorting.hybridSort(working, comparator);
+        // Only the defined elements need comparing: undefined ones go after
+        // them and holes last, as ElementComparator would order them
+        int defined = 0;
+        int undefinedCount = 0;
+        for (int i = 0; i != length; ++i) {
+            Object elem = working[i];
+            if (elem == Undefined.instance) {
+                ++undefinedCount;
+            } else if (elem != NOT_FOUND) {
+                working[defined++] = elem;
+            }
+        }
+        Arrays.fill(working, defined, defined + undefinedCount,
+                    Undefined.instance);
+        Arrays.fill(working, defined + undefinedCount, length, NOT_FOUND);
+
+        if (comparator != null) {
+            Sorting.timSort(working, 0, defined, comparator);
+        } else {
+            sortByStringValues(working, defined);
+        }
 
         // copy the working array back into thisObj
         for (int i = 0; i < length; ++i) {
@@ -1046,11 +1522,77 @@ public class NativeArray extends IdScriptableObject implements List
         return thisObj;
     }
 
+    /**
+     * Sort the first count elements of working by their string values, as
+     * the default comparator does. Strings compare as they are, and other
+     * primitives are converted once each rather than at every comparison.
+     * Converting an object may run script, so arrays holding objects are
+     * still converted at every comparison.
+     */
+    private static void sortByStringValues(Object[] working, int count)
+    {
+        boolean allStrings = true;
+        for (int i = 0; i != count; ++i) {
+            Object elem = working[i];
+            if (elem instanceof Scriptable) {
+                Sorting.timSort(working, 0, count, STRING_COMPARATOR);
+                return;
+            }
+            if (!(elem instanceof String)) {
+                allStrings = false;
+            }
+        }
+        if (allStrings) {
+            Sorting.timSort(working, 0, count, STRING_VALUE_COMPARATOR);
+            return;
+        }
+
+        Object[] keyed = new Object[count];
+        for (int i = 0; i != count; ++i) {
+            keyed[i] = new StringKeyed(ScriptRuntime.toString(working[i]),
+                                       working[i]);
+        }
+        Sorting.timSort(keyed, STRING_KEY_COMPARATOR);
+        for (int i = 0; i != count; ++i) {
+            working[i] = ((StringKeyed) keyed[i]).value;
+        }
+    }
+
+    private static final class StringKeyed
+    {
+        final String key;
+        final Object value;
+
+        StringKeyed(String key, Object value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
     private static Object js_push(Context cx, Scriptable thisObj,
                                   Object[] args)
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS) {
+                int i = 0;
+                while (i < args.length && na.isExtensible()
+                       && na.putPacked((int) na.length, args[i]))
+                {
+                    na.length++;
+                    i++;
+                }
+                if (i == args.length) {
+                    return ScriptRuntime.wrapNumber(na.length);
+                }
+                na.toObjectElements();
+                if (i != 0) {
+                    Object[] rest = new Object[args.length - i];
+                    System.arraycopy(args, i, rest, 0, rest.length);
+                    args = rest;
+                }
+            }
             if (na.denseOnly &&
                 na.ensureCapacity((int) na.length + args.length))
             {
@@ -1087,6 +1629,14 @@ public class NativeArray extends IdScriptableObject implements List
         Object result;
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS && na.length > 0) {
+                na.length--;
+                if (na.length < na.denseSize) {
+                    na.denseSize--;
+                    return na.getPacked(na.denseSize);
+                }
+                return Undefined.instance;
+            }
             if (na.denseOnly && na.length > 0) {
                 na.length--;
                 result = na.dense[(int)na.length];
@@ -1119,6 +1669,23 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS && na.length > 0) {
+                if (na.denseSize == 0) {
+                    na.length--;
+                    return Undefined.instance;
+                }
+                Object result = na.getPacked(0);
+                na.length--;
+                na.denseSize--;
+                if (na.elementsKind == INT_ELEMENTS) {
+                    System.arraycopy(na.intDense, 1, na.intDense, 0,
+                                     na.denseSize);
+                } else {
+                    System.arraycopy(na.doubleDense, 1, na.doubleDense, 0,
+                                     na.denseSize);
+                }
+                return result;
+            }
             if (na.denseOnly && na.length > 0) {
                 na.length--;
                 Object result = na.dense[0];
@@ -1161,6 +1728,7 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            na.toObjectElements();
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
@@ -1202,6 +1770,7 @@ public class NativeArray extends IdScriptableObject implements List
       boolean denseMode = false;
         if (thisObj instanceof NativeArray) {
             na = (NativeArray) thisObj;
+            na.toObjectElements();
             denseMode = na.denseOnly;
         }
 
@@ -1351,23 +1920,23 @@ public class NativeArray extends IdScriptableObject implements List
                         length++;
                     }
                 }
-                if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
+                if (canUseDense && length <= MAX_PRE_GROW_SIZE) {
+                    Object[] elements = new Object[length];
+                    denseThis.copyDense(0, elements, 0,
+                                        (int) denseThis.length);
                     int cursor = (int) denseThis.length;
-                    for (int i = 0; i < args.length && canUseDense; i++) {
+                    for (int i = 0; i < args.length; i++) {
                         if (args[i] instanceof NativeArray) {
                             NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
+                            arg.copyDense(0, elements, cursor,
+                                          (int)arg.length);
                             cursor += (int)arg.length;
                         } else {
-                            denseResult.dense[cursor++] = args[i];
+                            elements[cursor++] = args[i];
                         }
                     }
-                    denseResult.length = length;
-                    return result;
+                    // Takes the elements kind of the values
+                    return cx.newArray(scope, elements);
                 }
             }
         }
@@ -1435,6 +2004,25 @@ public class NativeArray extends IdScriptableObject implements List
             }
         }
 
+        if (thisObj instanceof NativeArray && begin < end) {
+            NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS && end <= na.denseSize) {
+                // No holes, so copy the numbers without boxing them
+                NativeArray packed = (NativeArray) result;
+                packed.elementsKind = na.elementsKind;
+                if (na.elementsKind == INT_ELEMENTS) {
+                    packed.intDense = Arrays.copyOfRange(na.intDense,
+                        (int) begin, (int) end);
+                } else {
+                    packed.doubleDense = Arrays.copyOfRange(na.doubleDense,
+                        (int) begin, (int) end);
+                }
+                packed.denseSize = (int) (end - begin);
+                packed.length = end - begin;
+                return result;
+            }
+        }
+
         for (long slot = begin; slot < end; slot++) {
             Object temp = getRawElem(thisObj, slot);
             if (temp != NOT_FOUND) {
@@ -1492,6 +2080,27 @@ public class NativeArray extends IdScriptableObject implements List
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS) {
+                // Only a number can equal an element, and NaN none
+                double number = compareTo instanceof Number
+                    ? ((Number) compareTo).doubleValue() : Double.NaN;
+                Scriptable proto = na.getPrototype();
+                for (int i=(int)start; i < length; i++) {
+                    if (i < na.denseSize) {
+                        if (na.getPackedNumber(i) == number) {
+                            return Long.valueOf(i);
+                        }
+                    } else if (proto != null) {
+                        Object val = ScriptableObject.getProperty(proto, i);
+                        if (val != NOT_FOUND &&
+                            ScriptRuntime.shallowEq(val, compareTo))
+                        {
+                            return Long.valueOf(i);
+                        }
+                    }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i < length; i++) {
@@ -1547,6 +2156,27 @@ public class NativeArray extends IdScriptableObject implements List
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.elementsKind != OBJECT_ELEMENTS) {
+                // Only a number can equal an element, and NaN none
+                double number = compareTo instanceof Number
+                    ? ((Number) compareTo).doubleValue() : Double.NaN;
+                Scriptable proto = na.getPrototype();
+                for (int i=(int)start; i >= 0; i--) {
+                    if (i < na.denseSize) {
+                        if (na.getPackedNumber(i) == number) {
+                            return Long.valueOf(i);
+                        }
+                    } else if (proto != null) {
+                        Object val = ScriptableObject.getProperty(proto, i);
+                        if (val != NOT_FOUND &&
+                            ScriptRuntime.shallowEq(val, compareTo))
+                        {
+                            return Long.valueOf(i);
+                        }
+                    }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i >= 0; i--) {
@@ -1613,9 +2243,11 @@ public class NativeArray extends IdScriptableObject implements List
             int resultLength = id == Id_map ? (int) length : 0;
             array = cx.newArray(scope, resultLength);
         }
+        Object[] reusableArgs = newReusableArgs(cx, f, 3);
         long j=0;
         for (long i=0; i < length; i++) {
-            Object[] innerArgs = new Object[3];
+            Object[] innerArgs = reusableArgs != null ? reusableArgs
+                                                      : new Object[3];
             Object elem = getRawElem(thisObj, i);
             if (elem == Scriptable.NOT_FOUND) {
                 if (id == Id_find || id == Id_findIndex) {
@@ -1635,7 +2267,7 @@ public class NativeArray extends IdScriptableObject implements List
                 break;
               case Id_filter:
                 if (ScriptRuntime.toBoolean(result))
-                    defineElem(cx, array, j++, innerArgs[0]);
+                    defineElem(cx, array, j++, elem);
                 break;
               case Id_forEach:
                 break;
@@ -1688,6 +2320,7 @@ public class NativeArray extends IdScriptableObject implements List
         // hack to serve both reduce and reduceRight with the same loop
         boolean movingLeft = id == Id_reduce;
         Object value = args.length > 1 ? args[1] : Scriptable.NOT_FOUND;
+        Object[] reusableArgs = newReusableArgs(cx, f, 4);
         for (long i = 0; i < length; i++) {
             long index = movingLeft ? i : (length - 1 - i);
             Object elem = getRawElem(thisObj, index);
@@ -1698,7 +2331,12 @@ public class NativeArray extends IdScriptableObject implements List
                 // no initial value passed, use first element found as inital value
                 value = elem;
             } else {
-                Object[] innerArgs = { value, elem, index, thisObj };
+                Object[] innerArgs = reusableArgs != null ? reusableArgs
+                                                          : new Object[4];
+                innerArgs[0] = value;
+                innerArgs[1] = elem;
+                innerArgs[2] = Long.valueOf(index);
+                innerArgs[3] = thisObj;
                 value = f.call(cx, parent, parent, innerArgs);
             }
         }
@@ -1709,6 +2347,22 @@ public class NativeArray extends IdScriptableObject implements List
         return value;
     }
 
+    /**
+     * Return an array of the given size for the arguments of calls to f
+     * that can be reused from one call to the next, or null if f could
+     * still refer to it after the call, through its arguments object or a
+     * debugger.
+     */
+    private static Object[] newReusableArgs(Context cx, Function f, int size)
+    {
+        if (cx.getDebugger() == null && f instanceof NativeFunction
+            && !((NativeFunction) f).requiresActivation())
+        {
+            return new Object[size];
+        }
+        return null;
+    }
+
     private static boolean js_isArray(Object o) {
         if (!(o instanceof Scriptable)) {
             return false;
@@ -1977,7 +2631,22 @@ public class NativeArray extends IdScriptableObject implements List
     // Comparators for the js_sort method. Putting them here lets us unit-test them better.
 
     private static final Comparator<Object> STRING_COMPARATOR = new StringLikeComparator();
-    private static final Comparator<Object> DEFAULT_COMPARATOR = new ElementComparator();
+
+    private static final Comparator<Object> STRING_VALUE_COMPARATOR =
+        new Comparator<Object>() {
+          @Override
+          public int compare(final Object x, final Object y) {
+            return ((String) x).compareTo((String) y);
+          }
+        };
+
+    private static final Comparator<Object> STRING_KEY_COMPARATOR =
+        new Comparator<Object>() {
+          @Override
+          public int compare(final Object x, final Object y) {
+            return ((StringKeyed) x).key.compareTo(((StringKeyed) y).key);
+          }
+        };
 
     public static final class StringLikeComparator
       implements Comparator<Object> {
@@ -2158,6 +2827,29 @@ public class NativeArray extends IdScriptableObject implements List
      */
     private Object[] dense;
 
+    /**
+     * Kind of the values in a dense-only array. Arrays of only Integer
+     * values keep them unboxed in <code>intDense</code>, and arrays of
+     * Integer and Double values in <code>doubleDense</code>, without holes,
+     * and <code>dense</code> is null. Storing any other value, or leaving a
+     * hole, moves the elements to <code>dense</code> for good.
+     */
+    private int elementsKind;
+
+    private static final int OBJECT_ELEMENTS = 0;
+    private static final int INT_ELEMENTS = 1;
+    private static final int DOUBLE_ELEMENTS = 2;
+
+    private int[] intDense;
+    private double[] doubleDense;
+
+    /**
+     * The number of elements in <code>intDense</code> or
+     * <code>doubleDense</code>, which are at indexes 0 to denseSize - 1.
+     * Any indexes from there to the length are holes.
+     */
+    private int denseSize;
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
@@ -2178,4 +2870,43 @@ public class NativeArray extends IdScriptableObject implements List
      */
     private static final double GROW_FACTOR = 1.5;
     private static final int MAX_PRE_GROW_SIZE = (int)(Integer.MAX_VALUE / GROW_FACTOR);
+
+    /**
+     * Storage for the elements of a sparse array that are not in
+     * <code>dense</code>, as pages of PAGE_SIZE elements. The page of an
+     * index is in the directory <code>index &gt;&gt;&gt; DIRECTORY_SHIFT</code>,
+     * and directories and pages are only allocated where there are
+     * elements. Missing elements are NOT_FOUND.
+     * <p>
+     * Elements stay in the superclass's hashtable until PAGE_MIN_COUNT of
+     * them would share a page, so that isolated elements cost no page, and
+     * indexes from MAX_PAGED_INDEX on always use it.
+     */
+    private Object[][][] pages;
+
+    /**
+     * The number of elements in <code>pages</code>.
+     */
+    private int pagedCount;
+
+    /**
+     * The number of elements put in the superclass's hashtable by index of
+     * the page they would be in, for pages not allocated yet. Deleting
+     * elements does not decrease it, which at worst allocates a page early.
+     */
+    private UintMap slotCounts;
+
+    /**
+     * True once an element was defined with attributes, after which all
+     * elements of the sparse array use the superclass's hashtable.
+     */
+    private boolean pagesDisabled;
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGE_MIN_COUNT = PAGE_SIZE / 8;
+    private static final int DIRECTORY_SHIFT = 20;
+    private static final int DIRECTORY_MASK = (1 << (DIRECTORY_SHIFT - PAGE_SHIFT)) - 1;
+    private static final int MAX_PAGED_INDEX = 1 << 26;
 }
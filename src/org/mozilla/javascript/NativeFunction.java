@@ -17,12 +17,32 @@ public abstract class NativeFunction extends BaseFunction
 {
 
     static final long serialVersionUID = 8713897114082216401L;
-    
+
+    // The interpreted function whose body this one runs, if tiered
+    // compilation created it
+    private transient NativeFunction interpretedSelf;
+
     public final void initScriptFunction(Context cx, Scriptable scope)
     {
         ScriptRuntime.setFunctionProtoAndParent(this, scope);
     }
 
+    /**
+     * Returns the function that the code of this function sees as itself,
+     * through arguments.callee, its activation and its own name. That is
+     * this function, unless it runs the body of an interpreted function
+     * once tiered compilation compiled it.
+     */
+    protected final NativeFunction getSelfFunction()
+    {
+        return interpretedSelf != null ? interpretedSelf : this;
+    }
+
+    final void setInterpretedSelf(NativeFunction f)
+    {
+        interpretedSelf = f;
+    }
+
     /**
      * @param indent How much to indent the decompiled result
      *
@@ -134,5 +154,17 @@ public abstract class NativeFunction extends BaseFunction
         // from earlier Rhino versions. See Bugzilla #396117.
         return false;
     }
+
+    /**
+     * Return false if calls keep the parameters in local variables rather
+     * than in an activation object, so that nothing refers to the arguments
+     * array once the call returns and callers may reuse it.
+     */
+    protected boolean requiresActivation()
+    {
+        // By default return true, which is always safe, for the same
+        // classes as above.
+        return true;
+    }
 }
 
@@ -6,9 +6,12 @@
 
 package org.mozilla.javascript;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
@@ -207,10 +210,91 @@ public final class NativeJSON extends IdScriptableObject
 
         Context cx;
         Scriptable scope;
+
+        // The JSON text is written here, and moved to writer whenever it
+        // grows past FLUSH_SIZE if there is one
+        StringBuilder out = new StringBuilder();
+        Writer writer;
+
+        // The shapes of the last plain object or array found to have no
+        // toJSON property and of each object on its prototype chain, and
+        // those objects, with null for the plain object itself
+        Shape[] plainShapes;
+        Scriptable[] plainChain;
+
+        void flushIfFull() {
+            if (writer != null && out.length() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            try {
+                writer.append(out);
+            } catch (IOException ex) {
+                throw Context.throwAsScriptRuntimeEx(ex);
+            }
+            out.setLength(0);
+        }
     }
 
+    private static final int FLUSH_SIZE = 8192;
+
     public static Object stringify(Context cx, Scriptable scope, Object value,
                                    Object replacer, Object space)
+    {
+        StringifyState state = newState(cx, scope, replacer, space);
+        Object jsonValue = toJsonValue("", wrap(scope, value), state);
+        if (jsonValue == Undefined.instance) {
+            return Undefined.instance;
+        }
+        write(jsonValue, state);
+        return state.out.toString();
+    }
+
+    /**
+     * Write the string that JSON.stringify would return for the arguments to
+     * out in UTF-8, in chunks as it is produced. Nothing is written if
+     * JSON.stringify would return undefined. The stream is flushed but not
+     * closed.
+     */
+    public static void stringify(Context cx, Scriptable scope, Object value,
+                                 Object replacer, Object space,
+                                 OutputStream out)
+        throws IOException
+    {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        stringify(cx, scope, value, replacer, space, writer);
+        writer.flush();
+    }
+
+    /**
+     * Write the string that JSON.stringify would return for the arguments to
+     * writer, in chunks as it is produced. Nothing is written if
+     * JSON.stringify would return undefined.
+     */
+    public static void stringify(Context cx, Scriptable scope, Object value,
+                                 Object replacer, Object space, Writer writer)
+        throws IOException
+    {
+        StringifyState state = newState(cx, scope, replacer, space);
+        state.writer = writer;
+        try {
+            Object jsonValue = toJsonValue("", wrap(scope, value), state);
+            if (jsonValue != Undefined.instance) {
+                write(jsonValue, state);
+                state.flush();
+            }
+        } catch (WrappedException ex) {
+            if (ex.getWrappedException() instanceof IOException) {
+                throw (IOException) ex.getWrappedException();
+            }
+            throw ex;
+        }
+    }
+
+    private static StringifyState newState(Context cx, Scriptable scope,
+                                           Object replacer, Object space)
     {
         String indent = "";
         String gap = "";
@@ -251,22 +335,29 @@ public final class NativeJSON extends IdScriptableObject
             }
         }
 
-        StringifyState state = new StringifyState(cx, scope,
+        return new StringifyState(cx, scope,
             indent,
             gap,
             replacerFunction,
             propertyList,
             space);
+    }
 
+    private static Scriptable wrap(Scriptable scope, Object value) {
         ScriptableObject wrapper = new NativeObject();
         wrapper.setParentScope(scope);
         wrapper.setPrototype(ScriptableObject.getObjectPrototype(scope));
         wrapper.defineProperty("", value, 0);
-        return str("", wrapper, state);
+        return wrapper;
     }
 
-    private static Object str(Object key, Scriptable holder,
-                              StringifyState state)
+    /**
+     * Get the value of the property key of holder as it is to be written,
+     * after toJSON, the replacer and unwrapping, or Undefined.instance if it
+     * is not written at all.
+     */
+    private static Object toJsonValue(Object key, Scriptable holder,
+                                      StringifyState state)
     {
         Object value = null;
         if (key instanceof String) {
@@ -274,8 +365,16 @@ public final class NativeJSON extends IdScriptableObject
         } else {
             value = getProperty(holder, ((Number) key).intValue());
         }
+        return toJsonValue(key, value, holder, state);
+    }
 
-        if (value instanceof Scriptable && hasProperty((Scriptable) value, "toJSON")) {
+    /**
+     * As toJsonValue, given the value of the property.
+     */
+    private static Object toJsonValue(Object key, Object value,
+                                      Scriptable holder, StringifyState state)
+    {
+        if (value instanceof Scriptable && hasToJSON((Scriptable) value, state)) {
             Object toJSON = getProperty((Scriptable) value, "toJSON");
             if (toJSON instanceof Callable) {
                 value = callMethod(state.cx, (Scriptable) value, "toJSON",
@@ -297,48 +396,120 @@ public final class NativeJSON extends IdScriptableObject
             value = ((NativeBoolean) value).getDefaultValue(ScriptRuntime.BooleanClass);
         }
 
-        if (value == null) return "null";
-        if (value.equals(Boolean.TRUE)) return "true";
-        if (value.equals(Boolean.FALSE)) return "false";
+        if (value == null || value instanceof Boolean
+            || value instanceof CharSequence || value instanceof Number
+            || (value instanceof Scriptable && !(value instanceof Callable)))
+        {
+            return value;
+        }
+        return Undefined.instance;
+    }
 
-        if (value instanceof CharSequence) {
-            return quote(value.toString());
+    /**
+     * Return whether value has a toJSON property, as hasProperty would. The
+     * objects and arrays of a JSON document nearly always have the same
+     * shape and prototypes, so once one of them is found to have no toJSON
+     * it is enough for the next ones to compare their shapes and
+     * prototypes, and the shapes of those, with it. A shape stands for a
+     * set of property names, so a toJSON added anywhere on the chain
+     * changes one of them.
+     */
+    private static boolean hasToJSON(Scriptable value, StringifyState state)
+    {
+        Class<?> cl = value.getClass();
+        boolean plain = cl == NativeObject.class || cl == NativeArray.class;
+        if (plain && isKnownPlain(value, state)) {
+            return false;
+        }
+        if (hasProperty(value, "toJSON")) {
+            return true;
+        }
+        if (plain) {
+            rememberPlain(value, state);
         }
+        return false;
+    }
 
-        if (value instanceof Number) {
-            double d = ((Number) value).doubleValue();
-            if (d == d && d != Double.POSITIVE_INFINITY &&
-                d != Double.NEGATIVE_INFINITY)
-            {
-                return ScriptRuntime.toString(value);
+    private static boolean isKnownPlain(Scriptable value, StringifyState state)
+    {
+        Shape[] shapes = state.plainShapes;
+        if (shapes == null) {
+            return false;
+        }
+        Scriptable[] chain = state.plainChain;
+        Scriptable obj = value;
+        for (int i = 0; i < shapes.length; i++) {
+            if (i > 0) {
+                obj = obj.getPrototype();
+                if (obj != chain[i]) {
+                    return false;
+                }
+            }
+            if (((ScriptableObject) obj).getShape() != shapes[i]) {
+                return false;
             }
-            return "null";
         }
+        return obj.getPrototype() == null;
+    }
 
-        if (value instanceof Scriptable && !(value instanceof Callable)) {
-            if (value instanceof NativeArray) {
-                return ja((NativeArray) value, state);
+    private static void rememberPlain(Scriptable value, StringifyState state)
+    {
+        int length = 0;
+        for (Scriptable obj = value; obj != null; obj = obj.getPrototype()) {
+            if (!(obj instanceof ScriptableObject)
+                || ((ScriptableObject) obj).getShape() == null)
+            {
+                return;
             }
-            return jo((Scriptable) value, state);
+            length++;
         }
-
-        return Undefined.instance;
+        Shape[] shapes = new Shape[length];
+        Scriptable[] chain = new Scriptable[length];
+        Scriptable obj = value;
+        for (int i = 0; i < length; i++) {
+            shapes[i] = ((ScriptableObject) obj).getShape();
+            chain[i] = (i == 0) ? null : obj;
+            obj = obj.getPrototype();
+        }
+        state.plainShapes = shapes;
+        state.plainChain = chain;
     }
 
-    private static String join(Collection<Object> objs, String delimiter) {
-        if (objs == null || objs.isEmpty()) {
-            return "";
-        }
-        Iterator<Object> iter = objs.iterator();
-        if (!iter.hasNext()) return "";
-        StringBuilder builder = new StringBuilder(iter.next().toString());
-        while (iter.hasNext()) {
-            builder.append(delimiter).append(iter.next().toString());
+    /**
+     * Write a value returned by toJsonValue other than Undefined.instance.
+     */
+    private static void write(Object value, StringifyState state)
+    {
+        StringBuilder out = state.out;
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof ConsString) {
+            // Read the characters of the string where they are, in
+            // particular the bytes of a Latin-1 string, without flattening
+            quote((CharSequence) value, out);
+        } else if (value instanceof CharSequence) {
+            quote(value.toString(), out);
+        } else if (value instanceof Integer) {
+            out.append(((Integer) value).intValue());
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d == d && d != Double.POSITIVE_INFINITY &&
+                d != Double.NEGATIVE_INFINITY)
+            {
+                out.append(ScriptRuntime.toString(value));
+            } else {
+                out.append("null");
+            }
+        } else if (value instanceof NativeArray) {
+            ja((NativeArray) value, state);
+        } else {
+            jo((Scriptable) value, state);
         }
-        return builder.toString();
     }
 
-    private static String jo(Scriptable value, StringifyState state) {
+    private static void jo(Scriptable value, StringifyState state) {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -349,45 +520,110 @@ public final class NativeJSON extends IdScriptableObject
         Object[] k = null;
         if (state.propertyList != null) {
             k = state.propertyList.toArray();
-        } else {
+        } else if (!isShaped(value)) {
             k = value.getIds();
         }
 
-        List<Object> partial = new LinkedList<Object>();
-
-        for (Object p : k) {
-            Object strP = str(p, value, state);
-            if (strP != Undefined.instance) {
-                String member = quote(p.toString()) + ":";
-                if (state.gap.length() > 0) {
-                    member = member + " ";
+        boolean empty = true;
+        state.out.append('{');
+        if (k == null) {
+            empty = joShaped((ScriptableObject) value, state);
+        } else {
+            for (Object p : k) {
+                if (writeMember(p, toJsonValue(p, value, state), empty, state)) {
+                    empty = false;
                 }
-                member = member + strP;
-                partial.add(member);
             }
         }
+        if (state.gap.length() > 0 && !empty) {
+            state.out.append('\n').append(stepback);
+        }
+        state.out.append('}');
 
-        final String finalValue;
+        state.stack.pop();
+        state.indent = stepback;
+    }
 
-        if (partial.isEmpty()) {
-            finalValue = "{}";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '{' + join(partial, ",") + '}';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "{\n" + state.indent + properties + '\n' +
-                    stepback + '}';
+    /**
+     * Return whether value is a plain object whose properties can be read
+     * through its shape, in the order getIds() would return them.
+     */
+    private static boolean isShaped(Scriptable value) {
+        if (value.getClass() != NativeObject.class) {
+            return false;
+        }
+        ScriptableObject obj = (ScriptableObject) value;
+        Shape shape = obj.getShape();
+        // joShaped keeps a bit per property in a long
+        return shape != null && shape.size() <= Long.SIZE
+            && obj.getExternalArrayData() == null;
+    }
+
+    /**
+     * Write the members of an object for which isShaped is true, reading
+     * their values straight from its slots. The names and enumerability
+     * are taken when it starts, as getIds() would; if the object changes
+     * while it is written, the remaining values are looked up instead.
+     * Return whether no member was written.
+     */
+    private static boolean joShaped(ScriptableObject value,
+                                    StringifyState state)
+    {
+        Shape shape = value.getShape();
+        int size = shape.size();
+        long enumerable = 0;
+        for (int i = 0; i < size; i++) {
+            if ((value.getShapedSlot(i).getAttributes() & DONTENUM) == 0) {
+                enumerable |= 1L << i;
+            }
+        }
+        boolean empty = true;
+        for (int i = 0; i < size; i++) {
+            if ((enumerable & (1L << i)) == 0) {
+                continue;
+            }
+            String key = (String) shape.getKey(i);
+            Object v = value.getShape() == shape
+                ? value.getShapedSlot(i).getValue(value)
+                : getProperty(value, key);
+            if (writeMember(key, toJsonValue(key, v, value, state), empty,
+                            state)) {
+                empty = false;
             }
         }
+        return empty;
+    }
 
-        state.stack.pop();
-        state.indent = stepback;
-        return finalValue;
+    /**
+     * Write the member of an object with the given key and toJsonValue
+     * result, after a comma unless first, and return whether it was
+     * written.
+     */
+    private static boolean writeMember(Object key, Object strP, boolean first,
+                                       StringifyState state)
+    {
+        if (strP == Undefined.instance) {
+            return false;
+        }
+        boolean hasGap = state.gap.length() > 0;
+        StringBuilder out = state.out;
+        if (!first) {
+            out.append(',');
+        }
+        if (hasGap) {
+            out.append('\n').append(state.indent);
+        }
+        quote(key.toString(), out);
+        out.append(':');
+        if (hasGap) {
+            out.append(' ');
+        }
+        write(strP, state);
+        state.flushIfFull();
+        return true;
     }
 
-    private static String ja(NativeArray value, StringifyState state) {
+    private static void ja(NativeArray value, StringifyState state) {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -395,48 +631,52 @@ public final class NativeJSON extends IdScriptableObject
 
         String stepback = state.indent;
         state.indent = state.indent + state.gap;
-        List<Object> partial = new LinkedList<Object>();
 
+        boolean hasGap = state.gap.length() > 0;
         long len = value.getLength();
+        state.out.append('[');
         for (long index = 0; index < len; index++) {
             Object strP;
             if (index > Integer.MAX_VALUE) {
-                strP = str(Long.toString(index), value, state);
+                strP = toJsonValue(Long.toString(index), value, state);
             } else {
-                strP = str((int) index, value, state);
+                strP = toJsonValue((int) index, value, state);
+            }
+            StringBuilder out = state.out;
+            if (index > 0) {
+                out.append(',');
+            }
+            if (hasGap) {
+                out.append('\n').append(state.indent);
             }
             if (strP == Undefined.instance) {
-                partial.add("null");
+                out.append("null");
             } else {
-                partial.add(strP);
+                write(strP, state);
             }
+            state.flushIfFull();
         }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "[]";
-        } else {
-            if (state.gap.length() == 0) {
-                finalValue = '[' + join(partial, ",") + ']';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "[\n" + state.indent + properties + '\n' + stepback + ']';
-            }
+        if (hasGap && len > 0) {
+            state.out.append('\n').append(stepback);
         }
+        state.out.append(']');
 
         state.stack.pop();
         state.indent = stepback;
-        return finalValue;
     }
 
-    private static String quote(String string) {
-        StringBuilder product = new StringBuilder(string.length()+2); // two extra chars for " on either side
+    private static void quote(CharSequence string, StringBuilder product) {
         product.append('"');
         int length = string.length();
+        // Characters that need no escape are appended in runs
+        int start = 0;
         for (int i = 0; i < length; i++) {
             char c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            product.append(string, start, i);
+            start = i + 1;
             switch (c) {
                 case '"':
                     product.append("\\\"");
@@ -460,21 +700,18 @@ public final class NativeJSON extends IdScriptableObject
                     product.append("\\t");
                     break;
                 default:
-                    if (c < ' ') {
-                        product.append("\\u");
-                        String hex = String.format("%04x", (int) c);
-                        product.append(hex);
-                    }
-                    else {
-                        product.append(c);
-                    }
+                    product.append("\\u00")
+                           .append(HEX_DIGITS[c >> 4])
+                           .append(HEX_DIGITS[c & 0xF]);
                     break;
             }
         }
+        product.append(string, start, length);
         product.append('"');
-        return product.toString();
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 // #string_id_map#
 
     @Override
@@ -285,12 +285,12 @@ final class NativeString extends IdScriptableObject
                 }
 
                 case Id_indexOf:
-                    return ScriptRuntime.wrapInt(js_indexOf(Id_indexOf, ScriptRuntime.toString(thisObj), args));
+                    return ScriptRuntime.wrapInt(js_indexOf(Id_indexOf, ScriptRuntime.toCharSequence(thisObj), args));
 
                 case Id_includes:
                 case Id_startsWith:
                 case Id_endsWith:
-                    String s = ScriptRuntime.toString(requireObjectCoercible(cx, thisObj, f));
+                    CharSequence s = ScriptRuntime.toCharSequence(requireObjectCoercible(cx, thisObj, f));
                     if (args.length > 0 && args[0] instanceof NativeRegExp) {
                         throw ScriptRuntime.typeError2("msg.first.arg.not.regexp", String.class.getSimpleName(), f.getFunctionName());
                     }
@@ -588,7 +588,7 @@ final class NativeString extends IdScriptableObject
      * See ECMA 15.5.4.6.  Uses Java String.indexOf()
      * OPT to add - BMH searching from jsstr.c.
      */
-    private static int  js_indexOf(int methodId, String target, Object[] args) {
+    private static int  js_indexOf(int methodId, CharSequence target, Object[] args) {
         String searchStr = ScriptRuntime.toString(args, 0);
         double position = ScriptRuntime.toInteger(args, 1);
 
@@ -602,11 +602,15 @@ final class NativeString extends IdScriptableObject
 
         if (Id_endsWith == methodId) {
             if (args.length == 0 || args.length == 1 || (args.length == 2 && args[1] == Undefined.instance)) position = target.length();
-            return target.substring(0, (int)position).endsWith(searchStr) ? 0 : -1;
+            return target.toString().substring(0, (int)position).endsWith(searchStr) ? 0 : -1;
         }
-        return methodId == Id_startsWith
-                ? target.startsWith(searchStr, (int)position) ? 0 : -1
-                : target.indexOf(searchStr, (int)position);
+        if (methodId == Id_startsWith) {
+            return target.toString().startsWith(searchStr, (int)position) ? 0 : -1;
+        }
+        // Search the bytes of a Latin-1 ConsString without flattening it
+        return target instanceof ConsString
+                ? ((ConsString)target).indexOf(searchStr, (int)position)
+                : target.toString().indexOf(searchStr, (int)position);
     }
 
     /*
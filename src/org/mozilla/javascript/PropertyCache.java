@@ -0,0 +1,276 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A PropertyCache is an inline cache for one site in a script that gets or sets a
+ * property with a constant name, as in <code>a.b</code> or <code>a.b = c</code>.
+ * Both compiled classes and the interpreter use them.
+ *
+ * The cache remembers the Shapes of the objects that were seen at the site, together
+ * with the offset of the property within each of them. When an object of a remembered
+ * shape comes along, the slot is fetched directly by offset rather than by looking up
+ * the name. A site starts out empty, becomes monomorphic after the first object, and
+ * polymorphic after further shapes, up to MAX_ENTRIES of them. Beyond that the site is
+ * considered megamorphic and stops caching, and all accesses take the generic path
+ * through ScriptRuntime without even looking at the shape of the object.
+ *
+ * Only own properties of plain objects (exact instances of NativeObject) are cached,
+ * since other classes may override get and put. Entries are immutable and replaced as
+ * a whole, so a single cache may be safely shared by all threads running a script.
+ */
+public final class PropertyCache
+{
+    /**
+     * The number of different shapes a site may see before it is megamorphic.
+     */
+    public static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] MEGAMORPHIC = new Entry[0];
+
+    private static boolean statisticsEnabled;
+    private static final LongAdder hitCount = new LongAdder();
+    private static final LongAdder missCount = new LongAdder();
+    private static final LongAdder megamorphicCount = new LongAdder();
+
+    private static final class Entry
+    {
+        final Shape shape;
+        final int offset;
+
+        Entry(Shape shape, int offset)
+        {
+            this.shape = shape;
+            this.offset = offset;
+        }
+    }
+
+    private final String name;
+    private volatile Entry[] entries;
+
+    public PropertyCache(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Return whether this site has seen more shapes than it is willing to cache.
+     */
+    public boolean isMegamorphic()
+    {
+        return entries == MEGAMORPHIC;
+    }
+
+    /**
+     * Same as ScriptRuntime.getObjectProp(obj, name, cx, scope) for the name of this
+     * cache.
+     */
+    public Object getObjectProp(Object obj, Context cx, Scriptable scope)
+    {
+        if (isMegamorphicAccess()) {
+            return ScriptRuntime.getObjectProp(obj, name, cx, scope);
+        }
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            NativeObject so = (NativeObject) obj;
+            Shape shape = so.getShape();
+            if (shape != null) {
+                int offset = find(shape);
+                if (offset >= 0) {
+                    if (statisticsEnabled) {
+                        hitCount.increment();
+                    }
+                    return so.getShapedSlot(offset).getValue(so);
+                }
+                recordMiss();
+                offset = shape.indexOf(name);
+                if (offset >= 0) {
+                    add(shape, offset);
+                    return so.getShapedSlot(offset).getValue(so);
+                }
+            }
+        }
+        return ScriptRuntime.getObjectProp(obj, name, cx, scope);
+    }
+
+    /**
+     * Same as ScriptRuntime.setObjectProp(obj, name, value, cx, scope) for the name of
+     * this cache.
+     */
+    public Object setObjectProp(Object obj, Object value, Context cx,
+                                Scriptable scope)
+    {
+        if (isMegamorphicAccess()) {
+            return ScriptRuntime.setObjectProp(obj, name, value, cx, scope);
+        }
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            NativeObject so = (NativeObject) obj;
+            Shape shape = so.getShape();
+            // Non-extensible and sealed objects have extra checks in putImpl
+            if (shape != null && so.isExtensible() && !so.isSealed()) {
+                int offset = find(shape);
+                if (offset >= 0) {
+                    if (statisticsEnabled) {
+                        hitCount.increment();
+                    }
+                    so.getShapedSlot(offset).setValue(value, so, so);
+                    return value;
+                }
+                recordMiss();
+                offset = shape.indexOf(name);
+                if (offset >= 0) {
+                    add(shape, offset);
+                    so.getShapedSlot(offset).setValue(value, so, so);
+                    return value;
+                }
+            }
+        }
+        return ScriptRuntime.setObjectProp(obj, name, value, cx, scope);
+    }
+
+    /**
+     * Same as ScriptRuntime.getPropFunctionAndThis(obj, name, cx, scope) for the name
+     * of this cache.
+     */
+    public Callable getPropFunctionAndThis(Object obj, Context cx, Scriptable scope)
+    {
+        if (isMegamorphicAccess()) {
+            return ScriptRuntime.getPropFunctionAndThis(obj, name, cx, scope);
+        }
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            NativeObject so = (NativeObject) obj;
+            Shape shape = so.getShape();
+            if (shape != null) {
+                int offset = find(shape);
+                if (offset < 0) {
+                    recordMiss();
+                    offset = shape.indexOf(name);
+                    if (offset >= 0) {
+                        add(shape, offset);
+                    }
+                } else if (statisticsEnabled) {
+                    hitCount.increment();
+                }
+                if (offset >= 0) {
+                    Object value = so.getShapedSlot(offset).getValue(so);
+                    if (value instanceof Callable) {
+                        ScriptRuntime.storeScriptable(cx, so);
+                        return (Callable) value;
+                    }
+                }
+            }
+        }
+        return ScriptRuntime.getPropFunctionAndThis(obj, name, cx, scope);
+    }
+
+    private int find(Shape shape)
+    {
+        final Entry[] e = entries;
+        if (e != null) {
+            for (int i = 0; i < e.length; i++) {
+                if (e[i].shape == shape) {
+                    return e[i].offset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void add(Shape shape, int offset)
+    {
+        final Entry[] e = entries;
+        if (e == null) {
+            entries = new Entry[] { new Entry(shape, offset) };
+        } else if (e == MEGAMORPHIC) {
+            // Nothing to do
+        } else if (e.length >= MAX_ENTRIES) {
+            entries = MEGAMORPHIC;
+        } else {
+            Entry[] newEntries = new Entry[e.length + 1];
+            System.arraycopy(e, 0, newEntries, 0, e.length);
+            newEntries[e.length] = new Entry(shape, offset);
+            entries = newEntries;
+        }
+    }
+
+    /**
+     * Return whether this site is megamorphic, in which case the access goes
+     * straight to ScriptRuntime without looking at the shape of the object.
+     */
+    private boolean isMegamorphicAccess()
+    {
+        if (entries != MEGAMORPHIC) {
+            return false;
+        }
+        if (statisticsEnabled) {
+            missCount.increment();
+            megamorphicCount.increment();
+        }
+        return true;
+    }
+
+    private void recordMiss()
+    {
+        if (statisticsEnabled) {
+            missCount.increment();
+        }
+    }
+
+    /**
+     * Turn on or off the collection of hit and miss counts for all property caches.
+     * Counting is off by default, since it costs a little on every access.
+     */
+    public static void setStatisticsEnabled(boolean enabled)
+    {
+        statisticsEnabled = enabled;
+    }
+
+    public static boolean isStatisticsEnabled()
+    {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Return the number of accesses that were satisfied by a cache entry since
+     * statistics were last reset.
+     */
+    public static long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    /**
+     * Return the number of cacheable accesses that did not find a matching entry,
+     * plus all accesses at megamorphic sites, since statistics were last reset.
+     */
+    public static long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    /**
+     * Return the number of accesses that happened at megamorphic sites since
+     * statistics were last reset.
+     */
+    public static long getMegamorphicCount()
+    {
+        return megamorphicCount.sum();
+    }
+
+    public static void resetStatistics()
+    {
+        hitCount.reset();
+        missCount.reset();
+        megamorphicCount.reset();
+    }
+}
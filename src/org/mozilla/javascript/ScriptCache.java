@@ -0,0 +1,222 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded in-memory cache of compiled scripts, shared by all threads that
+ * use the same {@link ContextFactory}.
+ * <p>
+ * When a factory has a script cache, {@link Context#compileString} and
+ * {@link Context#compileReader} return the Script already compiled for the
+ * same source text, source name, line number and compiler settings,
+ * including the optimization level. A Script holds no per-execution state,
+ * so one instance may be executed by many threads at once.
+ * <p>
+ * The cache bounds the total length of the source texts of its scripts, which
+ * the compiled code grows with, and evicts the least recently used scripts
+ * when that is exceeded. A script longer than the bound is not cached.
+ * Scripts are only softly reachable from the
+ * cache, so the garbage collector may also drop them, together with their
+ * generated classes and class loaders, when memory runs low. Functions
+ * compiled with {@link Context#compileFunction}, which are bound to a scope,
+ * and scripts compiled with a debugger or under a SecurityController are
+ * never cached.
+ *
+ * @see ContextFactory#setScriptCache(ScriptCache)
+ */
+public final class ScriptCache
+{
+    private final long maxSourceLength;
+    private final LinkedHashMap<Key, SoftReference<Script>> map =
+        new LinkedHashMap<Key, SoftReference<Script>>(16, 0.75f, true);
+
+    private long sourceLength;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    static final class Key
+    {
+        private final String description;
+        private final String sourceName;
+        private final int lineno;
+        private final String source;
+        private final int hash;
+
+        Key(String description, String sourceName, int lineno, String source)
+        {
+            this.description = description;
+            this.sourceName = sourceName;
+            this.lineno = lineno;
+            this.source = source;
+            this.hash = ((source.hashCode() * 31 + sourceName.hashCode()) * 31
+                         + description.hashCode()) * 31 + lineno;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hash == other.hash && lineno == other.lineno
+                && source.equals(other.source)
+                && sourceName.equals(other.sourceName)
+                && description.equals(other.description);
+        }
+    }
+
+    /**
+     * Create a cache for scripts whose source texts are at most
+     * maxSourceLength characters long in total.
+     *
+     * @throws IllegalArgumentException if maxSourceLength is less than 1
+     */
+    public ScriptCache(long maxSourceLength)
+    {
+        if (maxSourceLength < 1) {
+            throw new IllegalArgumentException(
+                "maxSourceLength must be at least 1: " + maxSourceLength);
+        }
+        this.maxSourceLength = maxSourceLength;
+    }
+
+    public long getMaxSourceLength()
+    {
+        return maxSourceLength;
+    }
+
+    /**
+     * Return the total length of the source texts of the scripts in the
+     * cache.
+     */
+    public synchronized long getSourceLength()
+    {
+        return sourceLength;
+    }
+
+    /**
+     * Return the number of scripts in the cache, including any that the
+     * garbage collector has dropped but that were not looked up since.
+     */
+    public synchronized int size()
+    {
+        return map.size();
+    }
+
+    /**
+     * Return the number of compilations that were answered from the cache.
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of cacheable compilations that had to compile.
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Return the fraction of cacheable compilations that were answered from
+     * the cache, or 0 if there were none.
+     */
+    public synchronized double getHitRatio()
+    {
+        long total = hitCount + missCount;
+        return total == 0 ? 0.0 : (double)hitCount / total;
+    }
+
+    /**
+     * Return the number of scripts that left the cache because it was full or
+     * because the garbage collector dropped them.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Remove all scripts from the cache. The statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        map.clear();
+        sourceLength = 0;
+    }
+
+    synchronized Script get(Key key)
+    {
+        SoftReference<Script> ref = map.get(key);
+        Script script = (ref == null) ? null : ref.get();
+        if (script != null) {
+            ++hitCount;
+            return script;
+        }
+        if (ref != null) {
+            map.remove(key);
+            sourceLength -= key.source.length();
+            ++evictionCount;
+            expungeCleared();
+        }
+        ++missCount;
+        return null;
+    }
+
+    synchronized void put(Key key, Script script)
+    {
+        int length = key.source.length();
+        if (length > maxSourceLength) {
+            return;
+        }
+        if (map.put(key, new SoftReference<Script>(script)) == null) {
+            sourceLength += length;
+        }
+        // Iteration order is least recently used first
+        Iterator<Map.Entry<Key, SoftReference<Script>>> iter =
+            map.entrySet().iterator();
+        while (sourceLength > maxSourceLength) {
+            Key eldest = iter.next().getKey();
+            iter.remove();
+            sourceLength -= eldest.source.length();
+            ++evictionCount;
+        }
+    }
+
+    // One cleared entry suggests memory is low, so drop the other ones too
+    private void expungeCleared()
+    {
+        Iterator<Map.Entry<Key, SoftReference<Script>>> iter =
+            map.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, SoftReference<Script>> entry = iter.next();
+            if (entry.getValue().get() == null) {
+                iter.remove();
+                sourceLength -= entry.getKey().source.length();
+                ++evictionCount;
+            }
+        }
+    }
+}
@@ -1646,6 +1646,20 @@ public class ScriptRuntime {
         return getObjectProp(sobj, s, cx);
     }
 
+    /**
+     * Version of the above for an index that the compiler knows to be an
+     * int32 value.
+     */
+    public static Object getObjectIndex(Object obj, int index,
+                                        Context cx, Scriptable scope)
+    {
+        Scriptable sobj = toObjectOrNull(cx, obj, scope);
+        if (sobj == null) {
+            throw undefReadError(obj, Integer.toString(index));
+        }
+        return getObjectIndex(sobj, index, cx);
+    }
+
     public static Object getObjectIndex(Scriptable obj, int index,
                                         Context cx)
     {
@@ -3691,9 +3705,12 @@ public class ScriptRuntime {
 
     static NativeCall findFunctionActivation(Context cx, Function f)
     {
+        // A tiered function may be running as its compiled counterpart
+        Function compiled = (f instanceof InterpretedFunction)
+            ? ((InterpretedFunction)f).compiledFunction : null;
         NativeCall call = cx.currentActivationCall;
         while (call != null) {
-            if (call.function == f)
+            if (call.function == f || (compiled != null && call.function == compiled))
                 return call;
             call = call.parentActivationCall;
         }
@@ -4493,7 +4510,7 @@ public class ScriptRuntime {
         return value;
     }
 
-    private static void storeScriptable(Context cx, Scriptable value)
+    static void storeScriptable(Context cx, Scriptable value)
     {
         // The previously stored scratchScriptable should be consumed
         if (cx.scratchScriptable != null)
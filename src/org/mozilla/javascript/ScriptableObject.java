@@ -2987,6 +2987,21 @@ public abstract class ScriptableObject implements Scriptable,
         }
     }
 
+    /**
+     * Return the Shape that currently describes the properties of this object, or null
+     * if they are not stored in shaped form. Used by PropertyCache.
+     */
+    final Shape getShape() {
+        return slotMap.getShape();
+    }
+
+    /**
+     * Return the slot at the given offset of the Shape returned by getShape().
+     */
+    final Slot getShapedSlot(int offset) {
+        return slotMap.getShapedSlot(offset);
+    }
+
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
         Slot slot = getSlot(cx, id, SlotAccess.QUERY);
         if (slot == null) return null;
@@ -0,0 +1,196 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Shape (sometimes called a "hidden class") describes the layout of the properties held
+ * by a ShapedSlotMap: which property names are present, in which order they were added,
+ * and at which offset of the slot array each one lives.
+ *
+ * Shapes are immutable and shared between objects. Adding a property moves an object
+ * along a "transition" from its current shape to a child shape, and transitions are
+ * remembered, so all objects that had the same properties added in the same order -- such
+ * as those created by the same object literal or constructor -- end up with the very same
+ * Shape instance. That means the property table exists once per layout rather than once
+ * per object, and that a given property has a fixed offset for every object of a shape,
+ * which callers may cache.
+ *
+ * Transitions are held through weak references so that layouts that are no longer used
+ * by any object may be garbage collected.
+ */
+final class Shape
+{
+    /**
+     * Objects that grow beyond this many properties are switched by SlotMapContainer
+     * to a dictionary-style SlotMap, since they are unlikely to share a layout.
+     */
+    static final int MAX_PROPERTIES = 64;
+
+    /**
+     * Once a shape has this many live transitions, further children are created without
+     * being registered. This keeps objects used as hash tables from growing the tree.
+     */
+    private static final int MAX_TRANSITIONS = 128;
+
+    /**
+     * Shapes with at most this many properties are searched linearly, which is faster
+     * than hashing for the small objects that make up the vast majority of cases.
+     */
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    /**
+     * The root of the transition tree: the shape of an object with no properties.
+     */
+    static final Shape EMPTY = new Shape(null, new Object[0]);
+
+    // Keeps the transition path leading to this shape reachable while it is in use
+    private final Shape parent;
+    private final Object[] keys;
+    private final int[] hashes;
+
+    private volatile Map<Object, Integer> keyIndex;
+    private volatile ConcurrentHashMap<Object, WeakReference<Shape>> transitions;
+
+    // The most recently followed transition, which is nearly always the one needed next.
+    // It is the reference held in transitions, so that it does not keep the child alive.
+    private volatile WeakReference<Shape> lastTransition;
+
+    private Shape(Shape parent, Object[] keys)
+    {
+        this.parent = parent;
+        this.keys = keys;
+        this.hashes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = keys[i].hashCode();
+        }
+    }
+
+    /**
+     * Return the number of properties described by this shape.
+     */
+    int size()
+    {
+        return keys.length;
+    }
+
+    /**
+     * Return the name of the property stored at the given offset.
+     */
+    Object getKey(int offset)
+    {
+        return keys[offset];
+    }
+
+    /**
+     * Return the offset of the property with the given name, or -1 if this shape
+     * does not contain it.
+     */
+    int indexOf(Object key)
+    {
+        final Object[] k = keys;
+        if (k.length <= LINEAR_SEARCH_LIMIT) {
+            // Property names used in scripts are usually interned, so try identity first
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] == key) {
+                    return i;
+                }
+            }
+            final int hash = key.hashCode();
+            for (int i = 0; i < k.length; i++) {
+                if (hashes[i] == hash && key.equals(k[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        Map<Object, Integer> idx = keyIndex;
+        if (idx == null) {
+            idx = new HashMap<Object, Integer>(k.length * 2);
+            for (int i = 0; i < k.length; i++) {
+                idx.put(k[i], Integer.valueOf(i));
+            }
+            keyIndex = idx;
+        }
+        Integer i = idx.get(key);
+        return i == null ? -1 : i.intValue();
+    }
+
+    /**
+     * Return the shape that results from adding the named property after all the
+     * properties of this shape. The same instance is returned for the same key for as
+     * long as any object still uses it.
+     */
+    Shape addProperty(Object key)
+    {
+        final WeakReference<Shape> lastRef = lastTransition;
+        final Shape last = (lastRef == null ? null : lastRef.get());
+        if (last != null) {
+            final Object lastKey = last.keys[keys.length];
+            if (lastKey == key || key.equals(lastKey)) {
+                return last;
+            }
+        }
+        ConcurrentHashMap<Object, WeakReference<Shape>> t = transitions;
+        if (t != null) {
+            WeakReference<Shape> ref = t.get(key);
+            Shape existing = (ref == null ? null : ref.get());
+            if (existing != null) {
+                lastTransition = ref;
+                return existing;
+            }
+        }
+        return addTransition(key);
+    }
+
+    private synchronized Shape addTransition(Object key)
+    {
+        ConcurrentHashMap<Object, WeakReference<Shape>> t = transitions;
+        if (t == null) {
+            t = new ConcurrentHashMap<Object, WeakReference<Shape>>(4);
+            transitions = t;
+        } else {
+            // Another thread may have won the race while we were waiting
+            WeakReference<Shape> ref = t.get(key);
+            Shape existing = (ref == null ? null : ref.get());
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        Object[] newKeys = new Object[keys.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, keys.length);
+        newKeys[keys.length] = key;
+        Shape child = new Shape(this, newKeys);
+
+        if (t.size() >= MAX_TRANSITIONS) {
+            expungeTransitions(t);
+            if (t.size() >= MAX_TRANSITIONS) {
+                return child;
+            }
+        }
+        WeakReference<Shape> ref = new WeakReference<Shape>(child);
+        t.put(key, ref);
+        lastTransition = ref;
+        return child;
+    }
+
+    private static void expungeTransitions(Map<Object, WeakReference<Shape>> t)
+    {
+        Iterator<WeakReference<Shape>> it = t.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/*
+ * This class implements the SlotMap interface using a shared Shape plus a plain array of
+ * slots. The Shape maps each property name to an offset in the array, and since Shapes are
+ * shared by all objects that acquired the same properties in the same order, the only
+ * per-object state is the array itself. That is much smaller than a per-object hash table,
+ * and gives each property a stable offset for as long as the object keeps its shape.
+ *
+ * Only String keys are stored here. SlotMapContainer switches to a dictionary-style map as
+ * soon as an object gains an index or Symbol key, or grows beyond Shape.MAX_PROPERTIES.
+ */
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+public class ShapedSlotMap
+    implements SlotMap {
+
+    private Shape shape = Shape.EMPTY;
+    private ScriptableObject.Slot[] slots;
+
+    // initial slot array size
+    private static final int INITIAL_SLOT_SIZE = 4;
+
+    private final class Iter
+        implements Iterator<ScriptableObject.Slot>
+    {
+        private int pos;
+
+        @Override
+        public boolean hasNext() {
+            return pos < shape.size();
+        }
+
+        @Override
+        public ScriptableObject.Slot next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return slots[pos++];
+        }
+    }
+
+    public ShapedSlotMap()
+    {
+    }
+
+    @Override
+    public int size() {
+        return shape.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return shape.size() == 0;
+    }
+
+    @Override
+    public Iterator<ScriptableObject.Slot> iterator() {
+        return new Iter();
+    }
+
+    /**
+     * Return the current shape of this map. The shape changes whenever a property is
+     * added or removed, but not when a property value or its attributes change.
+     */
+    Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Return the slot at the given offset of the current shape.
+     */
+    ScriptableObject.Slot getSlotAt(int offset) {
+        return slots[offset];
+    }
+
+    /**
+     * Return whether this map is able to store a property with the given key. When it is
+     * not, the caller must move the contents to a different kind of map before adding it.
+     */
+    boolean canHold(Object key)
+    {
+        return (key instanceof String) &&
+            (shape.size() < Shape.MAX_PROPERTIES || shape.indexOf(key) >= 0);
+    }
+
+    /**
+     * Locate the slot with the given name or index.
+     */
+    @Override
+    public ScriptableObject.Slot query(Object key, int index)
+    {
+        if (key == null) {
+            return null;
+        }
+        final int offset = shape.indexOf(key);
+        if (offset < 0) {
+            return null;
+        }
+        // Guard against a concurrent optimistic read racing with growth of the array
+        final ScriptableObject.Slot[] s = slots;
+        return (s != null && offset < s.length) ? s[offset] : null;
+    }
+
+    /**
+     * Locate the slot with given name or index. Depending on the accessType
+     * parameter and the current slot status, a new slot may be allocated.
+     *
+     * @param key a String that identifies the property
+     * @param index index or 0 if slot holds property name.
+     */
+    @Override
+    public ScriptableObject.Slot get(Object key, int index, SlotAccess accessType)
+    {
+        if (accessType == SlotAccess.QUERY) {
+            return query(key, index);
+        }
+        assert canHold(key);
+
+        final int offset = shape.indexOf(key);
+        final ScriptableObject.Slot slot = (offset < 0 ? null : slots[offset]);
+        switch (accessType) {
+            case MODIFY:
+            case MODIFY_CONST:
+                if (slot != null) {
+                    return slot;
+                }
+                break;
+            case MODIFY_GETTER_SETTER:
+                if (slot instanceof ScriptableObject.GetterSlot) {
+                    return slot;
+                }
+                break;
+            case CONVERT_ACCESSOR_TO_DATA:
+                if ( !(slot instanceof ScriptableObject.GetterSlot) ) {
+                    return slot;
+                }
+                break;
+            default:
+                break;
+        }
+
+        return createSlot(key, offset, accessType, slot);
+    }
+
+    private ScriptableObject.Slot createSlot(Object key, int offset,
+        SlotAccess accessType, ScriptableObject.Slot existingSlot)
+    {
+        if (existingSlot != null) {
+            // A slot is being redefined from a value to a getter slot or vice versa.
+            // The property keeps its place, so the shape does not change.
+            ScriptableObject.Slot newSlot;
+
+            if (accessType == SlotAccess.MODIFY_GETTER_SETTER
+                && !(existingSlot instanceof ScriptableObject.GetterSlot)) {
+                newSlot = new ScriptableObject.GetterSlot(key, existingSlot.indexOrHash,
+                    existingSlot.getAttributes());
+            } else if (accessType == SlotAccess.CONVERT_ACCESSOR_TO_DATA
+                && (existingSlot instanceof ScriptableObject.GetterSlot)) {
+                newSlot = new ScriptableObject.Slot(key, existingSlot.indexOrHash,
+                    existingSlot.getAttributes());
+            } else if (accessType == SlotAccess.MODIFY_CONST) {
+                return null;
+            } else {
+                return existingSlot;
+            }
+            newSlot.value = existingSlot.value;
+            slots[offset] = newSlot;
+            return newSlot;
+        }
+
+        ScriptableObject.Slot newSlot = (accessType == SlotAccess.MODIFY_GETTER_SETTER
+                ? new ScriptableObject.GetterSlot(key, key.hashCode(), 0)
+                : new ScriptableObject.Slot(key, key.hashCode(), 0));
+        if (accessType == SlotAccess.MODIFY_CONST) {
+            newSlot.setAttributes(ScriptableObject.CONST);
+        }
+        addSlot(newSlot);
+        return newSlot;
+    }
+
+    @Override
+    public void addSlot(ScriptableObject.Slot newSlot)
+    {
+        assert canHold(newSlot.name);
+        final Shape newShape = shape.addProperty(newSlot.name);
+        final int offset = newShape.size() - 1;
+        if (slots == null) {
+            slots = new ScriptableObject.Slot[INITIAL_SLOT_SIZE];
+        } else if (offset >= slots.length) {
+            ScriptableObject.Slot[] newSlots = new ScriptableObject.Slot[slots.length * 2];
+            System.arraycopy(slots, 0, newSlots, 0, slots.length);
+            slots = newSlots;
+        }
+        // Store the slot before publishing the shape that makes it visible
+        slots[offset] = newSlot;
+        shape = newShape;
+    }
+
+    @Override
+    public void remove(Object key, int index)
+    {
+        if (key == null) {
+            return;
+        }
+        final int offset = shape.indexOf(key);
+        if (offset < 0) {
+            return;
+        }
+        ScriptableObject.Slot slot = slots[offset];
+        // non-configurable
+        if ((slot.getAttributes() & ScriptableObject.PERMANENT) != 0) {
+            Context cx = Context.getContext();
+            if (cx.isStrictMode()) {
+                throw ScriptRuntime.typeError1("msg.delete.property.with.configurable.false", key);
+            }
+            return;
+        }
+
+        // Follow the transitions for the remaining properties so that objects that
+        // end up with the same layout still share a shape.
+        final int oldSize = shape.size();
+        Shape newShape = Shape.EMPTY;
+        ScriptableObject.Slot[] newSlots = new ScriptableObject.Slot[slots.length];
+        for (int i = 0, j = 0; i < oldSize; i++) {
+            if (i != offset) {
+                newShape = newShape.addProperty(shape.getKey(i));
+                newSlots[j++] = slots[i];
+            }
+        }
+        slots = newSlots;
+        shape = newShape;
+    }
+}
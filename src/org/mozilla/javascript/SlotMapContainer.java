@@ -14,6 +14,10 @@ import org.mozilla.javascript.ScriptableObject.SlotAccess;
 /**
  * This class holds the various SlotMaps of various types, and knows how to atomically
  * switch between them when we need to so that we use the right data structure at the right time.
+ *
+ * Objects start out with a ShapedSlotMap, which shares its property table with all the
+ * objects of the same Shape. Objects that gain keys a Shape cannot describe, or too many
+ * properties, move to an EmbeddedSlotMap, and from there to HashSlotMap if they get huge.
  */
 class SlotMapContainer
   implements SlotMap {
@@ -31,8 +35,10 @@ class SlotMapContainer
   {
     if (initialSize > LARGE_HASH_SIZE) {
       map = new HashSlotMap();
-    } else {
+    } else if (initialSize > Shape.MAX_PROPERTIES) {
       map = new EmbeddedSlotMap();
+    } else {
+      map = new ShapedSlotMap();
     }
   }
 
@@ -55,7 +61,7 @@ class SlotMapContainer
   public Slot get(Object key, int index, SlotAccess accessType)
   {
     if (accessType != SlotAccess.QUERY) {
-      checkMapSize();
+      checkMapSize(key);
     }
     return map.get(key, index, accessType);
   }
@@ -68,7 +74,7 @@ class SlotMapContainer
   @Override
   public void addSlot(Slot newSlot)
   {
-    checkMapSize();
+    checkMapSize(newSlot.name);
     map.addSlot(newSlot);
   }
 
@@ -82,6 +88,23 @@ class SlotMapContainer
     return map.iterator();
   }
 
+  /**
+   * Return the Shape of the object if its properties are currently stored in a
+   * ShapedSlotMap, or null if it has moved to a dictionary-style map.
+   */
+  Shape getShape()
+  {
+    return (map instanceof ShapedSlotMap) ? ((ShapedSlotMap) map).getShape() : null;
+  }
+
+  /**
+   * Return the slot at the given offset of the Shape returned by getShape().
+   */
+  Slot getShapedSlot(int offset)
+  {
+    return ((ShapedSlotMap) map).getSlotAt(offset);
+  }
+
   public long readLock()
   {
     // No locking in the default implementation
@@ -94,12 +117,20 @@ class SlotMapContainer
   }
 
   /**
-   * Before inserting a new item in the map, check and see if we need to expand from the embedded
-   * map to a HashMap that is more robust against large numbers of hash collisions.
+   * Before inserting a new item in the map, check and see if we need to switch from the
+   * shaped map to the embedded one because the new key cannot be part of a shape, or expand
+   * from the embedded map to a HashMap that is more robust against large numbers of hash
+   * collisions.
    */
-  protected void checkMapSize()
+  protected void checkMapSize(Object key)
   {
-    if ((map instanceof EmbeddedSlotMap) && map.size() >= LARGE_HASH_SIZE) {
+    if ((map instanceof ShapedSlotMap) && !((ShapedSlotMap) map).canHold(key)) {
+      SlotMap newMap = new EmbeddedSlotMap();
+      for (Slot s : map) {
+        newMap.addSlot(s);
+      }
+      map = newMap;
+    } else if ((map instanceof EmbeddedSlotMap) && map.size() >= LARGE_HASH_SIZE) {
       SlotMap newMap = new HashSlotMap();
       for (Slot s : map) {
         newMap.addSlot(s);
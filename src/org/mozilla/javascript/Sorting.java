@@ -5,6 +5,11 @@ import java.util.Comparator;
 public final class Sorting {
     private static final int SMALLSORT = 16;
 
+    // Shorter arrays are sorted by binary insertion sort alone
+    private static final int MIN_MERGE = 32;
+    // Wins in a row after which a merge switches to galloping
+    private static final int MIN_GALLOP = 7;
+
     public static void insertionSort(Object[] a, Comparator<Object> cmp)
     {
         insertionSort(a, 0, a.length - 1, cmp);
@@ -121,4 +126,538 @@ public final class Sorting {
         }
         return (cmp.compare(a[start], a[m]) < 0) ? start : m;
     }
+
+    /*
+    Stable, adaptive merge sort after Tim Peters' listsort ("TimSort"). It
+    finds the runs that are already ascending or strictly descending, extends
+    short ones by binary insertion sort, and merges them, galloping through
+    one run while it keeps winning, so that partially sorted input takes close
+    to linear time. Unlike java.util.Arrays.sort it never throws if the
+    comparator is not consistent, which script compare functions often are
+    not: the array then holds its original elements in some order.
+    */
+    public static void timSort(Object[] a, Comparator<Object> cmp)
+    {
+        timSort(a, 0, a.length, cmp);
+    }
+
+    /*
+    Sort a[start] to a[end - 1] with timSort.
+    */
+    public static void timSort(Object[] a, int start, int end, Comparator<Object> cmp)
+    {
+        int n = end - start;
+        if (n < 2) {
+            return;
+        }
+        if (n < MIN_MERGE) {
+            int runEnd = countRunAndMakeAscending(a, start, end, cmp);
+            binaryInsertionSort(a, start, end, runEnd, cmp);
+            return;
+        }
+
+        MergeState ms = new MergeState(a, cmp, n);
+        int minRun = minRunLength(n);
+        int lo = start;
+        do {
+            int runEnd = countRunAndMakeAscending(a, lo, end, cmp);
+            int runLen = runEnd - lo;
+            if (runLen < minRun) {
+                int forced = Math.min(minRun, end - lo);
+                binaryInsertionSort(a, lo, lo + forced, runEnd, cmp);
+                runLen = forced;
+            }
+            ms.pushRun(lo, runLen);
+            ms.mergeCollapse();
+            lo += runLen;
+        } while (lo < end);
+        ms.mergeForceCollapse();
+    }
+
+    /*
+    Return the end of the run that starts at lo, reversing it if it is
+    strictly descending. Equal elements never form a descending run, which
+    keeps the reversal stable.
+    */
+    private static int countRunAndMakeAscending(Object[] a, int lo, int hi, Comparator<Object> cmp)
+    {
+        int runHi = lo + 1;
+        if (runHi == hi) {
+            return hi;
+        }
+        if (cmp.compare(a[runHi++], a[lo]) < 0) {
+            while (runHi < hi && cmp.compare(a[runHi], a[runHi - 1]) < 0) {
+                runHi++;
+            }
+            for (int i = lo, j = runHi - 1; i < j; i++, j--) {
+                swap(a, i, j);
+            }
+        } else {
+            while (runHi < hi && cmp.compare(a[runHi], a[runHi - 1]) >= 0) {
+                runHi++;
+            }
+        }
+        return runHi;
+    }
+
+    /*
+    Sort a[lo] to a[hi - 1], of which a[lo] to a[sorted - 1] are already in
+    order, inserting each further element after the equal ones before it.
+    */
+    private static void binaryInsertionSort(Object[] a, int lo, int hi, int sorted, Comparator<Object> cmp)
+    {
+        for (int i = sorted; i < hi; i++) {
+            Object pivot = a[i];
+            int left = lo;
+            int right = i;
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (cmp.compare(pivot, a[mid]) < 0) {
+                    right = mid;
+                } else {
+                    left = mid + 1;
+                }
+            }
+            System.arraycopy(a, left, a, left + 1, i - left);
+            a[left] = pivot;
+        }
+    }
+
+    /*
+    Return the minimum run length for n elements: n itself if it is small,
+    else a length between MIN_MERGE / 2 and MIN_MERGE such that n / length is
+    a power of two or a little less, which keeps the merges balanced.
+    */
+    private static int minRunLength(int n)
+    {
+        int r = 0;
+        while (n >= MIN_MERGE) {
+            r |= n & 1;
+            n >>= 1;
+        }
+        return n + r;
+    }
+
+    /*
+    Return the index in a[base] to a[base + len - 1] before which key would
+    be inserted to come before the elements equal to it, starting the search
+    at base + hint.
+    */
+    private static int gallopLeft(Object key, Object[] a, int base, int len, int hint,
+                                  Comparator<Object> cmp)
+    {
+        int lastOfs = 0;
+        int ofs = 1;
+        if (cmp.compare(key, a[base + hint]) > 0) {
+            // Gallop right until a[base + hint + lastOfs] < key <= a[base + hint + ofs]
+            int maxOfs = len - hint;
+            while (ofs < maxOfs && cmp.compare(key, a[base + hint + ofs]) > 0) {
+                lastOfs = ofs;
+                ofs = (ofs << 1) + 1;
+                if (ofs <= 0) {
+                    ofs = maxOfs;
+                }
+            }
+            if (ofs > maxOfs) {
+                ofs = maxOfs;
+            }
+            lastOfs += hint;
+            ofs += hint;
+        } else {
+            // Gallop left until a[base + hint - ofs] < key <= a[base + hint - lastOfs]
+            int maxOfs = hint + 1;
+            while (ofs < maxOfs && cmp.compare(key, a[base + hint - ofs]) <= 0) {
+                lastOfs = ofs;
+                ofs = (ofs << 1) + 1;
+                if (ofs <= 0) {
+                    ofs = maxOfs;
+                }
+            }
+            if (ofs > maxOfs) {
+                ofs = maxOfs;
+            }
+            int tmp = lastOfs;
+            lastOfs = hint - ofs;
+            ofs = hint - tmp;
+        }
+
+        // Binary search between lastOfs and ofs
+        lastOfs++;
+        while (lastOfs < ofs) {
+            int m = lastOfs + ((ofs - lastOfs) >>> 1);
+            if (cmp.compare(key, a[base + m]) > 0) {
+                lastOfs = m + 1;
+            } else {
+                ofs = m;
+            }
+        }
+        return ofs;
+    }
+
+    /*
+    Like gallopLeft, but return the index after the elements equal to key.
+    */
+    private static int gallopRight(Object key, Object[] a, int base, int len, int hint,
+                                   Comparator<Object> cmp)
+    {
+        int lastOfs = 0;
+        int ofs = 1;
+        if (cmp.compare(key, a[base + hint]) < 0) {
+            // Gallop left until a[base + hint - ofs] <= key < a[base + hint - lastOfs]
+            int maxOfs = hint + 1;
+            while (ofs < maxOfs && cmp.compare(key, a[base + hint - ofs]) < 0) {
+                lastOfs = ofs;
+                ofs = (ofs << 1) + 1;
+                if (ofs <= 0) {
+                    ofs = maxOfs;
+                }
+            }
+            if (ofs > maxOfs) {
+                ofs = maxOfs;
+            }
+            int tmp = lastOfs;
+            lastOfs = hint - ofs;
+            ofs = hint - tmp;
+        } else {
+            // Gallop right until a[base + hint + lastOfs] <= key < a[base + hint + ofs]
+            int maxOfs = len - hint;
+            while (ofs < maxOfs && cmp.compare(key, a[base + hint + ofs]) >= 0) {
+                lastOfs = ofs;
+                ofs = (ofs << 1) + 1;
+                if (ofs <= 0) {
+                    ofs = maxOfs;
+                }
+            }
+            if (ofs > maxOfs) {
+                ofs = maxOfs;
+            }
+            lastOfs += hint;
+            ofs += hint;
+        }
+
+        lastOfs++;
+        while (lastOfs < ofs) {
+            int m = lastOfs + ((ofs - lastOfs) >>> 1);
+            if (cmp.compare(key, a[base + m]) < 0) {
+                ofs = m;
+            } else {
+                lastOfs = m + 1;
+            }
+        }
+        return ofs;
+    }
+
+    /*
+    The stack of runs still to be merged and the merge buffer of a timSort.
+    */
+    private static final class MergeState
+    {
+        private final Object[] a;
+        private final Comparator<Object> cmp;
+        private final int length;
+
+        private int minGallop = MIN_GALLOP;
+        private Object[] tmp;
+
+        // Enough for any int length given the invariants of mergeCollapse
+        private final int[] runBase = new int[49];
+        private final int[] runLen = new int[49];
+        private int stackSize;
+
+        MergeState(Object[] a, Comparator<Object> cmp, int length)
+        {
+            this.a = a;
+            this.cmp = cmp;
+            this.length = length;
+            this.tmp = new Object[Math.min(length >>> 1, 256)];
+        }
+
+        void pushRun(int base, int len)
+        {
+            runBase[stackSize] = base;
+            runLen[stackSize] = len;
+            stackSize++;
+        }
+
+        /*
+        Merge runs until each is longer than the next two together and than
+        the next one, so that the stack stays logarithmic in the length and
+        runs of similar lengths are merged.
+        */
+        void mergeCollapse()
+        {
+            while (stackSize > 1) {
+                int n = stackSize - 2;
+                if ((n > 0 && runLen[n - 1] <= runLen[n] + runLen[n + 1])
+                    || (n > 1 && runLen[n - 2] <= runLen[n] + runLen[n - 1]))
+                {
+                    if (runLen[n - 1] < runLen[n + 1]) {
+                        n--;
+                    }
+                } else if (runLen[n] > runLen[n + 1]) {
+                    break;
+                }
+                mergeAt(n);
+            }
+        }
+
+        void mergeForceCollapse()
+        {
+            while (stackSize > 1) {
+                int n = stackSize - 2;
+                if (n > 0 && runLen[n - 1] < runLen[n + 1]) {
+                    n--;
+                }
+                mergeAt(n);
+            }
+        }
+
+        private void mergeAt(int i)
+        {
+            int base1 = runBase[i];
+            int len1 = runLen[i];
+            int base2 = runBase[i + 1];
+            int len2 = runLen[i + 1];
+
+            runLen[i] = len1 + len2;
+            if (i == stackSize - 3) {
+                runBase[i + 1] = runBase[i + 2];
+                runLen[i + 1] = runLen[i + 2];
+            }
+            stackSize--;
+
+            // Elements of run 1 before the first of run 2, and elements of
+            // run 2 after the last of run 1, are already in place
+            int k = gallopRight(a[base2], a, base1, len1, 0, cmp);
+            base1 += k;
+            len1 -= k;
+            if (len1 == 0) {
+                return;
+            }
+            len2 = gallopLeft(a[base1 + len1 - 1], a, base2, len2, len2 - 1, cmp);
+            if (len2 == 0) {
+                return;
+            }
+
+            if (len1 <= len2) {
+                mergeLo(base1, len1, base2, len2);
+            } else {
+                mergeHi(base1, len1, base2, len2);
+            }
+        }
+
+        /*
+        Merge adjacent runs from the front, with the shorter first run in tmp.
+        The first element of run 2 goes before all of run 1, and the last
+        element of run 1 after all of run 2.
+        */
+        private void mergeLo(int base1, int len1, int base2, int len2)
+        {
+            Object[] a = this.a;
+            Object[] tmp = ensureCapacity(len1);
+            Comparator<Object> cmp = this.cmp;
+            System.arraycopy(a, base1, tmp, 0, len1);
+
+            int cursor1 = 0;
+            int cursor2 = base2;
+            int dest = base1;
+
+            a[dest++] = a[cursor2++];
+            if (--len2 == 0) {
+                System.arraycopy(tmp, cursor1, a, dest, len1);
+                return;
+            }
+            if (len1 == 1) {
+                System.arraycopy(a, cursor2, a, dest, len2);
+                a[dest + len2] = tmp[cursor1];
+                return;
+            }
+
+            int minGallop = this.minGallop;
+        outer:
+            while (true) {
+                int count1 = 0;
+                int count2 = 0;
+
+                // One element at a time until a run keeps winning
+                do {
+                    if (cmp.compare(a[cursor2], tmp[cursor1]) < 0) {
+                        a[dest++] = a[cursor2++];
+                        count2++;
+                        count1 = 0;
+                        if (--len2 == 0) {
+                            break outer;
+                        }
+                    } else {
+                        a[dest++] = tmp[cursor1++];
+                        count1++;
+                        count2 = 0;
+                        if (--len1 == 1) {
+                            break outer;
+                        }
+                    }
+                } while ((count1 | count2) < minGallop);
+
+                // Gallop while it pays off
+                do {
+                    count1 = gallopRight(a[cursor2], tmp, cursor1, len1, 0, cmp);
+                    if (count1 != 0) {
+                        System.arraycopy(tmp, cursor1, a, dest, count1);
+                        dest += count1;
+                        cursor1 += count1;
+                        len1 -= count1;
+                        if (len1 <= 1) {
+                            break outer;
+                        }
+                    }
+                    a[dest++] = a[cursor2++];
+                    if (--len2 == 0) {
+                        break outer;
+                    }
+
+                    count2 = gallopLeft(tmp[cursor1], a, cursor2, len2, 0, cmp);
+                    if (count2 != 0) {
+                        System.arraycopy(a, cursor2, a, dest, count2);
+                        dest += count2;
+                        cursor2 += count2;
+                        len2 -= count2;
+                        if (len2 == 0) {
+                            break outer;
+                        }
+                    }
+                    a[dest++] = tmp[cursor1++];
+                    if (--len1 == 1) {
+                        break outer;
+                    }
+                    minGallop--;
+                } while (count1 >= MIN_GALLOP || count2 >= MIN_GALLOP);
+                if (minGallop < 0) {
+                    minGallop = 0;
+                }
+                minGallop += 2;
+            }
+            this.minGallop = minGallop < 1 ? 1 : minGallop;
+
+            if (len1 == 1) {
+                System.arraycopy(a, cursor2, a, dest, len2);
+                a[dest + len2] = tmp[cursor1];
+            } else if (len1 != 0) {
+                System.arraycopy(tmp, cursor1, a, dest, len1);
+            }
+            // else the comparator is inconsistent, and what is left of run 2
+            // is already in place
+        }
+
+        /*
+        Like mergeLo, but from the back, with the shorter second run in tmp.
+        */
+        private void mergeHi(int base1, int len1, int base2, int len2)
+        {
+            Object[] a = this.a;
+            Object[] tmp = ensureCapacity(len2);
+            Comparator<Object> cmp = this.cmp;
+            System.arraycopy(a, base2, tmp, 0, len2);
+
+            int cursor1 = base1 + len1 - 1;
+            int cursor2 = len2 - 1;
+            int dest = base2 + len2 - 1;
+
+            a[dest--] = a[cursor1--];
+            if (--len1 == 0) {
+                System.arraycopy(tmp, 0, a, dest - (len2 - 1), len2);
+                return;
+            }
+            if (len2 == 1) {
+                dest -= len1;
+                cursor1 -= len1;
+                System.arraycopy(a, cursor1 + 1, a, dest + 1, len1);
+                a[dest] = tmp[cursor2];
+                return;
+            }
+
+            int minGallop = this.minGallop;
+        outer:
+            while (true) {
+                int count1 = 0;
+                int count2 = 0;
+
+                do {
+                    if (cmp.compare(tmp[cursor2], a[cursor1]) < 0) {
+                        a[dest--] = a[cursor1--];
+                        count1++;
+                        count2 = 0;
+                        if (--len1 == 0) {
+                            break outer;
+                        }
+                    } else {
+                        a[dest--] = tmp[cursor2--];
+                        count2++;
+                        count1 = 0;
+                        if (--len2 == 1) {
+                            break outer;
+                        }
+                    }
+                } while ((count1 | count2) < minGallop);
+
+                do {
+                    count1 = len1 - gallopRight(tmp[cursor2], a, base1, len1, len1 - 1, cmp);
+                    if (count1 != 0) {
+                        dest -= count1;
+                        cursor1 -= count1;
+                        len1 -= count1;
+                        System.arraycopy(a, cursor1 + 1, a, dest + 1, count1);
+                        if (len1 == 0) {
+                            break outer;
+                        }
+                    }
+                    a[dest--] = tmp[cursor2--];
+                    if (--len2 == 1) {
+                        break outer;
+                    }
+
+                    count2 = len2 - gallopLeft(a[cursor1], tmp, 0, len2, len2 - 1, cmp);
+                    if (count2 != 0) {
+                        dest -= count2;
+                        cursor2 -= count2;
+                        len2 -= count2;
+                        System.arraycopy(tmp, cursor2 + 1, a, dest + 1, count2);
+                        if (len2 <= 1) {
+                            break outer;
+                        }
+                    }
+                    a[dest--] = a[cursor1--];
+                    if (--len1 == 0) {
+                        break outer;
+                    }
+                    minGallop--;
+                } while (count1 >= MIN_GALLOP || count2 >= MIN_GALLOP);
+                if (minGallop < 0) {
+                    minGallop = 0;
+                }
+                minGallop += 2;
+            }
+            this.minGallop = minGallop < 1 ? 1 : minGallop;
+
+            if (len2 == 1) {
+                dest -= len1;
+                cursor1 -= len1;
+                System.arraycopy(a, cursor1 + 1, a, dest + 1, len1);
+                a[dest] = tmp[cursor2];
+            } else if (len2 != 0) {
+                System.arraycopy(tmp, 0, a, dest - (len2 - 1), len2);
+            }
+            // else the comparator is inconsistent, and what is left of run 1
+            // is already in place
+        }
+
+        private Object[] ensureCapacity(int minCapacity)
+        {
+            if (tmp.length < minCapacity) {
+                int newSize = Math.max(minCapacity,
+                                       Math.min(tmp.length * 2, length >>> 1));
+                tmp = new Object[newSize];
+            }
+            return tmp;
+        }
+    }
 }
@@ -74,7 +74,7 @@ class ThreadSafeSlotMapContainer
     final long stamp = lock.writeLock();
     try {
       if (accessType != SlotAccess.QUERY) {
-        checkMapSize();
+        checkMapSize(key);
       }
       return map.get(key, index, accessType);
     } finally {
@@ -104,7 +104,7 @@ class ThreadSafeSlotMapContainer
   {
     final long stamp = lock.writeLock();
     try {
-      checkMapSize();
+      checkMapSize(newSlot.name);
       map.addSlot(newSlot);
     } finally {
       lock.unlockWrite(stamp);
@@ -122,6 +122,16 @@ class ThreadSafeSlotMapContainer
     }
   }
 
+  /**
+   * Property caches read slots without taking the lock, so objects with thread-safe
+   * property maps never expose their shape.
+   */
+  @Override
+  Shape getShape()
+  {
+    return null;
+  }
+
   /**
    * Take out a read lock on the slot map, if locking is implemented. The caller MUST call
    * this method before using the iterator, and MUST NOT call this method otherwise.
@@ -151,13 +161,13 @@ class ThreadSafeSlotMapContainer
   }
 
   /**
-   * Before inserting a new item in the map, check and see if we need to expand from the embedded
-   * map to a HashMap that is more robust against large numbers of hash collisions.
+   * Before inserting a new item in the map, check and see if we need to switch to a
+   * different kind of map. See SlotMapContainer.
    */
   @Override
-  protected void checkMapSize()
+  protected void checkMapSize(Object key)
   {
     assert(lock.isWriteLocked());
-    super.checkMapSize();
+    super.checkMapSize(key);
   }
 }
@@ -0,0 +1,244 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.ScriptNode;
+
+/**
+ * Tiered compilation state shared by all functions of one interpreted script.
+ *
+ * When a Context has a tiered compilation threshold, scripts are first
+ * compiled to interpreter bytecode, which is cheap to produce. Each
+ * InterpreterData then counts the calls to and loop iterations in its
+ * function, and once the count passes the threshold the whole script source
+ * is compiled again with the class compiler. From then on every
+ * InterpretedFunction of that script delegates its calls to an instance of
+ * the generated class for the same function, closing over the same scope.
+ * The generated code sees the InterpretedFunction as itself, so that
+ * arguments.callee and the name of a function expression do not change
+ * when it tiers up.
+ * Frames that are already running in the interpreter finish there, and so
+ * do calls made while the script is being compiled, which happens off the
+ * calling thread if the ContextFactory has a compilation executor.
+ *
+ * Functions are matched between the two compilations by their position in a
+ * preorder walk of the nested function tree, which both compilers build in
+ * the same order from the same parse.
+ */
+final class TieredCompilation
+{
+    private static final Class<?>[] FUNCTION_CONSTRUCTOR_ARGS = {
+        Scriptable.class, Context.class, int.class
+    };
+
+    final int threshold;
+
+    private final String sourceString;
+    private final String sourceName;
+    private final int lineno;
+    private final boolean returnFunction;
+    private final boolean defaultStrict;
+    private final CompilerEnvirons compilerEnv;
+    private final Object securityDomain;
+
+    private static final int NOT_COMPILED = 0;
+    private static final int COMPILING = 1;
+    private static final int COMPILED = 2;
+    private static final int FAILED = 3;
+
+    private volatile int state = NOT_COMPILED;
+    private Constructor<?> functionConstructor;
+
+    TieredCompilation(int threshold, String sourceString, String sourceName,
+                      int lineno, boolean returnFunction,
+                      boolean defaultStrict, CompilerEnvirons compilerEnv,
+                      Object securityDomain)
+    {
+        this.threshold = threshold;
+        this.sourceString = sourceString;
+        this.sourceName = sourceName;
+        this.lineno = lineno;
+        this.returnFunction = returnFunction;
+        this.defaultStrict = defaultStrict;
+        this.compilerEnv = compilerEnv;
+        this.securityDomain = securityDomain;
+    }
+
+    /**
+     * Make all functions in the tree rooted at idata eligible for tiering.
+     */
+    void attach(InterpreterData idata)
+    {
+        attach_r(idata, 0);
+    }
+
+    private int attach_r(InterpreterData idata, int index)
+    {
+        idata.itsTiering = this;
+        idata.itsTieredIndex = index++;
+        InterpreterData[] nested = idata.itsNestedFunctions;
+        if (nested != null) {
+            for (int i = 0; i != nested.length; ++i) {
+                index = attach_r(nested[i], index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return whether compiling the script failed, so that its functions
+     * should stay in the interpreter for good.
+     */
+    boolean isFailed()
+    {
+        return state == FAILED;
+    }
+
+    /**
+     * Return a compiled function equivalent to the given interpreted one, or
+     * null if the script is not compiled yet. The first call starts the
+     * compilation, in the background if the factory of cx has a compilation
+     * executor, or else right away.
+     */
+    NativeFunction createCompiledFunction(Context cx, InterpretedFunction f)
+    {
+        if (state != COMPILED) {
+            if (state == NOT_COMPILED) {
+                startCompilation(cx);
+            }
+            if (state != COMPILED) {
+                return null;
+            }
+        }
+        try {
+            NativeFunction compiled = (NativeFunction)
+                functionConstructor.newInstance(
+                    f.getParentScope(), cx,
+                    Integer.valueOf(f.idata.itsTieredIndex));
+            // So that the function keeps its identity when it tiers up
+            compiled.setInterpretedSelf(f);
+            return compiled;
+        } catch (Exception ex) {
+            throw new RuntimeException
+                ("Unable to instantiate compiled class:"+ex.toString());
+        }
+    }
+
+    private void startCompilation(Context cx)
+    {
+        synchronized (this) {
+            if (state != NOT_COMPILED) {
+                return;
+            }
+            state = COMPILING;
+        }
+        final ContextFactory factory = cx.getFactory();
+        Executor executor = factory.getCompilationExecutor();
+        if (executor != null) {
+            factory.compilationQueued();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        factory.compilationDequeued();
+                        factory.call(new ContextAction<Object>() {
+                            @Override
+                            public Object run(Context bgcx)
+                            {
+                                compileAndInstall(bgcx);
+                                return null;
+                            }
+                        });
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException ex) {
+                // Compile right here instead
+                factory.compilationDequeued();
+            }
+        }
+        compileAndInstall(cx);
+    }
+
+    private void compileAndInstall(Context cx)
+    {
+        long start = System.nanoTime();
+        try {
+            functionConstructor = compile();
+            // Publishes functionConstructor to other threads
+            state = COMPILED;
+        } catch (RuntimeException ex) {
+            // Most likely a class file limit; stay in the interpreter
+        } catch (LinkageError ex) {
+            // Generated code that the JVM or the class loader rejects
+        } finally {
+            if (state != COMPILED) {
+                // Even if an Error escapes, so that no call waits for a
+                // compilation that will never finish
+                state = FAILED;
+            }
+            cx.getFactory().compilationFinished(System.nanoTime() - start);
+        }
+    }
+
+    private Constructor<?> compile()
+    {
+        Parser p = new Parser(compilerEnv, DefaultErrorReporter.instance);
+        if (returnFunction) {
+            p.calledByCompileFunction = true;
+        }
+        if (defaultStrict) {
+            p.setDefaultUseStrictDirective(true);
+        }
+        AstRoot ast = p.parse(sourceString, sourceName, lineno);
+        IRFactory irf = new IRFactory(compilerEnv,
+                                      DefaultErrorReporter.instance);
+        ScriptNode tree = irf.transformTree(ast);
+
+        Evaluator compiler = Context.createCodegen();
+        Object bytecode = compiler.compile(compilerEnv, tree,
+                                           tree.getEncodedSource(),
+                                           returnFunction);
+        // Only define the class: an instance would read the scope of the
+        // script, which belongs to the threads running it, from here
+        Class<?> cl = defineClass(compiler, bytecode);
+        try {
+            return cl.getConstructor(FUNCTION_CONSTRUCTOR_ARGS);
+        } catch (NoSuchMethodException ex) {
+            throw Kit.codeBug();
+        }
+    }
+
+    private Class<?> defineClass(Evaluator compiler, Object bytecode)
+    {
+        // The optimizer package is only known to the core by name
+        try {
+            Method define = compiler.getClass().getMethod(
+                "defineClass", Object.class, Object.class);
+            return (Class<?>) define.invoke(compiler, bytecode, securityDomain);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (ReflectiveOperationException ex) {
+            throw Kit.codeBug();
+        }
+    }
+}
@@ -6,8 +6,9 @@
 
 package org.mozilla.javascript.json;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ScriptRuntime;
@@ -16,385 +17,575 @@ import org.mozilla.javascript.Scriptable;
 /**
  * This class converts a stream of JSON tokens into a JSON value.
  *
+ * The source is read through a buffer, either from a String or from a
+ * Reader, so that large documents need not be held in memory as a whole.
+ * The state of a parse is local to the call, so one parser may be used by
+ * several threads at once.
+ *
  * See ECMA 15.12.
  * @author Raphael Speyer
  * @author Hannes Wallnoefer
  */
 public class JsonParser {
 
-    private Context cx;
-    private Scriptable scope;
+    private static final int BUFFER_SIZE = 8192;
+
+    // Size of the table of property names seen in a parse, a power of two
+    private static final int KEY_CACHE_SIZE = 256;
 
-    private int pos;
-    private int length;
-    private String src;
+    private final Context cx;
+    private final Scriptable scope;
 
     public JsonParser(Context cx, Scriptable scope) {
         this.cx = cx;
         this.scope = scope;
     }
 
-    public synchronized Object parseValue(String json) throws ParseException {
+    public Object parseValue(String json) throws ParseException {
         if (json == null) {
             throw new ParseException("Input string may not be null");
         }
-        pos = 0;
-        length = json.length();
-        src = json;
-        Object value = readValue();
-        consumeWhitespace();
-        if (pos < length) {
-            throw new ParseException("Expected end of stream at char " + pos);
+        return new Parse(json, null).parse();
+    }
+
+    /**
+     * Parse the JSON text read from the given reader, which is read in
+     * chunks as parsing proceeds. The reader is not closed.
+     */
+    public Object parse(Reader json) throws ParseException {
+        if (json == null) {
+            throw new ParseException("Input reader may not be null");
         }
-        return value;
+        return new Parse(null, json).parse();
     }
 
-    private Object readValue() throws ParseException {
-        consumeWhitespace();
-        while (pos < length) {
-            char c = src.charAt(pos++);
-            switch (c) {
-                case '{':
-                    return readObject();
-                case '[':
-                    return readArray();
-                case 't':
-                    return readTrue();
-                case 'f':
-                    return readFalse();
-                case '"':
-                    return readString();
-                case 'n':
-                    return readNull();
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                case '7':
-                case '8':
-                case '9':
-                case '0':
-                case '-':
-                    return readNumber(c);
-                default:
-                    throw new ParseException("Unexpected token: " + c);
+    /**
+     * The state of one parse. The source text is read into buf, from which
+     * the characters before pos are dropped when more are read, except for
+     * those from tokenStart on if it is set.
+     */
+    private final class Parse {
+
+        private final String srcString;
+        private final Reader srcReader;
+        private int srcPos;
+
+        private char[] buf;
+        private int pos;
+        private int length;
+        private int tokenStart = -1;
+        // How many characters of the source were dropped from buf, so that
+        // consumed + pos is the offset of pos in the source
+        private int consumed;
+
+        // Property names seen so far, by hash code, so that objects of the
+        // same schema share their key strings
+        private String[] keyCache;
+
+        Parse(String srcString, Reader srcReader) {
+            this.srcString = srcString;
+            this.srcReader = srcReader;
+            int size = BUFFER_SIZE;
+            if (srcString != null && srcString.length() < size) {
+                size = Math.max(srcString.length(), 16);
             }
+            buf = new char[size];
         }
-        throw new ParseException("Empty JSON string");
-    }
 
-    private Object readObject() throws ParseException {
-        consumeWhitespace();
-        Scriptable object = cx.newObject(scope);
-        // handle empty object literal case early
-        if (pos < length && src.charAt(pos) == '}') {
-            pos += 1;
-            return object;
+        Object parse() throws ParseException {
+            Object value = readValue();
+            consumeWhitespace();
+            if (more()) {
+                throw new ParseException("Expected end of stream at char "
+                                         + (consumed + pos));
+            }
+            return value;
         }
-        String id;
-        Object value;
-        boolean needsComma = false;
-        while (pos < length) {
-            char c = src.charAt(pos++);
-            switch(c) {
-                case '}':
-                    if (!needsComma) {
-                        throw new ParseException("Unexpected comma in object literal");
-                    }
-                    return object;
-                case ',':
-                    if (!needsComma) {
-                        throw new ParseException("Unexpected comma in object literal");
-                    }
-                    needsComma = false;
-                    break;
-                case '"':
-                    if (needsComma) {
-                        throw new ParseException("Missing comma in object literal");
-                    }
-                    id = readString();
-                    consume(':');
-                    value = readValue();
-
-                    long index = ScriptRuntime.indexFromString(id);
-                    if (index < 0) {
-                      object.put(id, object, value);
-                    } else {
-                      object.put((int)index, object, value);
-                    }
 
-                    needsComma = true;
-                    break;
-                default:
-                    throw new ParseException("Unexpected token in object literal");
+        private boolean more() throws ParseException {
+            return pos < length || fill();
+        }
+
+        private boolean ensure(int count) throws ParseException {
+            while (length - pos < count) {
+                if (!fill()) {
+                    return false;
+                }
             }
-            consumeWhitespace();
+            return true;
         }
-        throw new ParseException("Unterminated object literal");
-    }
 
-    private Object readArray() throws ParseException {
-        consumeWhitespace();
-        // handle empty array literal case early
-        if (pos < length && src.charAt(pos) == ']') {
-            pos += 1;
-            return cx.newArray(scope, 0);
+        /**
+         * Read more of the source into the buffer. Return false at the end of
+         * the source.
+         */
+        private boolean fill() throws ParseException {
+            int keep = tokenStart >= 0 ? tokenStart : pos;
+            if (keep > 0) {
+                System.arraycopy(buf, keep, buf, 0, length - keep);
+                length -= keep;
+                pos -= keep;
+                consumed += keep;
+                if (tokenStart >= 0) {
+                    tokenStart = 0;
+                }
+            }
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int count;
+            if (srcString != null) {
+                count = Math.min(buf.length - length, srcString.length() - srcPos);
+                srcString.getChars(srcPos, srcPos + count, buf, length);
+                srcPos += count;
+            } else {
+                try {
+                    count = srcReader.read(buf, length, buf.length - length);
+                } catch (IOException ex) {
+                    throw new ParseException(ex);
+                }
+            }
+            if (count <= 0) {
+                return false;
+            }
+            length += count;
+            return true;
         }
-        List<Object> list = new ArrayList<Object>();
-        boolean needsComma = false;
-        while (pos < length) {
-            char c = src.charAt(pos);
-            switch(c) {
-                case ']':
-                    if (!needsComma) {
-                        throw new ParseException("Unexpected comma in array literal");
-                    }
-                    pos += 1;
-                    return cx.newArray(scope, list.toArray());
-                case ',':
-                    if (!needsComma) {
-                        throw new ParseException("Unexpected comma in array literal");
-                    }
-                    needsComma = false;
-                    pos += 1;
-                    break;
-                default:
-                    if (needsComma) {
-                        throw new ParseException("Missing comma in array literal");
-                    }
-                    list.add(readValue());
-                    needsComma = true;
+
+        private Object readValue() throws ParseException {
+            consumeWhitespace();
+            while (more()) {
+                char c = buf[pos++];
+                switch (c) {
+                    case '{':
+                        return readObject();
+                    case '[':
+                        return readArray();
+                    case 't':
+                        return readTrue();
+                    case 'f':
+                        return readFalse();
+                    case '"':
+                        return readString();
+                    case 'n':
+                        return readNull();
+                    case '1':
+                    case '2':
+                    case '3':
+                    case '4':
+                    case '5':
+                    case '6':
+                    case '7':
+                    case '8':
+                    case '9':
+                    case '0':
+                    case '-':
+                        return readNumber(c);
+                    default:
+                        throw new ParseException("Unexpected token: " + c);
+                }
             }
+            throw new ParseException("Empty JSON string");
+        }
+
+        private Object readObject() throws ParseException {
             consumeWhitespace();
+            Scriptable object = cx.newObject(scope);
+            // handle empty object literal case early
+            if (more() && buf[pos] == '}') {
+                pos += 1;
+                return object;
+            }
+            String id;
+            Object value;
+            boolean needsComma = false;
+            while (more()) {
+                char c = buf[pos++];
+                switch(c) {
+                    case '}':
+                        if (!needsComma) {
+                            throw new ParseException("Unexpected comma in object literal");
+                        }
+                        return object;
+                    case ',':
+                        if (!needsComma) {
+                            throw new ParseException("Unexpected comma in object literal");
+                        }
+                        needsComma = false;
+                        break;
+                    case '"':
+                        if (needsComma) {
+                            throw new ParseException("Missing comma in object literal");
+                        }
+                        id = readKey();
+                        consume(':');
+                        value = readValue();
+
+                        long index = ScriptRuntime.indexFromString(id);
+                        if (index < 0) {
+                          object.put(id, object, value);
+                        } else {
+                          object.put((int)index, object, value);
+                        }
+
+                        needsComma = true;
+                        break;
+                    default:
+                        throw new ParseException("Unexpected token in object literal");
+                }
+                consumeWhitespace();
+            }
+            throw new ParseException("Unterminated object literal");
         }
-        throw new ParseException("Unterminated array literal");
-    }
 
-    private String readString() throws ParseException {
-        /*
-         * Optimization: if the source contains no escaped characters, create the
-         * string directly from the source text.
-         */
-        int stringStart = pos;
-        while (pos < length) {
-            char c = src.charAt(pos++);
-            if (c <= '\u001F') {
-                throw new ParseException("String contains control character");
-            } else if (c == '\\') {
-                break;
-            } else if (c == '"') {
-                return src.substring(stringStart, pos - 1);
+        private Object readArray() throws ParseException {
+            consumeWhitespace();
+            // handle empty array literal case early
+            if (more() && buf[pos] == ']') {
+                pos += 1;
+                return cx.newArray(scope, 0);
+            }
+            // Collect the elements in an array that becomes the dense
+            // storage of the result
+            Object[] elements = new Object[8];
+            int count = 0;
+            boolean needsComma = false;
+            while (more()) {
+                char c = buf[pos];
+                switch(c) {
+                    case ']':
+                        if (!needsComma) {
+                            throw new ParseException("Unexpected comma in array literal");
+                        }
+                        pos += 1;
+                        if (count != elements.length) {
+                            elements = Arrays.copyOf(elements, count);
+                        }
+                        return cx.newArray(scope, elements);
+                    case ',':
+                        if (!needsComma) {
+                            throw new ParseException("Unexpected comma in array literal");
+                        }
+                        needsComma = false;
+                        pos += 1;
+                        break;
+                    default:
+                        if (needsComma) {
+                            throw new ParseException("Missing comma in array literal");
+                        }
+                        if (count == elements.length) {
+                            elements = Arrays.copyOf(elements, count * 2);
+                        }
+                        elements[count++] = readValue();
+                        needsComma = true;
+                }
+                consumeWhitespace();
             }
+            throw new ParseException("Unterminated array literal");
         }
 
-        /*
-         * Slow case: string contains escaped characters.  Copy a maximal sequence
-         * of unescaped characters into a temporary buffer, then an escaped
-         * character, and repeat until the entire string is consumed.
+        /**
+         * Read a property name. Names are looked up in keyCache, so that a
+         * name without escapes is only made into a String the first time it
+         * is seen. The hash is the same as that of String.
          */
-        StringBuilder b = new StringBuilder();
-        while (pos < length) {
-            assert src.charAt(pos - 1) == '\\';
-            b.append(src, stringStart, pos - 1);
-            if (pos >= length) {
-                throw new ParseException("Unterminated string");
-            }
-            char c = src.charAt(pos++);
-            switch (c) {
-                case '"':
-                    b.append('"');
-                    break;
-                case '\\':
-                    b.append('\\');
-                    break;
-                case '/':
-                    b.append('/');
-                    break;
-                case 'b':
-                    b.append('\b');
-                    break;
-                case 'f':
-                    b.append('\f');
-                    break;
-                case 'n':
-                    b.append('\n');
-                    break;
-                case 'r':
-                    b.append('\r');
-                    break;
-                case 't':
-                    b.append('\t');
+        private String readKey() throws ParseException {
+            tokenStart = pos;
+            int hash = 0;
+            for (;;) {
+                if (!more()) {
+                    throw new ParseException("Unterminated string literal");
+                }
+                char c = buf[pos++];
+                if (c == '"') {
                     break;
-                case 'u':
-                    if (length - pos < 5) {
-                        throw new ParseException("Invalid character code: \\u" + src.substring(pos));
-                    }
-                    int code = fromHex(src.charAt(pos + 0)) << 12
-                             | fromHex(src.charAt(pos + 1)) << 8
-                             | fromHex(src.charAt(pos + 2)) << 4
-                             | fromHex(src.charAt(pos + 3));
-                    if (code < 0) {
-                        throw new ParseException("Invalid character code: " + src.substring(pos, pos + 4));
+                }
+                if (c == '\\' || c <= '\u001F') {
+                    pos = tokenStart;
+                    String key = readString();
+                    int i = keyCacheIndex(key.hashCode());
+                    if (key.equals(keyCache[i])) {
+                        return keyCache[i];
                     }
-                    pos += 4;
-                    b.append((char) code);
-                    break;
-                default:
-                    throw new ParseException("Unexpected character in string: '\\" + c + "'");
+                    keyCache[i] = key;
+                    return key;
+                }
+                hash = 31 * hash + c;
+            }
+            int start = tokenStart;
+            int keyLength = pos - 1 - start;
+            tokenStart = -1;
+
+            int i = keyCacheIndex(hash);
+            String key = keyCache[i];
+            if (key != null && key.length() == keyLength) {
+                int j = 0;
+                while (j < keyLength && key.charAt(j) == buf[start + j]) {
+                    j++;
+                }
+                if (j == keyLength) {
+                    return key;
+                }
+            }
+            key = new String(buf, start, keyLength);
+            keyCache[i] = key;
+            return key;
+        }
+
+        private int keyCacheIndex(int hash) {
+            if (keyCache == null) {
+                keyCache = new String[KEY_CACHE_SIZE];
             }
-            stringStart = pos;
-            while (pos < length) {
-                c = src.charAt(pos++);
+            return (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        }
+
+        private String readString() throws ParseException {
+            /*
+             * Optimization: if the source contains no escaped characters, create the
+             * string directly from the source text.
+             */
+            tokenStart = pos;
+            if (!skipUnescaped()) {
+                String str = new String(buf, tokenStart, pos - 1 - tokenStart);
+                tokenStart = -1;
+                return str;
+            }
+
+            /*
+             * Slow case: string contains escaped characters.  Copy a maximal sequence
+             * of unescaped characters into a temporary buffer, then an escaped
+             * character, and repeat until the entire string is consumed.
+             */
+            StringBuilder b = new StringBuilder();
+            boolean escaped = true;
+            while (escaped) {
+                assert buf[pos - 1] == '\\';
+                b.append(buf, tokenStart, pos - 1 - tokenStart);
+                tokenStart = -1;
+                if (!more()) {
+                    throw new ParseException("Unterminated string");
+                }
+                char c = buf[pos++];
+                switch (c) {
+                    case '"':
+                        b.append('"');
+                        break;
+                    case '\\':
+                        b.append('\\');
+                        break;
+                    case '/':
+                        b.append('/');
+                        break;
+                    case 'b':
+                        b.append('\b');
+                        break;
+                    case 'f':
+                        b.append('\f');
+                        break;
+                    case 'n':
+                        b.append('\n');
+                        break;
+                    case 'r':
+                        b.append('\r');
+                        break;
+                    case 't':
+                        b.append('\t');
+                        break;
+                    case 'u':
+                        if (!ensure(5)) {
+                            throw new ParseException("Invalid character code: \\u"
+                                                     + new String(buf, pos, length - pos));
+                        }
+                        int code = fromHex(buf[pos + 0]) << 12
+                                 | fromHex(buf[pos + 1]) << 8
+                                 | fromHex(buf[pos + 2]) << 4
+                                 | fromHex(buf[pos + 3]);
+                        if (code < 0) {
+                            throw new ParseException("Invalid character code: " + new String(buf, pos, 4));
+                        }
+                        pos += 4;
+                        b.append((char) code);
+                        break;
+                    default:
+                        throw new ParseException("Unexpected character in string: '\\" + c + "'");
+                }
+                tokenStart = pos;
+                escaped = skipUnescaped();
+            }
+            b.append(buf, tokenStart, pos - 1 - tokenStart);
+            tokenStart = -1;
+            return b.toString();
+        }
+
+        /**
+         * Skip the characters of a string up to the next backslash or the
+         * closing quote, and return whether it was a backslash.
+         */
+        private boolean skipUnescaped() throws ParseException {
+            while (more()) {
+                char c = buf[pos++];
                 if (c <= '\u001F') {
                     throw new ParseException("String contains control character");
                 } else if (c == '\\') {
-                    break;
+                    return true;
                 } else if (c == '"') {
-                    b.append(src, stringStart, pos - 1);
-                    return b.toString();
+                    return false;
                 }
             }
+            throw new ParseException("Unterminated string literal");
         }
-        throw new ParseException("Unterminated string literal");
-    }
 
-    private int fromHex(char c) {
-        return c >= '0' && c <= '9' ? c - '0'
-                : c >= 'A' && c <= 'F' ? c - 'A' + 10
-                : c >= 'a' && c <= 'f' ? c - 'a' + 10
-                : -1;
-    }
-
-    private Number readNumber(char c) throws ParseException {
-        assert c == '-' || (c >= '0' && c <= '9');
-        final int numberStart = pos - 1;
-        if (c == '-') {
-            c = nextOrNumberError(numberStart);
-            if (!(c >= '0' && c <= '9')) {
-                throw numberError(numberStart, pos);
-            }
-        }
-        if (c != '0') {
-            readDigits();
+        private int fromHex(char c) {
+            return c >= '0' && c <= '9' ? c - '0'
+                    : c >= 'A' && c <= 'F' ? c - 'A' + 10
+                    : c >= 'a' && c <= 'f' ? c - 'a' + 10
+                    : -1;
         }
-        // read optional fraction part
-        if (pos < length) {
-            c = src.charAt(pos);
-            if (c == '.') {
-                pos += 1;
-                c = nextOrNumberError(numberStart);
+
+        private Number readNumber(char c) throws ParseException {
+            assert c == '-' || (c >= '0' && c <= '9');
+            tokenStart = pos - 1;
+            if (c == '-') {
+                c = nextOrNumberError();
                 if (!(c >= '0' && c <= '9')) {
-                    throw numberError(numberStart, pos);
+                    throw numberError(pos);
                 }
+            }
+            if (c != '0') {
                 readDigits();
             }
-        }
-        // read optional exponent part
-        if (pos < length) {
-            c = src.charAt(pos);
-            if (c == 'e' || c == 'E') {
-                pos += 1;
-                c = nextOrNumberError(numberStart);
-                if (c == '-' || c == '+') {
-                    c = nextOrNumberError(numberStart);
+            boolean isInteger = true;
+            // read optional fraction part
+            if (more()) {
+                c = buf[pos];
+                if (c == '.') {
+                    isInteger = false;
+                    pos += 1;
+                    c = nextOrNumberError();
+                    if (!(c >= '0' && c <= '9')) {
+                        throw numberError(pos);
+                    }
+                    readDigits();
                 }
-                if (!(c >= '0' && c <= '9')) {
-                    throw numberError(numberStart, pos);
+            }
+            // read optional exponent part
+            if (more()) {
+                c = buf[pos];
+                if (c == 'e' || c == 'E') {
+                    isInteger = false;
+                    pos += 1;
+                    c = nextOrNumberError();
+                    if (c == '-' || c == '+') {
+                        c = nextOrNumberError();
+                    }
+                    if (!(c >= '0' && c <= '9')) {
+                        throw numberError(pos);
+                    }
+                    readDigits();
                 }
-                readDigits();
             }
+            int start = tokenStart;
+            tokenStart = -1;
+            // Integers of up to 9 digits fit in an int
+            if (isInteger && pos - start <= 9) {
+                boolean negative = buf[start] == '-';
+                int ival = 0;
+                for (int i = negative ? start + 1 : start; i != pos; ++i) {
+                    ival = ival * 10 + (buf[i] - '0');
+                }
+                return Integer.valueOf(negative ? -ival : ival);
+            }
+            String num = new String(buf, start, pos - start);
+            final double dval = Double.parseDouble(num);
+            final int ival = (int)dval;
+            if (ival == dval) {
+                return Integer.valueOf(ival);
+            }
+            return Double.valueOf(dval);
         }
-        String num = src.substring(numberStart, pos);
-        final double dval = Double.parseDouble(num);
-        final int ival = (int)dval;
-        if (ival == dval) {
-            return Integer.valueOf(ival);
-        }
-        return Double.valueOf(dval);
-    }
-
-    private ParseException numberError(int start, int end) {
-        return new ParseException("Unsupported number format: " + src.substring(start, end));
-    }
 
-    private char nextOrNumberError(int numberStart) throws ParseException {
-        if (pos >= length) {
-            throw numberError(numberStart, length);
+        private ParseException numberError(int end) {
+            return new ParseException("Unsupported number format: "
+                                      + new String(buf, tokenStart, end - tokenStart));
         }
-        return src.charAt(pos++);
-    }
 
-    private void readDigits() {
-        for (; pos < length; ++pos) {
-            char c = src.charAt(pos);
-            if (!(c >= '0' && c <= '9')) {
-                break;
+        private char nextOrNumberError() throws ParseException {
+            if (!more()) {
+                throw numberError(length);
             }
+            return buf[pos++];
         }
-    }
 
-    private Boolean readTrue() throws ParseException {
-        if (length - pos < 3
-                || src.charAt(pos) != 'r'
-                || src.charAt(pos + 1) != 'u'
-                || src.charAt(pos + 2) != 'e') {
-            throw new ParseException("Unexpected token: t");
+        private void readDigits() throws ParseException {
+            for (; more(); ++pos) {
+                char c = buf[pos];
+                if (!(c >= '0' && c <= '9')) {
+                    break;
+                }
+            }
         }
-        pos += 3;
-        return Boolean.TRUE;
-    }
 
-    private Boolean readFalse() throws ParseException {
-        if (length - pos < 4
-                || src.charAt(pos) != 'a'
-                || src.charAt(pos + 1) != 'l'
-                || src.charAt(pos + 2) != 's'
-                || src.charAt(pos + 3) != 'e') {
-            throw new ParseException("Unexpected token: f");
+        private Boolean readTrue() throws ParseException {
+            if (!ensure(3)
+                    || buf[pos] != 'r'
+                    || buf[pos + 1] != 'u'
+                    || buf[pos + 2] != 'e') {
+                throw new ParseException("Unexpected token: t");
+            }
+            pos += 3;
+            return Boolean.TRUE;
         }
-        pos += 4;
-        return Boolean.FALSE;
-    }
 
-    private Object readNull() throws ParseException {
-        if (length - pos < 3
-                || src.charAt(pos) != 'u'
-                || src.charAt(pos + 1) != 'l'
-                || src.charAt(pos + 2) != 'l') {
-            throw new ParseException("Unexpected token: n");
+        private Boolean readFalse() throws ParseException {
+            if (!ensure(4)
+                    || buf[pos] != 'a'
+                    || buf[pos + 1] != 'l'
+                    || buf[pos + 2] != 's'
+                    || buf[pos + 3] != 'e') {
+                throw new ParseException("Unexpected token: f");
+            }
+            pos += 4;
+            return Boolean.FALSE;
         }
-        pos += 3;
-        return null;
-    }
 
-    private void consumeWhitespace() {
-        while (pos < length) {
-            char c = src.charAt(pos);
-            switch (c) {
-                case ' ':
-                case '\t':
-                case '\r':
-                case '\n':
-                    pos += 1;
-                    break;
-                default:
-                    return;
+        private Object readNull() throws ParseException {
+            if (!ensure(3)
+                    || buf[pos] != 'u'
+                    || buf[pos + 1] != 'l'
+                    || buf[pos + 2] != 'l') {
+                throw new ParseException("Unexpected token: n");
             }
+            pos += 3;
+            return null;
         }
-    }
 
-    private void consume(char token) throws ParseException {
-        consumeWhitespace();
-        if (pos >= length) {
-            throw new ParseException("Expected " + token + " but reached end of stream");
+        private void consumeWhitespace() throws ParseException {
+            while (more()) {
+                char c = buf[pos];
+                switch (c) {
+                    case ' ':
+                    case '\t':
+                    case '\r':
+                    case '\n':
+                        pos += 1;
+                        break;
+                    default:
+                        return;
+                }
+            }
         }
-        char c = src.charAt(pos++);
-        if (c == token) {
-            return;
+
+        private void consume(char token) throws ParseException {
+            consumeWhitespace();
+            if (!more()) {
+                throw new ParseException("Expected " + token + " but reached end of stream");
+            }
+            char c = buf[pos++];
+            if (c == token) {
+                return;
+            }
+            throw new ParseException("Expected " + token + " found " + c);
         }
-        throw new ParseException("Expected " + token + " found " + c);
     }
 
     public static class ParseException extends Exception {
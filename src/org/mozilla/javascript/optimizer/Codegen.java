@@ -25,6 +25,7 @@ import org.mozilla.classfile.ByteCode;
 import org.mozilla.classfile.ClassFileWriter;
 import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.DynamicLinker;
 import org.mozilla.javascript.Evaluator;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.GeneratedClassLoader;
@@ -142,8 +143,12 @@ public class Codegen implements Evaluator
         return f;
     }
 
-    private Class<?> defineClass(Object bytecode,
-                                 Object staticSecurityDomain)
+    /**
+     * Define the main class of the bytecode returned by compile without
+     * creating an instance of it.
+     */
+    public Class<?> defineClass(Object bytecode,
+                                Object staticSecurityDomain)
     {
         Object[] nameBytesPair = (Object[])bytecode;
         String className = (String)nameBytesPair[0];
@@ -766,7 +771,8 @@ public class Codegen implements Evaluator
         final int Do_getParamOrVarName    = 3;
         final int Do_getEncodedSource     = 4;
         final int Do_getParamOrVarConst   = 5;
-        final int SWITCH_COUNT            = 6;
+        final int Do_requiresActivation   = 6;
+        final int SWITCH_COUNT            = 7;
 
         for (int methodIndex = 0; methodIndex != SWITCH_COUNT; ++methodIndex) {
             if (methodIndex == Do_getEncodedSource && encodedSource == null) {
@@ -811,6 +817,11 @@ public class Codegen implements Evaluator
                                 ACC_PUBLIC);
                 cfw.addPush(encodedSource);
                 break;
+              case Do_requiresActivation:
+                methodLocals = 1; // Only this
+                cfw.startMethod("requiresActivation", "()Z",
+                                ACC_PUBLIC);
+                break;
               default:
                 throw Kit.codeBug();
             }
@@ -953,6 +964,13 @@ public class Codegen implements Evaluator
                     cfw.add(ByteCode.ARETURN);
                     break;
 
+                  case Do_requiresActivation:
+                    // Scripts always use an activation object
+                    cfw.addPush(!(n instanceof FunctionNode)
+                                || ((FunctionNode)n).requiresActivation());
+                    cfw.add(ByteCode.IRETURN);
+                    break;
+
                   default:
                     throw Kit.codeBug();
                 }
@@ -1033,7 +1051,9 @@ public class Codegen implements Evaluator
     private void emitConstantDudeInitializers(ClassFileWriter cfw)
     {
         int N = itsConstantListSize;
-        if (N == 0)
+        int cacheCount = (itsPropertyCacheNames == null
+                          ? 0 : itsPropertyCacheNames.size());
+        if (N == 0 && cacheCount == 0)
             return;
 
         cfw.startMethod("<clinit>", "()V", (short)(ACC_STATIC | ACC_FINAL));
@@ -1058,10 +1078,48 @@ public class Codegen implements Evaluator
                     constantName, constantType);
         }
 
+        for (int i = 0; i != cacheCount; ++i) {
+            String cacheName = "_pc" + i;
+            cfw.addField(cacheName, PROPERTY_CACHE_SIGNATURE,
+                         (short)(ACC_STATIC | ACC_PRIVATE | ACC_FINAL));
+            cfw.add(ByteCode.NEW, PROPERTY_CACHE_CLASS);
+            cfw.add(ByteCode.DUP);
+            cfw.addPush((String)itsPropertyCacheNames.get(i));
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, PROPERTY_CACHE_CLASS,
+                          "<init>", "(Ljava/lang/String;)V");
+            cfw.add(ByteCode.PUTSTATIC, mainClassName,
+                    cacheName, PROPERTY_CACHE_SIGNATURE);
+        }
+
         cfw.add(ByteCode.RETURN);
         cfw.stopMethod((short)0);
     }
 
+    /**
+     * Return whether another property access site may be given its own
+     * PropertyCache. The caches live in static fields, which are subject to
+     * the same limits as the number constants above.
+     */
+    boolean canAddPropertyCache()
+    {
+        return itsPropertyCacheNames == null
+               || itsPropertyCacheNames.size() < 2000;
+    }
+
+    /**
+     * Push a new PropertyCache for an access site of the named property.
+     */
+    void pushPropertyCache(ClassFileWriter cfw, String name)
+    {
+        if (itsPropertyCacheNames == null) {
+            itsPropertyCacheNames = new ObjArray();
+        }
+        int index = itsPropertyCacheNames.size();
+        itsPropertyCacheNames.add(name);
+        cfw.add(ByteCode.GETSTATIC, mainClassName, "_pc" + index,
+                PROPERTY_CACHE_SIGNATURE);
+    }
+
     void pushNumberAsObject(ClassFileWriter cfw, double num)
     {
         if (num == 0.0) {
@@ -1243,6 +1301,27 @@ public class Codegen implements Evaluator
         = "(Lorg/mozilla/javascript/Scriptable;"
           +"Lorg/mozilla/javascript/Context;I)V";
 
+    static final String PROPERTY_CACHE_CLASS
+        = "org/mozilla/javascript/PropertyCache";
+    static final String PROPERTY_CACHE_SIGNATURE
+        = "Lorg/mozilla/javascript/PropertyCache;";
+
+    static final ClassFileWriter.MHandle DYNAMIC_BOOTSTRAP
+        = new ClassFileWriter.MHandle(ByteCode.MH_INVOKESTATIC,
+            "org/mozilla/javascript/DynamicLinker", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;"
+            +"Ljava/lang/String;"
+            +"Ljava/lang/invoke/MethodType;"
+            +")Ljava/lang/invoke/CallSite;");
+    static final ClassFileWriter.MHandle DYNAMIC_BOOTSTRAP_NAMED
+        = new ClassFileWriter.MHandle(ByteCode.MH_INVOKESTATIC,
+            "org/mozilla/javascript/DynamicLinker", "bootstrapNamed",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;"
+            +"Ljava/lang/String;"
+            +"Ljava/lang/invoke/MethodType;"
+            +"Ljava/lang/String;"
+            +")Ljava/lang/invoke/CallSite;");
+
     private static final Object globalLock = new Object();
     private static int globalSerialClassCounter;
 
@@ -1259,6 +1338,7 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+    private ObjArray itsPropertyCacheNames;
 }
 
 
@@ -1354,7 +1434,7 @@ class BodyCodegen
         }
 
         // generators are forced to have an activation record
-        cfw.addALoad(funObjLocal);
+        addLoadSelfFunction();
         cfw.addALoad(variableObjectLocal);
         cfw.addALoad(argsLocal);
         cfw.addPush(scriptOrFn.isInStrictMode());
@@ -1409,6 +1489,7 @@ class BodyCodegen
     private void initBodyGeneration()
     {
         varRegisters = null;
+        int32Registers = null;
         if (scriptOrFn.getType() == Token.FUNCTION) {
             fnCurrent = OptFunctionNode.get(scriptOrFn);
             hasVarsInRegs = !fnCurrent.fnode.requiresActivation();
@@ -1570,6 +1651,11 @@ class BodyCodegen
             int varCount = fnCurrent.fnode.getParamAndVarCount();
             boolean [] constDeclarations = fnCurrent.fnode.getParamAndVarConst();
 
+            boolean[] int32Locals = findInt32Locals();
+            if (int32Locals != null) {
+                int32Registers = new short[varCount];
+            }
+
             // REMIND - only need to initialize the vars that don't get a value
             // before the next call and are used in the function
             short firstUndefVar = -1;
@@ -1587,6 +1673,14 @@ class BodyCodegen
                     reg = getNewWordPairLocal(constDeclarations[i]);
                     cfw.addPush(0.0);
                     cfw.addDStore(reg);
+                    if (int32Locals != null && int32Locals[i]) {
+                        short intReg = getNewWordIntern(2);
+                        cfw.addPush(0);
+                        cfw.addIStore(intReg);
+                        cfw.addPush(1);
+                        cfw.addIStore(intReg + 1);
+                        int32Registers[i] = intReg;
+                    }
                 } else {
                     reg = getNewWordLocal(constDeclarations[i]);
                     if (firstUndefVar == -1) {
@@ -1636,7 +1730,7 @@ class BodyCodegen
         }
         if (fnCurrent != null) {
             debugVariableName = "activation";
-            cfw.addALoad(funObjLocal);
+            addLoadSelfFunction();
             cfw.addALoad(variableObjectLocal);
             cfw.addALoad(argsLocal);
             String methodName = isArrow ? "createArrowFunctionActivation" : "createFunctionActivation";
@@ -2275,7 +2369,7 @@ class BodyCodegen
                 break;
 
               case Token.THISFN:
-                cfw.add(ByteCode.ALOAD_0);
+                addLoadSelfFunction();
                 break;
 
               case Token.NULL:
@@ -2367,12 +2461,11 @@ class BodyCodegen
               }
 
               case Token.BITNOT:
-                generateExpression(child, node);
-                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-                cfw.addPush(-1);         // implement ~a as (a ^ -1)
-                cfw.add(ByteCode.IXOR);
+                generateInt32Expression(node);
                 cfw.add(ByteCode.I2D);
-                addDoubleWrap();
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    addDoubleWrap();
+                }
                 break;
 
               case Token.VOID:
@@ -2458,6 +2551,14 @@ class BodyCodegen
                                 "(Ljava/lang/Object;"
                                 +"Ljava/lang/CharSequence;"
                                 +")Ljava/lang/CharSequence;");
+                        } else if (compilerEnv.isDynamicLinkage()) {
+                            cfw.addALoad(contextLocal);
+                            cfw.addInvokeDynamic(DynamicLinker.ADD,
+                                "(Ljava/lang/Object;"
+                                +"Ljava/lang/Object;"
+                                +"Lorg/mozilla/javascript/Context;"
+                                +")Ljava/lang/Object;",
+                                Codegen.DYNAMIC_BOOTSTRAP);
                         } else {
                             cfw.addALoad(contextLocal);
                             addScriptRuntimeInvoke("add",
@@ -2491,7 +2592,7 @@ class BodyCodegen
               case Token.LSH:
               case Token.RSH:
               case Token.URSH:
-                visitBitOp(node, type, child);
+                visitBitOp(node, type, child, false);
                 break;
 
               case Token.POS:
@@ -2558,6 +2659,22 @@ class BodyCodegen
 
               case Token.GETELEM:
                 generateExpression(child, node); // object
+                if (int32Register(child.getNext()) != 0) {
+                    visitGetInt32LocalIndex(child.getNext());
+                    break;
+                }
+                if (isInt32Expression(child.getNext())) {
+                    generateInt32Expression(child.getNext());
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    addScriptRuntimeInvoke(
+                        "getObjectIndex",
+                        "(Ljava/lang/Object;I"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +")Ljava/lang/Object;");
+                    break;
+                }
                 generateExpression(child.getNext(), node);  // id
                 cfw.addALoad(contextLocal);
                 if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
@@ -3365,6 +3482,11 @@ class BodyCodegen
         Node firstArgChild = child.getNext();
         int childType = child.getType();
 
+        if (compilerEnv.isDynamicLinkage()) {
+            visitDynamicCall(node, child, firstArgChild);
+            return;
+        }
+
         String methodName;
         String signature;
 
@@ -3461,6 +3583,35 @@ class BodyCodegen
         addOptRuntimeInvoke(methodName, signature);
     }
 
+    /**
+     * Generate a call through an invokedynamic site that DynamicLinker links to
+     * the callee seen first. The function and this object are resolved before
+     * the arguments are evaluated, for name calls as well.
+     */
+    private void visitDynamicCall(Node node, Node child, Node firstArgChild)
+    {
+        if (child.getType() == Token.GETPROPNOWARN) throw Kit.codeBug();
+        generateFunctionAndThisObj(child, node);
+        // stack: ... functionObj thisObj
+        if (firstArgChild == null) {
+            cfw.add(ByteCode.GETSTATIC,
+                    "org/mozilla/javascript/ScriptRuntime",
+                    "emptyArgs", "[Ljava/lang/Object;");
+        } else {
+            generateCallArgArray(node, firstArgChild, false);
+        }
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addInvokeDynamic(DynamicLinker.CALL,
+            "(Lorg/mozilla/javascript/Callable;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +"[Ljava/lang/Object;"
+            +"Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +")Ljava/lang/Object;",
+            Codegen.DYNAMIC_BOOTSTRAP);
+    }
+
     private void visitStandardNew(Node node, Node child)
     {
         if (node.getType() != Token.NEW) throw Codegen.badTree();
@@ -4448,7 +4599,18 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 }
                 break;
             }
-            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1
+                && int32Register(child) != 0)
+            {
+                if (post) {
+                    cfw.addDLoad(reg);
+                }
+                addInt32LocalIncrement(varIndex,
+                    (incrDecrMask & Node.DECR_FLAG) == 0 ? 1 : -1);
+                if (!post) {
+                    cfw.addDLoad(reg);
+                }
+            } else if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
                 int offset = varIsDirectCallParameter(varIndex) ? 1 : 0;
                 cfw.addDLoad(reg + offset);
                 if (post) {
@@ -4596,37 +4758,36 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
-    private void visitBitOp(Node node, int type, Node child)
+    /**
+     * Generate a bitwise operator. With asInt32 the result is left on the
+     * stack as an int, as an enclosing bitwise operator or int comparison
+     * wants it; otherwise it is a double, wrapped as a Number unless the
+     * Optimizer typed the node as a number. The result of &gt;&gt;&gt; as
+     * an int is its ToInt32 value.
+     */
+    private void visitBitOp(Node node, int type, Node child, boolean asInt32)
     {
-        int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
-
-        // special-case URSH; work with the target arg as a long, so
-        // that we can return a 32-bit unsigned value, and call
-        // toUint32 instead of toInt32.
-        if (type == Token.URSH) {
-            addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+        if (type == Token.URSH && !asInt32) {
+            // work with the target arg as a long, so that we can return
+            // a 32-bit unsigned value
+            generateInt32Operand(node, child);
+            cfw.add(ByteCode.I2L);
+            cfw.addPush(0xFFFFFFFFL);
+            cfw.add(ByteCode.LAND);
+            generateInt32Operand(node, child.getNext());
             // Looks like we need to explicitly mask the shift to 5 bits -
             // LUSHR takes 6 bits.
             cfw.addPush(31);
             cfw.add(ByteCode.IAND);
             cfw.add(ByteCode.LUSHR);
             cfw.add(ByteCode.L2D);
-            addDoubleWrap();
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                addDoubleWrap();
+            }
             return;
         }
-        if (childNumberFlag == -1) {
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-        }
-        else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-        }
+        generateInt32Operand(node, child);
+        generateInt32Operand(node, child.getNext());
         switch (type) {
           case Token.BITOR:
             cfw.add(ByteCode.IOR);
@@ -4643,15 +4804,321 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
           case Token.LSH:
             cfw.add(ByteCode.ISHL);
             break;
+          case Token.URSH:
+            cfw.add(ByteCode.IUSHR);
+            break;
           default:
             throw Codegen.badTree();
         }
-        cfw.add(ByteCode.I2D);
-        if (childNumberFlag == -1) {
-            addDoubleWrap();
+        if (!asInt32) {
+            cfw.add(ByteCode.I2D);
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                addDoubleWrap();
+            }
+        }
+    }
+
+    /**
+     * Return true if node always evaluates to an int32 value, so that it
+     * can be computed and compared as a Java int without changing its
+     * value: bitwise operators other than &gt;&gt;&gt;, whose result may
+     * exceed Integer.MAX_VALUE, and integer literals.
+     */
+    private static boolean isInt32Expression(Node node)
+    {
+        switch (node.getType()) {
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.LSH:
+          case Token.RSH:
+          case Token.BITNOT:
+            return true;
+          case Token.NUMBER: {
+            double d = node.getDouble();
+            return d == (int)d && !(d == 0.0 && 1 / d < 0);
+          }
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            return isInt32Expression(node.getFirstChild());
+        }
+        return false;
+    }
+
+    /**
+     * Generate node, which must be an operand of a bitwise operator parent,
+     * and convert it with ToInt32.
+     */
+    private void generateInt32Operand(Node parent, Node node)
+    {
+        if (isInt32Expression(node) || node.getType() == Token.URSH) {
+            generateInt32Expression(node);
+        } else if (node.getType() == Token.NUMBER) {
+            cfw.addPush(ScriptRuntime.toInt32(node.getDouble()));
+        } else {
+            generateExpression(node, parent);
+            if (parent.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                addScriptRuntimeInvoke("toInt32", "(D)I");
+            } else {
+                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            }
+        }
+    }
+
+    /**
+     * Generate the ToInt32 value of node as a Java int, without going
+     * through a double or a Number. Node must be an int32 expression, or
+     * &gt;&gt;&gt;.
+     */
+    private void generateInt32Expression(Node node)
+    {
+        int type = node.getType();
+        switch (type) {
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.LSH:
+          case Token.RSH:
+          case Token.URSH:
+            visitBitOp(node, type, node.getFirstChild(), true);
+            break;
+          case Token.BITNOT:
+            generateInt32Operand(node, node.getFirstChild());
+            cfw.addPush(-1);         // implement ~a as (a ^ -1)
+            cfw.add(ByteCode.IXOR);
+            break;
+          case Token.NUMBER:
+            cfw.addPush((int)node.getDouble());
+            break;
+          case Token.TO_DOUBLE:
+          case Token.TO_OBJECT:
+            generateInt32Expression(node.getFirstChild());
+            break;
+          default:
+            throw Codegen.badTree();
+        }
+    }
+
+    /**
+     * Find the number variables that can be kept as int32 locals: those that
+     * are only assigned int32 expressions, incremented, decremented or
+     * changed by an integer constant, as loop counters and array indices
+     * are. Such a variable keeps its double register, which always holds its
+     * value, and gets an int register with a flag that says whether the int
+     * holds the same value. An increment that would overflow the int clears
+     * the flag, and the variable continues in its double register only.
+     */
+    private boolean[] findInt32Locals()
+    {
+        if (isGenerator) {
+            return null;
+        }
+        int varCount = fnCurrent.fnode.getParamAndVarCount();
+        boolean[] constDeclarations = fnCurrent.fnode.getParamAndVarConst();
+        boolean[] int32Locals = new boolean[varCount];
+        boolean found = false;
+        for (int i = fnCurrent.fnode.getParamCount(); i != varCount; ++i) {
+            if (fnCurrent.isNumberVar(i) && !constDeclarations[i]) {
+                int32Locals[i] = true;
+                found = true;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        clearNonInt32Locals(scriptOrFn, int32Locals);
+        for (int i = 0; i != varCount; ++i) {
+            if (int32Locals[i]) {
+                return int32Locals;
+            }
+        }
+        return null;
+    }
+
+    private void clearNonInt32Locals(Node node, boolean[] int32Locals)
+    {
+        for (Node child = node.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            if (child.getType() == Token.SETVAR) {
+                int varIndex = fnCurrent.getVarIndex(child);
+                Node value = child.getFirstChild().getNext();
+                if (!isInt32Expression(value)
+                    && getInt32LocalDelta(varIndex, value) == 0)
+                {
+                    int32Locals[varIndex] = false;
+                }
+            }
+            clearNonInt32Locals(child, int32Locals);
         }
     }
 
+    /**
+     * If value is the variable plus or minus an integer constant, return
+     * the amount that it adds to the variable, otherwise 0.
+     */
+    private int getInt32LocalDelta(int varIndex, Node value)
+    {
+        int type = value.getType();
+        if (type != Token.ADD && type != Token.SUB) {
+            return 0;
+        }
+        Node var = value.getFirstChild();
+        Node constant = var.getNext();
+        if (type == Token.ADD && var.getType() == Token.NUMBER) {
+            constant = var;
+            var = var.getNext();
+        }
+        if (var.getType() != Token.GETVAR
+            || fnCurrent.getVarIndex(var) != varIndex
+            || constant.getType() != Token.NUMBER)
+        {
+            return 0;
+        }
+        double d = constant.getDouble();
+        if (d != (int)d || d == 0.0 || (int)d == Integer.MIN_VALUE) {
+            return 0;
+        }
+        return type == Token.ADD ? (int)d : -(int)d;
+    }
+
+    /**
+     * Return the int register of node if it reads an int32 local, otherwise
+     * 0.
+     */
+    private short int32Register(Node node)
+    {
+        if (int32Registers != null && node.getType() == Token.GETVAR) {
+            return int32Registers[fnCurrent.getVarIndex(node)];
+        }
+        return 0;
+    }
+
+    private boolean isInt32LocalOrLiteral(Node node)
+    {
+        return int32Register(node) != 0
+            || (node.getType() == Token.NUMBER && isInt32Expression(node));
+    }
+
+    private void generateInt32LocalOrLiteral(Node node)
+    {
+        short intReg = int32Register(node);
+        if (intReg != 0) {
+            cfw.addILoad(intReg);
+        } else {
+            cfw.addPush((int)node.getDouble());
+        }
+    }
+
+    /**
+     * Jump to inDouble unless node is a literal or an int32 local whose int
+     * register holds its value.
+     */
+    private void addInt32LocalGuard(Node node, int inDouble)
+    {
+        short intReg = int32Register(node);
+        if (intReg != 0) {
+            cfw.addILoad(intReg + 1);
+            cfw.add(ByteCode.IFEQ, inDouble);
+        }
+    }
+
+    private void visitSetInt32Local(int varIndex, Node value,
+                                    boolean needValue)
+    {
+        short reg = varRegisters[varIndex];
+        short intReg = int32Registers[varIndex];
+        if (isInt32Expression(value)) {
+            generateInt32Expression(value);
+            cfw.add(ByteCode.DUP);
+            cfw.addIStore(intReg);
+            cfw.add(ByteCode.I2D);
+            cfw.addDStore(reg);
+            cfw.addPush(1);
+            cfw.addIStore(intReg + 1);
+        } else {
+            addInt32LocalIncrement(varIndex,
+                                   getInt32LocalDelta(varIndex, value));
+        }
+        if (needValue) {
+            cfw.addDLoad(reg);
+        }
+    }
+
+    /**
+     * Add delta to an int32 local. If the int register is not valid, or the
+     * sum does not fit in it, only the double register is updated.
+     */
+    private void addInt32LocalIncrement(int varIndex, int delta)
+    {
+        short reg = varRegisters[varIndex];
+        short intReg = int32Registers[varIndex];
+        short stack = cfw.getStackTop();
+        int overflow = cfw.acquireLabel();
+        int inDouble = cfw.acquireLabel();
+        int beyond = cfw.acquireLabel();
+        cfw.addILoad(intReg + 1);
+        cfw.add(ByteCode.IFEQ, inDouble);
+        cfw.addILoad(intReg);
+        if (delta > 0) {
+            cfw.addPush(Integer.MAX_VALUE - delta);
+            cfw.add(ByteCode.IF_ICMPGT, overflow);
+        } else {
+            cfw.addPush(Integer.MIN_VALUE - delta);
+            cfw.add(ByteCode.IF_ICMPLT, overflow);
+        }
+        cfw.addILoad(intReg);
+        cfw.addPush(delta);
+        cfw.add(ByteCode.IADD);
+        cfw.add(ByteCode.DUP);
+        cfw.addIStore(intReg);
+        cfw.add(ByteCode.I2D);
+        cfw.addDStore(reg);
+        cfw.add(ByteCode.GOTO, beyond);
+        cfw.markLabel(overflow, stack);
+        cfw.addPush(0);
+        cfw.addIStore(intReg + 1);
+        cfw.markLabel(inDouble, stack);
+        cfw.addDLoad(reg);
+        cfw.addPush((double)delta);
+        cfw.add(ByteCode.DADD);
+        cfw.addDStore(reg);
+        cfw.markLabel(beyond, stack);
+    }
+
+    /**
+     * Generate the element get for an object on the stack and an index that
+     * is an int32 local.
+     */
+    private void visitGetInt32LocalIndex(Node index)
+    {
+        short stack = cfw.getStackTop();
+        int inDouble = cfw.acquireLabel();
+        int beyond = cfw.acquireLabel();
+        addInt32LocalGuard(index, inDouble);
+        cfw.addILoad(int32Register(index));
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        addScriptRuntimeInvoke(
+            "getObjectIndex",
+            "(Ljava/lang/Object;I"
+            +"Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +")Ljava/lang/Object;");
+        cfw.add(ByteCode.GOTO, beyond);
+        cfw.markLabel(inDouble, stack);
+        cfw.addDLoad(varRegisters[fnCurrent.getVarIndex(index)]);
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        addScriptRuntimeInvoke(
+            "getObjectIndex",
+            "(Ljava/lang/Object;D"
+            +"Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +")Ljava/lang/Object;");
+        cfw.markLabel(beyond);
+    }
+
     private int nodeIsDirectCallParameter(Node node)
     {
         if (node.getType() == Token.GETVAR
@@ -4699,6 +5166,35 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.GOTO, falseGOTO);
     }
 
+    private void genSimpleIntCompare(int type, int trueGOTO, int falseGOTO)
+    {
+        switch (type) {
+            case Token.LE :
+                cfw.add(ByteCode.IF_ICMPLE, trueGOTO);
+                break;
+            case Token.GE :
+                cfw.add(ByteCode.IF_ICMPGE, trueGOTO);
+                break;
+            case Token.LT :
+                cfw.add(ByteCode.IF_ICMPLT, trueGOTO);
+                break;
+            case Token.GT :
+                cfw.add(ByteCode.IF_ICMPGT, trueGOTO);
+                break;
+            case Token.EQ :
+            case Token.SHEQ :
+                cfw.add(ByteCode.IF_ICMPEQ, trueGOTO);
+                break;
+            case Token.NE :
+            case Token.SHNE :
+                cfw.add(ByteCode.IF_ICMPNE, trueGOTO);
+                break;
+            default :
+                throw Codegen.badTree();
+        }
+        cfw.add(ByteCode.GOTO, falseGOTO);
+    }
+
     private void visitIfJumpRelOp(Node node, Node child,
                                   int trueGOTO, int falseGOTO)
     {
@@ -4719,6 +5215,26 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.GOTO, falseGOTO);
             return;
         }
+        if (isInt32Expression(child) && isInt32Expression(rChild)) {
+            generateInt32Expression(child);
+            generateInt32Expression(rChild);
+            genSimpleIntCompare(type, trueGOTO, falseGOTO);
+            return;
+        }
+        if ((int32Register(child) != 0 || int32Register(rChild) != 0)
+            && isInt32LocalOrLiteral(child) && isInt32LocalOrLiteral(rChild))
+        {
+            // Compare as ints while the locals are valid, otherwise fall
+            // through to the compare of their double registers
+            short stack = cfw.getStackTop();
+            int inDouble = cfw.acquireLabel();
+            addInt32LocalGuard(child, inDouble);
+            addInt32LocalGuard(rChild, inDouble);
+            generateInt32LocalOrLiteral(child);
+            generateInt32LocalOrLiteral(rChild);
+            genSimpleIntCompare(type, trueGOTO, falseGOTO);
+            cfw.markLabel(inDouble, stack);
+        }
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
         int left_dcp_register = nodeIsDirectCallParameter(child);
         int right_dcp_register = nodeIsDirectCallParameter(rChild);
@@ -4842,6 +5358,10 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 cfw.add(ByteCode.IF_ACMPEQ, trueGOTO);
             }
             cfw.add(ByteCode.GOTO, falseGOTO);
+        } else if (isInt32Expression(child) && isInt32Expression(rChild)) {
+            generateInt32Expression(child);
+            generateInt32Expression(rChild);
+            genSimpleIntCompare(type, trueGOTO, falseGOTO);
         } else {
             int child_dcp_register = nodeIsDirectCallParameter(child);
             if (child_dcp_register != -1
@@ -4988,6 +5508,10 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         if (!hasVarsInRegs) Kit.codeBug();
         int varIndex = fnCurrent.getVarIndex(node);
+        if (int32Registers != null && int32Registers[varIndex] != 0) {
+            visitSetInt32Local(varIndex, child.getNext(), needValue);
+            return;
+        }
         generateExpression(child.getNext(), node);
         boolean isNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
         short reg = varRegisters[varIndex];
@@ -5092,6 +5616,19 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         generateExpression(child, node); // object
         Node nameChild = child.getNext();
+        if (node.getType() == Token.GETPROP
+            && nameChild.getType() == Token.STRING)
+        {
+            if (compilerEnv.isDynamicLinkage()) {
+                addDynamicGetProp(nameChild.getString());
+                return;
+            }
+            if (codegen.canAddPropertyCache()) {
+                // The name is a constant, so go through an inline cache.
+                addPropertyCacheGet(nameChild.getString());
+                return;
+            }
+        }
         generateExpression(nameChild, node);  // the name
         if (node.getType() == Token.GETPROPNOWARN) {
             cfw.addALoad(contextLocal);
@@ -5136,6 +5673,50 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         Node objectChild = child;
         generateExpression(child, node);
         child = child.getNext();
+        if (child.getType() == Token.STRING && compilerEnv.isDynamicLinkage()) {
+            String name = child.getString();
+            child = child.getNext();
+            if (type == Token.SETPROP_OP) {
+                cfw.add(ByteCode.DUP);
+                addDynamicGetProp(name);
+            }
+            generateExpression(child, node);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            cfw.addInvokeDynamic(DynamicLinker.SET_PROP,
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +")Ljava/lang/Object;",
+                Codegen.DYNAMIC_BOOTSTRAP_NAMED, name);
+            return;
+        }
+        if (child.getType() == Token.STRING && codegen.canAddPropertyCache()) {
+            // The name is a constant, so go through an inline cache.
+            String name = child.getString();
+            child = child.getNext();
+            if (type == Token.SETPROP_OP) {
+                cfw.add(ByteCode.DUP);
+                addPropertyCacheGet(name);
+            }
+            generateExpression(child, node);
+            // stack: ... object value -> ... cache object value
+            codegen.pushPropertyCache(cfw, name);
+            cfw.add(ByteCode.DUP_X2);
+            cfw.add(ByteCode.POP);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL,
+                          Codegen.PROPERTY_CACHE_CLASS,
+                          "setObjectProp",
+                          "(Ljava/lang/Object;"
+                          +"Ljava/lang/Object;"
+                          +"Lorg/mozilla/javascript/Context;"
+                          +"Lorg/mozilla/javascript/Scriptable;"
+                          +")Ljava/lang/Object;");
+            return;
+        }
         if (type == Token.SETPROP_OP) {
             cfw.add(ByteCode.DUP);
         }
@@ -5182,6 +5763,42 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             +")Ljava/lang/Object;");
     }
 
+    /**
+     * Get the named property of the object on top of the stack through an
+     * invokedynamic call site.
+     */
+    private void addDynamicGetProp(String name)
+    {
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addInvokeDynamic(DynamicLinker.GET_PROP,
+            "(Ljava/lang/Object;"
+            +"Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +")Ljava/lang/Object;",
+            Codegen.DYNAMIC_BOOTSTRAP_NAMED, name);
+    }
+
+    /**
+     * Get the named property of the object on top of the stack through a
+     * new PropertyCache.
+     */
+    private void addPropertyCacheGet(String name)
+    {
+        // stack: ... object -> ... cache object
+        codegen.pushPropertyCache(cfw, name);
+        cfw.add(ByteCode.SWAP);
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL,
+                      Codegen.PROPERTY_CACHE_CLASS,
+                      "getObjectProp",
+                      "(Ljava/lang/Object;"
+                      +"Lorg/mozilla/javascript/Context;"
+                      +"Lorg/mozilla/javascript/Scriptable;"
+                      +")Ljava/lang/Object;");
+    }
+
     private void visitSetElem(int type, Node node, Node child)
     {
         generateExpression(child, node);
@@ -5352,6 +5969,19 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Push the function that the code sees as itself, which differs from
+     * the function object when it runs for a tiered interpreted function.
+     */
+    private void addLoadSelfFunction()
+    {
+        cfw.addALoad(funObjLocal);
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL,
+                      "org/mozilla/javascript/NativeFunction",
+                      "getSelfFunction",
+                      "()Lorg/mozilla/javascript/NativeFunction;");
+    }
+
     private void addScriptRuntimeInvoke(String methodName,
                                         String methodSignature)
     {
@@ -5498,6 +6128,9 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
     private boolean hasVarsInRegs;
     private short[] varRegisters;
+    // Per variable, the int register followed by its valid flag of a number
+    // variable that is kept as an int32 beside its double register, or 0
+    private short[] int32Registers;
     private boolean inDirectCallFunction;
     private boolean itsForcedObjectParameters;
     private int enterAreaStartLabel;
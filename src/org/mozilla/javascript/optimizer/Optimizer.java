@@ -37,6 +37,8 @@ class Optimizer
         inDirectCallFunction = theFunction.isTargetOfDirectCall();
         this.theFunction = theFunction;
 
+        ScalarReplacement.replace(theFunction);
+
         ObjArray statementsArray = new ObjArray();
         buildStatementList_r(theFunction.fnode, statementsArray);
         Node[] theStatementNodes = new Node[statementsArray.size()];
@@ -292,6 +294,7 @@ class Optimizer
             case Token.BITAND :
             case Token.RSH :
             case Token.LSH :
+            case Token.URSH :
             case Token.SUB :
             case Token.MUL :
             case Token.DIV :
@@ -337,6 +340,17 @@ class Optimizer
                     n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
                     return NumberType;
                 }
+            case Token.BITNOT : {
+                    Node child = n.getFirstChild();
+                    int type = rewriteForNumberVariables(child, NumberType);
+                    markDCPNumberContext(child);
+                    if (type != NumberType) {
+                        n.removeChild(child);
+                        n.addChildToFront(new Node(Token.TO_DOUBLE, child));
+                    }
+                    n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                    return NumberType;
+                }
             case Token.SETELEM :
             case Token.SETELEM_OP : {
                     Node arrayBase = n.getFirstChild();
@@ -0,0 +1,310 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.Token;
+import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.Symbol;
+
+/**
+ * Replaces object literals that never escape their function by one local
+ * variable per property.
+ * <p>
+ * A candidate is a local variable that is assigned exactly once, from an
+ * object literal with plain named properties, and whose every other use is
+ * a read or an assignment of one of those properties: <code>p.x</code>,
+ * <code>p['x']</code> or <code>p.x = v</code>. Calling a method on it,
+ * passing it anywhere, or accessing any other property lets the object
+ * escape. The assignment must also run before every use, which is checked
+ * on the tree structure: the use follows the assignment in the same
+ * sequence of blocks, with no jump target in between.
+ * <p>
+ * The assignment then becomes a series of assignments to new variables
+ * in property order, and each property access an access to the matching
+ * variable, which the flow analysis in {@link Block} may then type as a
+ * number. This runs before that analysis, on functions that keep their
+ * variables in registers.
+ */
+class ScalarReplacement
+{
+    private final OptFunctionNode theFunction;
+    private final Map<Node,Node> parents = new IdentityHashMap<Node,Node>();
+    private final List<List<Node>> varNodes = new ArrayList<List<Node>>();
+
+    private ScalarReplacement(OptFunctionNode theFunction)
+    {
+        this.theFunction = theFunction;
+    }
+
+    static void replace(OptFunctionNode theFunction)
+    {
+        FunctionNode fnode = theFunction.fnode;
+        if (fnode.requiresActivation() || fnode.isGenerator()) return;
+        new ScalarReplacement(theFunction).run();
+    }
+
+    private void run()
+    {
+        FunctionNode fnode = theFunction.fnode;
+        int varCount = fnode.getParamAndVarCount();
+        for (int i = 0; i != varCount; ++i) {
+            varNodes.add(null);
+        }
+        collect(fnode);
+
+        boolean[] constDeclarations = fnode.getParamAndVarConst();
+        boolean replaced = false;
+        for (int i = fnode.getParamCount(); i != varCount; ++i) {
+            List<Node> nodes = varNodes.get(i);
+            if (nodes == null || constDeclarations[i]) continue;
+            Node def = findReplaceableDefinition(nodes);
+            if (def != null) {
+                replaceVariable(fnode.getParamOrVarName(i), def, nodes);
+                replaced = true;
+            }
+        }
+        if (replaced) {
+            fnode.flattenSymbolTable(true);
+        }
+    }
+
+    private void collect(Node n)
+    {
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            parents.put(child, n);
+            int type = child.getType();
+            if (type == Token.GETVAR || type == Token.SETVAR
+                || type == Token.SETCONSTVAR)
+            {
+                int index = theFunction.getVarIndex(child);
+                List<Node> nodes = varNodes.get(index);
+                if (nodes == null) {
+                    nodes = new ArrayList<Node>();
+                    varNodes.set(index, nodes);
+                }
+                nodes.add(child);
+            }
+            collect(child);
+        }
+    }
+
+    /**
+     * Return the statement that assigns the object literal if the variable
+     * can be replaced, or null.
+     */
+    private Node findReplaceableDefinition(List<Node> nodes)
+    {
+        Node def = null;
+        for (Node n : nodes) {
+            if (n.getType() != Token.GETVAR) {
+                if (def != null || n.getType() != Token.SETVAR) return null;
+                def = n;
+            }
+        }
+        if (def == null) return null;
+        Node statement = parents.get(def);
+        if (statement.getType() != Token.EXPR_VOID) return null;
+        Set<String> names = getPropertyNames(def.getLastChild());
+        if (names == null) return null;
+
+        for (Node n : nodes) {
+            if (n != def && !(isPropertyAccess(n, names)
+                              && dominates(statement, n)))
+            {
+                return null;
+            }
+        }
+        return statement;
+    }
+
+    private static Set<String> getPropertyNames(Node literal)
+    {
+        if (literal.getType() != Token.OBJECTLIT) return null;
+        Object[] ids = (Object[])literal.getProp(Node.OBJECT_IDS_PROP);
+        Set<String> names = new HashSet<String>();
+        for (Object id : ids) {
+            if (!(id instanceof String)
+                || "__proto__".equals(id) || "__parent__".equals(id)
+                || !names.add((String)id))
+            {
+                return null;
+            }
+        }
+        for (Node value = literal.getFirstChild(); value != null;
+             value = value.getNext())
+        {
+            int type = value.getType();
+            if (type == Token.GET || type == Token.SET
+                || type == Token.METHOD)
+            {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    private boolean isPropertyAccess(Node getVar, Set<String> names)
+    {
+        Node access = parents.get(getVar);
+        int type = access.getType();
+        if ((type != Token.GETPROP && type != Token.SETPROP
+             && type != Token.GETELEM && type != Token.SETELEM)
+            || access.getFirstChild() != getVar
+            || getVar.getNext().getType() != Token.STRING
+            || !names.contains(getVar.getNext().getString()))
+        {
+            return false;
+        }
+        if (type == Token.GETPROP || type == Token.GETELEM) {
+            Node parent = parents.get(access);
+            int parentType = parent.getType();
+            if (parentType == Token.INC || parentType == Token.DEC) {
+                return false;
+            }
+            if (parentType == Token.CALL && parent.getFirstChild() == access) {
+                // A method call that would see the object as this
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if node can only run after statement, from the structure
+     * of the tree: both are in the same block, or in blocks nested in it,
+     * the statement comes first and no jump target lies in between.
+     */
+    private boolean dominates(Node statement, Node node)
+    {
+        List<Node> defPath = getPath(statement);
+        List<Node> usePath = getPath(node);
+        int i = 0;
+        while (i < defPath.size() && i < usePath.size()
+               && defPath.get(i) == usePath.get(i))
+        {
+            ++i;
+        }
+        if (i == defPath.size() || i == usePath.size()) {
+            // The use is part of the assignment
+            return false;
+        }
+        if (defPath.get(i - 1).getType() != Token.BLOCK) return false;
+
+        // Nothing may jump into the sequence between the assignment and
+        // the use
+        Node useAncestor = usePath.get(i);
+        for (Node n = defPath.get(i).getNext(); n != useAncestor;
+             n = n.getNext())
+        {
+            if (n == null || n.getType() == Token.TARGET) return false;
+        }
+        // and the statement must run whenever its enclosing blocks do
+        for (int j = i; j < defPath.size() - 1; ++j) {
+            if (defPath.get(j).getType() != Token.BLOCK) return false;
+            for (Node n = defPath.get(j + 1).getNext(); n != null;
+                 n = n.getNext())
+            {
+                if (n.getType() == Token.TARGET) return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Node> getPath(Node n)
+    {
+        List<Node> path = new ArrayList<Node>();
+        for (; n != null; n = parents.get(n)) {
+            path.add(0, n);
+        }
+        return path;
+    }
+
+    private void replaceVariable(String name, Node statement, List<Node> nodes)
+    {
+        FunctionNode fnode = theFunction.fnode;
+        Node def = statement.getFirstChild();
+        Node literal = def.getLastChild();
+        Object[] ids = (Object[])literal.getProp(Node.OBJECT_IDS_PROP);
+
+        Map<String,Integer> indexes = new HashMap<String,Integer>();
+        Node block = new Node(Token.BLOCK);
+        Node value = literal.getFirstChild();
+        for (Object id : ids) {
+            String varName = getVariableName(name, (String)id);
+            Symbol symbol = new Symbol(Token.VAR, varName);
+            symbol.setContainingTable(fnode);
+            int index = fnode.getSymbols().size();
+            fnode.getSymbols().add(symbol);
+            indexes.put((String)id, Integer.valueOf(index));
+
+            Node next = value.getNext();
+            literal.removeChild(value);
+            block.addChildToBack(new Node(Token.EXPR_VOID,
+                                          newSetVar(varName, index, value),
+                                          statement.getLineno()));
+            value = next;
+        }
+        parents.get(statement).replaceChild(statement, block);
+
+        for (Node n : nodes) {
+            if (n == def) continue;
+            Node access = parents.get(n);
+            String id = n.getNext().getString();
+            int index = indexes.get(id).intValue();
+            Node replacement;
+            if (access.getType() == Token.GETPROP
+                || access.getType() == Token.GETELEM)
+            {
+                replacement = Node.newString(Token.GETVAR,
+                                             getVariableName(name, id));
+                replacement.putIntProp(Node.VARIABLE_PROP, index);
+            } else {
+                Node rhs = access.getLastChild();
+                access.removeChild(rhs);
+                replacement = newSetVar(getVariableName(name, id), index,
+                                        rhs);
+                // Uses inside the value are replaced in their new place
+                parents.put(rhs, replacement);
+            }
+            replacement.setLineno(access.getLineno());
+            parents.get(access).replaceChild(access, replacement);
+        }
+    }
+
+    /**
+     * Return a name for the variable holding a property. It only serves as
+     * a local variable name in debug information, so it must be a valid
+     * JVM name, but need not be unique.
+     */
+    private static String getVariableName(String name, String id)
+    {
+        StringBuilder sb = new StringBuilder(name).append('$');
+        for (int i = 0; i != id.length(); ++i) {
+            char c = id.charAt(i);
+            sb.append(c == '.' || c == ';' || c == '[' || c == '/' ? '_' : c);
+        }
+        return sb.toString();
+    }
+
+    private static Node newSetVar(String varName, int index, Node value)
+    {
+        Node setVar = new Node(Token.SETVAR,
+                               Node.newString(Token.BINDNAME, varName),
+                               value);
+        setVar.putIntProp(Node.VARIABLE_PROP, index);
+        return setVar;
+    }
+}
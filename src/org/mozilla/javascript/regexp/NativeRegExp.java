@@ -6,7 +6,9 @@
 
 package org.mozilla.javascript.regexp;
 
-import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -44,6 +46,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
     public static final int JSREG_GLOB = 0x1;       // 'g' flag: global
     public static final int JSREG_FOLD = 0x2;       // 'i' flag: fold
     public static final int JSREG_MULTILINE = 0x4;  // 'm' flag: multiline
+    public static final int JSREG_STICKY = 0x8;     // 'y' flag: sticky
 
     //type of match to perform
     public static final int TEST = 0;
@@ -52,62 +55,86 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     private static final boolean debug = false;
 
-    private static final byte REOP_SIMPLE_START  = 1;  /* start of 'simple opcodes' */
-    private static final byte REOP_EMPTY         = 1;  /* match rest of input against rest of r.e. */
-    private static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
-    private static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
-    private static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
-    private static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
-    private static final byte REOP_DOT           = 6;  /* stands for any character */
-    private static final byte REOP_DIGIT         = 7;  /* match a digit char: [0-9] */
-    private static final byte REOP_NONDIGIT      = 8;  /* match a non-digit char: [^0-9] */
-    private static final byte REOP_ALNUM         = 9;  /* match an alphanumeric char: [0-9a-z_A-Z] */
-    private static final byte REOP_NONALNUM      = 10; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
-    private static final byte REOP_SPACE         = 11; /* match a whitespace char */
-    private static final byte REOP_NONSPACE      = 12; /* match a non-whitespace char */
-    private static final byte REOP_BACKREF       = 13; /* back-reference (e.g., \1) to a parenthetical */
-    private static final byte REOP_FLAT          = 14; /* match a flat string */
-    private static final byte REOP_FLAT1         = 15; /* match a single char */
-    private static final byte REOP_FLATi         = 16; /* case-independent REOP_FLAT */
-    private static final byte REOP_FLAT1i        = 17; /* case-independent REOP_FLAT1 */
-    private static final byte REOP_UCFLAT1       = 18; /* single Unicode char */
-    private static final byte REOP_UCFLAT1i      = 19; /* case-independent REOP_UCFLAT1 */
+    // Number of executions after which a regular expression is compiled to
+    // JVM bytecode, if the optimization level permits generating classes
+    private static final int COMPILE_THRESHOLD = 100;
+
+    // Upper bound on the ops findStartChars collects
+    private static final int MAX_START_OPS = 16;
+
+    // Number of compiled programs kept for reuse by equal patterns
+    private static final int CACHE_SIZE = 256;
+
+    // Compiled programs by pattern and flags, shared by all contexts. A
+    // RECompiled is not modified after compilation, except for state that
+    // is safe to share.
+    private static final Map<RECacheKey, RECompiled> cache =
+        new LinkedHashMap<RECacheKey, RECompiled>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RECacheKey, RECompiled> eldest)
+            {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    static final byte REOP_SIMPLE_START  = 1;  /* start of 'simple opcodes' */
+    static final byte REOP_EMPTY         = 1;  /* match rest of input against rest of r.e. */
+    static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
+    static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
+    static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
+    static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
+    static final byte REOP_DOT           = 6;  /* stands for any character */
+    static final byte REOP_DIGIT         = 7;  /* match a digit char: [0-9] */
+    static final byte REOP_NONDIGIT      = 8;  /* match a non-digit char: [^0-9] */
+    static final byte REOP_ALNUM         = 9;  /* match an alphanumeric char: [0-9a-z_A-Z] */
+    static final byte REOP_NONALNUM      = 10; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
+    static final byte REOP_SPACE         = 11; /* match a whitespace char */
+    static final byte REOP_NONSPACE      = 12; /* match a non-whitespace char */
+    static final byte REOP_BACKREF       = 13; /* back-reference (e.g., \1) to a parenthetical */
+    static final byte REOP_FLAT          = 14; /* match a flat string */
+    static final byte REOP_FLAT1         = 15; /* match a single char */
+    static final byte REOP_FLATi         = 16; /* case-independent REOP_FLAT */
+    static final byte REOP_FLAT1i        = 17; /* case-independent REOP_FLAT1 */
+    static final byte REOP_UCFLAT1       = 18; /* single Unicode char */
+    static final byte REOP_UCFLAT1i      = 19; /* case-independent REOP_UCFLAT1 */
 //    private static final byte REOP_UCFLAT        = 20; /* flat Unicode string; len immediate counts chars */
 //    private static final byte REOP_UCFLATi       = 21; /* case-independent REOP_UCFLAT */
-    private static final byte REOP_CLASS         = 22; /* character class with index */
-    private static final byte REOP_NCLASS        = 23; /* negated character class with index */
-    private static final byte REOP_SIMPLE_END    = 23; /* end of 'simple opcodes' */
-    private static final byte REOP_QUANT         = 25; /* quantified atom: atom{1,2} */
-    private static final byte REOP_STAR          = 26; /* zero or more occurrences of kid */
-    private static final byte REOP_PLUS          = 27; /* one or more occurrences of kid */
-    private static final byte REOP_OPT           = 28; /* optional subexpression in kid */
-    private static final byte REOP_LPAREN        = 29; /* left paren bytecode: kid is u.num'th sub-regexp */
-    private static final byte REOP_RPAREN        = 30; /* right paren bytecode */
-    private static final byte REOP_ALT           = 31; /* alternative subexpressions in kid and next */
-    private static final byte REOP_JUMP          = 32; /* for deoptimized closure loops */
+    static final byte REOP_CLASS         = 22; /* character class with index */
+    static final byte REOP_NCLASS        = 23; /* negated character class with index */
+    static final byte REOP_SIMPLE_END    = 23; /* end of 'simple opcodes' */
+    static final byte REOP_QUANT         = 25; /* quantified atom: atom{1,2} */
+    static final byte REOP_STAR          = 26; /* zero or more occurrences of kid */
+    static final byte REOP_PLUS          = 27; /* one or more occurrences of kid */
+    static final byte REOP_OPT           = 28; /* optional subexpression in kid */
+    static final byte REOP_LPAREN        = 29; /* left paren bytecode: kid is u.num'th sub-regexp */
+    static final byte REOP_RPAREN        = 30; /* right paren bytecode */
+    static final byte REOP_ALT           = 31; /* alternative subexpressions in kid and next */
+    static final byte REOP_JUMP          = 32; /* for deoptimized closure loops */
 //    private static final byte REOP_DOTSTAR       = 33; /* optimize .* to use a single opcode */
 //    private static final byte REOP_ANCHOR        = 34; /* like .* but skips left context to unanchored r.e. */
 //    private static final byte REOP_EOLONLY       = 35; /* $ not preceded by any pattern */
 //    private static final byte REOP_BACKREFi      = 37; /* case-independent REOP_BACKREF */
 //    private static final byte REOP_LPARENNON     = 40; /* non-capturing version of REOP_LPAREN */
-    private static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
-    private static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
-    private static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
-    private static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
-    private static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
-    private static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
-    private static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
-    private static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
-    private static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
-    private static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
-    private static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
-    private static final byte REOP_ALTPREREQ     = 53; /* prerequisite for ALT, either of two chars */
-    private static final byte REOP_ALTPREREQi    = 54; /* case-independent REOP_ALTPREREQ */
-    private static final byte REOP_ALTPREREQ2    = 55; /* prerequisite for ALT, a char or a class */
+    static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
+    static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
+    static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
+    static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
+    static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
+    static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
+    static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
+    static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
+    static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
+    static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
+    static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
+    static final byte REOP_ALTPREREQ     = 53; /* prerequisite for ALT, either of two chars */
+    static final byte REOP_ALTPREREQi    = 54; /* case-independent REOP_ALTPREREQ */
+    static final byte REOP_ALTPREREQ2    = 55; /* prerequisite for ALT, a char or a class */
 //    private static final byte REOP_ENDALT        = 56; /* end of final alternate */
-    private static final byte REOP_END           = 57;
+    static final byte REOP_END           = 57;
 
-    private static final int ANCHOR_BOL = -2;
+    static final int ANCHOR_BOL = -2;
 
 
     public static void init(Context cx, Scriptable scope, boolean sealed)
@@ -212,6 +239,8 @@ public class NativeRegExp extends IdScriptableObject implements Function
             buf.append('i');
         if ((re.flags & JSREG_MULTILINE) != 0)
             buf.append('m');
+        if ((re.flags & JSREG_STICKY) != 0)
+            buf.append('y');
         return buf.toString();
     }
 
@@ -259,8 +288,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
         } else {
             str = ScriptRuntime.toString(args[0]);
         }
+        boolean sticky = (re.flags & JSREG_STICKY) != 0;
         double d = 0;
-        if ((re.flags & JSREG_GLOB) != 0) {
+        if ((re.flags & JSREG_GLOB) != 0 || sticky) {
             d = ScriptRuntime.toInteger(lastIndex);
         }
 
@@ -271,8 +301,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
         }
         else {
             int indexp[] = { (int)d };
-            rval = executeRegExp(cx, scopeObj, reImpl, str, indexp, matchType);
-            if ((re.flags & JSREG_GLOB) != 0) {
+            rval = executeRegExp(cx, scopeObj, reImpl, str, indexp, matchType,
+                                 sticky);
+            if ((re.flags & JSREG_GLOB) != 0 || sticky) {
                 lastIndex = (rval == null || rval == Undefined.instance)
                             ? 0d : (double)indexp[0];
             }
@@ -282,8 +313,6 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     static RECompiled compileRE(Context cx, String str, String global, boolean flat)
     {
-        RECompiled regexp = new RECompiled(str);
-        int length = str.length();
         int flags = 0;
         if (global != null) {
             for (int i = 0; i < global.length(); i++) {
@@ -295,6 +324,8 @@ public class NativeRegExp extends IdScriptableObject implements Function
                     f = JSREG_FOLD;
                 } else if (c == 'm') {
                     f = JSREG_MULTILINE;
+                } else if (c == 'y') {
+                    f = JSREG_STICKY;
                 } else {
                     reportError("msg.invalid.re.flag", String.valueOf(c));
                 }
@@ -304,6 +335,33 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 flags |= f;
             }
         }
+
+        // Compile warnings are only reported in strict mode, where every
+        // compilation has to report them again
+        if (cx.hasFeature(Context.FEATURE_STRICT_MODE)) {
+            return compileRE(cx, str, flags, flat);
+        }
+        RECacheKey key = new RECacheKey(str, flags, flat);
+        RECompiled regexp;
+        synchronized (cache) {
+            regexp = cache.get(key);
+        }
+        if (regexp == null) {
+            regexp = compileRE(cx, str, flags, flat);
+            if (regexp != null) {
+                synchronized (cache) {
+                    cache.put(key, regexp);
+                }
+            }
+        }
+        return regexp;
+    }
+
+    private static RECompiled compileRE(Context cx, String str, int flags,
+                                        boolean flat)
+    {
+        RECompiled regexp = new RECompiled(str);
+        int length = str.length();
         regexp.flags = flags;
 
         CompilerState state = new CompilerState(cx, regexp.source, length, flags);
@@ -374,6 +432,11 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 break;
         }
 
+        if (regexp.anchorCh != ANCHOR_BOL) {
+            findStartChars(regexp);
+        }
+        regexp.literal = findLiteral(regexp);
+
         if (debug) {
             if (regexp.anchorCh >= 0) {
                 System.out.println("Anchor ch = '" + (char)regexp.anchorCh + "'");
@@ -387,7 +450,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return '0' <= c && c <= '9';
     }
 
-    private static boolean isWord(char c)
+    static boolean isWord(char c)
     {
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || isDigit(c) || c == '_';
     }
@@ -397,12 +460,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
     }
 
-    private static boolean isLineTerm(char c)
+    static boolean isLineTerm(char c)
     {
         return ScriptRuntime.isJSLineTerminator(c);
     }
 
-    private static boolean isREWhiteSpace(int c)
+    static boolean isREWhiteSpace(int c)
     {
         return ScriptRuntime.isJSWhitespaceOrLineTerminator(c);
     }
@@ -418,7 +481,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
      *    code point value is less than decimal 128, then return ch.
      * 6. Return cu.
      */
-    private static char upcase(char ch)
+    static char upcase(char ch)
     {
         if (ch < 128) {
             if ('a' <= ch && ch <= 'z') {
@@ -1199,7 +1262,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         addIndex(array, from, pc - from);
     }
 
-    private static int getOffset(byte[] array, int pc)
+    static int getOffset(byte[] array, int pc)
     {
         return getIndex(array, pc);
     }
@@ -1214,12 +1277,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return pc + 2;
     }
 
-    private static int getIndex(byte[] array, int pc)
+    static int getIndex(byte[] array, int pc)
     {
         return ((array[pc] & 0xFF) << 8) | (array[pc + 1] & 0xFF);
     }
 
-    private static final int INDEX_LEN  = 2;
+    static final int INDEX_LEN  = 2;
 
     private static int
     emitREBytecode(CompilerState state, RECompiled re, int pc, RENode t)
@@ -1526,7 +1589,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     /* Compile the source of the class into a RECharSet */
-    private static void
+    static void
     processCharSet(REGlobalData gData, RECharSet charSet)
     {
         synchronized (charSet) {
@@ -1738,13 +1801,239 @@ public class NativeRegExp extends IdScriptableObject implements Function
         if (!charSet.converted) {
             processCharSet(gData, charSet);
         }
+        return classContains(charSet, ch);
+    }
 
+    /* Test a character against a RECharSet that has been converted */
+    static boolean
+    classContains(RECharSet charSet, char ch)
+    {
         int byteIndex = ch >> 3;
         return (charSet.length == 0 ||
                 ch >= charSet.length ||
                 (charSet.bits[byteIndex] & (1 << (ch & 0x7))) == 0) ^ charSet.sense;
     }
 
+    /*
+     * Return the string re consists of if its program is a single
+     * case-sensitive flat op, and null otherwise.
+     */
+    private static String findLiteral(RECompiled re)
+    {
+        byte[] program = re.program;
+        switch (program[0]) {
+            case REOP_FLAT:
+                if (program[1 + 2 * INDEX_LEN] == REOP_END) {
+                    return new String(re.source, getIndex(program, 1),
+                                      getIndex(program, 1 + INDEX_LEN));
+                }
+                break;
+            case REOP_FLAT1:
+                if (program[2] == REOP_END) {
+                    return String.valueOf((char)(program[1] & 0xFF));
+                }
+                break;
+            case REOP_UCFLAT1:
+                if (program[1 + INDEX_LEN] == REOP_END) {
+                    return String.valueOf((char)getIndex(program, 1));
+                }
+                break;
+        }
+        return null;
+    }
+
+    /*
+     * Find the ops that can match the first char of a match. If every match
+     * starts with the same flat string, set re.prefix to it, and otherwise
+     * set re.startOps and re.startChars to those ops and the Latin-1 chars
+     * they match, unless re.anchorCh already gives the only first char.
+     */
+    private static void findStartChars(RECompiled re)
+    {
+        int[] ops = new int[MAX_START_OPS];
+        int count = collectStartOps(re.program, 0, ops, 0);
+        if (count <= 0) {
+            return;
+        }
+        byte[] program = re.program;
+        if (count == 1 && program[ops[0]] == REOP_FLAT) {
+            int offset = getIndex(program, ops[0] + 1);
+            int length = getIndex(program, ops[0] + 1 + INDEX_LEN);
+            re.prefix = new String(re.source, offset, length);
+            return;
+        }
+        if (re.anchorCh >= 0) {
+            return;
+        }
+        re.startOps = Arrays.copyOf(ops, count);
+        REGlobalData gData = new REGlobalData();
+        gData.regexp = re;
+        for (int i = 0; i < count; i++) {
+            int op = program[ops[i]];
+            if (op == REOP_CLASS || op == REOP_NCLASS) {
+                processCharSet(gData, re.classList[getIndex(program, ops[i] + 1)]);
+            }
+        }
+        byte[] bits = new byte[256 / 8];
+        for (char c = 0; c < 256; c++) {
+            if (canStartWith(re, c)) {
+                bits[c >> 3] |= (byte)(1 << (c & 7));
+            }
+        }
+        re.startChars = bits;
+    }
+
+    /*
+     * Add to ops the ops starting at pc that can match the first char, and
+     * return their new count, or -1 if a match may start without them.
+     */
+    private static int collectStartOps(byte[] program, int pc, int[] ops,
+                                       int count)
+    {
+        for (;;) {
+            switch (program[pc]) {
+                case REOP_LPAREN:
+                    pc += 1 + INDEX_LEN;
+                    break;
+                case REOP_ALTPREREQ:
+                case REOP_ALTPREREQi:
+                case REOP_ALTPREREQ2:
+                case REOP_ALT:
+                {
+                    // the prerequisite ops have their ALT operands after two
+                    // more indexes
+                    int altPc = program[pc] == REOP_ALT ? pc : pc + 2 * INDEX_LEN;
+                    int nextAlt = altPc + 1 + getOffset(program, altPc + 1);
+                    count = collectStartOps(program, altPc + 1 + INDEX_LEN, ops, count);
+                    if (count < 0) {
+                        return -1;
+                    }
+                    pc = nextAlt;
+                    break;
+                }
+                case REOP_PLUS:
+                case REOP_MINIMALPLUS:
+                    pc += 1 + 3 * INDEX_LEN;
+                    break;
+                case REOP_QUANT:
+                case REOP_MINIMALQUANT:
+                    if (getOffset(program, pc + 1) == 0) {
+                        return -1;
+                    }
+                    pc += 1 + 5 * INDEX_LEN;
+                    break;
+                case REOP_DOT:
+                case REOP_DIGIT:
+                case REOP_NONDIGIT:
+                case REOP_ALNUM:
+                case REOP_NONALNUM:
+                case REOP_SPACE:
+                case REOP_NONSPACE:
+                case REOP_FLAT:
+                case REOP_FLAT1:
+                case REOP_FLATi:
+                case REOP_FLAT1i:
+                case REOP_UCFLAT1:
+                case REOP_UCFLAT1i:
+                case REOP_CLASS:
+                case REOP_NCLASS:
+                    if (count == ops.length) {
+                        return -1;
+                    }
+                    ops[count] = pc;
+                    return count + 1;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /*
+     * Return true if one of re.startOps matches c.
+     */
+    private static boolean canStartWith(RECompiled re, char c)
+    {
+        byte[] program = re.program;
+        for (int pc : re.startOps) {
+            boolean matches;
+            switch (program[pc]) {
+                case REOP_DOT:
+                    matches = !isLineTerm(c);
+                    break;
+                case REOP_DIGIT:
+                case REOP_NONDIGIT:
+                    matches = isDigit(c) == (program[pc] == REOP_DIGIT);
+                    break;
+                case REOP_ALNUM:
+                case REOP_NONALNUM:
+                    matches = isWord(c) == (program[pc] == REOP_ALNUM);
+                    break;
+                case REOP_SPACE:
+                case REOP_NONSPACE:
+                    matches = isREWhiteSpace(c) == (program[pc] == REOP_SPACE);
+                    break;
+                case REOP_FLAT1:
+                    matches = c == (char)(program[pc + 1] & 0xFF);
+                    break;
+                case REOP_FLAT1i:
+                    matches = equalsIgnoreCase(c, (char)(program[pc + 1] & 0xFF));
+                    break;
+                case REOP_UCFLAT1:
+                    matches = c == (char)getIndex(program, pc + 1);
+                    break;
+                case REOP_UCFLAT1i:
+                    matches = equalsIgnoreCase(c, (char)getIndex(program, pc + 1));
+                    break;
+                case REOP_FLAT:
+                    matches = c == re.source[getIndex(program, pc + 1)];
+                    break;
+                case REOP_FLATi:
+                    matches = equalsIgnoreCase(c, re.source[getIndex(program, pc + 1)]);
+                    break;
+                default:
+                    // REOP_CLASS and REOP_NCLASS, converted by findStartChars
+                    matches = classContains(re.classList[getIndex(program, pc + 1)], c);
+                    break;
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equalsIgnoreCase(char c1, char c2)
+    {
+        return c1 == c2 || upcase(c1) == upcase(c2);
+    }
+
+    /*
+     * Return the first index from i up to end at which a match of re can
+     * start, or -1 if there is none, going by re.prefix or re.startChars.
+     * Return i if re has neither.
+     */
+    static int nextStart(RECompiled re, String input, int i, int end)
+    {
+        String prefix = re.prefix;
+        if (prefix != null) {
+            int index = input.indexOf(prefix, i);
+            return index >= 0 && index + prefix.length() <= end ? index : -1;
+        }
+        byte[] bits = re.startChars;
+        if (bits == null) {
+            return i;
+        }
+        for (; i < end; i++) {
+            char c = input.charAt(i);
+            if (c < 256 ? (bits[c >> 3] & (1 << (c & 7))) != 0
+                        : canStartWith(re, c))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private static boolean reopIsSimple(int op) {
         return op >= REOP_SIMPLE_START && op <= REOP_SIMPLE_END;
     }
@@ -1755,7 +2044,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
      *   get a match, true if we do and update the state of the
      *   input and pc if the update flag is true.
      */
-    private static int simpleMatch(REGlobalData gData, String input, int op,
+    static int simpleMatch(REGlobalData gData, String input, int op,
                                    byte[] program, int pc, int end, boolean updatecp)
     {
         boolean result = false;
@@ -2150,6 +2439,15 @@ public class NativeRegExp extends IdScriptableObject implements Function
                             default:
                                 throw Kit.codeBug();
                         }
+                        if (max == 0) {
+                            // x{0} matches the empty string without trying
+                            // x; REOP_REPEAT would take max - 1 for no limit
+                            result = true;
+                            pc += 2 * INDEX_LEN;  // <parencount> & <parenindex>
+                            pc += getOffset(program, pc);
+                            op = program[pc++];
+                            continue;
+                        }
                         pushProgState(gData, min, max, gData.cp, null,
                                 continuationOp, continuationPc);
                         if (greedy) {
@@ -2355,12 +2653,15 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     private static boolean
     matchRegExp(REGlobalData gData, RECompiled re,
-                String input, int start, int end, boolean multiline)
+                String input, int start, int end, boolean multiline,
+                boolean sticky)
     {
-        if (re.parenCount != 0) {
-            gData.parens = new long[re.parenCount];
-        } else {
+        if (re.parenCount == 0) {
             gData.parens = null;
+        } else if (gData.parens == null
+                   || gData.parens.length != re.parenCount)
+        {
+            gData.parens = new long[re.parenCount];
         }
 
         gData.backTrackStackTop = null;
@@ -2370,6 +2671,14 @@ public class NativeRegExp extends IdScriptableObject implements Function
         gData.regexp = re;
 
         int anchorCh = gData.regexp.anchorCh;
+        REMatcher matcher = re.matcher;
+        int[] stack = null;
+        if (matcher != null) {
+            stack = gData.stack;
+            if (stack == null || stack.length < matcher.stackSize) {
+                stack = gData.stack = new int[matcher.stackSize];
+            }
+        }
         //
         // have to include the position beyond the last character
         //  in order to detect end-of-input/line condition
@@ -2378,9 +2687,18 @@ public class NativeRegExp extends IdScriptableObject implements Function
             //
             // If the first node is a literal match, step the index into
             // the string until that match is made, or fail if it can't be
-            // found at all.
+            // found at all. A sticky match may only start at start.
             //
-            if (anchorCh >= 0) {
+            if (sticky) {
+                if (i != start) {
+                    return false;
+                }
+            } else if (re.prefix != null || re.startChars != null) {
+                i = nextStart(re, input, i, end);
+                if (i < 0) {
+                    return false;
+                }
+            } else if (anchorCh >= 0) {
                 for (;;) {
                     if (i == end) {
                         return false;
@@ -2400,7 +2718,17 @@ public class NativeRegExp extends IdScriptableObject implements Function
             for (int j = 0; j < re.parenCount; j++) {
                 gData.parens[j] = -1L;
             }
-            boolean result = executeREBytecode(gData, input, end);
+            boolean result;
+            if (matcher != null) {
+                int cp = matcher.match(input, i, end, gData.parens, stack,
+                                       gData.multiline);
+                result = cp >= 0;
+                if (result) {
+                    gData.cp = cp;
+                }
+            } else {
+                result = executeREBytecode(gData, input, end);
+            }
 
             gData.backTrackStackTop = null;
             gData.stateStackTop = null;
@@ -2416,11 +2744,83 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return false;
     }
 
+    /*
+     * Return the matcher that runs in linear time if it should be used for
+     * re, which it is for all regular expressions when the context has
+     * FEATURE_LINEAR_REGEXP and otherwise only for those that backtracking
+     * could take exponential time on.
+     */
+    private static RELinearMatcher linearMatcher(Context cx, RECompiled re)
+    {
+        if (!re.linearTranslated) {
+            re.linearMatcher = RELinearMatcher.compile(re);
+            re.linearTranslated = true;
+        }
+        RELinearMatcher linear = re.linearMatcher;
+        if (cx.hasFeature(Context.FEATURE_LINEAR_REGEXP)) {
+            if (linear == null) {
+                reportError("msg.re.needs.backtracking", new String(re.source));
+            }
+            return linear;
+        }
+        return linear != null && linear.isBacktrackProne() ? linear : null;
+    }
+
+    /*
+     * Generate the matcher of re, unless another thread already did. The
+     * executions counter is shared by all threads without synchronization,
+     * so it is only a hint; this makes sure there is one attempt.
+     */
+    private static void compileMatcher(RECompiled re)
+    {
+        synchronized (re) {
+            if (re.compileAttempted) {
+                return;
+            }
+            re.compileAttempted = true;
+        }
+        re.matcher = REMatcherCodegen.compile(re);
+    }
+
+    /*
+     * Find the first match at or after start, or only at start if sticky,
+     * as executeRegExp does, and leave its position and captures in gData.
+     */
+    private boolean matchFrom(Context cx, REGlobalData gData, String str,
+                              int start, boolean multiline, boolean sticky)
+    {
+        int end = str.length();
+        RELinearMatcher linear = linearMatcher(cx, re);
+        if (linear != null) {
+            return linear.match(gData, str, start, end, multiline, sticky);
+        }
+        if (!re.compileAttempted && cx.getOptimizationLevel() >= 0
+            && ++re.executions >= COMPILE_THRESHOLD)
+        {
+            compileMatcher(re);
+        }
+        //
+        // Call the recursive matcher to do the real work.
+        //
+        return matchRegExp(gData, re, str, start, end, multiline, sticky);
+    }
+
     /*
      * indexp is assumed to be an array of length 1
      */
     Object executeRegExp(Context cx, Scriptable scope, RegExpImpl res,
                          String str, int indexp[], int matchType)
+    {
+        return executeRegExp(cx, scope, res, str, indexp, matchType, false);
+    }
+
+    /*
+     * As executeRegExp, but if sticky only a match starting at indexp[0]
+     * is found.
+     */
+    Object executeRegExp(Context cx, Scriptable scope, RegExpImpl res,
+                         String str, int indexp[], int matchType,
+                         boolean sticky)
     {
         REGlobalData gData = new REGlobalData();
 
@@ -2428,44 +2828,56 @@ public class NativeRegExp extends IdScriptableObject implements Function
         int end = str.length();
         if (start > end)
             start = end;
-        //
-        // Call the recursive matcher to do the real work.
-        //
-        boolean matches = matchRegExp(gData, re, str, start, end,
-                                      res.multiline);
-        if (!matches) {
+        if (!matchFrom(cx, gData, str, start, res.multiline, sticky)) {
             if (matchType != PREFIX) return null;
             return Undefined.instance;
         }
-        int index = gData.cp;
-        int ep = indexp[0] = index;
-        int matchlen = ep - (start + gData.skipped);
-        index -= matchlen;
-        Object result;
-        Scriptable obj;
+        indexp[0] = gData.cp;
+        setLastMatch(cx, res, str, start, gData);
 
         if (matchType == TEST) {
             /*
              * Testing for a match and updating cx.regExpImpl: don't allocate
              * an array object, do return true.
              */
-            result = Boolean.TRUE;
-            obj = null;
+            return Boolean.TRUE;
         }
-        else {
-            /*
-             * The array returned on match has element 0 bound to the matched
-             * string, elements 1 through re.parenCount bound to the paren
-             * matches, an index property telling the length of the left context,
-             * and an input property referring to the input string.
-             */
-            result = cx.newArray(scope, 0);
-            obj = (Scriptable) result;
 
-            String matchstr = str.substring(index, index + matchlen);
-            obj.put(0, obj, matchstr);
+        /*
+         * The array returned on match has element 0 bound to the matched
+         * string, elements 1 through re.parenCount bound to the paren
+         * matches, an index property telling the length of the left context,
+         * and an input property referring to the input string.
+         */
+        Scriptable obj = cx.newArray(scope, 0);
+        obj.put(0, obj, res.lastMatch.toString());
+        for (int num = 0; num < re.parenCount; num++) {
+            SubString parsub = res.parens[num];
+            obj.put(num+1, obj, parsub != null ? parsub.toString()
+                                               : Undefined.instance);
         }
 
+        /*
+         * Define the index and input properties last for better for/in loop
+         * order (so they come after the elements).
+         */
+        obj.put("index", obj, Integer.valueOf(start + gData.skipped));
+        obj.put("input", obj, str);
+        return obj;
+    }
+
+    /*
+     * Update the statics in res for the match in gData, found by searching
+     * str from start.
+     */
+    private void setLastMatch(Context cx, RegExpImpl res, String str,
+                              int start, REGlobalData gData)
+    {
+        int end = str.length();
+        int ep = gData.cp;
+        int index = start + gData.skipped;
+        int matchlen = ep - index;
+
         if (re.parenCount == 0) {
             res.parens = null;
             res.lastParen = new SubString();
@@ -2479,26 +2891,11 @@ public class NativeRegExp extends IdScriptableObject implements Function
                     int cap_length = gData.parensLength(num);
                     parsub = new SubString(str, cap_index, cap_length);
                     res.parens[num] = parsub;
-                    if (matchType != TEST)
-                        obj.put(num+1, obj, parsub.toString());
-                }
-                else {
-                    if (matchType != TEST)
-                        obj.put(num+1, obj, Undefined.instance);
                 }
             }
             res.lastParen = parsub;
         }
 
-        if (! (matchType == TEST)) {
-            /*
-             * Define the index and input properties last for better for/in loop
-             * order (so they come after the elements).
-             */
-            obj.put("index", obj, Integer.valueOf(start + gData.skipped));
-            obj.put("input", obj, str);
-        }
-
         if (res.lastMatch == null) {
             res.lastMatch = new SubString();
             res.leftContext = new SubString();
@@ -2538,8 +2935,136 @@ public class NativeRegExp extends IdScriptableObject implements Function
         res.rightContext.str = str;
         res.rightContext.index = ep;
         res.rightContext.length = end - ep;
+    }
+
+    /*
+     * Replace every match in str with repstr, as a global replace with a
+     * replacement string that has no $ does, and return str if none is
+     * found. Only the last match updates the statics in res, and captures
+     * are kept in one of two REGlobalData that take turns. If sticky, each
+     * match must start where the previous one ended.
+     */
+    String replaceGlobal(Context cx, RegExpImpl res, String str,
+                         String repstr)
+    {
+        lastIndex = 0d;
+        boolean sticky = (re.flags & JSREG_STICKY) != 0;
+        REGlobalData gData = new REGlobalData();
+        REGlobalData lastData = null;
+        StringBuilder charBuf = null;
+        int end = str.length();
+        int leftIndex = 0;
+        int lastStart = 0;
+        for (int i = 0; i <= end; ) {
+            if (!matchFrom(cx, gData, str, i, res.multiline, sticky)) {
+                break;
+            }
+            int index = i + gData.skipped;
+            if (charBuf == null) {
+                charBuf = new StringBuilder(end + repstr.length());
+            }
+            charBuf.append(str, leftIndex, index).append(repstr);
+            leftIndex = gData.cp;
+            lastStart = i;
+            REGlobalData swap = lastData != null ? lastData : new REGlobalData();
+            lastData = gData;
+            gData = swap;
+
+            i = leftIndex;
+            if (index == leftIndex) {
+                if (i == end)
+                    break;
+                i++;
+            }
+        }
+        if (lastData == null) {
+            return str;
+        }
+        setLastMatch(cx, res, str, lastStart, lastData);
+        charBuf.append(str, leftIndex, end);
+        return charBuf.toString();
+    }
+
+    /**
+     * Return the only string this regular expression can match, or null if
+     * it can match more than one.
+     */
+    String getLiteral()
+    {
+        return re.literal;
+    }
+
+    /*
+     * Update the statics in res for a match of the literal at index in str,
+     * found by searching from start.
+     */
+    void setLiteralMatch(Context cx, RegExpImpl res, String str, int start,
+                         int index)
+    {
+        REGlobalData gData = new REGlobalData();
+        gData.cp = index + re.literal.length();
+        gData.skipped = index - start;
+        setLastMatch(cx, res, str, start, gData);
+    }
 
-        return result;
+    /**
+     * Returns the number of capturing groups in this regular expression.
+     */
+    public int getGroupCount()
+    {
+        return re.parenCount;
+    }
+
+    /**
+     * Matches this regular expression against input, without creating a
+     * result array or changing lastIndex or the RegExp statics, so that a
+     * scanner can match token after token without allocating.
+     * <p>
+     * On a match, groups[0] and groups[1] are set to its start and end
+     * index, and groups[2 * n] and groups[2 * n + 1] to those of capturing
+     * group n, or to -1 if the group took no part in the match.
+     *
+     * @param cx the current Context
+     * @param input the string to match against
+     * @param index the index to start matching at
+     * @param sticky if true, only a match starting at index is found, as
+     *               for the 'y' flag; otherwise the first match at or
+     *               after index
+     * @param groups the array to store the indices in, with a length of
+     *               at least 2 * (getGroupCount() + 1)
+     * @return true if a match was found
+     * @throws IllegalArgumentException if groups is too short
+     */
+    public boolean matchAt(Context cx, String input, int index,
+                           boolean sticky, int[] groups)
+    {
+        int parenCount = re.parenCount;
+        if (groups.length < 2 * (parenCount + 1))
+            throw new IllegalArgumentException();
+        if (index < 0 || index > input.length()) {
+            return false;
+        }
+        REGlobalData gData = scanData;
+        if (gData == null) {
+            gData = new REGlobalData();
+        }
+        // Not shared with a call that starts while this one runs
+        scanData = null;
+        boolean matches = matchFrom(cx, gData, input, index,
+                                    getImpl(cx).multiline, sticky);
+        if (matches) {
+            groups[0] = index + gData.skipped;
+            groups[1] = gData.cp;
+            for (int num = 0; num < parenCount; num++) {
+                int cap_index = gData.parensIndex(num);
+                groups[2 * num + 2] = cap_index;
+                groups[2 * num + 3] = cap_index == -1
+                                      ? -1
+                                      : cap_index + gData.parensLength(num);
+            }
+        }
+        scanData = gData;
+        return matches;
     }
 
     int getFlags()
@@ -2569,8 +3094,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
         Id_global       = 3,
         Id_ignoreCase   = 4,
         Id_multiline    = 5,
+        Id_sticky       = 6,
 
-        MAX_INSTANCE_ID = 5;
+        MAX_INSTANCE_ID = 6;
 
     @Override
     protected int getMaxInstanceId()
@@ -2586,9 +3112,10 @@ public class NativeRegExp extends IdScriptableObject implements Function
         L0: { id = 0; String X = null; int c;
             int s_length = s.length();
             if (s_length==6) {
-                c=s.charAt(0);
-                if (c=='g') { X="global";id=Id_global; }
-                else if (c=='s') { X="source";id=Id_source; }
+                c=s.charAt(1);
+                if (c=='l') { X="global";id=Id_global; }
+                else if (c=='o') { X="source";id=Id_source; }
+                else if (c=='t') { X="sticky";id=Id_sticky; }
             }
             else if (s_length==9) {
                 c=s.charAt(0);
@@ -2613,6 +3140,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
           case Id_global:
           case Id_ignoreCase:
           case Id_multiline:
+          case Id_sticky:
             attr = PERMANENT | READONLY | DONTENUM;
             break;
           default:
@@ -2630,6 +3158,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
             case Id_global:     return "global";
             case Id_ignoreCase: return "ignoreCase";
             case Id_multiline:  return "multiline";
+            case Id_sticky:     return "sticky";
         }
         return super.getInstanceIdName(id);
     }
@@ -2648,6 +3177,8 @@ public class NativeRegExp extends IdScriptableObject implements Function
             return ScriptRuntime.wrapBoolean((re.flags & JSREG_FOLD) != 0);
           case Id_multiline:
             return ScriptRuntime.wrapBoolean((re.flags & JSREG_MULTILINE) != 0);
+          case Id_sticky:
+            return ScriptRuntime.wrapBoolean((re.flags & JSREG_STICKY) != 0);
         }
         return super.getInstanceIdValue(id);
     }
@@ -2663,6 +3194,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
           case Id_global:
           case Id_ignoreCase:
           case Id_multiline:
+          case Id_sticky:
             return;
         }
         super.setInstanceIdValue(id, value);
@@ -2773,23 +3305,38 @@ public class NativeRegExp extends IdScriptableObject implements Function
     private RECompiled re;
     Object lastIndex = 0d;     /* index after last match, for //g iterator */
     private int lastIndexAttr = DONTENUM | PERMANENT;
+    private transient REGlobalData scanData; /* kept between matchAt calls */
 
 }       // class NativeRegExp
 
-class RECompiled implements Serializable
+final class RECacheKey
 {
-    static final long serialVersionUID = -6144956577595844213L;
+    private final String source;
+    private final int flags;
+    private final boolean flat;
 
-    final char[] source;    /* locked source string, sans // */
-    int parenCount;         /* number of parenthesized submatches */
-    int flags;              /* flags  */
-    byte[] program;         /* regular expression bytecode */
-    int classCount;         /* count [...] bitmaps */
-    RECharSet[] classList;  /* list of [...] bitmaps */
-    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    RECacheKey(String source, int flags, boolean flat)
+    {
+        this.source = source;
+        this.flags = flags;
+        this.flat = flat;
+    }
 
-    RECompiled(String str) {
-        this.source = str.toCharArray();
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof RECacheKey)) {
+            return false;
+        }
+        RECacheKey other = (RECacheKey)obj;
+        return flags == other.flags && flat == other.flat
+               && source.equals(other.source);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return source.hashCode() * 31 + (flat ? flags | 0x100 : flags);
     }
 }
 
@@ -2856,125 +3403,3 @@ class CompilerState {
     int         progLength;   /* estimated bytecode length */
     RENode      result;
 }
-
-class REProgState
-{
-    REProgState(REProgState previous, int min, int max, int index,
-                REBackTrackData backTrack,
-                int continuationOp, int continuationPc)
-    {
-        this.previous = previous;
-        this.min = min;
-        this.max = max;
-        this.index = index;
-        this.continuationOp = continuationOp;
-        this.continuationPc = continuationPc;
-        this.backTrack = backTrack;
-    }
-
-    final REProgState previous; // previous state in stack
-
-    final int min;                      /* current quantifier min */
-    final int max;                      /* current quantifier max */
-    final int index;                    /* progress in text */
-    final int continuationOp;
-    final int continuationPc;
-    final REBackTrackData backTrack; // used by ASSERT_  to recover state
-}
-
-class REBackTrackData {
-
-    REBackTrackData(REGlobalData gData, int op, int pc, int cp,
-                    int continuationOp, int continuationPc)
-    {
-        previous = gData.backTrackStackTop;
-        this.op = op;
-        this.pc = pc;
-        this.cp = cp;
-        this.continuationOp = continuationOp;
-        this.continuationPc = continuationPc;
-        parens = gData.parens;
-        stateStackTop = gData.stateStackTop;
-    }
-
-    final REBackTrackData previous;
-
-    final int op;                             /* operator */
-    final int pc;                             /* bytecode pointer */
-    final int cp;                             /* char buffer index */
-    final int continuationOp;                 /* continuation op */
-    final int continuationPc;                 /* continuation pc */
-    final long[] parens;                      /* parenthesis captures */
-    final REProgState stateStackTop;          /* state of op that backtracked */
-}
-
-class REGlobalData {
-    boolean multiline;
-    RECompiled regexp;              /* the RE in execution */
-    int skipped;                    /* chars skipped anchoring this r.e. */
-
-    int cp;                         /* char buffer index */
-    long[] parens;                  /* parens captures */
-
-    REProgState stateStackTop;       /* stack of state of current ancestors */
-
-    REBackTrackData backTrackStackTop;  /* last matched-so-far position */
-
-
-    /**
-     * Get start of parenthesis capture contents, -1 for empty.
-     */
-    int parensIndex(int i)
-    {
-        return (int)(parens[i]);
-    }
-
-    /**
-     * Get length of parenthesis capture contents.
-     */
-    int parensLength(int i)
-    {
-        return (int)(parens[i] >>> 32);
-    }
-
-    void setParens(int i, int index, int length)
-    {
-        // clone parens array if it is shared with backtrack state
-        if (backTrackStackTop != null && backTrackStackTop.parens == parens) {
-            parens = parens.clone();
-        }
-        parens[i] = (index & 0xffffffffL) | ((long)length << 32);
-    }
-
-}
-
-/*
- * This struct holds a bitmap representation of a class from a regexp.
- * There's a list of these referenced by the classList field in the NativeRegExp
- * struct below. The initial state has startIndex set to the offset in the
- * original regexp source of the beginning of the class contents. The first
- * use of the class converts the source representation into a bitmap.
- *
- */
-final class RECharSet implements Serializable
-{
-    static final long serialVersionUID = 7931787979395898394L;
-
-    RECharSet(int length, int startIndex, int strlength, boolean sense)
-    {
-        this.length = length;
-        this.startIndex = startIndex;
-        this.strlength = strlength;
-        this.sense = sense;
-    }
-
-    final int length;
-    final int startIndex;
-    final int strlength;
-    final boolean sense;
-
-    volatile transient boolean converted;
-    volatile transient byte[] bits;
-}
-
-
@@ -0,0 +1,36 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.io.Serializable;
+
+class RECompiled implements Serializable
+{
+    static final long serialVersionUID = -6144956577595844213L;
+
+    final char[] source;    /* locked source string, sans // */
+    int parenCount;         /* number of parenthesized submatches */
+    int flags;              /* flags  */
+    byte[] program;         /* regular expression bytecode */
+    int classCount;         /* count [...] bitmaps */
+    RECharSet[] classList;  /* list of [...] bitmaps */
+    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    String prefix;          /* if not null, then re starts with this string */
+    int[] startOps;         /* ops one of which matches the first char */
+    byte[] startChars;      /* bitmap of Latin-1 chars startOps match */
+    String literal;         /* if not null, re matches only this string */
+
+    transient int executions;           /* times executed while interpreted */
+    transient volatile boolean compileAttempted; /* matcher was generated once */
+    transient volatile REMatcher matcher; /* generated code, if compiled */
+    transient volatile RELinearMatcher linearMatcher; /* null if backtracking needed */
+    transient volatile boolean linearTranslated; /* linearMatcher is set */
+
+    RECompiled(String str) {
+        this.source = str.toCharArray();
+    }
+}
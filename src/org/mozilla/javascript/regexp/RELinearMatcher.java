@@ -0,0 +1,733 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import static org.mozilla.javascript.regexp.NativeRegExp.*;
+
+import java.util.Arrays;
+
+/**
+ * Matches the program of a RECompiled in time linear in the length of the
+ * input, by simulating its automaton on all paths at once.
+ *
+ * The program is first translated into instructions of a Pike VM, in which
+ * counted repetition is unrolled. The matcher then steps through the input
+ * once, keeping the threads that are alive at each position in the order in
+ * which backtracking would try them. A thread that reaches a state another
+ * thread with higher priority already reached at the same position is
+ * dropped, since it could only find a match the other one finds first. This
+ * gives the same captures executeREBytecode does.
+ *
+ * An optional iteration that matches the empty string fails. The state of a
+ * thread therefore also records which of the iterations it is in have not
+ * consumed any input yet.
+ *
+ * Back references and lookahead cannot be matched this way, and compile
+ * returns null for programs that contain them.
+ */
+final class RELinearMatcher
+{
+    // Instructions; a and b are their operands
+
+    // Consume the char a, ignoring case if b is 1
+    private static final byte CHAR = 0;
+    // Consume a char matched by the simple op at a in the program
+    private static final byte TEST = 1;
+    // Continue if the zero-width simple op at a in the program matches
+    private static final byte ASSERT = 2;
+    // Continue at a, and with lower priority at b
+    private static final byte SPLIT = 3;
+    private static final byte JUMP = 4;
+    // Record the start or the end of the capture a
+    private static final byte SAVE_START = 5;
+    private static final byte SAVE_END = 6;
+    // Clear b captures starting with a
+    private static final byte RESET = 7;
+    // Record the position in loop slot a
+    private static final byte MARK = 8;
+    // Continue if input was consumed since the MARK of slot a
+    private static final byte CHECK = 9;
+    private static final byte MATCH = 10;
+
+    private static final int MAX_INSTRUCTIONS = 10000;
+    // Loop slots are tracked in the bits of a long
+    private static final int MAX_LOOP_SLOTS = 64;
+
+    private final RECompiled regexp;
+    private final byte[] ops;
+    private final int[] as;
+    private final int[] bs;
+    // The loop slots whose iterations enclose each instruction
+    private final long[] enclosingSlots;
+    private final int slotCount;
+    private final boolean backtrackProne;
+
+    private RELinearMatcher(RECompiled regexp, Translator t)
+    {
+        this.regexp = regexp;
+        this.ops = Arrays.copyOf(t.ops, t.size);
+        this.as = Arrays.copyOf(t.as, t.size);
+        this.bs = Arrays.copyOf(t.bs, t.size);
+        this.enclosingSlots = Arrays.copyOf(t.enclosingSlots, t.size);
+        this.slotCount = t.slotCount;
+        this.backtrackProne = t.nestedRepetition;
+    }
+
+    /**
+     * Return a matcher for the given regular expression, or null if its
+     * program needs backtracking.
+     */
+    static RELinearMatcher compile(RECompiled re)
+    {
+        Translator t = new Translator(re);
+        try {
+            int pc = t.sequence(0);
+            if (re.program[pc] != REOP_END) {
+                return null;
+            }
+            t.emit(MATCH, 0, 0);
+        } catch (UnsupportedOperationException ex) {
+            return null;
+        }
+        return new RELinearMatcher(re, t);
+    }
+
+    /**
+     * Return true if the program repeats a term that contains repetition
+     * or alternatives, which backtracking can take exponential time on.
+     */
+    boolean isBacktrackProne()
+    {
+        return backtrackProne;
+    }
+
+    /**
+     * Find the first match of the regular expression in input at or after
+     * start, or only at start if sticky, and set gData as matchRegExp does.
+     */
+    boolean match(REGlobalData gData, String input, int start, int end,
+                  boolean multiline, boolean sticky)
+    {
+        gData.regexp = regexp;
+        gData.multiline = multiline || (regexp.flags & JSREG_MULTILINE) != 0;
+        gData.backTrackStackTop = null;
+        gData.stateStackTop = null;
+        int parenCount = regexp.parenCount;
+
+        Simulation sim = new Simulation(gData, input, end);
+        Threads current = new Threads(parenCount, slotCount);
+        Threads next = new Threads(parenCount, slotCount);
+        long[] caps = new long[parenCount];
+        int[] marks = new int[slotCount];
+        long[] matchCaps = null;
+        int matchStart = -1;
+        int matchEnd = -1;
+
+        sim.generation++;
+        for (int cp = start; ; cp++) {
+            if (matchCaps == null && (cp == start || !sticky)) {
+                if (current.count == 0 && !sticky) {
+                    cp = nextStart(regexp, input, cp, end);
+                    if (cp < 0) {
+                        break;
+                    }
+                }
+                // Starting here has lower priority than starting earlier
+                Arrays.fill(caps, -1L);
+                sim.addThread(current, 0, cp, caps, marks, cp);
+            }
+            if (current.count == 0
+                && (matchCaps != null || cp >= end || sticky))
+            {
+                break;
+            }
+            next.count = 0;
+            sim.generation++;
+            for (int i = 0; i < current.count; i++) {
+                int pc = current.pcs[i];
+                if (ops[pc] == MATCH) {
+                    // Threads after this one have lower priority
+                    matchCaps = Arrays.copyOfRange(current.caps,
+                                                   i * parenCount,
+                                                   (i + 1) * parenCount);
+                    matchStart = current.starts[i];
+                    matchEnd = cp;
+                    break;
+                }
+                if (cp < end && sim.consumes(pc, cp)) {
+                    System.arraycopy(current.caps, i * parenCount, caps, 0, parenCount);
+                    System.arraycopy(current.marks, i * slotCount, marks, 0, slotCount);
+                    sim.addThread(next, pc + 1, cp + 1, caps, marks,
+                                  current.starts[i]);
+                }
+            }
+            if (cp >= end) {
+                break;
+            }
+            Threads swap = current;
+            current = next;
+            next = swap;
+        }
+
+        if (matchCaps == null) {
+            return false;
+        }
+        if (parenCount != 0) {
+            gData.parens = matchCaps;
+        }
+        gData.cp = matchEnd;
+        gData.skipped = matchStart - start;
+        return true;
+    }
+
+    /**
+     * The threads alive at one position, in order of priority.
+     */
+    private static final class Threads
+    {
+        private final int capStride;
+        private final int markStride;
+        int count;
+        int[] pcs = new int[16];
+        int[] starts = new int[16];
+        long[] caps;
+        int[] marks;
+
+        Threads(int capStride, int markStride)
+        {
+            this.capStride = capStride;
+            this.markStride = markStride;
+            caps = new long[16 * capStride];
+            marks = new int[16 * markStride];
+        }
+
+        void add(int pc, long[] threadCaps, int[] threadMarks, int start)
+        {
+            if (count == pcs.length) {
+                int capacity = count * 2;
+                pcs = Arrays.copyOf(pcs, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                caps = Arrays.copyOf(caps, capacity * capStride);
+                marks = Arrays.copyOf(marks, capacity * markStride);
+            }
+            pcs[count] = pc;
+            starts[count] = start;
+            System.arraycopy(threadCaps, 0, caps, count * capStride, capStride);
+            System.arraycopy(threadMarks, 0, marks, count * markStride, markStride);
+            count++;
+        }
+    }
+
+    /**
+     * The state of one call to match.
+     */
+    private final class Simulation
+    {
+        private final REGlobalData gData;
+        private final String input;
+        private final int end;
+
+        // The states reached at the current position, by instruction
+        int generation;
+        private final int[] seenGeneration = new int[ops.length];
+        private final int[] seenCount = new int[ops.length];
+        private final long[][] seenKeys = new long[ops.length][];
+
+        // Instructions still to follow, and values to restore on the way
+        private static final int FOLLOW = 0, RESTORE_CAP = 1, RESTORE_MARK = 2;
+        private int[] stackKinds = new int[16];
+        private int[] stackIndexes = new int[16];
+        private long[] stackValues = new long[16];
+        private int stackTop;
+
+        Simulation(REGlobalData gData, String input, int end)
+        {
+            this.gData = gData;
+            this.input = input;
+            this.end = end;
+        }
+
+        boolean consumes(int pc, int cp)
+        {
+            char c = input.charAt(cp);
+            if (ops[pc] == CHAR) {
+                char expected = (char)as[pc];
+                return c == expected
+                       || (bs[pc] != 0 && upcase(c) == upcase(expected));
+            }
+            return matchesAt(pc, cp);
+        }
+
+        private boolean matchesAt(int pc, int cp)
+        {
+            byte[] program = regexp.program;
+            int opPc = as[pc];
+            gData.cp = cp;
+            return simpleMatch(gData, input, program[opPc], program, opPc + 1,
+                               end, false) >= 0;
+        }
+
+        /**
+         * Follow the instructions from pc that do not consume input and add
+         * the threads that get to consuming ones or to MATCH to list. caps
+         * and marks are changed on the way but restored before returning.
+         */
+        void addThread(Threads list, int pc, int cp, long[] caps, int[] marks,
+                       int start)
+        {
+            push(FOLLOW, pc, 0);
+            while (stackTop != 0) {
+                stackTop--;
+                int kind = stackKinds[stackTop];
+                int index = stackIndexes[stackTop];
+                long value = stackValues[stackTop];
+                if (kind == RESTORE_CAP) {
+                    caps[index] = value;
+                    continue;
+                }
+                if (kind == RESTORE_MARK) {
+                    marks[index] = (int)value;
+                    continue;
+                }
+                pc = index;
+              follow:
+                for (;;) {
+                    if (!firstVisit(pc, stateKey(pc, cp, marks))) {
+                        break;
+                    }
+                    switch (ops[pc]) {
+                        case CHAR:
+                        case TEST:
+                        case MATCH:
+                            list.add(pc, caps, marks, start);
+                            break follow;
+                        case ASSERT:
+                            if (!matchesAt(pc, cp)) {
+                                break follow;
+                            }
+                            pc++;
+                            break;
+                        case SPLIT:
+                            push(FOLLOW, bs[pc], 0);
+                            pc = as[pc];
+                            break;
+                        case JUMP:
+                            pc = as[pc];
+                            break;
+                        case SAVE_START:
+                            push(RESTORE_CAP, as[pc], caps[as[pc]]);
+                            caps[as[pc]] = cp & 0xffffffffL;
+                            pc++;
+                            break;
+                        case SAVE_END:
+                        {
+                            int i = as[pc];
+                            push(RESTORE_CAP, i, caps[i]);
+                            int capStart = (int)caps[i];
+                            caps[i] = (capStart & 0xffffffffL)
+                                      | ((long)(cp - capStart) << 32);
+                            pc++;
+                            break;
+                        }
+                        case RESET:
+                            for (int i = as[pc]; i < as[pc] + bs[pc]; i++) {
+                                push(RESTORE_CAP, i, caps[i]);
+                                caps[i] = 0xffffffffL;
+                            }
+                            pc++;
+                            break;
+                        case MARK:
+                            push(RESTORE_MARK, as[pc], marks[as[pc]]);
+                            marks[as[pc]] = cp;
+                            pc++;
+                            break;
+                        case CHECK:
+                            if (marks[as[pc]] == cp) {
+                                break follow;
+                            }
+                            pc++;
+                            break;
+                        default:
+                            throw new IllegalStateException();
+                    }
+                }
+            }
+        }
+
+        // Which of the enclosing iterations have not consumed input yet
+        private long stateKey(int pc, int cp, int[] marks)
+        {
+            long slots = enclosingSlots[pc];
+            long key = 0;
+            while (slots != 0) {
+                int slot = Long.numberOfTrailingZeros(slots);
+                if (marks[slot] == cp) {
+                    key |= 1L << slot;
+                }
+                slots &= slots - 1;
+            }
+            return key;
+        }
+
+        private boolean firstVisit(int pc, long key)
+        {
+            long[] keys = seenKeys[pc];
+            if (seenGeneration[pc] != generation) {
+                if (keys == null) {
+                    keys = seenKeys[pc] = new long[1];
+                }
+                seenGeneration[pc] = generation;
+                seenCount[pc] = 1;
+                keys[0] = key;
+                return true;
+            }
+            int n = seenCount[pc];
+            for (int i = 0; i < n; i++) {
+                if (keys[i] == key) {
+                    return false;
+                }
+            }
+            if (n == keys.length) {
+                keys = seenKeys[pc] = Arrays.copyOf(keys, n * 2);
+            }
+            keys[n] = key;
+            seenCount[pc] = n + 1;
+            return true;
+        }
+
+        private void push(int kind, int index, long value)
+        {
+            if (stackTop == stackKinds.length) {
+                int capacity = stackTop * 2;
+                stackKinds = Arrays.copyOf(stackKinds, capacity);
+                stackIndexes = Arrays.copyOf(stackIndexes, capacity);
+                stackValues = Arrays.copyOf(stackValues, capacity);
+            }
+            stackKinds[stackTop] = kind;
+            stackIndexes[stackTop] = index;
+            stackValues[stackTop] = value;
+            stackTop++;
+        }
+    }
+
+    /**
+     * Translates a program into instructions. Methods throw
+     * UnsupportedOperationException for programs that need backtracking or
+     * would take too many instructions.
+     */
+    private static final class Translator
+    {
+        private final byte[] program;
+        private final char[] source;
+        byte[] ops = new byte[32];
+        int[] as = new int[32];
+        int[] bs = new int[32];
+        long[] enclosingSlots = new long[32];
+        int size;
+        int slotCount;
+        boolean nestedRepetition;
+        private long activeSlots;
+        private int repetitionDepth;
+
+        Translator(RECompiled re)
+        {
+            this.program = re.program;
+            this.source = re.source;
+        }
+
+        int emit(byte op, int a, int b)
+        {
+            if (size == MAX_INSTRUCTIONS) {
+                throw new UnsupportedOperationException();
+            }
+            if (size == ops.length) {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                as = Arrays.copyOf(as, capacity);
+                bs = Arrays.copyOf(bs, capacity);
+                enclosingSlots = Arrays.copyOf(enclosingSlots, capacity);
+            }
+            ops[size] = op;
+            as[size] = a;
+            bs[size] = b;
+            enclosingSlots[size] = activeSlots;
+            return size++;
+        }
+
+        /**
+         * Translate the terms starting at pc up to the end of the program,
+         * of an alternative or of a quantified term, and return the pc of
+         * the REOP_END, REOP_JUMP or REOP_ENDCHILD there.
+         */
+        int sequence(int pc)
+        {
+            for (;;) {
+                byte op = program[pc];
+                switch (op) {
+                    case REOP_END:
+                    case REOP_JUMP:
+                    case REOP_ENDCHILD:
+                        return pc;
+
+                    case REOP_LPAREN:
+                    case REOP_RPAREN:
+                        emit(op == REOP_LPAREN ? SAVE_START : SAVE_END,
+                             getIndex(program, pc + 1), 0);
+                        pc += 1 + INDEX_LEN;
+                        break;
+
+                    case REOP_ALT:
+                    case REOP_ALTPREREQ:
+                    case REOP_ALTPREREQi:
+                    case REOP_ALTPREREQ2:
+                        pc = alternatives(pc);
+                        break;
+
+                    case REOP_STAR:
+                    case REOP_PLUS:
+                    case REOP_OPT:
+                    case REOP_QUANT:
+                    case REOP_MINIMALSTAR:
+                    case REOP_MINIMALPLUS:
+                    case REOP_MINIMALOPT:
+                    case REOP_MINIMALQUANT:
+                        pc = quantifier(pc);
+                        break;
+
+                    default:
+                        pc = simpleTerm(pc);
+                        break;
+                }
+            }
+        }
+
+        private int alternatives(int pc)
+        {
+            if (repetitionDepth != 0) {
+                nestedRepetition = true;
+            }
+            if (program[pc++] != REOP_ALT) {
+                // The prerequisite only lets the interpreter fail early
+                pc += 2 * INDEX_LEN;
+            }
+            int nextAlt = pc + getOffset(program, pc);
+            pc += INDEX_LEN;
+
+            int split = emit(SPLIT, size + 1, 0);
+            int jump = sequence(pc);
+            if (program[jump] != REOP_JUMP) {
+                throw new UnsupportedOperationException();
+            }
+            int join = jump + 1 + getOffset(program, jump + 1);
+            int exit = emit(JUMP, 0, 0);
+            bs[split] = size;
+            jump = sequence(nextAlt);
+            if (program[jump] != REOP_JUMP
+                || jump + 1 + getOffset(program, jump + 1) != join)
+            {
+                throw new UnsupportedOperationException();
+            }
+            as[exit] = size;
+            return join;
+        }
+
+        private int quantifier(int pc)
+        {
+            if (repetitionDepth != 0) {
+                nestedRepetition = true;
+            }
+            byte op = program[pc++];
+            int min, max;
+            boolean greedy = op == REOP_STAR || op == REOP_PLUS
+                             || op == REOP_OPT || op == REOP_QUANT;
+            switch (op) {
+                case REOP_STAR:
+                case REOP_MINIMALSTAR:
+                    min = 0;
+                    max = -1;
+                    break;
+                case REOP_PLUS:
+                case REOP_MINIMALPLUS:
+                    min = 1;
+                    max = -1;
+                    break;
+                case REOP_OPT:
+                case REOP_MINIMALOPT:
+                    min = 0;
+                    max = 1;
+                    break;
+                default:
+                    min = getOffset(program, pc);
+                    pc += INDEX_LEN;
+                    max = getOffset(program, pc) - 1;
+                    pc += INDEX_LEN;
+                    break;
+            }
+            int parenCount = getIndex(program, pc);
+            int parenIndex = getIndex(program, pc + INDEX_LEN);
+            pc += 2 * INDEX_LEN;
+            int next = pc + getOffset(program, pc);
+            int childPc = pc + INDEX_LEN;
+
+            boolean canBeEmpty = canMatchEmpty(childPc);
+            repetitionDepth++;
+            // Optional iterations jump to the end when they are not taken
+            int[] exits = new int[4];
+            int exitCount = 0;
+            for (int j = 0; max == -1 || j < max; j++) {
+                boolean optional = j >= min;
+                // This mirrors which iterations executeREBytecode clears
+                // the captures of
+                boolean reset = parenCount != 0
+                                && (greedy ? optional && j > 0 : j > 0 || min == 0);
+                boolean loop = optional && max == -1
+                               && (!greedy || j > 0 || parenCount == 0);
+                int head = size;
+                if (optional) {
+                    if (exitCount == exits.length) {
+                        exits = Arrays.copyOf(exits, exitCount * 2);
+                    }
+                    exits[exitCount++] = emit(SPLIT, 0, 0);
+                }
+                if (reset) {
+                    emit(RESET, parenIndex, parenCount);
+                }
+                int slot = -1;
+                if (optional && canBeEmpty) {
+                    if (slotCount == MAX_LOOP_SLOTS) {
+                        throw new UnsupportedOperationException();
+                    }
+                    slot = slotCount++;
+                    emit(MARK, slot, 0);
+                    activeSlots |= 1L << slot;
+                }
+                if (sequence(childPc) + 1 != next) {
+                    throw new UnsupportedOperationException();
+                }
+                if (slot != -1) {
+                    emit(CHECK, slot, 0);
+                    activeSlots &= ~(1L << slot);
+                }
+                if (loop) {
+                    emit(JUMP, head, 0);
+                    break;
+                }
+            }
+            repetitionDepth--;
+            for (int i = 0; i < exitCount; i++) {
+                int split = exits[i];
+                if (greedy) {
+                    as[split] = split + 1;
+                    bs[split] = size;
+                } else {
+                    as[split] = size;
+                    bs[split] = split + 1;
+                }
+            }
+            return next;
+        }
+
+        private int simpleTerm(int pc)
+        {
+            byte op = program[pc];
+            switch (op) {
+                case REOP_EMPTY:
+                    return pc + 1;
+                case REOP_BOL:
+                case REOP_EOL:
+                case REOP_WBDRY:
+                case REOP_WNONBDRY:
+                    emit(ASSERT, pc, 0);
+                    return pc + 1;
+                case REOP_DOT:
+                case REOP_DIGIT:
+                case REOP_NONDIGIT:
+                case REOP_ALNUM:
+                case REOP_NONALNUM:
+                case REOP_SPACE:
+                case REOP_NONSPACE:
+                    emit(TEST, pc, 0);
+                    return pc + 1;
+                case REOP_CLASS:
+                case REOP_NCLASS:
+                    emit(TEST, pc, 0);
+                    return pc + 1 + INDEX_LEN;
+                case REOP_FLAT1:
+                case REOP_FLAT1i:
+                    emit(CHAR, program[pc + 1] & 0xFF, op == REOP_FLAT1i ? 1 : 0);
+                    return pc + 2;
+                case REOP_UCFLAT1:
+                case REOP_UCFLAT1i:
+                    emit(CHAR, getIndex(program, pc + 1), op == REOP_UCFLAT1i ? 1 : 0);
+                    return pc + 1 + INDEX_LEN;
+                case REOP_FLAT:
+                case REOP_FLATi:
+                {
+                    int offset = getIndex(program, pc + 1);
+                    int length = getIndex(program, pc + 1 + INDEX_LEN);
+                    for (int i = 0; i < length; i++) {
+                        emit(CHAR, source[offset + i], op == REOP_FLATi ? 1 : 0);
+                    }
+                    return pc + 1 + 2 * INDEX_LEN;
+                }
+                default:
+                    // REOP_BACKREF, REOP_ASSERT and REOP_ASSERT_NOT
+                    throw new UnsupportedOperationException();
+            }
+        }
+
+        /**
+         * Return true if the quantified term at pc can match the empty
+         * string, in which case its optional iterations need a check that
+         * they consumed input.
+         */
+        private boolean canMatchEmpty(int pc)
+        {
+            int from = size;
+            int savedSlotCount = slotCount;
+            long savedActiveSlots = activeSlots;
+            boolean savedNestedRepetition = nestedRepetition;
+            repetitionDepth++;
+            sequence(pc);
+            repetitionDepth--;
+            int to = size;
+
+            // Look for a path through the term that consumes nothing
+            boolean[] reached = new boolean[to - from + 1];
+            reached[0] = true;
+            for (int i = from; i < to; i++) {
+                if (!reached[i - from]) {
+                    continue;
+                }
+                switch (ops[i]) {
+                    case CHAR:
+                    case TEST:
+                        break;
+                    case SPLIT:
+                        reached[as[i] - from] = true;
+                        reached[bs[i] - from] = true;
+                        break;
+                    case JUMP:
+                        if (as[i] > i) {
+                            reached[as[i] - from] = true;
+                        }
+                        break;
+                    default:
+                        reached[i + 1 - from] = true;
+                        break;
+                }
+            }
+            boolean empty = reached[to - from];
+
+            size = from;
+            slotCount = savedSlotCount;
+            activeSlots = savedActiveSlots;
+            nestedRepetition = savedNestedRepetition;
+            return empty;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+/**
+ * Base class of the classes that REMatcherCodegen generates for regular
+ * expressions that are executed often. A subclass does what
+ * executeREBytecode does for the program of one RECompiled, in JVM bytecode
+ * that the JIT compiler can optimize.
+ *
+ * The members of this class are only meant to be used by generated code.
+ * They are not private because that code is defined by its own class loader.
+ */
+public abstract class REMatcher
+{
+    RECompiled regexp;
+
+    // The number of ints the backtracking stack of match needs
+    int stackSize;
+
+    protected REMatcher()
+    {
+    }
+
+    /**
+     * Match the regular expression against input starting exactly at cp,
+     * storing captures in parens as REGlobalData.setParens does. Return the
+     * index the match ends at, or -1 if there is none.
+     *
+     * @param stack an array of stackSize ints for backtracking state
+     */
+    public abstract int match(String input, int cp, int end, long[] parens,
+                              int[] stack, boolean multiline);
+
+    protected final boolean inClass(int index, char c)
+    {
+        return NativeRegExp.classContains(regexp.classList[index], c);
+    }
+
+    protected final boolean flatMatches(String input, int cp, int offset,
+                                        int length, boolean fold)
+    {
+        char[] source = regexp.source;
+        for (int i = 0; i < length; i++) {
+            char c1 = source[offset + i];
+            char c2 = input.charAt(cp + i);
+            if (c1 != c2 && (!fold || NativeRegExp.upcase(c1) != NativeRegExp.upcase(c2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean equalsIgnoreCase(char c1, char c2)
+    {
+        return c1 == c2 || NativeRegExp.upcase(c1) == NativeRegExp.upcase(c2);
+    }
+
+    protected static boolean isDigit(char c)
+    {
+        return NativeRegExp.isDigit(c);
+    }
+
+    protected static boolean isWord(char c)
+    {
+        return NativeRegExp.isWord(c);
+    }
+
+    protected static boolean isLineTerm(char c)
+    {
+        return NativeRegExp.isLineTerm(c);
+    }
+
+    protected static boolean isSpace(char c)
+    {
+        return NativeRegExp.isREWhiteSpace(c);
+    }
+
+    protected static boolean atLineStart(String input, int cp, boolean multiline)
+    {
+        return cp == 0 || (multiline && isLineTerm(input.charAt(cp - 1)));
+    }
+
+    protected static boolean atLineEnd(String input, int cp, int end, boolean multiline)
+    {
+        return cp == end || (multiline && isLineTerm(input.charAt(cp)));
+    }
+
+    protected static boolean atWordBoundary(String input, int cp, int end)
+    {
+        return (cp == 0 || !isWord(input.charAt(cp - 1)))
+               ^ !(cp < end && isWord(input.charAt(cp)));
+    }
+
+    protected static void setParenStart(long[] parens, int i, int cp)
+    {
+        parens[i] = cp & 0xffffffffL;
+    }
+
+    protected static void setParenEnd(long[] parens, int i, int cp)
+    {
+        int index = (int)parens[i];
+        parens[i] = (index & 0xffffffffL) | ((long)(cp - index) << 32);
+    }
+
+    protected static void clearParen(long[] parens, int i)
+    {
+        parens[i] = -1L;
+    }
+}
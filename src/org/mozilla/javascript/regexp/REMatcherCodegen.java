@@ -0,0 +1,723 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import static org.mozilla.javascript.regexp.NativeRegExp.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.SecurityController;
+
+/**
+ * Translates the program of a RECompiled into a subclass of REMatcher.
+ *
+ * The generated match method runs the terms of the program in sequence and
+ * jumps to a common failure label when one does not match. Alternatives and
+ * quantifiers push a backtracking entry of three ints, the id of the point
+ * to resume at, the input position and one more value, before going on with
+ * the rest of the program. On failure the last entry is popped and the code
+ * for its id continues with the next alternative, or with one fewer or one
+ * more repetition.
+ *
+ * Only programs whose quantified terms are single atoms of a fixed width and
+ * contain no captures are translated, so that every backtracking point is
+ * passed at most once on the way to a match. Each one then has at most one
+ * live entry, and captures made after a point are simply cleared when
+ * resuming there. Back references and lookahead are left to the
+ * interpreter.
+ */
+final class REMatcherCodegen
+{
+    private static final String SUPER_CLASS =
+        "org.mozilla.javascript.regexp.REMatcher";
+
+    // Flat strings up to this long are compared inline
+    private static final int MAX_INLINE_FLAT = 16;
+
+    // Local variables of the match method
+    private static final int
+        THIS = 0,
+        INPUT = 1,
+        CP = 2,
+        END = 3,
+        PARENS = 4,
+        STACK = 5,
+        MULTILINE = 6,
+        SP = 7,
+        AUX = 8,
+        START = 9,
+        COUNT = 10,
+        ID = 11,
+        LOCALS_COUNT = 12;
+
+    private static int serial;
+
+    private final RECompiled re;
+    private final byte[] program;
+    private final ClassFileWriter cfw;
+    private int failLabel;
+    private boolean canFail;
+    private final List<Integer> resumeLabels = new ArrayList<Integer>();
+
+    /**
+     * Thrown from deep inside generate() when the program uses an op or a
+     * form that the generated code does not handle, so that the expression
+     * stays with the interpreter.
+     */
+    private static final class Untranslatable extends RuntimeException
+    {
+        private static final long serialVersionUID = 2876328154873011493L;
+
+        Untranslatable()
+        {
+            // Normal outcome rather than an error: skip the stack trace
+            super(null, null, false, false);
+        }
+    }
+
+    private REMatcherCodegen(RECompiled re, String className)
+    {
+        this.re = re;
+        this.program = re.program;
+        this.cfw = new ClassFileWriter(className, SUPER_CLASS, null);
+    }
+
+    /**
+     * Return a matcher for the given regular expression, or null if its
+     * program cannot be translated or the class cannot be defined.
+     */
+    static REMatcher compile(RECompiled re)
+    {
+        String className = "org.mozilla.javascript.gen.RegExp_" + nextSerial();
+        REMatcherCodegen codegen = new REMatcherCodegen(re, className);
+        byte[] bytes;
+        try {
+            bytes = codegen.generate();
+        } catch (Untranslatable ex) {
+            return null;
+        } catch (ClassFileWriter.ClassFileFormatException ex) {
+            // The program is too big for the jumps of one method
+            return null;
+        }
+
+        // Convert the character classes up front, so that the generated code
+        // can test them without REGlobalData
+        if (re.classList != null) {
+            REGlobalData gData = new REGlobalData();
+            gData.regexp = re;
+            for (RECharSet charSet : re.classList) {
+                processCharSet(gData, charSet);
+            }
+        }
+
+        try {
+            ClassLoader rhinoLoader = REMatcher.class.getClassLoader();
+            GeneratedClassLoader loader =
+                SecurityController.createLoader(rhinoLoader, null);
+            Class<?> cl = loader.defineClass(className, bytes);
+            loader.linkClass(cl);
+            REMatcher matcher = (REMatcher)cl.getDeclaredConstructor().newInstance();
+            matcher.regexp = re;
+            matcher.stackSize = 3 * codegen.resumeLabels.size();
+            return matcher;
+        } catch (RuntimeException ex) {
+            return null;
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    private static synchronized int nextSerial()
+    {
+        return ++serial;
+    }
+
+    private byte[] generate()
+    {
+        cfw.setFlags((short)(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL));
+
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addALoad(THIS);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, SUPER_CLASS, "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        cfw.startMethod("match", "(Ljava/lang/String;II[J[IZ)I",
+                        ClassFileWriter.ACC_PUBLIC);
+        for (int local = SP; local < LOCALS_COUNT; local++) {
+            cfw.addPush(0);
+            cfw.addIStore(local);
+        }
+        failLabel = cfw.acquireLabel();
+
+        int pc = emitSequence(0);
+        if (program[pc] != REOP_END || !canFail) {
+            // Programs that cannot fail are cheap to interpret anyway
+            throw new Untranslatable();
+        }
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.IRETURN);
+
+        // Pop the last backtracking entry and resume at its point
+        cfw.markLabel(failLabel);
+        int popLabel = cfw.acquireLabel();
+        cfw.addILoad(SP);
+        cfw.add(ByteCode.IFNE, popLabel);
+        cfw.addPush(-1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(popLabel);
+        addDecrement(SP, 3);
+        loadStackEntry(0);
+        cfw.addIStore(ID);
+        loadStackEntry(1);
+        cfw.addIStore(CP);
+        loadStackEntry(2);
+        cfw.addIStore(AUX);
+        for (int id = 0; id < resumeLabels.size(); id++) {
+            cfw.addILoad(ID);
+            cfw.addPush(id);
+            cfw.add(ByteCode.IF_ICMPEQ, resumeLabels.get(id).intValue());
+        }
+        cfw.addPush(-1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short)LOCALS_COUNT);
+
+        return cfw.toByteArray();
+    }
+
+    /**
+     * Emit the terms starting at pc up to the end of the program or of an
+     * alternative, and return the pc of the REOP_END or REOP_JUMP there.
+     */
+    private int emitSequence(int pc)
+    {
+        for (;;) {
+            int op = program[pc];
+            switch (op) {
+                case REOP_END:
+                case REOP_JUMP:
+                    return pc;
+
+                case REOP_LPAREN:
+                case REOP_RPAREN:
+                    cfw.addALoad(PARENS);
+                    cfw.addPush(getIndex(program, pc + 1));
+                    cfw.addILoad(CP);
+                    cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS,
+                                  op == REOP_LPAREN ? "setParenStart" : "setParenEnd",
+                                  "([JII)V");
+                    pc += 1 + INDEX_LEN;
+                    break;
+
+                case REOP_ALT:
+                case REOP_ALTPREREQ:
+                case REOP_ALTPREREQi:
+                case REOP_ALTPREREQ2:
+                    pc = emitAlternatives(pc);
+                    break;
+
+                case REOP_STAR:
+                case REOP_PLUS:
+                case REOP_OPT:
+                case REOP_QUANT:
+                case REOP_MINIMALSTAR:
+                case REOP_MINIMALPLUS:
+                case REOP_MINIMALOPT:
+                case REOP_MINIMALQUANT:
+                    pc = emitQuantifier(pc);
+                    break;
+
+                default:
+                {
+                    int width = emitAtomTest(pc, failLabel);
+                    if (width > 0) {
+                        cfw.add(ByteCode.IINC, CP, width);
+                    }
+                    pc = nextTerm(pc);
+                }
+            }
+        }
+    }
+
+    private int emitAlternatives(int pc)
+    {
+        int altPc = pc;
+        int op = program[pc++];
+        if (op != REOP_ALT) {
+            // The prerequisite only lets the interpreter fail early
+            pc += 2 * INDEX_LEN;
+        }
+        int nextAlt = pc + getOffset(program, pc);
+        pc += INDEX_LEN;
+
+        int id = newResumePoint();
+        pushEntry(id);
+        int jump = emitSequence(pc);
+        int join = jump + 1 + getOffset(program, jump + 1);
+        int joinLabel = cfw.acquireLabel();
+        cfw.add(ByteCode.GOTO, joinLabel);
+
+        cfw.markLabel(resumeLabels.get(id).intValue());
+        clearParensAfter(altPc);
+        jump = emitSequence(nextAlt);
+        if (program[jump] != REOP_JUMP
+            || jump + 1 + getOffset(program, jump + 1) != join)
+        {
+            throw new Untranslatable();
+        }
+        cfw.markLabel(joinLabel);
+        return join;
+    }
+
+    private int emitQuantifier(int pc)
+    {
+        int quantPc = pc;
+        int op = program[pc++];
+        int min, max;
+        boolean greedy = op == REOP_STAR || op == REOP_PLUS
+                         || op == REOP_OPT || op == REOP_QUANT;
+        switch (op) {
+            case REOP_STAR:
+            case REOP_MINIMALSTAR:
+                min = 0;
+                max = -1;
+                break;
+            case REOP_PLUS:
+            case REOP_MINIMALPLUS:
+                min = 1;
+                max = -1;
+                break;
+            case REOP_OPT:
+            case REOP_MINIMALOPT:
+                min = 0;
+                max = 1;
+                break;
+            default:
+                min = getOffset(program, pc);
+                pc += INDEX_LEN;
+                max = getOffset(program, pc) - 1;
+                pc += INDEX_LEN;
+                break;
+        }
+        int parenCount = getIndex(program, pc);
+        pc += 2 * INDEX_LEN;
+        int next = pc + getOffset(program, pc);
+        int atomPc = pc + INDEX_LEN;
+        if (parenCount != 0 || program[atomPc] == REOP_BACKREF
+            || !isSimple(program[atomPc])
+            || program[nextTerm(atomPc)] != REOP_ENDCHILD
+            || nextTerm(atomPc) + 1 != next)
+        {
+            throw new Untranslatable();
+        }
+
+        int id = newResumePoint();
+        int loopLabel = cfw.acquireLabel();
+        int doneLabel = cfw.acquireLabel();
+        int restLabel = cfw.acquireLabel();
+        int skipLabel = cfw.acquireLabel();
+        int width;
+
+        cfw.addPush(0);
+        cfw.addIStore(COUNT);
+        if (greedy) {
+            // Match as many as possible, then back off one at a time
+            cfw.addILoad(CP);
+            cfw.addIStore(START);
+            cfw.markLabel(loopLabel);
+            if (max != -1) {
+                cfw.addILoad(COUNT);
+                cfw.addPush(max);
+                cfw.add(ByteCode.IF_ICMPGE, doneLabel);
+            }
+            width = emitAtomTest(atomPc, doneLabel);
+            if (width == 0) {
+                throw new Untranslatable();
+            }
+            cfw.add(ByteCode.IINC, CP, width);
+            cfw.add(ByteCode.IINC, COUNT, 1);
+            cfw.add(ByteCode.GOTO, loopLabel);
+
+            cfw.markLabel(doneLabel);
+            cfw.addILoad(COUNT);
+            cfw.addPush(min);
+            addJump(ByteCode.IF_ICMPLT, failLabel);
+            // AUX is the least position to back off to
+            cfw.addILoad(START);
+            cfw.addPush(min * width);
+            cfw.add(ByteCode.IADD);
+            cfw.addIStore(AUX);
+            pushEntryIfAbove(id, skipLabel);
+            cfw.markLabel(skipLabel);
+            cfw.add(ByteCode.GOTO, restLabel);
+
+            cfw.markLabel(resumeLabels.get(id).intValue());
+            clearParensAfter(quantPc);
+            addDecrement(CP, width);
+            int resumeSkipLabel = cfw.acquireLabel();
+            pushEntryIfAbove(id, resumeSkipLabel);
+            cfw.markLabel(resumeSkipLabel);
+        } else {
+            // Match as few as possible, then add one at a time
+            cfw.markLabel(loopLabel);
+            cfw.addILoad(COUNT);
+            cfw.addPush(min);
+            cfw.add(ByteCode.IF_ICMPGE, doneLabel);
+            width = emitAtomTest(atomPc, failLabel);
+            if (width == 0) {
+                throw new Untranslatable();
+            }
+            cfw.add(ByteCode.IINC, CP, width);
+            cfw.add(ByteCode.IINC, COUNT, 1);
+            cfw.add(ByteCode.GOTO, loopLabel);
+
+            // AUX is the number of further matches allowed, -1 for any
+            cfw.markLabel(doneLabel);
+            cfw.addPush(max == -1 ? -1 : max - min);
+            cfw.addIStore(AUX);
+            pushEntryIfNotZero(id, skipLabel);
+            cfw.markLabel(skipLabel);
+            cfw.add(ByteCode.GOTO, restLabel);
+
+            cfw.markLabel(resumeLabels.get(id).intValue());
+            clearParensAfter(quantPc);
+            emitAtomTest(atomPc, failLabel);
+            cfw.add(ByteCode.IINC, CP, width);
+            int unboundedLabel = cfw.acquireLabel();
+            cfw.addILoad(AUX);
+            cfw.add(ByteCode.IFLT, unboundedLabel);
+            addDecrement(AUX, 1);
+            cfw.markLabel(unboundedLabel);
+            int resumeSkipLabel = cfw.acquireLabel();
+            pushEntryIfNotZero(id, resumeSkipLabel);
+            cfw.markLabel(resumeSkipLabel);
+        }
+        cfw.markLabel(restLabel);
+        return next;
+    }
+
+    /**
+     * Emit a test of the simple term at pc against the input at CP, which
+     * jumps to target if it does not match and leaves CP unchanged. Return
+     * the number of characters the term matches.
+     */
+    private int emitAtomTest(int pc, int target)
+    {
+        int op = program[pc];
+        switch (op) {
+            case REOP_EMPTY:
+                return 0;
+            case REOP_BOL:
+                cfw.addALoad(INPUT);
+                cfw.addILoad(CP);
+                cfw.addILoad(MULTILINE);
+                cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS, "atLineStart",
+                              "(Ljava/lang/String;IZ)Z");
+                addJump(ByteCode.IFEQ, target);
+                return 0;
+            case REOP_EOL:
+                cfw.addALoad(INPUT);
+                cfw.addILoad(CP);
+                cfw.addILoad(END);
+                cfw.addILoad(MULTILINE);
+                cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS, "atLineEnd",
+                              "(Ljava/lang/String;IIZ)Z");
+                addJump(ByteCode.IFEQ, target);
+                return 0;
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+                cfw.addALoad(INPUT);
+                cfw.addILoad(CP);
+                cfw.addILoad(END);
+                cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS, "atWordBoundary",
+                              "(Ljava/lang/String;II)Z");
+                addJump(op == REOP_WBDRY ? ByteCode.IFEQ : ByteCode.IFNE, target);
+                return 0;
+            case REOP_DOT:
+                emitCharTest("isLineTerm", false, target);
+                return 1;
+            case REOP_DIGIT:
+            case REOP_NONDIGIT:
+                emitCharTest("isDigit", op == REOP_DIGIT, target);
+                return 1;
+            case REOP_ALNUM:
+            case REOP_NONALNUM:
+                emitCharTest("isWord", op == REOP_ALNUM, target);
+                return 1;
+            case REOP_SPACE:
+            case REOP_NONSPACE:
+                emitCharTest("isSpace", op == REOP_SPACE, target);
+                return 1;
+            case REOP_FLAT1:
+            case REOP_FLAT1i:
+                emitCharEquals((char)(program[pc + 1] & 0xFF),
+                               op == REOP_FLAT1i, target);
+                return 1;
+            case REOP_UCFLAT1:
+            case REOP_UCFLAT1i:
+                emitCharEquals((char)getIndex(program, pc + 1),
+                               op == REOP_UCFLAT1i, target);
+                return 1;
+            case REOP_CLASS:
+            case REOP_NCLASS:
+                emitBoundsCheck(1, target);
+                cfw.addALoad(THIS);
+                cfw.addPush(getIndex(program, pc + 1));
+                emitCharAt(0);
+                cfw.addInvoke(ByteCode.INVOKEVIRTUAL, SUPER_CLASS, "inClass",
+                              "(IC)Z");
+                addJump(ByteCode.IFEQ, target);
+                return 1;
+            case REOP_FLAT:
+            case REOP_FLATi:
+            {
+                int offset = getIndex(program, pc + 1);
+                int length = getIndex(program, pc + 1 + INDEX_LEN);
+                boolean fold = op == REOP_FLATi;
+                emitBoundsCheck(length, target);
+                if (length <= MAX_INLINE_FLAT) {
+                    for (int i = 0; i < length; i++) {
+                        emitCharAt(i);
+                        cfw.addPush(re.source[offset + i]);
+                        if (fold) {
+                            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS,
+                                          "equalsIgnoreCase", "(CC)Z");
+                            addJump(ByteCode.IFEQ, target);
+                        } else {
+                            addJump(ByteCode.IF_ICMPNE, target);
+                        }
+                    }
+                } else {
+                    cfw.addALoad(THIS);
+                    cfw.addALoad(INPUT);
+                    cfw.addILoad(CP);
+                    cfw.addPush(offset);
+                    cfw.addPush(length);
+                    cfw.addPush(fold);
+                    cfw.addInvoke(ByteCode.INVOKEVIRTUAL, SUPER_CLASS, "flatMatches",
+                                  "(Ljava/lang/String;IIIZ)Z");
+                    addJump(ByteCode.IFEQ, target);
+                }
+                return length;
+            }
+            default:
+                // REOP_BACKREF and anything the interpreter handles specially
+                throw new Untranslatable();
+        }
+    }
+
+    /**
+     * Return the pc of the term following the simple term at pc.
+     */
+    private int nextTerm(int pc)
+    {
+        switch (program[pc]) {
+            case REOP_FLAT:
+            case REOP_FLATi:
+                return pc + 1 + 2 * INDEX_LEN;
+            case REOP_FLAT1:
+            case REOP_FLAT1i:
+                return pc + 2;
+            case REOP_UCFLAT1:
+            case REOP_UCFLAT1i:
+            case REOP_CLASS:
+            case REOP_NCLASS:
+            case REOP_BACKREF:
+                return pc + 1 + INDEX_LEN;
+            default:
+                if (!isSimple(program[pc])) {
+                    throw new Untranslatable();
+                }
+                return pc + 1;
+        }
+    }
+
+    private static boolean isSimple(int op)
+    {
+        return op >= REOP_SIMPLE_START && op <= REOP_SIMPLE_END;
+    }
+
+    private void emitBoundsCheck(int length, int target)
+    {
+        cfw.addILoad(CP);
+        if (length != 1) {
+            cfw.addPush(length - 1);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.addILoad(END);
+        addJump(ByteCode.IF_ICMPGE, target);
+    }
+
+    private void emitCharAt(int offset)
+    {
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        if (offset != 0) {
+            cfw.addPush(offset);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C");
+    }
+
+    private void emitCharTest(String predicate, boolean expected, int target)
+    {
+        emitBoundsCheck(1, target);
+        emitCharAt(0);
+        cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS, predicate, "(C)Z");
+        addJump(expected ? ByteCode.IFEQ : ByteCode.IFNE, target);
+    }
+
+    private void emitCharEquals(char c, boolean fold, int target)
+    {
+        emitBoundsCheck(1, target);
+        emitCharAt(0);
+        cfw.addPush(c);
+        if (fold) {
+            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS,
+                          "equalsIgnoreCase", "(CC)Z");
+            addJump(ByteCode.IFEQ, target);
+        } else {
+            addJump(ByteCode.IF_ICMPNE, target);
+        }
+    }
+
+    private void addJump(int op, int target)
+    {
+        if (target == failLabel) {
+            canFail = true;
+        }
+        cfw.add(op, target);
+    }
+
+    // ClassFileWriter only takes non-negative IINC operands
+    private void addDecrement(int local, int amount)
+    {
+        cfw.addILoad(local);
+        cfw.addPush(amount);
+        cfw.add(ByteCode.ISUB);
+        cfw.addIStore(local);
+    }
+
+    private int newResumePoint()
+    {
+        resumeLabels.add(Integer.valueOf(cfw.acquireLabel()));
+        return resumeLabels.size() - 1;
+    }
+
+    private void loadStackEntry(int field)
+    {
+        cfw.addALoad(STACK);
+        cfw.addILoad(SP);
+        if (field != 0) {
+            cfw.addPush(field);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.add(ByteCode.IALOAD);
+    }
+
+    private void storeStackEntry(int field)
+    {
+        cfw.addALoad(STACK);
+        cfw.addILoad(SP);
+        if (field != 0) {
+            cfw.addPush(field);
+            cfw.add(ByteCode.IADD);
+        }
+    }
+
+    /**
+     * Push a backtracking entry for the given id with the current CP and AUX.
+     */
+    private void pushEntry(int id)
+    {
+        storeStackEntry(0);
+        cfw.addPush(id);
+        cfw.add(ByteCode.IASTORE);
+        storeStackEntry(1);
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.IASTORE);
+        storeStackEntry(2);
+        cfw.addILoad(AUX);
+        cfw.add(ByteCode.IASTORE);
+        cfw.add(ByteCode.IINC, SP, 3);
+    }
+
+    private void pushEntryIfAbove(int id, int skipLabel)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(AUX);
+        cfw.add(ByteCode.IF_ICMPLE, skipLabel);
+        pushEntry(id);
+    }
+
+    private void pushEntryIfNotZero(int id, int skipLabel)
+    {
+        cfw.addILoad(AUX);
+        cfw.add(ByteCode.IFEQ, skipLabel);
+        pushEntry(id);
+    }
+
+    /**
+     * Emit code clearing the captures that start after pc, which may have
+     * been set on the path that failed back to a point there.
+     */
+    private void clearParensAfter(int pc)
+    {
+        int p = pc;
+        while (program[p] != REOP_END) {
+            int op = program[p];
+            if (op == REOP_LPAREN) {
+                cfw.addALoad(PARENS);
+                cfw.addPush(getIndex(program, p + 1));
+                cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS, "clearParen",
+                              "([JI)V");
+            }
+            p += opLength(p);
+        }
+    }
+
+    /**
+     * Return the length of the instruction at pc, counting the children of
+     * quantifiers, assertions and alternatives as instructions of their own.
+     */
+    private int opLength(int pc)
+    {
+        switch (program[pc]) {
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                return 1 + 3 * INDEX_LEN;
+            case REOP_ALT:
+            case REOP_JUMP:
+            case REOP_LPAREN:
+            case REOP_RPAREN:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                return 1 + INDEX_LEN;
+            case REOP_STAR:
+            case REOP_PLUS:
+            case REOP_OPT:
+            case REOP_MINIMALSTAR:
+            case REOP_MINIMALPLUS:
+            case REOP_MINIMALOPT:
+                return 1 + 3 * INDEX_LEN;
+            case REOP_QUANT:
+            case REOP_MINIMALQUANT:
+                return 1 + 5 * INDEX_LEN;
+            case REOP_ENDCHILD:
+            case REOP_ASSERTTEST:
+            case REOP_ASSERTNOTTEST:
+                return 1;
+            default:
+                return nextTerm(pc) - pc;
+        }
+    }
+}
@@ -91,6 +91,12 @@ public class RegExpImpl implements RegExpProxy {
                 data.charBuf = null;
                 data.leftIndex = 0;
 
+                if (useRE && lambda == null && data.dollar < 0
+                    && (re.getFlags() & NativeRegExp.JSREG_GLOB) != 0)
+                {
+                    return re.replaceGlobal(cx, this, data.str, repstr);
+                }
+
                 Object val;
                 if (useRE) {
                     val = matchOrReplace(cx, scope, thisObj, args,
@@ -166,11 +172,12 @@ public class RegExpImpl implements RegExpProxy {
     {
         String str = data.str;
         data.global = (re.getFlags() & NativeRegExp.JSREG_GLOB) != 0;
+        boolean sticky = (re.getFlags() & NativeRegExp.JSREG_STICKY) != 0;
         int[] indexp = { 0 };
         Object result = null;
         if (data.mode == RA_SEARCH) {
             result = re.executeRegExp(cx, scope, reImpl,
-                                      str, indexp, NativeRegExp.TEST);
+                                      str, indexp, NativeRegExp.TEST, sticky);
             if (result != null && result.equals(Boolean.TRUE))
                 result = Integer.valueOf(reImpl.leftContext.length);
             else
@@ -178,8 +185,10 @@ public class RegExpImpl implements RegExpProxy {
         } else if (data.global) {
             re.lastIndex = 0d;
             for (int count = 0; indexp[0] <= str.length(); count++) {
+                // A sticky match must start where the last one ended
                 result = re.executeRegExp(cx, scope, reImpl,
-                                          str, indexp, NativeRegExp.TEST);
+                                          str, indexp, NativeRegExp.TEST,
+                                          sticky);
                 if (result == null || !result.equals(Boolean.TRUE))
                     break;
                 if (data.mode == RA_MATCH) {
@@ -198,6 +207,18 @@ public class RegExpImpl implements RegExpProxy {
                     indexp[0]++;
                 }
             }
+        } else if (sticky) {
+            // As for exec(), only a match at lastIndex counts, and it moves
+            // lastIndex past the match
+            double d = ScriptRuntime.toInteger(re.lastIndex);
+            if (d >= 0 && d <= str.length()) {
+                indexp[0] = (int)d;
+                result = re.executeRegExp(cx, scope, reImpl, str, indexp,
+                                          ((data.mode == RA_REPLACE)
+                                           ? NativeRegExp.TEST
+                                           : NativeRegExp.MATCH), true);
+            }
+            re.lastIndex = (result == null) ? 0d : (double)indexp[0];
         } else {
             result = re.executeRegExp(cx, scope, reImpl, str, indexp,
                                       ((data.mode == RA_REPLACE)
@@ -565,13 +586,28 @@ public class RegExpImpl implements RegExpProxy {
             matchlen[0] = separator.length();
         }
 
+        int version = cx.getLanguageVersion();
+        if (version == Context.VERSION_DEFAULT
+            || version >= Context.VERSION_1_3)
+        {
+            NativeRegExp literalRE = null;
+            String literal = separator;
+            if (re instanceof NativeRegExp && reProxy == this) {
+                literalRE = (NativeRegExp) re;
+                literal = literalRE.getLiteral();
+            }
+            if (literal != null && literal.length() > 0) {
+                return split_literal(cx, scope, target, literal, literalRE,
+                                     limited ? limit : Long.MAX_VALUE);
+            }
+        }
+
         // split target with separator or re
         int[] ip = { 0 };
         int match;
         int len = 0;
         boolean[] matched = { false };
         String[][] parens = { null };
-        int version = cx.getLanguageVersion();
         while ((match = find_split(cx, scope, target, separator, version,
                                    reProxy, re, ip, matchlen, matched, parens))
                >= 0)
@@ -618,6 +654,44 @@ public class RegExpImpl implements RegExpProxy {
         return result;
     }
 
+    /*
+     * Split target on each occurrence of the non-empty separator with
+     * indexOf, as js_split does for ECMA versions. If the separator is the
+     * literal of re, the occurrence js_split would have stopped at updates
+     * the statics, so re is never run.
+     */
+    private Scriptable split_literal(Context cx, Scriptable scope,
+                                     String target, String separator,
+                                     NativeRegExp re, long limit)
+    {
+        Scriptable result = cx.newArray(scope, 0);
+        int len = 0;
+        int length = target.length();
+        int i = 0;
+        int lastStart = 0;
+        int lastMatch = -1;
+        for (;;) {
+            int match = target.indexOf(separator, i);
+            if (match >= 0) {
+                lastStart = i;
+                lastMatch = match;
+            }
+            if (len >= limit) {
+                break;
+            }
+            if (match < 0) {
+                result.put(len, result, target.substring(i, length));
+                break;
+            }
+            result.put(len++, result, target.substring(i, match));
+            i = match + separator.length();
+        }
+        if (re != null && lastMatch >= 0) {
+            re.setLiteralMatch(cx, this, target, lastStart, lastMatch);
+        }
+        return result;
+    }
+
     /*
      * Used by js_split to find the next split point in target,
      * starting at offset ip and looking either for the given
@@ -0,0 +1,39 @@
+function createArray(size) {
+  var a = [];
+  for (var i = 0; i < size; i++) {
+    a.push(i);
+  }
+  return a;
+}
+
+function forEachArray(iterations, a) {
+  var s = 0;
+  for (var ct = 0; ct < iterations; ct++) {
+    a.forEach(function(x) { s += x; });
+  }
+  return s;
+}
+
+function mapArray(iterations, a) {
+  var r;
+  for (var ct = 0; ct < iterations; ct++) {
+    r = a.map(function(x) { return x + 1; });
+  }
+  return r;
+}
+
+function filterArray(iterations, a) {
+  var r;
+  for (var ct = 0; ct < iterations; ct++) {
+    r = a.filter(function(x) { return (x & 1) == 0; });
+  }
+  return r;
+}
+
+function reduceArray(iterations, a) {
+  var r;
+  for (var ct = 0; ct < iterations; ct++) {
+    r = a.reduce(function(p, x) { return p + x; }, 0);
+  }
+  return r;
+}
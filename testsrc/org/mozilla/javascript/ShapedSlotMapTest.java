@@ -0,0 +1,106 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ShapedSlotMapTest extends TestCase {
+
+    private static ShapedSlotMap build(String... keys) {
+        ShapedSlotMap map = new ShapedSlotMap();
+        for (String key : keys) {
+            map.get(key, 0, ScriptableObject.SlotAccess.MODIFY).value = key.toUpperCase();
+        }
+        return map;
+    }
+
+    private static List<Object> keysOf(SlotMap map) {
+        List<Object> keys = new ArrayList<Object>();
+        for (ScriptableObject.Slot slot : map) {
+            keys.add(slot.name);
+        }
+        return keys;
+    }
+
+    public void testSameLayoutSharesShape() {
+        ShapedSlotMap m1 = build("x", "y", "z");
+        ShapedSlotMap m2 = build("x", "y", "z");
+        assertSame(m1.getShape(), m2.getShape());
+        assertEquals(2, m1.getShape().indexOf("z"));
+        assertNotSame(m1.getSlotAt(2), m2.getSlotAt(2));
+
+        ShapedSlotMap m3 = build("y", "x", "z");
+        assertNotSame(m1.getShape(), m3.getShape());
+    }
+
+    public void testQuery() {
+        ShapedSlotMap map = build("a", "b");
+        assertEquals("A", map.query("a", 0).value);
+        assertEquals("B", map.query(new String("b"), 0).value);
+        assertNull(map.query("c", 0));
+        assertNull(map.query(null, 0));
+        assertEquals(2, map.size());
+    }
+
+    public void testRemoveKeepsOrder() {
+        ShapedSlotMap map = build("a", "b", "c", "d");
+        map.remove("b", 0);
+        assertEquals(3, map.size());
+        assertNull(map.query("b", 0));
+        assertEquals("C", map.query("c", 0).value);
+        assertEquals(java.util.Arrays.asList((Object) "a", "c", "d"), keysOf(map));
+        assertSame(build("a", "c", "d").getShape(), map.getShape());
+    }
+
+    public void testAccessorConversionKeepsShape() {
+        ShapedSlotMap map = build("a", "b");
+        Shape before = map.getShape();
+        ScriptableObject.Slot slot = map.get("a", 0,
+            ScriptableObject.SlotAccess.MODIFY_GETTER_SETTER);
+        assertTrue(slot instanceof ScriptableObject.GetterSlot);
+        assertSame(before, map.getShape());
+        assertSame(slot, map.query("a", 0));
+    }
+
+    public void testContainerSwitchesToDictionary() {
+        SlotMapContainer container = new SlotMapContainer(0);
+        container.get("a", 0, ScriptableObject.SlotAccess.MODIFY);
+        assertTrue(container.map instanceof ShapedSlotMap);
+
+        container.get(null, 5, ScriptableObject.SlotAccess.MODIFY);
+        assertTrue(container.map instanceof EmbeddedSlotMap);
+        assertNotNull(container.query("a", 0));
+        assertNotNull(container.query(null, 5));
+    }
+
+    public void testContainerSwitchesWhenTooLarge() {
+        SlotMapContainer container = new SlotMapContainer(0);
+        for (int i = 0; i < Shape.MAX_PROPERTIES; i++) {
+            container.get("p" + i, 0, ScriptableObject.SlotAccess.MODIFY);
+        }
+        assertTrue(container.map instanceof ShapedSlotMap);
+        container.get("last", 0, ScriptableObject.SlotAccess.MODIFY);
+        assertTrue(container.map instanceof EmbeddedSlotMap);
+        assertEquals(Shape.MAX_PROPERTIES + 1, container.size());
+        assertEquals("p0", keysOf(container).get(0));
+        assertEquals("last", keysOf(container).get(Shape.MAX_PROPERTIES));
+    }
+
+    public void testUnusedChildShapeCanBeCollected() {
+        Shape parent = Shape.EMPTY.addProperty("unusedChildParent");
+        WeakReference<Shape> child = new WeakReference<Shape>(parent.addProperty("x"));
+        // Following the transition again makes it the most recent one
+        assertSame(child.get(), parent.addProperty("x"));
+        for (int i = 0; i < 100 && child.get() != null; i++) {
+            System.gc();
+        }
+        assertNull(child.get());
+        assertEquals(2, parent.addProperty("x").size());
+    }
+}
@@ -0,0 +1,259 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+public class TieredCompilationTest extends TestCase {
+
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        cx.setOptimizationLevel(9);
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        cx.setTieredCompilationThreshold(50);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private Object eval(String source) {
+        return cx.evaluateString(scope, source, "test.js", 1, null);
+    }
+
+    private InterpretedFunction function(String name) {
+        return (InterpretedFunction) scope.get(name, scope);
+    }
+
+    public void testHotFunctionIsCompiled() {
+        long count = cx.getFactory().getCompilationCount();
+        eval("function add(a, b) { return a + b; }\n"
+             + "function cold() { return 1; }\n"
+             + "var sum = 0;\n"
+             + "for (var i = 0; i < 200; i++) { sum = add(sum, i); }\n"
+             + "cold();");
+        assertEquals(19900, ((Number) scope.get("sum", scope)).intValue());
+        NativeFunction compiled = function("add").getCompiledFunction(cx);
+        assertNotNull(compiled);
+        assertFalse(compiled instanceof InterpretedFunction);
+        assertSame(compiled, function("add").getCompiledFunction(cx));
+        assertNull(function("cold").getCompiledFunction(cx));
+        assertEquals(count + 1, cx.getFactory().getCompilationCount());
+    }
+
+    public void testLoopMakesFunctionHot() {
+        eval("function loop(n) { var s = 0; for (var i = 0; i < n; i++) { s += i; } return s; }\n"
+             + "loop(100);");
+        assertNotNull(function("loop").getCompiledFunction(cx));
+        assertEquals(4950, ((Number) eval("loop(100)")).intValue());
+    }
+
+    public void testClosuresShareState() {
+        Object result = eval(
+            "function counter() { var n = 0; return function() { return ++n; }; }\n"
+            + "var c1 = counter(), c2 = counter();\n"
+            + "for (var i = 0; i < 100; i++) { c1(); }\n"
+            + "c2();\n"
+            + "var r = [c1(), c2()];\n"
+            + "for (var i = 0; i < 100; i++) { c2(); }\n"
+            + "r.push(c2(), counter()());\n"
+            + "r.join()");
+        assertEquals("101,2,103,1", Context.toString(result));
+    }
+
+    public void testNestedFunctionsAreMatched() {
+        Object result = eval(
+            "function a() { function b() { return 'b'; } function c() { return 'c'; } return b() + c(); }\n"
+            + "function d() { return (function() { return 'e'; })() + 'd'; }\n"
+            + "var r;\n"
+            + "for (var i = 0; i < 100; i++) { r = [a(), d()]; }\n"
+            + "r.join()");
+        assertEquals("bc,ed", Context.toString(result));
+        assertNotNull(function("a").getCompiledFunction(cx));
+    }
+
+    public void testConstructors() {
+        Object result = eval(
+            "function P(x) { this.x = x; }\n"
+            + "P.prototype.get = function() { return this.x; };\n"
+            + "var p;\n"
+            + "for (var i = 0; i < 100; i++) { p = new P(i); }\n"
+            + "[p instanceof P, p.get(), p.constructor === P].join()");
+        assertEquals("true,99,true", Context.toString(result));
+    }
+
+    public void testFunctionKeepsIdentityWhenCompiled() {
+        Object result = eval(
+            "function f() { var c = arguments.callee; c.n = (c.n || 0) + 1; return c === f && c.n; }\n"
+            + "var g = function h() { return h === g; };\n"
+            + "function a(x) { return a.arguments[0]; }\n"
+            + "var wrong = [];\n"
+            + "for (var i = 0; i < 200; i++) {\n"
+            + "  if (f() !== i + 1) wrong.push('f' + i);\n"
+            + "  if (g() !== true) wrong.push('g' + i);\n"
+            + "  if (a(i) !== i) wrong.push('a' + i);\n"
+            + "}\n"
+            + "wrong.join()");
+        assertEquals("", Context.toString(result));
+        assertNotNull(function("f").getCompiledFunction(cx));
+        assertNotNull(function("a").getCompiledFunction(cx));
+    }
+
+    public void testCompiledFunction() {
+        Function f = cx.compileFunction(scope,
+            "function twice(x) { return 2 * x; }", "test.js", 1, null);
+        Object r = null;
+        for (int i = 0; i < 100; i++) {
+            r = f.call(cx, scope, scope, new Object[] { Integer.valueOf(i) });
+        }
+        assertEquals(198, ((Number) r).intValue());
+        assertNotNull(((InterpretedFunction) f).getCompiledFunction(cx));
+    }
+
+    public void testDisabledByDefault() {
+        cx.setTieredCompilationThreshold(0);
+        eval("function f() { return 1; }");
+        assertFalse(scope.get("f", scope) instanceof InterpretedFunction);
+    }
+
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private static void runInOwnThread(final Check check) throws Throwable {
+        // Use a thread of our own, so that no Context is already entered
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    check.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    public void testBackgroundCompilation() throws Throwable {
+        runInOwnThread(this::checkBackgroundCompilation);
+    }
+
+    public void testLinkageErrorLeavesFunctionInterpreted() throws Throwable {
+        runInOwnThread(this::checkLinkageError);
+    }
+
+    private void checkLinkageError() {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected GeneratedClassLoader createClassLoader(ClassLoader parent) {
+                return new DefiningClassLoader(parent) {
+                    @Override
+                    public Class<?> defineClass(String name, byte[] data) {
+                        throw new ClassFormatError("rejected " + name);
+                    }
+                };
+            }
+        };
+        Context lecx = factory.enterContext();
+        try {
+            lecx.setOptimizationLevel(9);
+            lecx.setTieredCompilationThreshold(50);
+            Scriptable lescope = lecx.initStandardObjects();
+            Object result = lecx.evaluateString(lescope,
+                "function f(x) { return x * 2; }\n"
+                + "var s = 0; for (var i = 0; i < 200; i++) { s += f(i); }\n"
+                + "s", "test.js", 1, null);
+            assertEquals(39800, ((Number) result).intValue());
+            InterpretedFunction f = (InterpretedFunction) lescope.get("f", lescope);
+            // A failed compilation is dropped so that it is never retried
+            assertNull(f.idata.itsTiering);
+            assertNull(f.getCompiledFunction(lecx));
+            assertEquals(1, factory.getCompilationCount());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private void checkBackgroundCompilation() throws InterruptedException {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        ContextFactory factory = new ContextFactory();
+        factory.setCompilationExecutor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        Context bgcx = factory.enterContext();
+        try {
+            bgcx.setOptimizationLevel(9);
+            bgcx.setTieredCompilationThreshold(50);
+            final Thread owner = Thread.currentThread();
+            final boolean[] readElsewhere = new boolean[1];
+            // The scope belongs to this thread, so compiling must not read it
+            Scriptable bgscope = bgcx.initStandardObjects(new NativeObject() {
+                @Override
+                public Object get(String name, Scriptable start) {
+                    if (Thread.currentThread() != owner) {
+                        readElsewhere[0] = true;
+                    }
+                    return super.get(name, start);
+                }
+            });
+            String source = "function f(x) { return x * 2; }\n"
+                            + "for (var i = 0; i < 100; i++) { f(i); }\n"
+                            + "f(99)";
+            bgcx.evaluateString(bgscope, source, "test.js", 1, null);
+            InterpretedFunction f = (InterpretedFunction) bgscope.get("f", bgscope);
+            assertEquals(1, tasks.size());
+            assertEquals(1, factory.getCompilationQueueDepth());
+            assertNull(f.getCompiledFunction(bgcx));
+
+            Thread worker = new Thread(tasks.get(0));
+            worker.start();
+            worker.join();
+            assertEquals(0, factory.getCompilationQueueDepth());
+            assertEquals(1, factory.getCompilationCount());
+            assertTrue(factory.getCompilationTime() > 0);
+
+            assertNotNull(f.getCompiledFunction(bgcx));
+            assertEquals(198, ((Number) f.call(bgcx, bgscope, bgscope,
+                new Object[] { Integer.valueOf(99) })).intValue());
+            assertEquals(1, tasks.size());
+
+            // Likewise for a function compiled on its own
+            Function g = bgcx.compileFunction(bgscope,
+                "function g(x) { var s = 0; for (var i = 0; i < 100; i++) { s += x; } return s; }",
+                "g.js", 1, null);
+            g.call(bgcx, bgscope, bgscope, new Object[] { Integer.valueOf(1) });
+            g.call(bgcx, bgscope, bgscope, new Object[] { Integer.valueOf(1) });
+            assertEquals(2, tasks.size());
+            worker = new Thread(tasks.get(1));
+            worker.start();
+            worker.join();
+            assertEquals(2, factory.getCompilationCount());
+            assertFalse(readElsewhere[0]);
+            assertEquals(200, ((Number) g.call(bgcx, bgscope, bgscope,
+                new Object[] { Integer.valueOf(2) })).intValue());
+        } finally {
+            Context.exit();
+        }
+    }
+}
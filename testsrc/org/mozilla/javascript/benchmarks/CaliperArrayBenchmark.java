@@ -0,0 +1,98 @@
+package org.mozilla.javascript.benchmarks;
+
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.tools.shell.Global;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+@SuppressWarnings("unused")
+public class CaliperArrayBenchmark
+{
+    static void runCode(Context cx, Scriptable scope, String fileName)
+        throws IOException
+    {
+        FileReader rdr = new FileReader(fileName);
+        try {
+            cx.evaluateReader(scope, rdr, "test.js", 1, null);
+        } finally {
+            rdr.close();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static class Iteration
+    {
+        @Param("1000") int size;
+        @Param("9") int optLevel;
+
+        private Context cx;
+        private Scriptable scope;
+
+        private Object array;
+
+        @BeforeExperiment
+        @SuppressWarnings("unused")
+        void create()
+            throws IOException
+        {
+            cx = Context.enter();
+            cx.setOptimizationLevel(optLevel);
+            cx.setLanguageVersion(Context.VERSION_ES6);
+
+            scope = new Global(cx);
+            runCode(cx, scope, "testsrc/benchmarks/caliper/arrayTests.js");
+
+            array = call("createArray", size);
+        }
+
+        @AfterExperiment
+        @SuppressWarnings("unused")
+        void close()
+        {
+            Context.exit();
+        }
+
+        private Object call(String name, Object... args)
+        {
+            Function f = (Function)ScriptableObject.getProperty(scope, name);
+            return f.call(cx, scope, null, args);
+        }
+
+        @Benchmark
+        @SuppressWarnings("unused")
+        void forEach(int count)
+        {
+            call("forEachArray", count, array);
+        }
+
+        @Benchmark
+        @SuppressWarnings("unused")
+        void map(int count)
+        {
+            call("mapArray", count, array);
+        }
+
+        @Benchmark
+        @SuppressWarnings("unused")
+        void filter(int count)
+        {
+            call("filterArray", count, array);
+        }
+
+        @Benchmark
+        @SuppressWarnings("unused")
+        void reduce(int count)
+        {
+            call("reduceArray", count, array);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.mozilla.javascript.tests.Utils.assertEvaluatesTo;
+
+import junit.framework.TestCase;
+
+/**
+ * The iteration methods of arrays reuse one arguments array for callbacks
+ * that cannot refer to it after returning; check that the other callbacks
+ * still see the arguments of each call.
+ */
+public class ArrayIterationTest extends TestCase {
+
+    public void testIterativeMethods() {
+        assertEvaluatesTo("2,4,6|2|true|false|3|1|0", "var a = [1, 2, 3];"
+            + " [a.map(function(x) { return x * 2; }), a.filter(function(x, i) { return i == 1; }),"
+            + " a.every(function(x, i, o) { return o === a; }), a.some(function(x) { return x > 3; }),"
+            + " a.find(function(x) { return x > 2; }), a.findIndex(function(x) { return x == 2; }),"
+            + " a.reduceRight(function(p, x) { return p - x; })].join('|')");
+    }
+
+    public void testArgumentsAreKept() {
+        assertEvaluatesTo("1:0,2:1,3:2", "var saved = [];"
+            + " [1, 2, 3].forEach(function() { saved.push(arguments); });"
+            + " saved.map(function(x) { return x[0] + ':' + x[1]; }).join()");
+        assertEvaluatesTo("1:0,2:1,3:2", "var saved = [];"
+            + " [1, 2, 3].reduce(function() { saved.push(arguments); return 0; }, 0);"
+            + " saved.map(function(x) { return x[1] + ':' + x[2]; }).join()");
+        assertEvaluatesTo("0,1,2", "var fns = [1, 2, 3].map(function(x, i) { return function() { return i; }; });"
+            + " fns.map(function(f) { return f(); }).join()");
+    }
+
+    public void testNestedCalls() {
+        assertEvaluatesTo("1-1,1-2,2-1,2-2", "var a = [1, 2], r = [];"
+            + " a.forEach(function(x) { a.forEach(function(y) { r.push(x + '-' + y); }); }); r.join()");
+        assertEvaluatesTo("10", "[1, 2, 3, 4].reduce(function(p, x) { return p + [x].reduce(function(q, y) { return q + y; }, 0); }, 0)");
+    }
+}
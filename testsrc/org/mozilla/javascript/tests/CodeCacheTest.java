@@ -0,0 +1,132 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mozilla.javascript.CodeCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+public class CodeCacheTest {
+
+    private static final String SOURCE =
+        "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+        + "var words = 'a1 b22 c333'.match(/[a-z]\\d+/g);\n"
+        + "fib(10) + ':' + words.join('|')";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String run(final CodeCache cache, final int optimizationLevel,
+                              final String source) {
+        // Use a thread of our own, so that no Context is already entered
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    ContextFactory factory = new ContextFactory();
+                    factory.setCodeCache(cache);
+                    Context cx = factory.enterContext();
+                    try {
+                        cx.setOptimizationLevel(optimizationLevel);
+                        Scriptable scope = cx.initStandardObjects();
+                        Script script = cx.compileString(source, "test.js", 1, null);
+                        return Context.toString(script.exec(cx, scope));
+                    } finally {
+                        Context.exit();
+                    }
+                }
+            }).get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void checkRoundTrip(int optimizationLevel) throws IOException {
+        File dir = folder.newFolder();
+        CodeCache first = new CodeCache(dir);
+        assertEquals("55:a1|b22|c333", run(first, optimizationLevel, SOURCE));
+        assertEquals(0, first.getHitCount());
+        assertEquals(1, first.getMissCount());
+        assertEquals(1, dir.list().length);
+
+        // A new cache on the same directory, as after a restart
+        CodeCache second = new CodeCache(dir);
+        assertEquals("55:a1|b22|c333", run(second, optimizationLevel, SOURCE));
+        assertEquals(1, second.getHitCount());
+        assertEquals(0, second.getMissCount());
+    }
+
+    @Test
+    public void compiledScripts() throws IOException {
+        checkRoundTrip(9);
+    }
+
+    @Test
+    public void interpretedScripts() throws IOException {
+        checkRoundTrip(-1);
+    }
+
+    @Test
+    public void settingsAndSourceAreKeys() throws IOException {
+        File dir = folder.newFolder();
+        CodeCache cache = new CodeCache(dir);
+        run(cache, 0, SOURCE);
+        run(cache, 9, SOURCE);
+        run(cache, -1, SOURCE);
+        assertEquals("3", run(cache, 9, "1 + 2"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, dir.list().length);
+
+        cache.clear();
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void damagedFilesAreMisses() throws IOException {
+        File dir = folder.newFolder();
+        CodeCache cache = new CodeCache(dir);
+        run(cache, 9, SOURCE);
+        File entry = dir.listFiles()[0];
+        byte[] bytes = Files.readAllBytes(entry.toPath());
+        Files.write(entry.toPath(), java.util.Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertEquals("55:a1|b22|c333", run(cache, 9, SOURCE));
+        assertEquals(0, cache.getHitCount());
+        assertEquals("55:a1|b22|c333", run(cache, 9, SOURCE));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void engineIsIdentifiedWithoutManifest() throws IOException {
+        File dir = folder.newFolder();
+        run(new CodeCache(dir), 9, SOURCE);
+        String entry = new String(Files.readAllBytes(dir.listFiles()[0].toPath()),
+                                  StandardCharsets.ISO_8859_1);
+        // The test classes are not in a release jar, so the engine
+        // classes themselves must identify the build
+        assertTrue(entry, entry.contains("sha256:"));
+        assertFalse(entry, entry.contains("null;lang="));
+    }
+}
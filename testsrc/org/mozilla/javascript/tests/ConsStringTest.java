@@ -43,4 +43,141 @@ public class ConsStringTest extends TestCase {
             recurseAndAppend(depth-1);
         }
     }
+
+    public void testAppendsShareBuffer() {
+        ConsString base = new ConsString(new ConsString("abcdefghijklmnopqrstuvwxyz", "0123456789"), "!");
+        ConsString first = new ConsString(base, "first");
+        // Appending to base again must not clobber first
+        ConsString second = new ConsString(base, "second");
+        ConsString third = new ConsString(first, first);
+
+        assertEquals("abcdefghijklmnopqrstuvwxyz0123456789!", base.toString());
+        assertEquals("abcdefghijklmnopqrstuvwxyz0123456789!first", first.toString());
+        assertEquals("abcdefghijklmnopqrstuvwxyz0123456789!second", second.toString());
+        assertEquals(first.toString() + first.toString(), third.toString());
+        assertEquals('f', first.charAt(37));
+        assertEquals("second", second.subSequence(37, 43));
+        // A flattened string can still be appended to
+        assertEquals("abcdefghijklmnopqrstuvwxyz0123456789!firstX", new ConsString(first, "X").toString());
+
+        try {
+            base.charAt(base.length());
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            base.subSequence(0, base.length() + 1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testAppendToSamePrefixManyTimes() {
+        CharSequence prefix = "";
+        for (int i = 0; i < 10000; i++) {
+            prefix = new ConsString(prefix, "0123456789");
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        ConsString[] appended = new ConsString[3000];
+        for (int i = 0; i < appended.length; i++) {
+            appended[i] = new ConsString(prefix, Integer.toString(i));
+        }
+        System.gc();
+        final long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        // Copying the 100 KB prefix for each of them would take 300 MB
+        assertTrue(used / 1024 + " KB", used < 32L * 1024 * 1024);
+
+        assertEquals(100001, appended[0].length());
+        assertEquals('0', appended[0].charAt(100000));
+        assertEquals("9" + "2999", appended[2999].subSequence(99999, 100004));
+        assertEquals(prefix.toString() + "1234", appended[1234].toString());
+        assertEquals(prefix.toString() + "1234!", new ConsString(appended[1234], "!").toString());
+    }
+
+    public void testAppendToConcatenatedPrefixManyTimes() {
+        char[] half = new char[200000];
+        java.util.Arrays.fill(half, 'x');
+        ConsString base = new ConsString(new String(half), new String(half));
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        ConsString[] appended = new ConsString[2000];
+        for (int i = 0; i < appended.length; i++) {
+            appended[i] = new ConsString(base, Integer.toString(i));
+        }
+        System.gc();
+        final long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        // Copying the 400 KB prefix for each of them would take 1 GB
+        assertTrue(used / 1024 + " KB", used < 32L * 1024 * 1024);
+
+        assertEquals(400004, appended[1999].length());
+        assertEquals("x1999", appended[1999].subSequence(399999, 400004));
+        assertEquals(base.toString() + "1234", appended[1234].toString());
+    }
+
+    public void testFlattenReleasesBuffer() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        ConsString[] flattened = new ConsString[8];
+        for (int n = 0; n < flattened.length; n++) {
+            CharSequence current = "";
+            for (int i = 0; i < 100000; i++) {
+                current = new ConsString(current, "0123456789");
+            }
+            flattened[n] = (ConsString) current;
+            assertEquals(-1, flattened[n].toString().indexOf("zz"));
+        }
+        System.gc();
+        final long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        // A flat 1 MB string each, rather than that plus a buffer of 1 to 2 MB
+        assertTrue(used / 1024 + " KB", used < 12L * 1024 * 1024);
+
+        ConsString last = flattened[flattened.length - 1];
+        assertEquals('9', last.charAt(999999));
+        assertEquals("90", last.subSequence(9, 11));
+        ConsString appended = new ConsString(new ConsString(last, "ab"), "cd");
+        assertEquals(1000004, appended.length());
+        assertEquals("89abcd", appended.subSequence(999998, 1000004));
+        assertEquals(last.toString() + "abcd", appended.toString());
+    }
+
+    public void testLongAppendAndPrepend() {
+        StringBuilder expected = new StringBuilder();
+        CharSequence appended = "";
+        CharSequence prepended = "";
+        for (int i = 0; i < 100000; i++) {
+            String piece = Integer.toString(i);
+            expected.append(piece);
+            appended = new ConsString(appended, piece);
+            prepended = new ConsString(piece, prepended);
+            if (i % 10000 == 0) {
+                assertEquals(expected.charAt(expected.length() / 2), appended.charAt(expected.length() / 2));
+            }
+        }
+        assertEquals(expected.toString(), appended.toString());
+        assertEquals(expected.length(), prepended.length());
+        assertEquals(expected.substring(1000, 2000), appended.subSequence(1000, 2000).toString());
+    }
+
+    public void testAppendWideCharacters() {
+        ConsString narrow = new ConsString(new ConsString("abcdefghijklmnopqrstuvwxyz", "\u00e9\u00ff"), "!");
+        ConsString wide = new ConsString(narrow, "\u20ac");
+        ConsString narrowAgain = new ConsString(narrow, "\u00e0");
+        ConsString wider = new ConsString(wide, narrowAgain);
+
+        assertEquals("abcdefghijklmnopqrstuvwxyz\u00e9\u00ff!", narrow.toString());
+        assertEquals("abcdefghijklmnopqrstuvwxyz\u00e9\u00ff!\u20ac", wide.toString());
+        assertEquals("abcdefghijklmnopqrstuvwxyz\u00e9\u00ff!\u00e0", narrowAgain.toString());
+        assertEquals(wide.toString() + narrowAgain.toString(), wider.toString());
+        assertEquals('\u00ff', narrow.charAt(27));
+        assertEquals('\u20ac', wide.charAt(29));
+        assertEquals("\u00ff!\u20ac", wide.subSequence(27, 30));
+        assertEquals("\u00e9\u00ff", narrow.subSequence(26, 28));
+        assertEquals("\u20ac!", new ConsString(new ConsString(wide, "!"), "").subSequence(29, 31));
+    }
 }
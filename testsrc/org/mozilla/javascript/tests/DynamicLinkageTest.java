@@ -0,0 +1,207 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+import org.mozilla.javascript.Callable;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.DynamicLinker;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks that scripts compiled with invokedynamic call sites behave exactly like
+ * scripts compiled without them.
+ */
+public class DynamicLinkageTest {
+
+    private static final ContextFactory factory = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_DYNAMIC_LINKAGE) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private static String eval(String script) {
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(9);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            return Context.toString(
+                cx.evaluateString(scope, script, "test.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void propertySites() {
+        assertEquals("60", eval(
+            "function P(x) { this.x = x; }\n"
+            + "var sum = 0;\n"
+            + "for (var i = 1; i <= 3; i++) { var p = new P(i * 10); sum += p.x; }\n"
+            + "sum"));
+    }
+
+    @Test
+    public void polymorphicAndMegamorphicSites() {
+        assertEquals("1,2,3,4,5,6,7", eval(
+            "var objs = [{a: 1}, {b: 0, a: 2}, {c: 0, a: 3}, {d: 0, a: 4},\n"
+            + "            {e: 0, a: 5}, {f: 0, a: 6}, {g: 0, a: 7}];\n"
+            + "var r = [];\n"
+            + "for (var n = 0; n < 3; n++) {\n"
+            + "  r = [];\n"
+            + "  for (var i = 0; i < objs.length; i++) { r.push(objs[i].a); }\n"
+            + "}\n"
+            + "r.join()"));
+    }
+
+    @Test
+    public void shapeChangesAndAccessors() {
+        assertEquals("1,undefined,3,got", eval(
+            "function get(o) { return o.x; }\n"
+            + "var o = {x: 1, y: 2};\n"
+            + "var r = [get(o)];\n"
+            + "delete o.x;\n"
+            + "r.push(typeof get(o));\n"
+            + "o.x = 3;\n"
+            + "r.push(get(o));\n"
+            + "Object.defineProperty(o, 'x', { get: function() { return 'got'; } });\n"
+            + "r.push(get(o));\n"
+            + "r.join()"));
+    }
+
+    @Test
+    public void readOnlyAndFrozenObjects() {
+        assertEquals("1,1,2,15", eval(
+            "function set(o, v) { o.x = v; }\n"
+            + "var a = {x: 0}, b = {x: 0}, c = {x: 0};\n"
+            + "set(a, 1); set(b, 1); set(c, 1);\n"
+            + "Object.defineProperty(a, 'x', {writable: false});\n"
+            + "Object.freeze(b);\n"
+            + "set(a, 2); set(b, 2); set(c, 2);\n"
+            + "var o = {n: 0};\n"
+            + "for (var i = 1; i <= 5; i++) { o.n += i; }\n"
+            + "[a.x, b.x, c.x, o.n].join()"));
+    }
+
+    @Test
+    public void addSites() {
+        assertEquals("3,ab,1b,a2,[object Object]1,3", eval(
+            "function add(a, b) { return a + b; }\n"
+            + "[add(1, 2), add('a', 'b'), add(1, 'b'), add('a', 2),\n"
+            + " add({}, 1), add(1, 2)].join()"));
+    }
+
+    @Test
+    public void nameSites() {
+        assertEquals("1,2,undefined", eval(
+            "var g = 1;\n"
+            + "function read() { return g; }\n"
+            + "var r = [read()];\n"
+            + "g = 2;\n"
+            + "r.push(read());\n"
+            + "r.push(typeof notDefinedAnywhere);\n"
+            + "r.join()"));
+    }
+
+    @Test
+    public void callSites() {
+        assertEquals("3,3,-1,x,0,1,old,TypeError", eval(
+            "function plus(a, b) { return a + b; }\n"
+            + "function minus(a, b) { return a - b; }\n"
+            + "var o = {x: 'x', m: function() { return this.x; }};\n"
+            + "function apply(f, a, b) { return f(a, b); }\n"
+            + "var r = [apply(plus, 1, 2), apply(plus, 1, 2), apply(minus, 1, 2)];\n"
+            + "r.push(o.m());\n"
+            + "var h = function() { return 'old'; };\n"
+            + "r.push(Math.max(0, -1));\n"
+            + "var fns = [function() { return 1; }];\n"
+            + "r.push(fns[0]());\n"
+            + "r.push(h((h = function() { return 'new'; }, 0)));\n"
+            + "try { var notFn = 1; notFn(); } catch (e) { r.push(e.name); }\n"
+            + "r.join()"));
+    }
+
+    private static final String TWO_SCOPES_SCRIPT =
+        "function inc(x) { return x + 1; }\n"
+        + "var f = inc;\n"
+        + "function run(n) { var s = 0; for (var i = 0; i < n; i++) { s = f(s); } return s; }\n"
+        + "run(10)";
+
+    private static WeakReference<Scriptable> execInNewScope(Context cx, Script script) {
+        Scriptable scope = cx.initStandardObjects();
+        assertEquals("10", Context.toString(script.exec(cx, scope)));
+        return new WeakReference<Scriptable>(scope);
+    }
+
+    private static void collect(WeakReference<?> ref) {
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void compiledScriptDoesNotKeepFirstScope() {
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(9);
+            Script script = cx.compileString(TWO_SCOPES_SCRIPT, "test.js", 1, null);
+            WeakReference<Scriptable> first = execInNewScope(cx, script);
+            collect(first);
+            execInNewScope(cx, script);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void callSiteStaysLinkedInSecondScope() throws Throwable {
+        MethodType type = MethodType.methodType(Object.class, Callable.class,
+            Scriptable.class, Object[].class, Context.class, Scriptable.class);
+        CallSite site = DynamicLinker.bootstrap(MethodHandles.lookup(),
+                                                DynamicLinker.CALL, type);
+        Context cx = factory.enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Script script = cx.compileString(TWO_SCOPES_SCRIPT, "test.js", 1, null);
+            WeakReference<Scriptable> first = callInNewScope(cx, script, site);
+            MethodHandle linked = site.getTarget();
+            collect(first);
+            callInNewScope(cx, script, site);
+            assertSame(linked, site.getTarget());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static WeakReference<Scriptable> callInNewScope(Context cx, Script script,
+                                                            CallSite site)
+        throws Throwable {
+        WeakReference<Scriptable> ref = execInNewScope(cx, script);
+        Scriptable scope = ref.get();
+        Callable inc = (Callable) scope.get("inc", scope);
+        Object result = site.dynamicInvoker().invoke(
+            inc, scope, new Object[] { 1 }, cx, scope);
+        assertEquals("2", Context.toString(result));
+        return ref;
+    }
+}
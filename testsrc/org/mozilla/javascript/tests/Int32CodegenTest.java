@@ -0,0 +1,67 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.mozilla.javascript.tests.Utils.assertEvaluatesTo;
+
+import junit.framework.TestCase;
+
+/**
+ * Bitwise operators, comparisons of their results, array indices computed
+ * with them and loop counters are compiled to int arithmetic; check that the
+ * results are the same as with doubles, also when a counter overflows.
+ */
+public class Int32CodegenTest extends TestCase {
+
+    // Wrap the expression in a function, which the Optimizer types
+    private static void checkBoth(final String expected, final String expr) {
+        assertEvaluatesTo(expected, "var a = 7, b = -3; [" + expr + "].join()");
+        assertEvaluatesTo(expected, "function f(a, b) { return [" + expr + "].join(); } f(7, -3)");
+    }
+
+    public void testBitwiseOperators() {
+        checkBoth("-1,5,-6,-536870912,-2,536870911,-8,7",
+                  "a | b, a & b, a ^ b, a << 29, b >> 1, b >>> 3, ~a, ~~a");
+        checkBoth("4294967293,4294967293,-3,253", "b >>> 0, b >>> 32, (b >>> 0) | 0, (b >>> 0) & 0xff");
+        assertEvaluatesTo("0,0,0,1,-1,0", "[1.5 | 0 && 0, NaN | 0, Infinity | 0, 4294967297 | 0, '-1' | 0, -0 | 0].join()");
+    }
+
+    public void testComparisons() {
+        checkBoth("true,false,false,true,false,true",
+                  "(a & 1) == 1, (a | 0) === (b | 0), (a & b) < (a | b), ~a <= -8, (a ^ b) != -6, (b >>> 0) > 0");
+        assertEvaluatesTo("true,true,true", "[1 << 31 < 0, (1 << 31) === -2147483648, ~-1 === 0].join()");
+    }
+
+    public void testArrayIndex() {
+        checkBoth("30,10,,40", "[10, 20, 30, 40][a & 2], [10, 20, 30, 40][~~b + 3], [1][a | 8], [10, 20, 30, 40][b >>> 30]");
+    }
+
+    public void testValueOfIsCalledOnce() {
+        assertEvaluatesTo("2,2", "var n = 0; var o = { valueOf: function() { return ++n; } };\n"
+            + "var r = (o | 0) + (~o < 0 ? 1 : 0); [n, r].join()");
+        assertEvaluatesTo("1,5", "function f(o) { return (o & 7) === 5; }\n"
+            + "var n = 0; var r = f({ valueOf: function() { n++; return 13; } }) ? 5 : 0; [n, r].join()");
+    }
+
+    public void testLoopCounters() {
+        assertEvaluatesTo("15,5,40,20,10",
+            "function f(a) { var s = 0, r = [];\n"
+            + "  for (var i = 0; i < a.length; i++) s += a[i];\n"
+            + "  for (var j = 3; j >= 0; j -= 2) r.push(a[j] * 10);\n"
+            + "  return [s, i].concat(r, a[--j + 2] * 10).join(); }\n"
+            + "f([1, 2, 3, 4, 5])");
+    }
+
+    public void testLoopCounterOverflow() {
+        assertEvaluatesTo("2147483647,2147483648,2147483649,x,-2147483649,3,true",
+            "function f() { var r = [], a = []; a[2147483648] = 'x';\n"
+            + "  for (var i = 2147483647; i < 2147483650; i++) r.push(i);\n"
+            + "  r.push(a[i - 2]);\n"
+            + "  var j = -2147483648; j -= 1; r.push(j);\n"
+            + "  i = 3; r.push(i, i < 4);\n"
+            + "  return r.join(); }\n"
+            + "f()");
+    }
+}
@@ -0,0 +1,101 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks that regular expressions matched in linear time give the same
+ * results as backtracking, and do so quickly on patterns that backtracking
+ * takes exponential time on.
+ */
+public class LinearRegExpTest {
+
+    private static final ContextFactory linearFactory = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_LINEAR_REGEXP) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private static final String CASES =
+        "var cases = [\n"
+        + "  [/a(b|c)d/, 'abd acd'], [/(a|ab)(c|bcd)(d*)/, 'abcd'],\n"
+        + "  [/(a*)*b/, 'aab'], [/(a*)+?b/, 'b'], [/(?:(a)|b)*/, 'abab'],\n"
+        + "  [/(?:(a)|b){2}/, 'ab'], [/(?:(a)|(b))+?c/, 'abac'], [/(\\w+\\s?)*$/, 'one two'],\n"
+        + "  [/(x?)*?y/, 'xxy'], [/(a|)+b/, 'aab'], [/((a)|b){1,3}c/, 'babac'],\n"
+        + "  [/^(?:\\d{1,3}\\.){3}\\d{1,3}$/, '10.0.0.255'],\n"
+        + "  [/(?:A|b)+/i, 'xaBAbz'], [/^b|c$/m, 'a\\nb\\nc'], [/\\b(\\w)(\\w*)?\\b/, '!! go']\n"
+        + "];\n"
+        + "cases.map(function(c) {\n"
+        + "  var m = c[0].exec(c[1]);\n"
+        + "  return m ? m.index + ':' + m.map(String).join('|') : 'null';\n"
+        + "}).join(',')";
+
+    // Evaluates on a new thread, so that a Context some other test left
+    // entered on this one cannot stand in for a Context of the factory
+    private static String eval(ContextFactory factory, String script) {
+        FutureTask<String> task = new FutureTask<>(() -> {
+            Context cx = factory.enterContext();
+            try {
+                cx.setLanguageVersion(Context.VERSION_1_8);
+                Scriptable scope = cx.initStandardObjects();
+                return Context.toString(
+                    cx.evaluateString(scope, script, "test.js", 1, null));
+            } finally {
+                Context.exit();
+            }
+        });
+        new Thread(task).start();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void sameResultsAsBacktracking() {
+        String linear = eval(linearFactory, CASES);
+        String backtracking = eval(new ContextFactory(), CASES);
+        assertEquals(backtracking, linear);
+        assertTrue(linear.startsWith("0:abd|b,0:abcd|a|bcd|,0:aab|aa,"));
+    }
+
+    @Test
+    public void nestedRepetitionIsLinearByDefault() {
+        long start = System.currentTimeMillis();
+        assertEquals("false,false", eval(new ContextFactory(),
+            "var s = new Array(41).join('a');\n"
+            + "/(a+)+b/.test(s) + ',' + /(x|x)*y/.test(s.replace(/a/g, 'x'))"));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void backtrackingIsRejectedWhenLinearIsRequired() {
+        assertEquals("ab@AB,ab", eval(new ContextFactory(), "/([a-z]+)@\\1/i.exec('ab@AB').join()"));
+        try {
+            eval(linearFactory, "/([a-z]+)@\\1/i.exec('ab@AB')");
+            throw new AssertionError();
+        } catch (EcmaError e) {
+            assertEquals("SyntaxError", e.getName());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.mozilla.javascript.tests.Utils.assertEvaluatesTo;
+
+import java.lang.reflect.Field;
+
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.ScriptableObject;
+
+import junit.framework.TestCase;
+
+/**
+ * Arrays of only ints or only doubles keep their elements unboxed until
+ * another kind of value or a hole is stored; check that this is invisible.
+ */
+public class NativeArrayElementsKindTest extends TestCase {
+
+    public void testTransitions() {
+        assertEvaluatesTo("1,2,3,x,4.5", "var a = [1, 2]; a.push(3); a.push('x', 4.5); a.join()");
+        assertEvaluatesTo("1.5,2,3,number", "var a = [1.5]; a.push(2, 3); a.concat(typeof a[2]).join()");
+        assertEvaluatesTo("1,2,,,5,5,false", "var a = [1, 2]; a[4] = 5; [a.join(), a.length, 3 in a].join()");
+        assertEvaluatesTo("1,,3", "var a = [1, 2, 3]; delete a[1]; a.join()");
+        assertEvaluatesTo("1,2,,,true,false", "var a = [1, 2]; delete a[2]; a.length = 4; [a.join(), 1 in a, 2 in a].join()");
+        assertEvaluatesTo("1,a,3,x", "var a = [1, 2, 3]; a['1'] = 'a'; a.x = 0; a.concat(Object.keys(a)[3]).join()");
+    }
+
+    public void testLength() {
+        assertEvaluatesTo("1,2,true,3", "var a = [1, 2, 3]; a.length = 2; [a.join(), a[2] === undefined, a.push(3)].join()");
+        assertEvaluatesTo("6,,,,,,", "var a = [1, 2]; a.length = 0; a.length = 6; [a.length, a.join()].join()");
+    }
+
+    public void testMethods() {
+        assertEvaluatesTo("1,2,3", "[3, 1, 2].sort().join()");
+        assertEvaluatesTo("3,1.5,1", "[1, 1.5, 3].reverse().join()");
+        assertEvaluatesTo("1,2,3|3|1", "var a = [1, 2, 3, 4]; var p = a.pop(); [a.join(), a.length, a.shift() + p - 4].join('|')");
+        assertEvaluatesTo("2|1,3", "var a = [1, 2, 3]; [a.splice(1, 1), a].join('|')");
+        assertEvaluatesTo("0,1,2,3.5,x", "[0, 1].concat([2], [3.5], 'x').join()");
+        assertEvaluatesTo("0,1,2,3", "var a = [1, 2]; a.unshift(0); a.push(3); a.join()");
+        assertEvaluatesTo("-,1,2,,4", "var a = [1, 2]; a.length = 3; a.push(4); ['-', a.join()].join()");
+    }
+
+    public void testIndexOf() {
+        assertEvaluatesTo("-1,0,1,-1,1", "[[NaN].indexOf(NaN), [0].indexOf(-0), [1, 2, 1].indexOf(2),"
+            + " [1, 2].indexOf('2'), [1, 2, 1].lastIndexOf(2)].join()");
+        assertEvaluatesTo("3", "Array.prototype[3] = 'p'; var a = [1, 2, 3]; a.length = 5;"
+            + " var r = a.indexOf('p'); delete Array.prototype[3]; r");
+    }
+
+    public void testFrozen() {
+        assertEvaluatesTo("1,2,true", "var a = [1, 2]; Object.freeze(a); a[0] = 5; a[2] = 3; [a[0], a.length, Object.isFrozen(a)].join()");
+        assertEvaluatesTo("7,2", "var a = [1, 2]; Object.defineProperty(a, 0, {value: 7, writable: false}); a[0] = 8; a.join()");
+    }
+
+    public void testNumbersStayUnboxed() {
+        // Compiled code boxes some numbers as Double and others as Integer
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            String[] sources = { "[1, 2, 3]", "new Array(1, 2, 3)", "JSON.parse('[1, 2, 3]')",
+                "[1.5, 2, 3]", "new Array(1, 2.5)", "JSON.parse('[1.5, 2, 3]')",
+                "[1, 2, 3, 4].slice(1)", "[1, 2.5, 3].slice(1)", "[1, 2].concat([3.5], 4)",
+                "var a = [1, 2]; a.push(0.5, 3); a" };
+            for (String source : sources) {
+                Object array = _cx.evaluateString(scope, source, "test", 1, null);
+                assertTrue(source, elementsKind(array) != 0);
+            }
+            assertEvaluatesTo("2.5,3,1,4", "var a = [1, 2.5, 3].slice(1); a.push(1, 4); a.join()");
+            return null;
+        });
+    }
+
+    // 0 for an array of boxed values
+    private static int elementsKind(Object array) {
+        try {
+            Field field = NativeArray.class.getDeclaredField("elementsKind");
+            field.setAccessible(true);
+            return field.getInt(array);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void testJavaTypesArePreserved() {
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            NativeArray a = (NativeArray) _cx.newArray(scope, new Object[] {
+                Integer.valueOf(1), Integer.valueOf(2) });
+            assertEquals(Integer.valueOf(2), a.get(1));
+            NativeArray b = (NativeArray) _cx.newArray(scope, new Object[] {
+                Double.valueOf(1.0), Double.valueOf(2.5) });
+            assertEquals(Double.valueOf(2.5), b.get(1));
+            scope.put("b", scope, b);
+            _cx.evaluateString(scope, "b.push(3.5)", "test script", 1, null);
+            assertEquals(Double.valueOf(3.5), b.get(2));
+            assertEquals(3, b.size());
+            return null;
+        });
+    }
+}
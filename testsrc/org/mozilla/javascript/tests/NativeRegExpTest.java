@@ -4,8 +4,13 @@
 
 package org.mozilla.javascript.tests;
 
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.regexp.NativeRegExp;
 
 import junit.framework.TestCase;
 
@@ -20,4 +25,199 @@ public class NativeRegExpTest extends TestCase {
             return null;
         });
     }
+
+    public void testHotRegExpsMatchLikeInterpreted() {
+        final String script =
+            "var pats = [/a(b|c)d/, /(a|ab)(c|bcd)(d*)/, /x*y/, /x+?y/, /a{2,3}/, /a{2,}?b/,\n"
+            + "  /^foo/m, /bar$/m, /\\bw\\w+/, /\\Bo/, /[^a-c]+?z/, /\\d+\\.\\d*/, /a.c/i,\n"
+            + "  /((a)|(b))c/, /a\\d{0,2}?\\d/, /.*foo/, /Ab{1,2}?c/i, /(\\w+)@(\\w+)\\.com/];\n"
+            + "var ins = ['abd acd', 'abcd', 'xxxy', 'aaaa', 'aaab', 'q\\nfoo', 'bar\\nx',\n"
+            + "  'a word', 'dddz', '12.5', 'AbC', 'bc', 'a123', 'xxfoofoo', 'abBC', 'me@host.com'];\n"
+            + "function run() {\n"
+            + "  var out = [];\n"
+            + "  for (var i = 0; i < pats.length; i++) {\n"
+            + "    for (var j = 0; j < ins.length; j++) {\n"
+            + "      var m = pats[i].exec(ins[j]);\n"
+            + "      out.push(m ? m.index + ':' + m.join('|') : 'null');\n"
+            + "    }\n"
+            + "  }\n"
+            + "  return out.join(',');\n"
+            + "}\n"
+            + "var first = run();\n"
+            + "for (var k = 0; k < 200; k++) run();\n"
+            + "run() == first ? first : 'mismatch';";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final String result = Context.toString(
+                    _cx.evaluateString(scope, script, "test script", 0, null));
+            assertTrue(result.startsWith("0:abd|b,null,null,"));
+            assertTrue(result.contains(",0:me@host.com|me|host"));
+            return null;
+        });
+    }
+
+    public void testZeroRepetitionsMatchLikeInterpreted() {
+        final String script =
+            "var cases = [[/a{0}b/, 'aab'], [/a{0,0}b/, 'ab'], [/a{0}?b/, 'aab'], [/(a){0}b/, 'aab'],\n"
+            + "  [/(?:ab){0}c/, 'abc'], [/x{0}/, 'abc'], [/a{0}/g, 'aa'], [/ba{0}c?/, 'bac']];\n"
+            + "function run(re, s) { var m = re.exec(s); return m ? m.index + ':' + m.join('|') : 'null'; }\n"
+            + "var out = [];\n"
+            + "for (var i = 0; i < cases.length; i++) {\n"
+            + "  var re = cases[i][0], s = cases[i][1], interpreted = run(re, s), compiled;\n"
+            + "  for (var k = 0; k < 150; k++) compiled = run(re, s);\n"
+            + "  out.push(compiled == interpreted ? compiled : interpreted + ' != ' + compiled);\n"
+            + "}\n"
+            + "out.join(',')";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+            assertEquals("2:b,1:b,2:b,2:b|,2:c,0:,0:,0:b", Context.toString(result));
+            return null;
+        });
+    }
+
+    public void testEqualPatternsAreIndependent() {
+        final String script =
+            "var a = new RegExp('o', 'g'), b = new RegExp('o', 'g'), c = new RegExp('O', 'ig');\n"
+            + "a.exec('foo');\n"
+            + "[a === b, a.lastIndex, b.lastIndex, b.exec('foo').index, c.global, c.ignoreCase,\n"
+            + " 'FOO'.replace(c, 'x'), 'FOO'.replace(/O/g, 'y'), 'FOO'.replace('O', 'z')].join()";
+        for (int i = 0; i < 2; i++) {
+            Utils.runWithAllOptimizationLevels(_cx -> {
+                final ScriptableObject scope = _cx.initStandardObjects();
+                final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+                assertEquals("false,2,0,1,true,true,Fxx,Fyy,FzO", Context.toString(result));
+                return null;
+            });
+        }
+    }
+
+    public void testMatchesStartAfterSkippedPositions() {
+        final String script =
+            "var s = 'xx\\u017f--\\u212a  foo1 FOO22 bar';\n"
+            + "[/foo\\d+/g, /fo+\\d/i, /(?:bar|FOO)(\\d*)/, /[k]/i, /(s|\\u212a)/i, /\\d+ ?b/, /(?:\\s+f)+/]\n"
+            + "  .map(function(re) { var m = re.exec(s); return m ? m.index + ':' + m[0] : 'null'; })\n"
+            + "  .join() + ',' + s.replace(/o+\\d/g, '#') + ',' + /foo1x/.exec(s)";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+            assertEquals("8:foo1,8:foo1,13:FOO22,null,5:\u212a,16:22 b,6:  f,"
+                         + "xx\u017f--\u212a  f# FOO22 bar,null", Context.toString(result));
+            return null;
+        });
+    }
+
+    public void testLiteralReplaceAndSplitUpdateLastMatch() {
+        final String script =
+            "var s = 'a1,b22,,c3';\n"
+            + "[s.replace(/\\d+/g, '#'), RegExp.lastMatch, RegExp.leftContext, RegExp.rightContext,\n"
+            + " 'ab'.replace(/x*/g, '-'), s.split(/,/).join('|'), RegExp.leftContext,\n"
+            + " s.split(/,/, 1).join('|'), RegExp.rightContext, s.split(',', 3).length,\n"
+            + " 'ab'.replace(/(a)|(b)/g, '.'), RegExp.$1 + ':' + RegExp.$2].join(' ')";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+            assertEquals("a#,b#,,c# 3 a1,b22,,c  -a-b- a1|b22||c3 a1,b22, a1 ,c3 3 .. :b",
+                         Context.toString(result));
+            return null;
+        });
+    }
+
+    public void testStickyMatchesOnlyAtLastIndex() {
+        final String script =
+            "var re = /\\d+|[a-z]+|\\s+/y, s = 'ab 12 cd!x', toks = [], m;\n"
+            + "while ((m = re.exec(s))) toks.push(m[0] + '@' + m.index);\n"
+            + "var r = /(a|b)*c/y; r.lastIndex = 1;\n"
+            + "[toks.join(), re.lastIndex, re.sticky, re, /a/y.test('ba'), /a/.sticky,\n"
+            + " r.exec('xabc') + ':' + r.lastIndex, r.exec('xabc')].join(' ')";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+            assertEquals("ab@0, @2,12@3, @5,cd@6 0 true /\\d+|[a-z]+|\\s+/y false false abc,b:4 ",
+                         Context.toString(result));
+            return null;
+        });
+    }
+
+    public void testStringMethodsHonorSticky() {
+        final String script =
+            "var r = /b/y;\n"
+            + "['xbb'.replace(/b/gy, '#'), 'bbxb'.replace(/b/gy, '#'), 'bbxb'.replace(/b/gy, '[$&]'),\n"
+            + " 'bbxb'.replace(/b/gy, function(m) { return '$'; }),\n"
+            + " 'xb'.replace(r, '#') + ':' + r.lastIndex,\n"
+            + " (r.lastIndex = 1, 'xbb'.replace(r, '#')) + ':' + r.lastIndex,\n"
+            + " 'xbb'.match(/b/gy), 'bbxb'.match(/b/gy), (r.lastIndex = 2, 'xbb'.match(r)) + ':' + r.lastIndex,\n"
+            + " 'xbb'.match(/b/y), 'xb'.search(/b/y), 'bx'.search(/b/y), 'xbb'.split(/b/y).length,\n"
+            + " 'abc'.replace(/(?:)/gy, '-')].join(' ')";
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final Object result = _cx.evaluateString(scope, script, "test script", 0, null);
+            assertEquals("xbb ##xb [b][b]xb $$xb xb:0 x#b:2  b,b b:3  -1 0 3 -a-b-c-",
+                         Context.toString(result));
+            return null;
+        });
+    }
+
+    public void testMatchAtStoresGroupOffsets() {
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final NativeRegExp re = (NativeRegExp) _cx.evaluateString(scope,
+                "/q/.test('q'); var re = /([a-z]+)(\\d)?/g; re", "test script", 0, null);
+            final int[] groups = new int[2 * (re.getGroupCount() + 1)];
+            final String input = "ab1 cd";
+            assertTrue(re.matchAt(_cx, input, 0, true, groups));
+            assertEquals("[0, 3, 0, 2, 2, 3]", Arrays.toString(groups));
+            assertFalse(re.matchAt(_cx, input, 3, true, groups));
+            assertTrue(re.matchAt(_cx, input, 3, false, groups));
+            assertEquals("[4, 6, 4, 6, -1, -1]", Arrays.toString(groups));
+            assertFalse(re.matchAt(_cx, input, 7, false, groups));
+            assertEquals("0,q", Context.toString(_cx.evaluateString(scope,
+                "re.lastIndex + ',' + RegExp.lastMatch", "test script", 0, null)));
+            return null;
+        });
+    }
+
+    public void testSharedRegExpIsCompiledByOneOfManyThreads() throws Exception {
+        final int threadCount = 8;
+        final CyclicBarrier start = new CyclicBarrier(threadCount);
+        final Object[] regexps = new Object[threadCount];
+        final Throwable[] failures = new Throwable[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                Context cx = Context.enter();
+                try {
+                    cx.setOptimizationLevel(9);
+                    ScriptableObject scope = cx.initStandardObjects();
+                    start.await();
+                    regexps[index] = cx.evaluateString(scope,
+                        "var re = new RegExp('q(a+|b)z');\n"
+                        + "for (var i = 0; i < 40; i++) re.exec('xxqaaaz');\n"
+                        + "re", "test script", 0, null);
+                } catch (Throwable e) {
+                    failures[index] = e;
+                } finally {
+                    Context.exit();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new AssertionError(failure);
+            }
+        }
+        // All threads share the compiled form, which is now generated code
+        Field reField = NativeRegExp.class.getDeclaredField("re");
+        reField.setAccessible(true);
+        Object compiled = reField.get(regexps[0]);
+        assertSame(compiled, reField.get(regexps[threadCount - 1]));
+        Field matcherField = compiled.getClass().getDeclaredField("matcher");
+        matcherField.setAccessible(true);
+        assertNotNull(matcherField.get(compiled));
+    }
 }
@@ -27,6 +27,16 @@ public class NativeStringTest extends TestCase {
         assertEvaluates("hello", "String.toLowerCase('HELLO')"); // first patch proposed to #492359 was breaking this
     }
 
+    public void testIndexOfAppendedString() {
+        // s is a Latin-1 string built by appending, which indexOf searches
+        // without flattening
+        assertEvaluates("28,387,-1,7,0,30,true,-1",
+            "var s = ''; for (var i = 0; i < 100; i++) s += 'ab' + i;\n"
+            + "[s.indexOf('b9'), s.indexOf('b99'), s.indexOf('\\u20ac'), s.indexOf('', 7),\n"
+            + " s.indexOf('ab', -3), s.indexOf('ab1', 10), s.includes('b50a'),\n"
+            + " s.indexOf('b99', 388)].join()");
+    }
+
     private void assertEvaluates(final Object expected, final String source) {
         Utils.runWithAllOptimizationLevels(cx -> {
             final Scriptable scope = cx.initStandardObjects();
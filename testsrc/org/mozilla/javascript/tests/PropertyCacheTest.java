@@ -0,0 +1,182 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.PropertyCache;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks that property accesses through inline caches behave exactly like
+ * uncached ones, whatever the objects seen at an access site.
+ */
+public class PropertyCacheTest {
+
+    @Before
+    public void enableStatistics() {
+        PropertyCache.setStatisticsEnabled(true);
+        PropertyCache.resetStatistics();
+    }
+
+    @After
+    public void disableStatistics() {
+        PropertyCache.setStatisticsEnabled(false);
+    }
+
+    private static Object eval(String script) {
+        return eval(script, 9);
+    }
+
+    private static Object eval(String script, int optimizationLevel) {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(optimizationLevel);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            Scriptable scope = cx.initStandardObjects();
+            return cx.evaluateString(scope, script, "test.js", 1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void monomorphicSite() {
+        assertEquals("60", Context.toString(eval(
+            "function P(x) { this.x = x; }\n"
+            + "var sum = 0;\n"
+            + "for (var i = 1; i <= 3; i++) { var p = new P(i * 10); sum += p.x; }\n"
+            + "sum")));
+        assertTrue(PropertyCache.getHitCount() > 0);
+    }
+
+    @Test
+    public void polymorphicAndMegamorphicSites() {
+        assertEquals("1,2,3,4,5,6,7,8", Context.toString(eval(
+            "var arr = []; arr.a = 8;\n"
+            + "var objs = [{a: 1}, {b: 0, a: 2}, {c: 0, a: 3}, {d: 0, a: 4},\n"
+            + "            {e: 0, a: 5}, {f: 0, a: 6}, {g: 0, a: 7}, arr];\n"
+            + "var r = [];\n"
+            + "for (var n = 0; n < 3; n++) {\n"
+            + "  r = [];\n"
+            + "  for (var i = 0; i < objs.length; i++) { r.push(objs[i].a); }\n"
+            + "}\n"
+            + "r.join()")));
+        // Four shapes fill the cache and the fifth makes it megamorphic.
+        // The remaining 19 accesses, including those to the array, go
+        // straight to ScriptRuntime.
+        assertEquals(0, PropertyCache.getHitCount());
+        assertEquals(19, PropertyCache.getMegamorphicCount());
+        assertEquals(24, PropertyCache.getMissCount());
+    }
+
+    @Test
+    public void shapeChangeInvalidatesEntry() {
+        assertEquals("1,undefined,3", Context.toString(eval(
+            "function get(o) { return o.x; }\n"
+            + "var o = {x: 1, y: 2};\n"
+            + "var r = [get(o)];\n"
+            + "delete o.x;\n"
+            + "r.push(typeof get(o));\n"
+            + "o.x = 3;\n"
+            + "r.push(get(o));\n"
+            + "r.join()")));
+    }
+
+    @Test
+    public void prototypeAndAccessorProperties() {
+        assertEquals("proto,own,got", Context.toString(eval(
+            "function get(o) { return o.x; }\n"
+            + "var proto = {x: 'proto'};\n"
+            + "var o = Object.create(proto);\n"
+            + "var r = [get(o)];\n"
+            + "o.x = 'own';\n"
+            + "r.push(get(o));\n"
+            + "Object.defineProperty(o, 'x', { get: function() { return 'got'; } });\n"
+            + "r.push(get(o));\n"
+            + "r.join()")));
+    }
+
+    @Test
+    public void readOnlyAndFrozenObjects() {
+        assertEquals("1,1,2", Context.toString(eval(
+            "function set(o, v) { o.x = v; }\n"
+            + "var a = {x: 0}, b = {x: 0}, c = {x: 0};\n"
+            + "set(a, 1); set(b, 1); set(c, 1);\n"
+            + "Object.defineProperty(a, 'x', {writable: false});\n"
+            + "Object.freeze(b);\n"
+            + "set(a, 2); set(b, 2); set(c, 2);\n"
+            + "[a.x, b.x, c.x].join()")));
+    }
+
+    @Test
+    public void compoundAssignment() {
+        assertEquals("15", Context.toString(eval(
+            "var o = {n: 0};\n"
+            + "for (var i = 1; i <= 5; i++) { o.n += i; }\n"
+            + "o.n")));
+    }
+
+    @Test
+    public void primitiveAndNonPlainReceivers() {
+        assertEquals("3,2,f", Context.toString(eval(
+            "function len(o) { return o.length; }\n"
+            + "[len('abc'), len([1, 2]), (function f() {}).name].join()")));
+    }
+
+    @Test
+    public void interpretedSites() {
+        assertEquals("60,1,undefined,4,15", Context.toString(eval(
+            "function P(x) { this.x = x; }\n"
+            + "var sum = 0;\n"
+            + "for (var i = 1; i <= 3; i++) { var p = new P(i * 10); sum += p.x; }\n"
+            + "function get(o) { return o.x; }\n"
+            + "var o = {x: 1, y: 2};\n"
+            + "var r = [sum, get(o)];\n"
+            + "delete o.x;\n"
+            + "r.push(typeof get(o));\n"
+            + "Object.defineProperty(o, 'x', { get: function() { return 4; } });\n"
+            + "r.push(get(o));\n"
+            + "var n = {n: 0};\n"
+            + "for (var i = 1; i <= 5; i++) { n.n += i; }\n"
+            + "r.push(n.n);\n"
+            + "r.join()", -1)));
+        assertTrue(PropertyCache.getHitCount() > 0);
+    }
+
+    @Test
+    public void interpretedMethodCalls() {
+        assertEquals("1,2,3,missing", Context.toString(eval(
+            "var objs = [{f: function() { return 1; }},\n"
+            + "            {f: function() { return this.v; }, v: 2},\n"
+            + "            Object.create({f: function() { return 3; }})];\n"
+            + "var r = [];\n"
+            + "for (var i = 0; i < objs.length; i++) { r.push(objs[i].f()); }\n"
+            + "try { ({f: 1}).f(); } catch (e) { r.push('missing'); }\n"
+            + "r.join()", -1)));
+    }
+
+    @Test
+    public void interpretedCachesAreSizedBySites() throws Exception {
+        Object f = eval(
+            "function f(o) { o.a = o.b + o.c; return o.m(); }\n"
+            + "f({b: 1, c: 2, m: function() { return this.a; }});\n"
+            + "f", -1);
+        Field idataField = f.getClass().getDeclaredField("idata");
+        idataField.setAccessible(true);
+        Object idata = idataField.get(f);
+        Field cachesField = idata.getClass().getDeclaredField("itsPropertyCaches");
+        cachesField.setAccessible(true);
+        // o.a =, o.b, o.c and o.m()
+        assertEquals(4, ((Object[]) cachesField.get(idata)).length);
+    }
+}
@@ -0,0 +1,68 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.mozilla.javascript.tests.Utils.assertEvaluatesTo;
+
+import junit.framework.TestCase;
+
+/**
+ * Object literals that do not escape their function are replaced by local
+ * variables at optimization levels above 0; check that this is invisible,
+ * and that literals which do escape are left alone.
+ */
+public class ScalarReplacementTest extends TestCase {
+
+    public void testLocalObject() {
+        assertEvaluatesTo("130", "function f(n) { var s = 0;\n"
+            + "  for (var i = 0; i < n; i++) { var p = {x: i, y: 2}; p.x = p.x + p.y; s += p.x * p.y; }\n"
+            + "  return s; }\n"
+            + "f(10)");
+        assertEvaluatesTo("a,b,3", "function f() { var p = {s: 'a', t: null, 'u.v': 1};\n"
+            + "  p.t = 'b'; p['u.v'] = 3; return [p.s, p.t, p['u.v']].join(); }\n"
+            + "f()");
+    }
+
+    public void testEvaluationOrder() {
+        assertEvaluatesTo("x,y,z,2", "function f(log) {\n"
+            + "  var p = {a: log.push('x'), b: log.push('y')}; log.push('z'); return log.join() + ',' + p.b; }\n"
+            + "f([])");
+    }
+
+    public void testEscapingObjects() {
+        assertEvaluatesTo("1,true", "function f() { var p = {x: 1}; var q = p; q.x = 2; return [p.x - 1, p === q].join(); }\n"
+            + "f()");
+        assertEvaluatesTo("2", "function f() { var p = {x: 1, get: function() { return this.x + 1; }}; return p.get(); }\n"
+            + "f()");
+        assertEvaluatesTo("[object Object],", "function f() { var p = {x: 1}; return [p.toString(), p.y].join(); }\n"
+            + "f()");
+        assertEvaluatesTo("1", "var saved; function keep(o) { saved = o; }\n"
+            + "function f() { var p = {x: 1}; keep(p); p.x = 5; return saved.x - 4; }\n"
+            + "f()");
+        assertEvaluatesTo("3", "function f() { var p = {x: 1}; p.x++; p.x += 1; return p.x; }\n"
+            + "f()");
+        assertEvaluatesTo("false", "function f() { var p = {x: 1}; delete p.x; return 'x' in p; }\n"
+            + "f()");
+    }
+
+    public void testUseBeforeAssignment() {
+        assertEvaluatesTo("1", "function f() { for (var i = 0; i < 2; i++) { if (i) return p.x; var p = {x: 1}; } }\n"
+            + "f()");
+        assertEvaluatesTo("TypeError", "function f(c) { try { if (c) { var p = {x: 1}; } return p.x; }\n"
+            + "  catch (e) { return e.name; } }\n"
+            + "f(false)");
+        assertEvaluatesTo("1,TypeError", "function f(c) { try { switch (c) { case 1: var p = {x: 1}; case 2: return p.x; } }\n"
+            + "  catch (e) { return e.name; } }\n"
+            + "[f(1), f(2)].join()");
+        assertEvaluatesTo("TypeError", "function f() { try { var p = {x: p.x}; return p.x; } catch (e) { return e.name; } }\n"
+            + "f()");
+    }
+
+    public void testLoopReassignment() {
+        assertEvaluatesTo("0,1,2", "function f() { var r = [];\n"
+            + "  for (var i = 0; i < 3; i++) { var p = {x: i}; r.push(p.x); } return r.join(); }\n"
+            + "f()");
+    }
+}
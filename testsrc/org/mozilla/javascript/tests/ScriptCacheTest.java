@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptCache;
+import org.mozilla.javascript.Scriptable;
+
+public class ScriptCacheTest {
+
+    private ExecutorService executor;
+    private ScriptCache cache;
+    private ContextFactory factory;
+
+    @Before
+    public void setUp() {
+        // Use threads of our own, so that no Context is already entered
+        executor = Executors.newFixedThreadPool(4);
+        // Room for "1 + 2 + 3" and one of the shorter sources
+        cache = new ScriptCache(14);
+        factory = new ContextFactory();
+        factory.setScriptCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private Future<Script> submit(String source, int optimizationLevel) {
+        return submit(source, optimizationLevel, 0);
+    }
+
+    private Future<Script> submit(final String source, final int optimizationLevel,
+                                  final int tieredThreshold) {
+        return executor.submit(new Callable<Script>() {
+            @Override
+            public Script call() {
+                Context cx = factory.enterContext();
+                try {
+                    cx.setOptimizationLevel(optimizationLevel);
+                    cx.setTieredCompilationThreshold(tieredThreshold);
+                    Script script = cx.compileString(source, "test.js", 1, null);
+                    Scriptable scope = cx.initStandardObjects();
+                    assertEquals("6", Context.toString(script.exec(cx, scope)));
+                    return script;
+                } finally {
+                    Context.exit();
+                }
+            }
+        });
+    }
+
+    private Script compile(String source, int optimizationLevel) throws Exception {
+        return submit(source, optimizationLevel).get();
+    }
+
+    @Test
+    public void sameSourceSharesScript() throws Exception {
+        Script first = compile("1 + 2 + 3", 9);
+        assertSame(first, compile("1 + 2 + 3", 9));
+        assertSame(first, compile(new String("1 + 2 + 3"), 9));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2.0 / 3.0, cache.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void settingsAreKeys() throws Exception {
+        Script compiled = compile("1 + 2 + 3", 9);
+        Script interpreted = compile("1 + 2 + 3", -1);
+        assertNotSame(compiled, interpreted);
+        assertSame(interpreted, compile("1 + 2 + 3", -1));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void tieringIsKey() throws Exception {
+        factory.setScriptCache(cache = new ScriptCache(1000));
+        String source = "function f(x) { return x + 1; }\n"
+            + "var n = 0; for (var i = 0; i < 6; i++) n = f(n); n";
+        Script tiered = submit(source, 9, 5).get();
+        long compilations = factory.getCompilationCount();
+        assertEquals(1, compilations);
+        Script interpreted = submit(source, -1, 0).get();
+        assertNotSame(tiered, interpreted);
+        // Must stay interpreted, so running it compiles nothing
+        assertEquals(compilations, factory.getCompilationCount());
+        assertNotSame(tiered, submit(source, 9, 3).get());
+        assertSame(tiered, submit(source, 9, 5).get());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        Script a = compile("1 + 2 + 3", 0);
+        Script b = compile("2 + 4", 0);
+        assertSame(a, compile("1 + 2 + 3", 0));
+        compile("3 + 3", 0);
+        assertEquals(2, cache.size());
+        assertEquals(14, cache.getSourceLength());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, compile("1 + 2 + 3", 0));
+        assertNotSame(b, compile("2 + 4", 0));
+    }
+
+    @Test
+    public void boundIsTotalSourceLength() throws Exception {
+        compile("1 + 2 + 3", 0);
+        compile("2 + 4", 0);
+        // Longer than the whole cache, so never kept
+        Script big = compile("1 + 1 + 1 + 1 + 1 + 1", 0);
+        assertNotSame(big, compile("1 + 1 + 1 + 1 + 1 + 1", 0));
+        assertEquals(2, cache.size());
+        assertEquals(14, cache.getSourceLength());
+        // Evicts both of the others
+        compile("  1 + 2 + 3  ", 0);
+        assertEquals(1, cache.size());
+        assertEquals(13, cache.getSourceLength());
+        assertEquals(2, cache.getEvictionCount());
+        cache.clear();
+        assertEquals(0, cache.getSourceLength());
+    }
+
+    @Test
+    public void concurrentCompilation() throws Exception {
+        List<Future<Script>> results = new ArrayList<Future<Script>>();
+        for (int i = 0; i < 20; i++) {
+            results.add(submit("3 * 2", 9));
+        }
+        for (Future<Script> f : results) {
+            f.get();
+        }
+        assertEquals(20, cache.getHitCount() + cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+}
@@ -64,6 +64,66 @@ public class SortingTest {
         hybridSort(randomArray(10000));
     }
 
+    private void timSort(Object[] expected)
+    {
+        Object[] after = Arrays.copyOf(expected, expected.length);
+        Sorting.timSort(after, new IntComparator());
+        Arrays.sort(expected, new IntComparator());
+        assertArrayEquals(expected, after);
+    }
+
+    @Test
+    public void testTimSort()
+    {
+        timSort(randomArray(10));
+        timSort(forwardArray(100));
+        timSort(reverseArray(100));
+        timSort(randomArray(100));
+        timSort(sameArray(100));
+        timSort(new Object[] {});
+        timSort(randomArray(10000));
+        timSort(randomArray(BIG_ARRAY));
+        timSort(sawtoothArray(BIG_ARRAY, 1000));
+        timSort(smallRangeArray(BIG_ARRAY, 10));
+    }
+
+    @Test
+    public void testTimSortIsStable()
+    {
+        // Sort pairs by their first element only
+        Integer[][] a = new Integer[10000][];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = new Integer[] { rand.nextInt(50), i };
+        }
+        Sorting.timSort(a, new Comparator<Object>() {
+            @Override
+            public int compare(Object x, Object y) {
+                return ((Integer[])x)[0].compareTo(((Integer[])y)[0]);
+            }
+        });
+        for (int i = 1; i < a.length; i++) {
+            int c = a[i - 1][0].compareTo(a[i][0]);
+            assertEquals(true, c < 0 || (c == 0 && a[i - 1][1] < a[i][1]));
+        }
+    }
+
+    @Test
+    public void testTimSortInconsistentComparator()
+    {
+        // Must neither throw nor lose elements
+        Integer[] a = randomArray(BIG_ARRAY);
+        Object[] after = Arrays.copyOf(a, a.length);
+        Sorting.timSort(after, new Comparator<Object>() {
+            @Override
+            public int compare(Object x, Object y) {
+                return rand.nextInt(3) - 1;
+            }
+        });
+        Arrays.sort(a, new IntComparator());
+        Arrays.sort(after, new IntComparator());
+        assertArrayEquals(a, after);
+    }
+
     @Test
     public void testMedian()
     {
@@ -115,6 +175,15 @@ public class SortingTest {
     }
     */
 
+    @Test
+    public void testBenchRandomTimSort()
+    {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Object[] a = Arrays.copyOf(bigRandom, bigRandom.length);
+            Sorting.timSort(a, new IntComparator());
+        }
+    }
+
     @Test
     public void testBenchReverseHybrid()
     {
@@ -151,6 +220,15 @@ public class SortingTest {
         }
     }
 
+    @Test
+    public void testBenchSequentialTimSort()
+    {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Object[] a = forwardArray(BIG_ARRAY);
+            Sorting.timSort(a, new IntComparator());
+        }
+    }
+
     @Test
     public void testBenchSequentialJavaUtil()
     {
@@ -187,6 +265,24 @@ public class SortingTest {
         return a;
     }
 
+    private static Integer[] sawtoothArray(int length, int period)
+    {
+        Integer[] a = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = i % period;
+        }
+        return a;
+    }
+
+    private static Integer[] smallRangeArray(int length, int range)
+    {
+        Integer[] a = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = rand.nextInt(range);
+        }
+        return a;
+    }
+
     private static Integer[] sameArray(int length)
     {
         Integer[] a = new Integer[length];
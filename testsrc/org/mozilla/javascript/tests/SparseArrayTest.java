@@ -0,0 +1,90 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.mozilla.javascript.tests.Utils.assertEvaluatesTo;
+
+import java.lang.reflect.Field;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.UintMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Elements of sparse arrays are kept in pages rather than as properties;
+ * check that they still behave as properties.
+ */
+public class SparseArrayTest extends TestCase {
+
+    public void testElements() {
+        assertEvaluatesTo("20000,true,false,z,5,19999", "var a = new Array(20000); a[5] = 1; a[19999] = 'z';"
+            + " [a.length, 5 in a, 6 in a, a[19999], Object.keys(a)].join()");
+        assertEvaluatesTo("3000001|2|3|4|0,1,50000,3000000", "var a = [1, 2]; a[50000] = 3; a[3000000] = 4;"
+            + " [a.length, a[1], a[50000], a[3000000], Object.keys(a)].join('|')");
+        assertEvaluatesTo("false,3000000,1", "var a = [1, 2]; a[50000] = 3; a[3000000] = 4; delete a[50000];"
+            + " [50000 in a, a.indexOf(4), a.lastIndexOf(2)].join()");
+        assertEvaluatesTo("100001|1|2|5000000000,100000", "var a = []; a[5e9] = 1; a[100000] = 2;"
+            + " [a.length, a[5e9], a[100000], Object.keys(a)].join('|')");
+    }
+
+    public void testElementsMoveToPageWhenDense() {
+        assertEvaluatesTo("299,200,true,false,149,100000,100149",
+            "var a = []; a[100299] = 99; for (var i = 0; i < 299; i++) a[100000 + i] = i; delete a[100001];"
+            + " var r = [Object.keys(a).length, a[100200], 100002 in a, 100001 in a]; a.length = 100150;"
+            + " r.concat(Object.keys(a).length, Object.keys(a)[0], a.lastIndexOf(149)).join()");
+    }
+
+    public void testIsolatedElementsAllocateNoPage() {
+        Utils.runWithAllOptimizationLevels(_cx -> {
+            final ScriptableObject scope = _cx.initStandardObjects();
+            final NativeArray isolated = (NativeArray) _cx.evaluateString(scope,
+                "var a = []; a[60000000] = 1; for (var i = 1; i <= 200; i++) a[i * 30000] = i; a",
+                "test script", 1, null);
+            assertNull(field(isolated, "pages"));
+            // One count per page that an element would be in
+            assertEquals(201, ((UintMap) field(isolated, "slotCounts")).size());
+            assertEquals("199", Context.toString(_cx.evaluateString(scope,
+                "a[5970000]", "test script", 1, null)));
+
+            final NativeArray clustered = (NativeArray) _cx.evaluateString(scope,
+                "var b = []; for (var i = 0; i < 200; i++) b[100000 + i] = i; b",
+                "test script", 1, null);
+            assertNotNull(field(clustered, "pages"));
+            return null;
+        });
+    }
+
+    private static Object field(NativeArray array, String name) {
+        try {
+            Field field = NativeArray.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(array);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void testLength() {
+        assertEvaluatesTo("10,1,false,5", "var a = new Array(20000); a[5] = 1; a[19999] = 'z'; a.length = 10;"
+            + " [a.length, a[5], 19999 in a, Object.keys(a)].join()");
+        assertEvaluatesTo("100,,70001,70001", "var a = []; a[70000] = 'x'; a.length = 100; var r = [a.length, a[70000]];"
+            + " a[70000] = 'y'; r.concat(a.length, a.join().length).join()");
+    }
+
+    public void testAttributes() {
+        assertEvaluatesTo("g", "var a = []; a[70000] = 1; a.__defineGetter__(70000, function() { return 'g'; }); a[70000]");
+        assertEvaluatesTo("1,2,100000,100001,100002", "var a = []; a[100000] = 1;"
+            + " Object.defineProperty(a, 100001, {value: 2, enumerable: true});"
+            + " [a[100000], a[100001], Object.keys(a), a.length].join()");
+        assertEvaluatesTo("2,,100001", "var a = []; a[100000] = 1; Object.preventExtensions(a); a[100000] = 2; a[100002] = 3;"
+            + " [a[100000], a[100002], a.length].join()");
+        assertEvaluatesTo("1,true", "var a = []; a[100000] = 1; Object.freeze(a); a[100000] = 5; [a[100000], Object.isFrozen(a)].join()");
+        assertEvaluatesTo("{\"value\":1,\"writable\":true,\"enumerable\":true,\"configurable\":true}",
+            "var a = new Array(20000); a[100000] = 1; JSON.stringify(Object.getOwnPropertyDescriptor(a, 100000))");
+    }
+}
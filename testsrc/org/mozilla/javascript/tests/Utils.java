@@ -9,6 +9,8 @@ import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.Scriptable;
 
+import junit.framework.Assert;
+
 
 /**
  * Misc utilities to make test code easier.
@@ -61,6 +63,20 @@ public class Utils
         }
     }
 
+    /**
+     * Evaluates the script with all available optimization levels and
+     * checks that its string value is the expected one.
+     */
+    public static void assertEvaluatesTo(final String expected, final String script)
+    {
+        runWithAllOptimizationLevels(cx -> {
+            final Scriptable scope = cx.initStandardObjects();
+            final Object result = cx.evaluateString(scope, script, "test script", 1, null);
+            Assert.assertEquals(script, expected, Context.toString(result));
+            return null;
+        });
+    }
+
     /**
      * Execute the provided script in a fresh context as "myScript.js".
      * @param script the script code
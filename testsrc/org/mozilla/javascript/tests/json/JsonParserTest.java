@@ -5,6 +5,12 @@
 package org.mozilla.javascript.tests.json;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 
 import org.junit.After;
 import org.junit.Before;
@@ -254,6 +260,109 @@ public class JsonParserTest {
         parser.parseValue("1.");
     }
 
+    @Test
+    public void shouldParseFromReader() throws Exception {
+        String json = "{\"a\": [1, -2.5, 1e3, true, false, null], \"b\\u0041\": \"x\\ny\", \"c\": {}}";
+        // Read one character at a time so that every token spans reads
+        NativeObject actual = (NativeObject) parser.parse(new OneCharReader(json));
+        NativeArray a = (NativeArray) actual.get("a", actual);
+        assertEquals(6, a.getLength());
+        assertEquals(-2.5, a.get(1, a));
+        assertEquals(1000, a.get(2, a));
+        assertEquals(null, a.get(5, a));
+        assertEquals("x\ny", actual.get("bA", actual));
+    }
+
+    @Test
+    public void shouldParseLongTokensFromReader() throws Exception {
+        StringBuilder sb = new StringBuilder("[\"");
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i % 100 == 0 ? "\\t" : "x");
+        }
+        sb.append("\", 12345678901234567890]");
+        NativeArray actual = (NativeArray) parser.parse(new StringReader(sb.toString()));
+        assertEquals(sb.substring(2, sb.length() - 24).replace("\\t", "\t"), actual.get(0, actual));
+        assertEquals(1.2345678901234567e19, actual.get(1, actual));
+    }
+
+    @Test
+    public void shouldReportOffsetInWholeSource() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append(' ');
+        }
+        String src = sb.append("1 2").toString();
+        String expected = "Expected end of stream at char 20002";
+        try {
+            parser.parseValue(src);
+            fail();
+        } catch (ParseException ex) {
+            assertEquals(expected, ex.getMessage());
+        }
+        try {
+            parser.parse(new StringReader(src));
+            fail();
+        } catch (ParseException ex) {
+            assertEquals(expected, ex.getMessage());
+        }
+        try {
+            parser.parse(new OneCharReader(src));
+            fail();
+        } catch (ParseException ex) {
+            assertEquals(expected, ex.getMessage());
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldFailToParseTruncatedReader() throws Exception {
+        parser.parse(new OneCharReader("[1, \"abc"));
+    }
+
+    @Test
+    public void shouldShareKeysOfObjects() throws Exception {
+        NativeArray actual = (NativeArray) parser.parseValue(
+                "[{\"id\": 1, \"n\\u0041me\": \"x\"}, {\"id\": 2, \"nAme\": \"y\", \"0\": 3}, {\"nAme\": \"z\"}]");
+        NativeObject first = (NativeObject) actual.get(0, actual);
+        NativeObject second = (NativeObject) actual.get(1, actual);
+        NativeObject third = (NativeObject) actual.get(2, actual);
+        assertSame(key(first, "id"), key(second, "id"));
+        assertSame(key(first, "nAme"), key(second, "nAme"));
+        assertSame(key(second, "nAme"), key(third, "nAme"));
+        assertEquals("x", first.get("nAme", first));
+        assertEquals(3, second.get(0, second));
+    }
+
+    private static Object key(NativeObject object, String name) {
+        for (Object id : object.getIds()) {
+            if (name.equals(id)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    private static class OneCharReader extends Reader {
+        private final String src;
+        private int pos;
+
+        OneCharReader(String src) {
+            this.src = src;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (pos == src.length()) {
+                return -1;
+            }
+            cbuf[off] = src.charAt(pos++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     private String str(char... chars) {
         return new String(chars);
     }
@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.NativeJSON;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+public class JsonStringifyTest {
+    private Context cx;
+    private Scriptable scope;
+
+    @Before
+    public void setUp() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    @After
+    public void tearDown() {
+        Context.exit();
+    }
+
+    private String stringify(String script) {
+        return Context.toString(cx.evaluateString(scope, script, "test", 1, null));
+    }
+
+    @Test
+    public void shouldStringifyValues() {
+        assertEquals("{\"a\":[1,2.5,\"x\",null,true,false,null],\"b\":{}}",
+                stringify("JSON.stringify({a: [1, 2.5, 'x', undefined, true, false, NaN], b: {}, c: undefined, d: function() {}})"));
+        assertEquals("[]", stringify("JSON.stringify([])"));
+        assertEquals("undefined", stringify("typeof JSON.stringify(undefined)"));
+        assertEquals("\"abc\"", stringify("JSON.stringify(new String('abc'))"));
+    }
+
+    @Test
+    public void shouldEscapeStrings() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\u0001\\u001fe\\t\"",
+                stringify("JSON.stringify('a\"b\\\\c\\nd\\u0001\\u001fe\\t')"));
+        assertEquals("{\"k\\\"\":\"é€\"}", stringify("JSON.stringify({'k\"': 'é€'})"));
+        // Strings built by appending are quoted from their buffers
+        assertEquals("\"\\\"x0\\\"x1\\\"x2\\\"x3\\\"x4\\\"x5\\\"x6\\\"x7\\\"x8\\\"x9\\té\"",
+                stringify("var s = ''; for (var i = 0; i < 10; i++) s += '\"x' + i; JSON.stringify(s + '\\té')"));
+    }
+
+    @Test
+    public void shouldIndent() {
+        assertEquals("{\n  \"a\": [\n    1,\n    {}\n  ],\n  \"b\": []\n}",
+                stringify("JSON.stringify({a: [1, {}], b: []}, null, 2)"));
+        assertEquals("{\n--\"a\": 1\n}", stringify("JSON.stringify({a: 1, b: undefined}, null, '--')"));
+    }
+
+    @Test
+    public void shouldApplyToJsonAndReplacer() {
+        assertEquals("{\"a\":\"A\",\"b\":[\"B1\"]}",
+                stringify("JSON.stringify({a: {toJSON: function(k) { return k.toUpperCase(); }},"
+                        + " b: [{toJSON: function(k) { return 'B' + (+k + 1); }}]})"));
+        assertEquals("{\"a\":2,\"c\":6}",
+                stringify("JSON.stringify({a: 1, b: 2, c: 3}, function(k, v) { return k == 'b' ? undefined : k ? v * 2 : v; })"));
+        assertEquals("{\"c\":3,\"a\":1}", stringify("JSON.stringify({a: 1, b: 2, c: 3}, ['c', 'a'])"));
+    }
+
+    @Test
+    public void shouldSeeToJsonAddedWhileStringifying() {
+        // A toJSON added to a prototype must take effect for the values
+        // that follow, however alike they are
+        assertEquals("[{\"a\":1,\"b\":1},{\"a\":2},\"P\",\"P\"]",
+                stringify("var x = {a: 1, b: 1}, y = {a: 2, b: 2}, z = {a: 3, b: 3}, w = {a: 4}, r;"
+                        + " Object.defineProperty(y, 'b', {enumerable: true,"
+                        + "   get: function() { Object.prototype.toJSON = function() { return 'P'; }; }});"
+                        + " try { r = JSON.stringify([x, y, z, w]); } finally { delete Object.prototype.toJSON; }"
+                        + " r"));
+        assertEquals("[[1],[2],\"A\",{\"x\":\"O\"}]",
+                stringify("var a = [1], b = [], c = [3], o = Object.create({}), r;"
+                        + " Object.defineProperty(b, 0, {enumerable: true,"
+                        + "   get: function() { Array.prototype.toJSON = function() { return 'A'; }; return 2; }});"
+                        + " o.x = {toJSON: function() { return 'O'; }};"
+                        + " try { r = JSON.stringify([a, b, c, o]); } finally { delete Array.prototype.toJSON; }"
+                        + " r"));
+    }
+
+    @Test(expected = EcmaError.class)
+    public void shouldFailOnCycles() {
+        stringify("var a = [1]; a.push({x: a}); JSON.stringify(a)");
+    }
+
+    @Test
+    public void shouldStringifyToWriter() throws Exception {
+        Object value = cx.evaluateString(scope,
+                "var a = []; for (var i = 0; i < 5000; i++) a.push({i: i, s: 's' + i}); a", "test", 1, null);
+        StringWriter writer = new StringWriter();
+        NativeJSON.stringify(cx, scope, value, null, null, writer);
+        assertEquals(NativeJSON.stringify(cx, scope, value, null, null), writer.toString());
+
+        writer = new StringWriter();
+        NativeJSON.stringify(cx, scope, Undefined.instance, null, null, writer);
+        assertEquals("", writer.toString());
+    }
+
+    @Test
+    public void shouldStringifyToOutputStreamInUtf8() throws Exception {
+        Object value = cx.evaluateString(scope,
+                "var a = []; for (var i = 0; i < 5000; i++) a.push({i: i, s: '\u00e9\u20ac' + i}); a", "test", 1, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NativeJSON.stringify(cx, scope, value, null, null, out);
+        assertEquals(NativeJSON.stringify(cx, scope, value, null, null),
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}